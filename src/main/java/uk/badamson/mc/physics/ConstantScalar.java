@@ -72,6 +72,22 @@ public final class ConstantScalar extends AbstractTimeVaryingScalar {
         return value;
     }
 
+    /**
+     * {@inheritDoc}
+     * <ul>
+     * <li>The value at all points in time is the {@linkplain #getValue() constant
+     * value} of this function.</li>
+     * </ul>
+     *
+     * @param t
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public final double atNanos(final long t) {
+        return value;
+    }
+
     /**
      * <p>
      * The value of the scalar at all points in time.
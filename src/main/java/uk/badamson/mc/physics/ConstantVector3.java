@@ -77,6 +77,22 @@ public final class ConstantVector3 extends AbstractTimeVaryingVector3 {
         return value;
     }
 
+    /**
+     * {@inheritDoc}
+     * <ul>
+     * <li>The value at all points in time is the {@linkplain #getValue() constant
+     * value} of this function.</li>
+     * </ul>
+     *
+     * @param t
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public final ImmutableVector3 atNanos(final long t) {
+        return value;
+    }
+
     /**
      * <p>
      * The value of the 3D vector property at all points in time.
@@ -88,4 +104,43 @@ public final class ConstantVector3 extends AbstractTimeVaryingVector3 {
         return value;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This places the {@linkplain #getValue() constant value} in the array for
+     * all the points in time.
+     * </p>
+     *
+     * @param start
+     *            {@inheritDoc}
+     * @param step
+     *            {@inheritDoc}
+     * @param count
+     *            {@inheritDoc}
+     * @param result
+     *            {@inheritDoc}
+     * @param offset
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final void sample(@NonNull final Duration start, @NonNull final Duration step, final int count,
+            @NonNull final double[] result, final int offset) {
+        HarmonicTimeBasis.requireSampleArguments(start, step, count, result, offset);
+        final double x = value.get(0);
+        final double y = value.get(1);
+        final double z = value.get(2);
+        for (int k = 0, j = offset; k < count; ++k, j += 3) {
+            result[j] = x;
+            result[j + 1] = y;
+            result[j + 2] = z;
+        }
+    }
+
 }
@@ -121,12 +121,67 @@ public final class HarmonicScalar extends AbstractTimeVaryingScalar {
     @Override
     public final double at(@NonNull final Duration t) {
         Objects.requireNonNull(t, "t");
-        final Duration tr = t.minus(t0);
-        final double ts = tr.getSeconds() + 1E-9 * tr.getNano();
+        return atOffset(HarmonicTimeBasis.secondsSince(t, t0));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This computes the same value as the {@link #at(Duration)} method, but
+     * does not allocate any objects.
+     * </p>
+     *
+     * @param t
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public final double atNanos(final long t) {
+        return atOffset(HarmonicTimeBasis.secondsSince(t, t0));
+    }
+
+    private double atOffset(final double ts) {
         final double tau = we * ts;
         final double alpha = wh * ts;
+        final double exp = Math.exp(tau);
         final double tau2 = tau * tau;
-        return f0 + f1 * tau + f2 * tau2 + Math.exp(tau) * (fc * Math.cos(alpha) + fs * Math.sin(alpha));
+        return at(tau, tau2, exp * Math.cos(alpha), exp * Math.sin(alpha));
+    }
+
+    private double at(final double tau, final double tau2, final double expCos, final double expSin) {
+        return f0 + f1 * tau + f2 * tau2 + fc * expCos + fs * expSin;
+    }
+
+    /**
+     * <p>
+     * The value of this scalar for the point in time of a given basis.
+     * </p>
+     * <p>
+     * This produces the same value as the {@link #at(Duration)} method for the
+     * {@linkplain HarmonicTimeBasis#getTime() time} of the basis, but uses the
+     * basis function values of the basis rather than computing them.
+     * </p>
+     *
+     * @param basis
+     *            The values of the basis functions of this scalar.
+     * @return The value of the scalar.
+     * @throws NullPointerException
+     *             If {@code basis} is null.
+     * @throws IllegalArgumentException
+     *             If {@code basis} is not the {@linkplain
+     *             HarmonicTimeBasis#isBasisOf(HarmonicScalar) basis of} this
+     *             scalar.
+     * @throws IllegalStateException
+     *             If the {@linkplain HarmonicTimeBasis#getTime() time} of the
+     *             {@code basis} is null.
+     */
+    public final double at(@NonNull final HarmonicTimeBasis basis) {
+        Objects.requireNonNull(basis, "basis");
+        if (!basis.isBasisOf(this)) {
+            throw new IllegalArgumentException("Not the basis of this scalar");
+        }
+        return at(basis.getTau(), basis.getTau2(), basis.getExpCos(), basis.getExpSin());
     }
 
     /**
@@ -0,0 +1,383 @@
+package uk.badamson.mc.physics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.time.Duration;
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * <p>
+ * The basis functions of {@linkplain HarmonicVector3 harmonic vectors} and
+ * {@linkplain HarmonicScalar harmonic scalars}, for a particular point in time.
+ * </p>
+ * <p>
+ * Harmonic functions are weighted sums of the basis functions 1, &tau;,
+ * &tau;<sup>2</sup>, e<sup>&tau;</sup>cos &alpha; and e<sup>&tau;</sup>sin
+ * &alpha;, where &tau; = &omega;<sub>e</sub>(t - t<sub>0</sub>), and &alpha; =
+ * &omega;<sub>h</sub>(t - t<sub>0</sub>). All the harmonic functions that have
+ * the same {@linkplain #getT0() time origin}, {@linkplain #getWe() exponential
+ * frequency} and {@linkplain #getWh() harmonic frequency} share the same basis
+ * function values. Computing the basis function values requires computing
+ * transcendental functions, which is expensive compared to computing the
+ * weighted sum. Hence when several harmonic functions that share their basis
+ * are evaluated for the same point in time, such as the position, velocity and
+ * acceleration of a
+ * {@linkplain uk.badamson.mc.physics.kinematics.HarmonicParticleTrajectory
+ * harmonic trajectory}, it is more efficient to compute the basis function
+ * values once, using an object of this class, and evaluate all the functions
+ * from those values.
+ * </p>
+ * <p>
+ * Objects of this class are mutable, so they can be reused for many points in
+ * time without allocating objects.
+ * </p>
+ *
+ * @see HarmonicVector3#at(HarmonicTimeBasis)
+ * @see HarmonicScalar#at(HarmonicTimeBasis)
+ */
+@NotThreadSafe
+public final class HarmonicTimeBasis {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final Duration t0;
+    private final double we;
+    private final double wh;
+    private Duration t;
+    private double tau;
+    private double tau2;
+    private double expCos;
+    private double expSin;
+
+    /**
+     * <p>
+     * Construct a basis with given parameters, for which the time has not yet
+     * been {@linkplain #setTime(Duration) set}.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>This has the given attribute values.</li>
+     * <li>The {@linkplain #getTime() time} of this basis is null.</li>
+     * </ul>
+     * </section>
+     *
+     * @param t0
+     *            The t<sub>0</sub> parameter; the time origin.
+     * @param we
+     *            The &omega;<sub>e</sub> parameter; the exponential frequency term.
+     *            This has units of Herz (Hz, s<sup>-1</sup>).
+     * @param wh
+     *            The &omega;<sub>h</sub> parameter; the harmonic frequency term.
+     *            This has units of Herz (Hz, s<sup>-1</sup>).
+     * @throws NullPointerException
+     *             If {@code t0} is null.
+     */
+    public HarmonicTimeBasis(@NonNull final Duration t0, final double we, final double wh) {
+        this.t0 = Objects.requireNonNull(t0, "t0");
+        this.we = we;
+        this.wh = wh;
+    }
+
+    /**
+     * <p>
+     * The value of the e<sup>&tau;</sup>cos &alpha; basis function, for the
+     * current {@linkplain #getTime() time}.
+     * </p>
+     *
+     * @return the value
+     * @throws IllegalStateException
+     *             If the {@linkplain #getTime() time} is null.
+     */
+    public final double getExpCos() {
+        requireTime();
+        return expCos;
+    }
+
+    /**
+     * <p>
+     * The value of the e<sup>&tau;</sup>sin &alpha; basis function, for the
+     * current {@linkplain #getTime() time}.
+     * </p>
+     *
+     * @return the value
+     * @throws IllegalStateException
+     *             If the {@linkplain #getTime() time} is null.
+     */
+    public final double getExpSin() {
+        requireTime();
+        return expSin;
+    }
+
+    /**
+     * <p>
+     * The t<sub>0</sub> parameter; the time origin.
+     * </p>
+     *
+     * @return the the time origin; not null.
+     */
+    public final Duration getT0() {
+        return t0;
+    }
+
+    /**
+     * <p>
+     * The &tau; basis function, for the current {@linkplain #getTime() time}.
+     * </p>
+     *
+     * @return the value
+     * @throws IllegalStateException
+     *             If the {@linkplain #getTime() time} is null.
+     */
+    public final double getTau() {
+        requireTime();
+        return tau;
+    }
+
+    /**
+     * <p>
+     * The &tau;<sup>2</sup> basis function, for the current {@linkplain #getTime()
+     * time}.
+     * </p>
+     *
+     * @return the value
+     * @throws IllegalStateException
+     *             If the {@linkplain #getTime() time} is null.
+     */
+    public final double getTau2() {
+        requireTime();
+        return tau2;
+    }
+
+    /**
+     * <p>
+     * The point in time for which this has the values of the basis functions.
+     * </p>
+     *
+     * @return the point in time, expressed as the duration since an (implied)
+     *         epoch; or null if the time has not yet been
+     *         {@linkplain #setTime(Duration) set}.
+     */
+    public final Duration getTime() {
+        return t;
+    }
+
+    /**
+     * <p>
+     * The &omega;<sub>e</sub> parameter; the exponential frequency term.
+     * </p>
+     * <p>
+     * This has units of Herz (Hz, s<sup>-1</sup>).
+     * </p>
+     *
+     * @return the exponential frequency term
+     */
+    public final double getWe() {
+        return we;
+    }
+
+    /**
+     * <p>
+     * The &omega;<sub>h</sub> parameter; the harmonic frequency term.
+     * </p>
+     * <p>
+     * This has units of Herz (Hz, s<sup>-1</sup>).
+     * </p>
+     *
+     * @return the harmonic frequency term
+     */
+    public final double getWh() {
+        return wh;
+    }
+
+    /**
+     * <p>
+     * Whether this is the basis of a given harmonic scalar.
+     * </p>
+     * <p>
+     * That is the case if, and only if, the scalar has the same
+     * {@linkplain #getT0() time origin}, {@linkplain #getWe() exponential
+     * frequency} and {@linkplain #getWh() harmonic frequency} as this basis.
+     * </p>
+     *
+     * @param f
+     *            The scalar of interest.
+     * @return whether the basis of the scalar
+     * @throws NullPointerException
+     *             If {@code f} is null.
+     */
+    public final boolean isBasisOf(@NonNull final HarmonicScalar f) {
+        return isBasisOf(f.getT0(), f.getWe(), f.getWh());
+    }
+
+    /**
+     * <p>
+     * Whether this is the basis of a given harmonic vector.
+     * </p>
+     * <p>
+     * That is the case if, and only if, the vector has the same
+     * {@linkplain #getT0() time origin}, {@linkplain #getWe() exponential
+     * frequency} and {@linkplain #getWh() harmonic frequency} as this basis.
+     * </p>
+     *
+     * @param f
+     *            The vector of interest.
+     * @return whether the basis of the vector
+     * @throws NullPointerException
+     *             If {@code f} is null.
+     */
+    public final boolean isBasisOf(@NonNull final HarmonicVector3 f) {
+        return isBasisOf(f.getT0(), f.getWe(), f.getWh());
+    }
+
+    private boolean isBasisOf(final Duration t0f, final double wef, final double whf) {
+        return Double.doubleToLongBits(we) == Double.doubleToLongBits(wef)
+                && Double.doubleToLongBits(wh) == Double.doubleToLongBits(whf) && t0.equals(t0f);
+    }
+
+    private void requireTime() {
+        if (t == null) {
+            throw new IllegalStateException("Time not set");
+        }
+    }
+
+    /**
+     * <p>
+     * The time, in seconds, from a time origin to a given point in time.
+     * </p>
+     * <p>
+     * This computes the same value as converting the duration
+     * {@code t.minus(t0)} to seconds, but does not allocate any objects.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the duration since an (implied)
+     *            epoch.
+     * @param t0
+     *            The time origin, expressed as the duration since the same epoch.
+     * @return the time offset, in seconds
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code t} is null.</li>
+     *             <li>If {@code t0} is null.</li>
+     *             </ul>
+     */
+    public static double secondsSince(@NonNull final Duration t, @NonNull final Duration t0) {
+        return secondsSince(t.getSeconds(), t.getNano(), t0.getSeconds(), t0.getNano());
+    }
+
+    /**
+     * <p>
+     * The time, in seconds, from a time origin to a given point in time expressed
+     * in nanoseconds.
+     * </p>
+     * <p>
+     * This computes the same value as converting the duration
+     * {@code Duration.ofNanos(t).minus(t0)} to seconds, but does not allocate any
+     * objects.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the number of nanoseconds since
+     *            an (implied) epoch.
+     * @param t0
+     *            The time origin, expressed as the duration since the same epoch.
+     * @return the time offset, in seconds
+     * @throws NullPointerException
+     *             If {@code t0} is null.
+     */
+    public static double secondsSince(final long t, @NonNull final Duration t0) {
+        return secondsSince(t, t0.getSeconds(), t0.getNano());
+    }
+
+    /*
+     * The times are expressed as a number of seconds and a nanosecond adjustment
+     * in the range 0 to 999 999 999, in the manner of Duration.
+     */
+    static double secondsSince(final long tSeconds, final int tNano, final long t0Seconds, final int t0Nano) {
+        final long nanos = (long) tNano - t0Nano;
+        final long seconds = tSeconds - t0Seconds + Math.floorDiv(nanos, NANOS_PER_SECOND);
+        return seconds + 1E-9 * Math.floorMod(nanos, NANOS_PER_SECOND);
+    }
+
+    static double secondsSince(final long t, final long t0Seconds, final int t0Nano) {
+        return secondsSince(Math.floorDiv(t, NANOS_PER_SECOND), (int) Math.floorMod(t, NANOS_PER_SECOND), t0Seconds,
+                t0Nano);
+    }
+
+    /*
+     * Checks the preconditions of the TimeVaryingVector3.sample method, for that
+     * method and the implementations that override it.
+     */
+    static void requireSampleArguments(final Duration start, final Duration step, final int count,
+            final double[] result, final int offset) {
+        Objects.requireNonNull(start, "start");
+        Objects.requireNonNull(step, "step");
+        Objects.requireNonNull(result, "result");
+        if (count < 0) {
+            throw new IllegalArgumentException("count " + count);
+        }
+        if (offset < 0 || result.length - offset < 3L * count) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + ", count " + count + ", result.length " + result.length);
+        }
+    }
+
+    /**
+     * <p>
+     * Compute the values of the basis functions for a given point in time.
+     * </p>
+     * <p>
+     * The method does not recompute the values if the given time is equal to the
+     * current {@linkplain #getTime() time}.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #getTime() time} of this basis is the given time.</li>
+     * </ul>
+     * </section>
+     *
+     * @param t
+     *            The point in time, expressed as the duration since an (implied)
+     *            epoch.
+     * @throws NullPointerException
+     *             If {@code t} is null.
+     */
+    public final void setTime(@NonNull final Duration t) {
+        Objects.requireNonNull(t, "t");
+        if (t.equals(this.t)) {
+            return;
+        }
+        final double ts = secondsSince(t, t0);
+        tau = we * ts;
+        tau2 = tau * tau;
+        final double alpha = wh * ts;
+        final double exp = Math.exp(tau);
+        expCos = exp * Math.cos(alpha);
+        expSin = exp * Math.sin(alpha);
+        this.t = t;
+    }
+
+}
@@ -68,6 +68,13 @@ import uk.badamson.mc.math.ImmutableVector3;
 @Immutable
 public final class HarmonicVector3 extends AbstractTimeVaryingVector3 {
 
+    /*
+     * The number of samples computed using recurrence relations before computing
+     * the basis functions directly again, which bounds the accumulation of
+     * rounding errors.
+     */
+    private static final int SAMPLE_RESTART_INTERVAL = 64;
+
     private final Duration t0;
     private final ImmutableVector3[] termsArray;
     private final double we;
@@ -128,14 +135,121 @@ public final class HarmonicVector3 extends AbstractTimeVaryingVector3 {
     @Override
     public final ImmutableVector3 at(@NonNull final Duration t) {
         Objects.requireNonNull(t, "t");
-        final Duration tr = t.minus(t0);
-        final double ts = tr.getSeconds() + 1E-9 * tr.getNano();
+        return atOffset(HarmonicTimeBasis.secondsSince(t, t0));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This computes the same value as the {@link #at(Duration)} method, but
+     * allocates only the returned vector.
+     * </p>
+     *
+     * @param t
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public final @NonNull ImmutableVector3 atNanos(final long t) {
+        return atOffset(HarmonicTimeBasis.secondsSince(t, t0));
+    }
+
+    private ImmutableVector3 atOffset(final double ts) {
         final double tau = we * ts;
         final double alpha = wh * ts;
         final double exp = Math.exp(tau);
         final double tau2 = tau * tau;
-        final double weights[] = { 1.0, tau, tau2, exp * Math.cos(alpha), exp * Math.sin(alpha) };
-        return ImmutableVector3.weightedSum(weights, termsArray);
+        return at(tau, tau2, exp * Math.cos(alpha), exp * Math.sin(alpha));
+    }
+
+    private ImmutableVector3 at(final double tau, final double tau2, final double expCos, final double expSin) {
+        final ImmutableVector3 f0 = termsArray[0];
+        final ImmutableVector3 f1 = termsArray[1];
+        final ImmutableVector3 f2 = termsArray[2];
+        final ImmutableVector3 fc = termsArray[3];
+        final ImmutableVector3 fs = termsArray[4];
+        return ImmutableVector3.create(
+                f0.get(0) + tau * f1.get(0) + tau2 * f2.get(0) + expCos * fc.get(0) + expSin * fs.get(0),
+                f0.get(1) + tau * f1.get(1) + tau2 * f2.get(1) + expCos * fc.get(1) + expSin * fs.get(1),
+                f0.get(2) + tau * f1.get(2) + tau2 * f2.get(2) + expCos * fc.get(2) + expSin * fs.get(2));
+    }
+
+    /**
+     * <p>
+     * The value of this vector for the point in time of a given basis.
+     * </p>
+     * <p>
+     * This produces the same value as the {@link #at(Duration)} method for the
+     * {@linkplain HarmonicTimeBasis#getTime() time} of the basis, but uses the
+     * basis function values of the basis rather than computing them.
+     * </p>
+     *
+     * @param basis
+     *            The values of the basis functions of this vector.
+     * @return The value of the vector; not null.
+     * @throws NullPointerException
+     *             If {@code basis} is null.
+     * @throws IllegalArgumentException
+     *             If {@code basis} is not the {@linkplain
+     *             HarmonicTimeBasis#isBasisOf(HarmonicVector3) basis of} this
+     *             vector.
+     * @throws IllegalStateException
+     *             If the {@linkplain HarmonicTimeBasis#getTime() time} of the
+     *             {@code basis} is null.
+     */
+    public final @NonNull ImmutableVector3 at(@NonNull final HarmonicTimeBasis basis) {
+        requireBasis(basis);
+        return at(basis.getTau(), basis.getTau2(), basis.getExpCos(), basis.getExpSin());
+    }
+
+    /**
+     * <p>
+     * Compute the value of this vector for the point in time of a given basis,
+     * placing the components of the vector in a given array.
+     * </p>
+     * <p>
+     * This computes the same value as the {@link #at(HarmonicTimeBasis)} method,
+     * but does not allocate any objects.
+     * </p>
+     *
+     * @param basis
+     *            The values of the basis functions of this vector.
+     * @param result
+     *            The array in which to place the components of the vector.
+     * @param offset
+     *            The position in {@code result} of the first (x) component of the
+     *            vector; the y and z components follow it.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code basis} is null.</li>
+     *             <li>If {@code result} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             If {@code basis} is not the {@linkplain
+     *             HarmonicTimeBasis#isBasisOf(HarmonicVector3) basis of} this
+     *             vector.
+     * @throws IllegalStateException
+     *             If the {@linkplain HarmonicTimeBasis#getTime() time} of the
+     *             {@code basis} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code offset} is negative or {@code offset + 3} exceeds the
+     *             length of {@code result}.
+     */
+    public final void at(@NonNull final HarmonicTimeBasis basis, @NonNull final double[] result, final int offset) {
+        requireBasis(basis);
+        Objects.requireNonNull(result, "result");
+        if (offset < 0 || result.length < offset + 3) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", result.length " + result.length);
+        }
+        final double tau = basis.getTau();
+        final double tau2 = basis.getTau2();
+        final double expCos = basis.getExpCos();
+        final double expSin = basis.getExpSin();
+        for (int i = 0; i < 3; ++i) {
+            result[offset + i] = termsArray[0].get(i) + tau * termsArray[1].get(i) + tau2 * termsArray[2].get(i)
+                    + expCos * termsArray[3].get(i) + expSin * termsArray[4].get(i);
+        }
     }
 
     /**
@@ -316,4 +430,89 @@ public final class HarmonicVector3 extends AbstractTimeVaryingVector3 {
         result = prime * result + (int) (temp ^ temp >>> 32);
         return result;
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This uses recurrence relations for the exponential and sinusoidal basis
+     * functions, so it computes transcendental functions only for a small
+     * fraction of the points in time. It allocates no objects for each point in
+     * time.
+     * </p>
+     *
+     * @param start
+     *            {@inheritDoc}
+     * @param step
+     *            {@inheritDoc}
+     * @param count
+     *            {@inheritDoc}
+     * @param result
+     *            {@inheritDoc}
+     * @param offset
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final void sample(@NonNull final Duration start, @NonNull final Duration step, final int count,
+            @NonNull final double[] result, final int offset) {
+        HarmonicTimeBasis.requireSampleArguments(start, step, count, result, offset);
+        final double[] f = new double[15];
+        for (int j = 0; j < 5; ++j) {
+            for (int i = 0; i < 3; ++i) {
+                f[3 * j + i] = termsArray[j].get(i);
+            }
+        }
+        sample(f, 0, HarmonicTimeBasis.secondsSince(start, t0), step.getSeconds() + 1E-9 * step.getNano(), we, wh,
+                count, result, offset);
+    }
+
+    /*
+     * The coefficients f0, f1, f2, fc and fs are packed as 15 consecutive
+     * elements of f, starting at fOffset. The arguments are not checked.
+     */
+    static void sample(final double[] f, final int fOffset, final double ts0, final double h, final double we,
+            final double wh, final int count, final double[] result, final int offset) {
+        /*
+         * e^tau (cos alpha + i sin alpha) is multiplied by the complex factor
+         * e^(we h) (cos (wh h) + i sin (wh h)) for each step.
+         */
+        final double expStep = Math.exp(we * h);
+        final double cosStep = expStep * Math.cos(wh * h);
+        final double sinStep = expStep * Math.sin(wh * h);
+
+        double expCos = 0.0;
+        double expSin = 0.0;
+        for (int k = 0, r = offset; k < count; ++k, r += 3) {
+            final double ts = ts0 + k * h;
+            if (k % SAMPLE_RESTART_INTERVAL == 0) {
+                final double exp = Math.exp(we * ts);
+                final double alpha = wh * ts;
+                expCos = exp * Math.cos(alpha);
+                expSin = exp * Math.sin(alpha);
+            } else {
+                final double c = expCos * cosStep - expSin * sinStep;
+                expSin = expCos * sinStep + expSin * cosStep;
+                expCos = c;
+            }
+            final double tau = we * ts;
+            final double tau2 = tau * tau;
+            for (int i = 0, q = fOffset; i < 3; ++i, ++q) {
+                result[r + i] = f[q] + tau * f[q + 3] + tau2 * f[q + 6] + expCos * f[q + 9] + expSin * f[q + 12];
+            }
+        }
+    }
+
+    private void requireBasis(final HarmonicTimeBasis basis) {
+        Objects.requireNonNull(basis, "basis");
+        if (!basis.isBasisOf(this)) {
+            throw new IllegalArgumentException("Not the basis of this vector");
+        }
+    }
+
 }
@@ -0,0 +1,438 @@
+package uk.badamson.mc.physics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.time.Duration;
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.ImmutableVector3;
+
+/**
+ * <p>
+ * A fixed size, mutable sequence of {@linkplain HarmonicVector3 harmonic
+ * vectors}, stored compactly in arrays of primitive values.
+ * </p>
+ * <p>
+ * Each {@link HarmonicVector3} object refers to several other objects: its
+ * {@linkplain HarmonicVector3#getT0() time origin} and its five coefficient
+ * vectors. Simulations of large numbers of particles therefore use much memory
+ * for object headers and references, and evaluating the values of all the
+ * vectors visits memory in an irregular pattern. This class instead stores the
+ * time origin, frequencies and 15 coefficient components of each element as
+ * primitive values in a few arrays, and can
+ * {@linkplain #at(Duration, double[], int) evaluate all the elements} in one
+ * pass through those arrays, without allocating any objects.
+ * </p>
+ * <p>
+ * Initially, every element is the zero vector for all points in time, with a
+ * zero {@linkplain #getT0(int) time origin} and zero frequencies.
+ * </p>
+ *
+ * @see HarmonicVector3
+ */
+@NotThreadSafe
+public final class HarmonicVector3Array {
+
+    /*
+     * The number of coefficient components of each element: f0, f1, f2, fc and
+     * fs, each with 3 components.
+     */
+    private static final int COEFFICIENTS = 15;
+
+    private final long[] t0Seconds;
+    private final int[] t0Nano;
+    private final double[] we;
+    private final double[] wh;
+    private final double[] f;
+
+    /**
+     * <p>
+     * Construct a sequence of a given number of harmonic vectors, each of which
+     * is initially zero.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #getSize() size} of this sequence is the given
+     * size.</li>
+     * <li>Every element of this sequence is zero for all points in time.</li>
+     * </ul>
+     * </section>
+     *
+     * @param size
+     *            The number of elements.
+     * @throws IllegalArgumentException
+     *             If {@code size} is negative.
+     */
+    public HarmonicVector3Array(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size " + size);
+        }
+        t0Seconds = new long[size];
+        t0Nano = new int[size];
+        we = new double[size];
+        wh = new double[size];
+        f = new double[COEFFICIENTS * size];
+    }
+
+    /**
+     * <p>
+     * Compute the values of all the elements of this sequence for a given point
+     * in time, placing the components of the vectors in a given packed array.
+     * </p>
+     * <p>
+     * Component <var>i</var> of the value of element <var>j</var> is placed in
+     * {@code result[offset + 3 * j + i]}. The values are the same as those that
+     * the {@link HarmonicVector3#at(Duration)} method of the
+     * {@linkplain #get(int) elements} computes. The method allocates no objects.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the duration since an (implied)
+     *            epoch.
+     * @param result
+     *            The array in which to place the components of the vectors.
+     * @param offset
+     *            The position in {@code result} of the first (x) component of the
+     *            first vector.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code t} is null.</li>
+     *             <li>If {@code result} is null.</li>
+     *             </ul>
+     * @throws IndexOutOfBoundsException
+     *             If {@code offset} is negative or {@code offset + 3 * size}
+     *             exceeds the length of {@code result}.
+     */
+    public final void at(@NonNull final Duration t, @NonNull final double[] result, final int offset) {
+        Objects.requireNonNull(t, "t");
+        requireResult(result, offset);
+        final long tSeconds = t.getSeconds();
+        final int tNano = t.getNano();
+        for (int j = 0, r = offset; j < we.length; ++j, r += 3) {
+            atOffset(j, HarmonicTimeBasis.secondsSince(tSeconds, tNano, t0Seconds[j], t0Nano[j]), result, r);
+        }
+    }
+
+    /**
+     * <p>
+     * The value of one element of this sequence at a given point in time.
+     * </p>
+     * <p>
+     * This computes the same value as the {@link HarmonicVector3#at(Duration)}
+     * method of the {@linkplain #get(int) copy} of the element, but without
+     * allocating objects other than the value it returns.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @param t
+     *            The point in time, expressed as the duration since an (implied)
+     *            epoch.
+     * @return the value; not null
+     * @throws NullPointerException
+     *             If {@code t} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final @NonNull ImmutableVector3 at(final int index, @NonNull final Duration t) {
+        Objects.checkIndex(index, we.length);
+        Objects.requireNonNull(t, "t");
+        return atOffset(index,
+                HarmonicTimeBasis.secondsSince(t.getSeconds(), t.getNano(), t0Seconds[index], t0Nano[index]));
+    }
+
+    /**
+     * <p>
+     * Compute the values of all the elements of this sequence for a given point
+     * in time, expressed as a number of nanoseconds, placing the components of
+     * the vectors in a given packed array.
+     * </p>
+     * <p>
+     * This computes the same values as the
+     * {@link #at(Duration, double[], int)} method for the equivalent duration.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the number of nanoseconds since
+     *            an (implied) epoch.
+     * @param result
+     *            The array in which to place the components of the vectors.
+     * @param offset
+     *            The position in {@code result} of the first (x) component of the
+     *            first vector.
+     * @throws NullPointerException
+     *             If {@code result} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code offset} is negative or {@code offset + 3 * size}
+     *             exceeds the length of {@code result}.
+     */
+    public final void atNanos(final long t, @NonNull final double[] result, final int offset) {
+        requireResult(result, offset);
+        for (int j = 0, r = offset; j < we.length; ++j, r += 3) {
+            atOffset(j, HarmonicTimeBasis.secondsSince(t, t0Seconds[j], t0Nano[j]), result, r);
+        }
+    }
+
+    /**
+     * <p>
+     * The value of one element of this sequence at a given point in time,
+     * expressed as a number of nanoseconds.
+     * </p>
+     * <p>
+     * This computes the same value as the {@link #at(int, Duration)} method for
+     * the equivalent duration.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @param t
+     *            The point in time, expressed as the number of nanoseconds since
+     *            an (implied) epoch.
+     * @return the value; not null
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final @NonNull ImmutableVector3 atNanos(final int index, final long t) {
+        Objects.checkIndex(index, we.length);
+        return atOffset(index, HarmonicTimeBasis.secondsSince(t, t0Seconds[index], t0Nano[index]));
+    }
+
+    /*
+     * Uses the same expressions as HarmonicVector3, so computes identical values.
+     */
+    private ImmutableVector3 atOffset(final int j, final double ts) {
+        final double[] v = new double[3];
+        atOffset(j, ts, v, 0);
+        return ImmutableVector3.create(v[0], v[1], v[2]);
+    }
+
+    private void atOffset(final int j, final double ts, final double[] result, final int r) {
+        final double tau = we[j] * ts;
+        final double alpha = wh[j] * ts;
+        final double exp = Math.exp(tau);
+        final double tau2 = tau * tau;
+        final double expCos = exp * Math.cos(alpha);
+        final double expSin = exp * Math.sin(alpha);
+        for (int i = 0, q = COEFFICIENTS * j; i < 3; ++i, ++q) {
+            result[r + i] = component(q, tau, tau2, expCos, expSin);
+        }
+    }
+
+    private double component(final int q, final double tau, final double tau2, final double expCos,
+            final double expSin) {
+        return f[q] + tau * f[q + 3] + tau2 * f[q + 6] + expCos * f[q + 9] + expSin * f[q + 12];
+    }
+
+    /**
+     * <p>
+     * A copy of one element of this sequence.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @return the element; not null
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final @NonNull HarmonicVector3 get(final int index) {
+        final int q = COEFFICIENTS * Objects.checkIndex(index, we.length);
+        return new HarmonicVector3(getT0(index), vector(q), vector(q + 3), vector(q + 6), vector(q + 9),
+                vector(q + 12), we[index], wh[index]);
+    }
+
+    /**
+     * <p>
+     * The number of elements in this sequence.
+     * </p>
+     *
+     * @return the size; not negative
+     */
+    public final int getSize() {
+        return we.length;
+    }
+
+    /**
+     * <p>
+     * The t<sub>0</sub> parameter of one element of this sequence; the time
+     * origin.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @return the time origin; not null
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final @NonNull Duration getT0(final int index) {
+        return Duration.ofSeconds(t0Seconds[index], t0Nano[index]);
+    }
+
+    /**
+     * <p>
+     * The &omega;<sub>e</sub> parameter of one element of this sequence; the
+     * exponential frequency term.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @return the exponential frequency term
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final double getWe(final int index) {
+        return we[index];
+    }
+
+    /**
+     * <p>
+     * The &omega;<sub>h</sub> parameter of one element of this sequence; the
+     * harmonic frequency term.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @return the harmonic frequency term
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final double getWh(final int index) {
+        return wh[index];
+    }
+
+    private void requireResult(final double[] result, final int offset) {
+        Objects.requireNonNull(result, "result");
+        if (offset < 0 || result.length - offset < 3L * we.length) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + ", size " + we.length + ", result.length " + result.length);
+        }
+    }
+
+    /**
+     * <p>
+     * Compute the values of one element of this sequence for a sequence of
+     * evenly spaced points in time, placing the components of the vectors in a
+     * given packed array.
+     * </p>
+     * <p>
+     * This computes the same values as the
+     * {@link HarmonicVector3#sample(Duration, Duration, int, double[], int)}
+     * method of the {@linkplain #get(int) copy} of the element, without
+     * allocating any objects.
+     * </p>
+     *
+     * @param index
+     *            The index of the element.
+     * @param start
+     *            The first point in time.
+     * @param step
+     *            The interval between successive points in time.
+     * @param count
+     *            The number of points in time.
+     * @param result
+     *            The array in which to place the components of the vectors.
+     * @param offset
+     *            The position in {@code result} of the first (x) component of the
+     *            first vector.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code start} is null.</li>
+     *             <li>If {@code step} is null.</li>
+     *             <li>If {@code result} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             If {@code count} is negative.
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.</li>
+     *             <li>If {@code offset} is negative or
+     *             {@code offset + 3 * count} exceeds the length of
+     *             {@code result}.</li>
+     *             </ul>
+     */
+    public final void sample(final int index, @NonNull final Duration start, @NonNull final Duration step,
+            final int count, @NonNull final double[] result, final int offset) {
+        Objects.checkIndex(index, we.length);
+        HarmonicTimeBasis.requireSampleArguments(start, step, count, result, offset);
+        final double ts0 = HarmonicTimeBasis.secondsSince(start.getSeconds(), start.getNano(), t0Seconds[index],
+                t0Nano[index]);
+        HarmonicVector3.sample(f, COEFFICIENTS * index, ts0, step.getSeconds() + 1E-9 * step.getNano(), we[index],
+                wh[index], count, result, offset);
+    }
+
+    /**
+     * <p>
+     * Change one element of this sequence.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #get(int) element} at the given index is
+     * {@linkplain HarmonicVector3#equals(Object) equal to} the given
+     * vector.</li>
+     * <li>The other elements are unchanged.</li>
+     * </ul>
+     * </section>
+     *
+     * @param index
+     *            The index of the element.
+     * @param v
+     *            The new value of the element.
+     * @throws NullPointerException
+     *             If {@code v} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code index} is negative or is not less than the
+     *             {@linkplain #getSize() size} of this sequence.
+     */
+    public final void set(final int index, @NonNull final HarmonicVector3 v) {
+        Objects.requireNonNull(v, "v");
+        final int q = COEFFICIENTS * Objects.checkIndex(index, we.length);
+        final Duration t0 = v.getT0();
+        t0Seconds[index] = t0.getSeconds();
+        t0Nano[index] = t0.getNano();
+        we[index] = v.getWe();
+        wh[index] = v.getWh();
+        set(q, v.getF0());
+        set(q + 3, v.getF1());
+        set(q + 6, v.getF2());
+        set(q + 9, v.getFc());
+        set(q + 12, v.getFs());
+    }
+
+    private void set(final int q, final ImmutableVector3 x) {
+        for (int i = 0; i < 3; ++i) {
+            f[q + i] = x.get(i);
+        }
+    }
+
+    private ImmutableVector3 vector(final int q) {
+        return ImmutableVector3.create(f[q], f[q + 1], f[q + 2]);
+    }
+}
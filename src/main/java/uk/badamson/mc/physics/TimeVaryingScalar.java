@@ -45,4 +45,27 @@ public interface TimeVaryingScalar {
      *             If {@code t} is null.
      */
     public double at(@NonNull Duration t);
+
+    /**
+     * <p>
+     * The value of the scalar property for a given point in time, expressed as
+     * a number of nanoseconds.
+     * </p>
+     * <p>
+     * This provides the same value as the {@link #at(Duration)} method for the
+     * equivalent duration. It enables code that evaluates the property for many
+     * points in time to avoid creating a {@link Duration} for each point in
+     * time. The default implementation simply converts the time to a duration
+     * and delegates to the {@link #at(Duration)} method; implementations are
+     * encouraged to provide a more efficient implementation.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the number of nanoseconds since
+     *            an (implied) epoch.
+     * @return The value of the scalar property.
+     */
+    public default double atNanos(final long t) {
+        return at(Duration.ofNanos(t));
+    }
 }
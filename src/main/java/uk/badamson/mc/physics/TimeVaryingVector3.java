@@ -46,4 +46,82 @@ public interface TimeVaryingVector3 {
      *             If {@code t} is null.
      */
     public @NonNull ImmutableVector3 at(@NonNull Duration t);
+
+    /**
+     * <p>
+     * The value of the vector property for a given point in time, expressed as
+     * a number of nanoseconds.
+     * </p>
+     * <p>
+     * This provides the same value as the {@link #at(Duration)} method for the
+     * equivalent duration. It enables code that evaluates the property for many
+     * points in time to avoid creating a {@link Duration} for each point in
+     * time. The default implementation simply converts the time to a duration
+     * and delegates to the {@link #at(Duration)} method; implementations are
+     * encouraged to provide a more efficient implementation.
+     * </p>
+     *
+     * @param t
+     *            The point in time, expressed as the number of nanoseconds since
+     *            an (implied) epoch.
+     * @return The value of the vector property; not null.
+     */
+    public default @NonNull ImmutableVector3 atNanos(final long t) {
+        return at(Duration.ofNanos(t));
+    }
+
+    /**
+     * <p>
+     * Compute the values of the vector property for a sequence of equally spaced
+     * points in time, placing the components of the vectors in a given packed
+     * array.
+     * </p>
+     * <p>
+     * Component <var>i</var> of the value for point in time <var>k</var>, which
+     * is {@code start + k * step}, is placed in
+     * {@code result[offset + 3 * k + i]}. The values are the same as those that
+     * the {@link #at(Duration)} method computes, to within rounding error.
+     * </p>
+     * <p>
+     * The default implementation simply calls the {@link #at(Duration)} method
+     * for each point in time. Implementations are encouraged to provide a more
+     * efficient implementation that does not allocate objects for each point in
+     * time.
+     * </p>
+     *
+     * @param start
+     *            The first point in time, expressed as the duration since an
+     *            (implied) epoch.
+     * @param step
+     *            The interval between points in time.
+     * @param count
+     *            The number of points in time.
+     * @param result
+     *            The array in which to place the components of the vectors.
+     * @param offset
+     *            The position in {@code result} of the first (x) component of the
+     *            first vector.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code start} is null.</li>
+     *             <li>If {@code step} is null.</li>
+     *             <li>If {@code result} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             If {@code count} is negative.
+     * @throws IndexOutOfBoundsException
+     *             If {@code offset} is negative or {@code offset + 3 * count}
+     *             exceeds the length of {@code result}.
+     */
+    public default void sample(@NonNull final Duration start, @NonNull final Duration step, final int count,
+            @NonNull final double[] result, final int offset) {
+        HarmonicTimeBasis.requireSampleArguments(start, step, count, result, offset);
+        for (int k = 0; k < count; ++k) {
+            final ImmutableVector3 v = at(start.plus(step.multipliedBy(k)));
+            for (int i = 0; i < 3; ++i) {
+                result[offset + 3 * k + i] = v.get(i);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,259 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * The structure of an octree that recursively divides 3D space into cubes,
+ * with each leaf cube containing few particles, for use by the Barnes–Hut
+ * approximation of long range forces.
+ * </p>
+ * <p>
+ * The tree records only its structure: which particles are in which cube, and
+ * the size of each cube. It does not record the positions or masses of the
+ * particles, so a tree built for the positions of the particles at the start
+ * of a time-step can be used, as a good approximation, for the positions of
+ * the particles during the time-step.
+ * </p>
+ * <p>
+ * The nodes of the tree are numbered in depth-first order, so the first child
+ * of an internal node immediately follows the node, and the particles in the
+ * cube of each node are a contiguous range of the
+ * {@linkplain #getParticle(int) particle order}.
+ * </p>
+ *
+ * @see GravityForceError
+ */
+@Immutable
+public final class BarnesHutOctree {
+
+    private static final int LEAF_CAPACITY = 8;
+    private static final int MAX_DEPTH = 32;
+
+    /*
+     * The fields are shared with GravityForceError, which never modifies them.
+     */
+    final int[] order;
+    final int[] rank;
+    final int[] start;
+    final int[] end;
+    final int[] skip;
+    final double[] width;
+
+    /**
+     * <p>
+     * Construct the octree for given positions of some particles.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #getNumberOfParticles() number of particles} is one
+     * third of the length of the position term array.</li>
+     * <li>Each particle is in exactly one leaf cube.</li>
+     * </ul>
+     * </section>
+     *
+     * @param positionTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vectors of the particles.
+     *            {@code positionTerm[3*j+i]} is the index of component
+     *            <var>i</var> of the position of particle <var>j</var>.
+     * @param state
+     *            The state vector that holds the positions of the particles.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code positionTerm} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code positionTerm} is not a multiple of
+     *             3.</li>
+     *             <li>If any position is not {@linkplain Double#isFinite(double)
+     *             finite}.</li>
+     *             </ul>
+     * @throws IndexOutOfBoundsException
+     *             If {@code state} is too short to hold the positions.
+     */
+    public BarnesHutOctree(final int[] positionTerm, final double[] state) {
+        Objects.requireNonNull(positionTerm, "positionTerm");
+        Objects.requireNonNull(state, "state");
+        if (positionTerm.length % 3 != 0) {
+            throw new IllegalArgumentException("positionTerm.length " + positionTerm.length);
+        }
+        final int nParticles = positionTerm.length / 3;
+        final double[] x = new double[positionTerm.length];
+        for (int k = 0; k < x.length; ++k) {
+            x[k] = state[positionTerm[k]];
+            if (!Double.isFinite(x[k])) {
+                throw new IllegalArgumentException("position [" + k + "] " + x[k]);
+            }
+        }
+
+        order = new int[nParticles];
+        rank = new int[nParticles];
+        for (int j = 0; j < nParticles; ++j) {
+            order[j] = j;
+        }
+        final Builder builder = new Builder(x, order);
+        if (0 < nParticles) {
+            final double[] lo = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+            final double[] hi = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+            for (int j = 0; j < nParticles; ++j) {
+                for (int i = 0; i < 3; ++i) {
+                    lo[i] = Math.min(lo[i], x[3 * j + i]);
+                    hi[i] = Math.max(hi[i], x[3 * j + i]);
+                }
+            }
+            final double w = Math.max(hi[0] - lo[0], Math.max(hi[1] - lo[1], hi[2] - lo[2]));
+            builder.build(0, nParticles, 0.5 * (lo[0] + hi[0]), 0.5 * (lo[1] + hi[1]), 0.5 * (lo[2] + hi[2]), w,
+                    0);
+        }
+        final int nNodes = builder.nNodes;
+        start = Arrays.copyOf(builder.start, nNodes);
+        end = Arrays.copyOf(builder.end, nNodes);
+        skip = Arrays.copyOf(builder.skip, nNodes);
+        width = Arrays.copyOf(builder.width, nNodes);
+        for (int a = 0; a < nParticles; ++a) {
+            rank[order[a]] = a;
+        }
+    }
+
+    private static final class Builder {
+        private final double[] x;
+        private final int[] order;
+        private final int[] scratch;
+        private int[] start = new int[16];
+        private int[] end = new int[16];
+        private int[] skip = new int[16];
+        private double[] width = new double[16];
+        private int nNodes;
+
+        Builder(final double[] x, final int[] order) {
+            this.x = x;
+            this.order = order;
+            scratch = new int[order.length];
+        }
+
+        void build(final int lo, final int hi, final double cx, final double cy, final double cz, final double w,
+                final int depth) {
+            final int node = nNodes++;
+            if (start.length < nNodes) {
+                final int n = 2 * start.length;
+                start = Arrays.copyOf(start, n);
+                end = Arrays.copyOf(end, n);
+                skip = Arrays.copyOf(skip, n);
+                width = Arrays.copyOf(width, n);
+            }
+            start[node] = lo;
+            end[node] = hi;
+            width[node] = w;
+            if (LEAF_CAPACITY < hi - lo && depth < MAX_DEPTH) {
+                /* Counting sort of the particles by octant. */
+                final int[] count = new int[9];
+                for (int a = lo; a < hi; ++a) {
+                    ++count[octant(order[a], cx, cy, cz) + 1];
+                }
+                for (int o = 0; o < 8; ++o) {
+                    count[o + 1] += count[o];
+                }
+                final int[] next = Arrays.copyOf(count, 8);
+                for (int a = lo; a < hi; ++a) {
+                    final int j = order[a];
+                    scratch[lo + next[octant(j, cx, cy, cz)]++] = j;
+                }
+                System.arraycopy(scratch, lo, order, lo, hi - lo);
+                final double q = 0.25 * w;
+                for (int o = 0; o < 8; ++o) {
+                    if (count[o] < count[o + 1]) {
+                        build(lo + count[o], lo + count[o + 1], cx + ((o & 1) == 0 ? -q : q),
+                                cy + ((o & 2) == 0 ? -q : q), cz + ((o & 4) == 0 ? -q : q), 0.5 * w, depth + 1);
+                    }
+                }
+            }
+            skip[node] = nNodes;
+        }
+
+        private int octant(final int j, final double cx, final double cy, final double cz) {
+            return (cx <= x[3 * j] ? 1 : 0) | (cy <= x[3 * j + 1] ? 2 : 0) | (cz <= x[3 * j + 2] ? 4 : 0);
+        }
+    }// class
+
+    /**
+     * <p>
+     * The number of nodes (cubes) of this tree.
+     * </p>
+     *
+     * @return the number of nodes; positive if, and only if, there are some
+     *         particles
+     */
+    public final int getNumberOfNodes() {
+        return start.length;
+    }
+
+    /**
+     * <p>
+     * The number of particles in this tree.
+     * </p>
+     *
+     * @return the number of particles; not negative
+     */
+    public final int getNumberOfParticles() {
+        return order.length;
+    }
+
+    /**
+     * <p>
+     * A particle in the depth-first ordering of the particles of this tree.
+     * </p>
+     *
+     * @param a
+     *            The position in the particle order.
+     * @return the index of the particle
+     * @throws IndexOutOfBoundsException
+     *             If {@code a} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.
+     */
+    public final int getParticle(final int a) {
+        return order[a];
+    }
+
+    /**
+     * <p>
+     * Whether a node of this tree is a leaf, which has no children.
+     * </p>
+     *
+     * @param node
+     *            The index of the node.
+     * @return whether a leaf
+     * @throws IndexOutOfBoundsException
+     *             If {@code node} is negative or is not less than the
+     *             {@linkplain #getNumberOfNodes() number of nodes}.
+     */
+    public final boolean isLeaf(final int node) {
+        return skip[node] == node + 1;
+    }
+
+}
@@ -0,0 +1,611 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.math.Quaternion;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTerm;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunction;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
+import uk.badamson.mc.physics.solver.VersorError;
+import uk.badamson.mc.physics.solver.mapper.ImmutableVector3StateSpaceMapper;
+import uk.badamson.mc.physics.solver.mapper.QuaternionStateSpaceMapper;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm term} for a
+ * {@linkplain TimeStepEnergyErrorFunction functor that calculates the physical
+ * modelling error of a system at a future point in time} that gives the degree
+ * to which a rigid body does not conform to Euler's equations of rotational
+ * motion.
+ * </p>
+ * <p>
+ * The {@linkplain #getAngularVelocityMapper() angular velocity} and
+ * {@linkplain #getAngularAccelerationMapper() angular acceleration} of the body
+ * are expressed in the body frame, with axes along the principal axes of the
+ * body, so the {@linkplain #getMomentOfInertia() moment of inertia} tensor is
+ * diagonal and constant. The {@linkplain #getTorqueMapper(int) torques} on the
+ * body are expressed in the world frame. The {@linkplain #getQuaternionMapper()
+ * orientation} of the body is a quaternion that rotates vectors from the body
+ * frame to the world frame. The orientation quaternion need not be a versor;
+ * the term uses the rotation it represents, ignoring its norm. A
+ * {@link VersorError} term should be used to ensure that the orientation
+ * quaternion is a versor.
+ * </p>
+ * <p>
+ * The term computes its value and gradient using only primitive local
+ * variables, so evaluating it does not allocate any objects.
+ * </p>
+ *
+ * @see Newton2Error
+ */
+@Immutable
+public final class EulerRotationError extends AbstractTimeStepEnergyErrorFunctionTerm {
+
+    private static double requirePrincipalMoment(final double moment, final ImmutableVector3 momentOfInertia) {
+        if (!(0.0 < moment && Double.isFinite(moment))) {
+            throw new IllegalArgumentException("momentOfInertia " + momentOfInertia);
+        }
+        return moment;
+    }
+
+    private final double momentOfInertiaReference;
+    private final double timeReference;
+    private final ImmutableVector3 momentOfInertia;
+    private final double i1;
+    private final double i2;
+    private final double i3;
+
+    private final QuaternionStateSpaceMapper quaternionMapper;
+    private final ImmutableVector3StateSpaceMapper angularVelocityMapper;
+    private final ImmutableVector3StateSpaceMapper angularAccelerationMapper;
+    private final ImmutableVector3StateSpaceMapper[] torqueMapper;
+    private final boolean[] torqueOn;
+
+    private final int quaternionTerm;
+    private final int angularVelocityTerm;
+    private final int angularAccelerationTerm;
+    private final int[] torqueTerm;
+    private final int[] indexFootprint;
+
+    /**
+     * <p>
+     * Construct an EulerRotationError.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * </ul>
+     * </section>
+     *
+     * @param momentOfInertiaReference
+     *            A reference moment of inertia scale.
+     * @param timeReference
+     *            A reference time scale.
+     * @param momentOfInertia
+     *            The principal moments of inertia of the body.
+     * @param quaternionMapper
+     *            The Strategy for mapping from the
+     *            {@linkplain Quaternion quaternion} of the orientation of the
+     *            body to (part of) a state-space representation.
+     * @param angularVelocityMapper
+     *            The Strategy for mapping from the angular velocity vector of the
+     *            body, in the body frame, to (part of) a state-space
+     *            representation.
+     * @param angularAccelerationMapper
+     *            The Strategy for mapping from the angular acceleration vector of
+     *            the body, in the body frame, to (part of) a state-space
+     *            representation.
+     * @param torqueOn
+     *            Whether one of the torques on this body has the <i>sense</i> that
+     *            a positive torque component corresponds to a torque that
+     *            increases that angular momentum component of this body.
+     *            {@code torqueOn[k]} indicates that torque <var>k</var> has a
+     *            positive sense.
+     * @param torqueMapper
+     *            The Strategies for mapping from the torque vectors of the torques
+     *            on the body, in the world frame, to (part of) a state-space
+     *            representation. {@code torqueMapper[k]} is the Strategy for
+     *            torque <var>k</var>.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code momentOfInertia} is null.</li>
+     *             <li>If {@code quaternionMapper} is null.</li>
+     *             <li>If {@code angularVelocityMapper} is null.</li>
+     *             <li>If {@code angularAccelerationMapper} is null.</li>
+     *             <li>If {@code torqueOn} is null.</li>
+     *             <li>If {@code torqueMapper} is null.</li>
+     *             <li>If {@code torqueMapper} contains a null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code momentOfInertiaReference} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code timeReference} is not positive and finite.</li>
+     *             <li>If any component of {@code momentOfInertia} is not positive
+     *             and finite.</li>
+     *             <li>If {@code torqueOn} and {@code torqueMapper} have different
+     *             lengths.</li>
+     *             </ul>
+     */
+    public EulerRotationError(final double momentOfInertiaReference, final double timeReference,
+            final ImmutableVector3 momentOfInertia, final QuaternionStateSpaceMapper quaternionMapper,
+            final ImmutableVector3StateSpaceMapper angularVelocityMapper,
+            final ImmutableVector3StateSpaceMapper angularAccelerationMapper, final boolean[] torqueOn,
+            final ImmutableVector3StateSpaceMapper[] torqueMapper) {
+        this.momentOfInertiaReference = requireReferenceScale(momentOfInertiaReference, "momentOfInertiaReference");
+        this.timeReference = requireReferenceScale(timeReference, "timeReference");
+        this.momentOfInertia = Objects.requireNonNull(momentOfInertia, "momentOfInertia");
+        this.quaternionMapper = Objects.requireNonNull(quaternionMapper, "quaternionMapper");
+        this.angularVelocityMapper = Objects.requireNonNull(angularVelocityMapper, "angularVelocityMapper");
+        this.angularAccelerationMapper = Objects.requireNonNull(angularAccelerationMapper,
+                "angularAccelerationMapper");
+        this.torqueOn = Arrays.copyOf(torqueOn, torqueOn.length);
+        this.torqueMapper = Arrays.copyOf(torqueMapper, torqueMapper.length);
+
+        i1 = requirePrincipalMoment(momentOfInertia.get(0), momentOfInertia);
+        i2 = requirePrincipalMoment(momentOfInertia.get(1), momentOfInertia);
+        i3 = requirePrincipalMoment(momentOfInertia.get(2), momentOfInertia);
+        final int nTorques = this.torqueOn.length;
+        if (nTorques != this.torqueMapper.length) {
+            throw new IllegalArgumentException(
+                    "Inconsistent torqueOn.length " + nTorques + " torqueMapper.length " + this.torqueMapper.length);
+        }
+
+        quaternionTerm = quaternionMapper.getIndex0();
+        angularVelocityTerm = angularVelocityMapper.getIndex0();
+        angularAccelerationTerm = angularAccelerationMapper.getIndex0();
+        torqueTerm = new int[nTorques];
+        final int[] torqueComponentTerm = new int[3 * nTorques];
+        for (int k = 0; k < nTorques; ++k) {
+            final int index0 = Objects.requireNonNull(this.torqueMapper[k], "torqueMapper[" + k + "]").getIndex0();
+            torqueTerm[k] = index0;
+            for (int i = 0; i < 3; ++i) {
+                torqueComponentTerm[3 * k + i] = index0 + i;
+            }
+        }
+        indexFootprint = createIndexFootprint(
+                new int[] { quaternionTerm, quaternionTerm + 1, quaternionTerm + 2, quaternionTerm + 3 },
+                new int[] { angularVelocityTerm, angularVelocityTerm + 1, angularVelocityTerm + 2 },
+                new int[] { angularAccelerationTerm, angularAccelerationTerm + 1, angularAccelerationTerm + 2 },
+                torqueComponentTerm);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This converts the state vectors to arrays and delegates to the
+     * {@link #evaluate(double[], double[], double[], double)} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the
+     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        return evaluate(dedx, toArray(state0), toArray(state), dt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <ol>
+     * <li>The method uses the term index information to extract the orientation,
+     * angular velocity, angular acceleration and torques of the body from the
+     * given state vector. The method uses only the state at the future point in
+     * time; it ignores the state at the current point in time.</li>
+     * <li>It rotates the total torque into the body frame.</li>
+     * <li>It computes the torque error, the difference between the rate of change
+     * of angular momentum given by Euler's equations and the total torque.</li>
+     * <li>From that it calculates an equivalent angular acceleration error, using
+     * the {@linkplain #getMomentOfInertiaReference() reference moment of
+     * inertia}, and from that an equivalent angular velocity error, using the
+     * {@linkplain #getTimeReference() reference time}.</li>
+     * <li>From that it calculates an equivalent rotational kinetic energy error,
+     * using the reference moment of inertia. That is the error term it
+     * returns.</li>
+     * <li>It adds the gradient of that error to {@code dedx}. The gradient with
+     * respect to the quaternion is zero if the quaternion is zero; the torques
+     * are then treated as already being in the body frame.</li>
+     * </ol>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+
+        final int nTorques = torqueTerm.length;
+
+        final double a = state[quaternionTerm];
+        final double b = state[quaternionTerm + 1];
+        final double c = state[quaternionTerm + 2];
+        final double d = state[quaternionTerm + 3];
+        final double wx = state[angularVelocityTerm];
+        final double wy = state[angularVelocityTerm + 1];
+        final double wz = state[angularVelocityTerm + 2];
+        final double alphax = state[angularAccelerationTerm];
+        final double alphay = state[angularAccelerationTerm + 1];
+        final double alphaz = state[angularAccelerationTerm + 2];
+
+        double tx = 0.0;
+        double ty = 0.0;
+        double tz = 0.0;
+        for (int k = 0; k < nTorques; ++k) {
+            final int t = torqueTerm[k];
+            if (torqueOn[k]) {
+                tx += state[t];
+                ty += state[t + 1];
+                tz += state[t + 2];
+            } else {
+                tx -= state[t];
+                ty -= state[t + 1];
+                tz -= state[t + 2];
+            }
+        }
+
+        /*
+         * The rotation matrix of the quaternion, scaled by the square of its norm.
+         * It rotates from the body frame to the world frame. A zero quaternion
+         * does not represent a rotation, so the identity rotation is used in its
+         * place.
+         */
+        final double q2 = a * a + b * b + c * c + d * d;
+        final boolean zeroQuaternion = q2 == 0.0;
+        final double n2 = zeroQuaternion ? 1.0 : q2;
+        final double qa = zeroQuaternion ? 1.0 : a;
+        final double r11 = qa * qa + b * b - c * c - d * d;
+        final double r12 = 2.0 * (b * c - qa * d);
+        final double r13 = 2.0 * (b * d + qa * c);
+        final double r21 = 2.0 * (b * c + qa * d);
+        final double r22 = qa * qa - b * b + c * c - d * d;
+        final double r23 = 2.0 * (c * d - qa * b);
+        final double r31 = 2.0 * (b * d - qa * c);
+        final double r32 = 2.0 * (c * d + qa * b);
+        final double r33 = qa * qa - b * b - c * c + d * d;
+
+        /* Total torque in the body frame. */
+        final double ux = (r11 * tx + r21 * ty + r31 * tz) / n2;
+        final double uy = (r12 * tx + r22 * ty + r32 * tz) / n2;
+        final double uz = (r13 * tx + r23 * ty + r33 * tz) / n2;
+
+        final double ex = i1 * alphax + (i3 - i2) * wy * wz - ux;
+        final double ey = i2 * alphay + (i1 - i3) * wz * wx - uy;
+        final double ez = i3 * alphaz + (i2 - i1) * wx * wy - uz;
+        final double scale = timeReference * timeReference / momentOfInertiaReference;
+        final double e = 0.5 * scale * (ex * ex + ey * ey + ez * ez);
+
+        final double gx = scale * ex;
+        final double gy = scale * ey;
+        final double gz = scale * ez;
+
+        dedx[angularAccelerationTerm] += gx * i1;
+        dedx[angularAccelerationTerm + 1] += gy * i2;
+        dedx[angularAccelerationTerm + 2] += gz * i3;
+
+        dedx[angularVelocityTerm] += gy * (i1 - i3) * wz + gz * (i2 - i1) * wy;
+        dedx[angularVelocityTerm + 1] += gx * (i3 - i2) * wz + gz * (i2 - i1) * wx;
+        dedx[angularVelocityTerm + 2] += gx * (i3 - i2) * wy + gy * (i1 - i3) * wx;
+
+        /* The gradient with respect to the torque in the body frame is -g. */
+        final double hx = (r11 * gx + r12 * gy + r13 * gz) / n2;
+        final double hy = (r21 * gx + r22 * gy + r23 * gz) / n2;
+        final double hz = (r31 * gx + r32 * gy + r33 * gz) / n2;
+        for (int k = 0; k < nTorques; ++k) {
+            final int t = torqueTerm[k];
+            if (torqueOn[k]) {
+                dedx[t] -= hx;
+                dedx[t + 1] -= hy;
+                dedx[t + 2] -= hz;
+            } else {
+                dedx[t] += hx;
+                dedx[t + 1] += hy;
+                dedx[t + 2] += hz;
+            }
+        }
+
+        /*
+         * The body frame torque depends on the quaternion through the scaled
+         * rotation matrix and the norm. The gradient is zero if the quaternion is
+         * zero.
+         */
+        if (!zeroQuaternion) {
+            final double gu = tx * hx + ty * hy + tz * hz;
+            final double dSda = 2.0 * (tx * (a * gx - d * gy + c * gz) + ty * (d * gx + a * gy - b * gz)
+                    + tz * (-c * gx + b * gy + a * gz));
+            final double dSdb = 2.0 * (tx * (b * gx + c * gy + d * gz) + ty * (c * gx - b * gy - a * gz)
+                    + tz * (d * gx + a * gy - b * gz));
+            final double dSdc = 2.0 * (tx * (-c * gx + b * gy + a * gz) + ty * (b * gx + c * gy + d * gz)
+                    + tz * (-a * gx + d * gy - c * gz));
+            final double dSdd = 2.0 * (tx * (-d * gx - a * gy + b * gz) + ty * (a * gx - d * gy + c * gz)
+                    + tz * (b * gx + c * gy + d * gz));
+            dedx[quaternionTerm] -= (dSda - 2.0 * a * gu) / n2;
+            dedx[quaternionTerm + 1] -= (dSdb - 2.0 * b * gu) / n2;
+            dedx[quaternionTerm + 2] -= (dSdc - 2.0 * c * gu) / n2;
+            dedx[quaternionTerm + 3] -= (dSdd - 2.0 * d * gu) / n2;
+        }
+
+        return e;
+    }
+
+    /**
+     * <p>
+     * The Strategy for mapping from the angular acceleration vector of the body,
+     * in the body frame, to (part of) a state-space representation.
+     * </p>
+     *
+     * @return the strategy; not null
+     */
+    public final ImmutableVector3StateSpaceMapper getAngularAccelerationMapper() {
+        return angularAccelerationMapper;
+    }
+
+    /**
+     * <p>
+     * The Strategy for mapping from the angular velocity vector of the body, in
+     * the body frame, to (part of) a state-space representation.
+     * </p>
+     *
+     * @return the strategy; not null
+     */
+    public final ImmutableVector3StateSpaceMapper getAngularVelocityMapper() {
+        return angularVelocityMapper;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the components of the orientation quaternion, the
+     * angular velocity, the angular acceleration and the torques.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
+    /**
+     * <p>
+     * The principal moments of inertia of the body.
+     * </p>
+     * <p>
+     * Component <var>i</var> is the moment of inertia about axis <var>i</var> of
+     * the body frame.
+     * </p>
+     *
+     * @return the moments; not null; all components positive and
+     *         {@linkplain Double#isFinite(double) finite}.
+     */
+    public final ImmutableVector3 getMomentOfInertia() {
+        return momentOfInertia;
+    }
+
+    /**
+     * <p>
+     * A reference moment of inertia scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert a torque error into an angular
+     * acceleration error, and an angular velocity error into an energy error. As
+     * for the {@linkplain Newton2Error#getMassReference() reference mass} of the
+     * {@link Newton2Error} term, it is better to use the same value for all
+     * bodies, equal to the moment of inertia of a typical body.
+     * </p>
+     *
+     * @return the moment of inertia; positive and
+     *         {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getMomentOfInertiaReference() {
+        return momentOfInertiaReference;
+    }
+
+    /**
+     * <p>
+     * The number of torques that act on the body.
+     * </p>
+     *
+     * @return the number of torques; not negative
+     */
+    public final int getNumberOfTorques() {
+        return torqueOn.length;
+    }
+
+    /**
+     * <p>
+     * The Strategy for mapping from the {@linkplain Quaternion quaternion} of the
+     * orientation of the body to (part of) a state-space representation.
+     * </p>
+     *
+     * @return the strategy; not null
+     */
+    public final QuaternionStateSpaceMapper getQuaternionMapper() {
+        return quaternionMapper;
+    }
+
+    /**
+     * <p>
+     * A reference time scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert an angular acceleration error into
+     * an angular velocity error.
+     * </p>
+     *
+     * @return the time; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getTimeReference() {
+        return timeReference;
+    }
+
+    /**
+     * <p>
+     * The Strategy for mapping from the torque vector of a torque on the body, in
+     * the world frame, to (part of) a state-space representation.
+     * </p>
+     *
+     * @param k
+     *            The index of the torque.
+     * @return the strategy; not null
+     * @throws IndexOutOfBoundsException
+     *             If {@code k} is negative or not less than the
+     *             {@linkplain #getNumberOfTorques() number of torques}.
+     */
+    public final ImmutableVector3StateSpaceMapper getTorqueMapper(final int k) {
+        return torqueMapper[k];
+    }
+
+    /**
+     * <p>
+     * Whether a torque on the body has the <i>sense</i> that a positive torque
+     * component corresponds to a torque that increases that angular momentum
+     * component of the body.
+     * </p>
+     *
+     * @param k
+     *            The index of the torque.
+     * @return whether the torque has a positive sense.
+     * @throws IndexOutOfBoundsException
+     *             If {@code k} is negative or not less than the
+     *             {@linkplain #getNumberOfTorques() number of torques}.
+     */
+    public final boolean isTorqueOn(final int k) {
+        return torqueOn[k];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The term is valid if, and only if, all its
+     * {@linkplain #getIndexFootprint(int) term indices} are less than the given
+     * dimension.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return indexFootprint[indexFootprint.length - 1] < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * state-space mappers. It can be created only if the state vector components
+     * of each mapper remain contiguous and in the same order.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term, or null if the components of a quaternion or vector
+     *         would not be contiguous.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final EulerRotationError remap(final int[] map) {
+        final int quaternionTerm1 = remapContiguousTermIndex(quaternionTerm, 4, map);
+        final int angularVelocityTerm1 = remapContiguousTermIndex(angularVelocityTerm, 3, map);
+        final int angularAccelerationTerm1 = remapContiguousTermIndex(angularAccelerationTerm, 3, map);
+        if (quaternionTerm1 < 0 || angularVelocityTerm1 < 0 || angularAccelerationTerm1 < 0) {
+            return null;
+        }
+        final int nTorques = torqueTerm.length;
+        final ImmutableVector3StateSpaceMapper[] torqueMapper1 = new ImmutableVector3StateSpaceMapper[nTorques];
+        for (int k = 0; k < nTorques; ++k) {
+            final int torqueTerm1 = remapContiguousTermIndex(torqueTerm[k], 3, map);
+            if (torqueTerm1 < 0) {
+                return null;
+            }
+            torqueMapper1[k] = new ImmutableVector3StateSpaceMapper(torqueTerm1);
+        }
+        return new EulerRotationError(momentOfInertiaReference, timeReference, momentOfInertia,
+                new QuaternionStateSpaceMapper(quaternionTerm1),
+                new ImmutableVector3StateSpaceMapper(angularVelocityTerm1),
+                new ImmutableVector3StateSpaceMapper(angularAccelerationTerm1), torqueOn, torqueMapper1);
+    }
+
+}
@@ -0,0 +1,868 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTerm;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunction;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm term} for a
+ * {@linkplain TimeStepEnergyErrorFunction functor that calculates the physical
+ * modelling error of a system at a future point in time} that gives the degree
+ * to which the forces on a system of particles differ from their mutual
+ * gravitational attraction.
+ * </p>
+ * <p>
+ * Each particle has a mass and a force that are state variables, such as the
+ * mass and a force of a {@link Newton2Error} term; the force is the total
+ * gravitational force on the particle. The term constrains those forces to be
+ * the sum of the forces <var>G</var> <var>m</var><sub>1</sub>
+ * <var>m</var><sub>2</sub> <b>r</b>/(<var>r</var><sup>2</sup> +
+ * &epsilon;<sup>2</sup>)<sup>3/2</sup> between each particle and all the other
+ * particles, where <var>G</var> is the {@linkplain #getGravitationalConstant()
+ * gravitational constant} and &epsilon; is the {@linkplain #getSofteningLength()
+ * softening length}.
+ * </p>
+ * <p>
+ * The term uses the Barnes–Hut approximation, so it can be evaluated in time
+ * proportional to <var>N</var> log <var>N</var> for <var>N</var> particles. It
+ * uses a {@linkplain BarnesHutOctree octree} to group the particles, and
+ * approximates the attraction of a group of particles that is far away by the
+ * attraction of their total mass at their centre of mass. A group is far away
+ * if the ratio of its size to its distance is less than the
+ * {@linkplain #getOpeningAngle() opening angle}. The gradient the term computes
+ * is the exact gradient of that approximated value.
+ * </p>
+ * <p>
+ * The term can build the octree for each evaluation, or can use an octree that
+ * was built for the state at the start of the time-step. The latter is cheaper
+ * but is a good approximation only if the particles move much less than the
+ * distance between them during the time-step. A simulation that uses the latter
+ * should build a new octree, and construct a new term, for each time-step.
+ * </p>
+ */
+@Immutable
+public final class GravityForceError extends AbstractTimeStepEnergyErrorFunctionTerm {
+
+    private final double massReference;
+    private final double timeReference;
+    private final double gravitationalConstant;
+    private final double softeningLength;
+    private final double openingAngle;
+    private final int[] massTerm;
+    private final int[] positionTerm;
+    private final int[] forceTerm;
+    private final BarnesHutOctree tree;
+
+    private final int[] indexFootprint;
+
+    /**
+     * <p>
+     * Construct a GravityForceError that builds its octree for each evaluation.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * <li>The constructed object has no {@linkplain #getTree() tree}.</li>
+     * </ul>
+     * </section>
+     *
+     * @param massReference
+     *            A reference mass scale.
+     * @param timeReference
+     *            A reference time scale.
+     * @param gravitationalConstant
+     *            The constant of proportionality of the gravitational force.
+     * @param softeningLength
+     *            The length that limits the force between close particles.
+     * @param openingAngle
+     *            The largest ratio of the size of a group of particles to its
+     *            distance for which the term approximates the attraction of the
+     *            group by the attraction of its centre of mass.
+     * @param massTerm
+     *            Which terms in the solution space vector correspond to the masses
+     *            of the particles.
+     * @param positionTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vectors of the particles.
+     *            {@code positionTerm[3*j+i]} is the index of component
+     *            <var>i</var> of the position of particle <var>j</var>.
+     * @param forceTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the total gravitational force on the particles.
+     *            {@code forceTerm[3*j+i]} is the index of component <var>i</var>
+     *            of the force on particle <var>j</var>.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code massTerm} is null.</li>
+     *             <li>If {@code positionTerm} is null.</li>
+     *             <li>If {@code forceTerm} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code massReference} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code timeReference} is not positive and finite.</li>
+     *             <li>If {@code gravitationalConstant} is not positive and
+     *             finite.</li>
+     *             <li>If {@code softeningLength} is negative or is not
+     *             finite.</li>
+     *             <li>If {@code openingAngle} is negative or is not finite.</li>
+     *             <li>If the length of {@code positionTerm} or of
+     *             {@code forceTerm} is not 3 times the length of
+     *             {@code massTerm}.</li>
+     *             <li>If any of the term indices is negative.</li>
+     *             </ul>
+     */
+    public GravityForceError(final double massReference, final double timeReference,
+            final double gravitationalConstant, final double softeningLength, final double openingAngle,
+            final int[] massTerm, final int[] positionTerm, final int[] forceTerm) {
+        this(massReference, timeReference, gravitationalConstant, softeningLength, openingAngle, massTerm,
+                positionTerm, forceTerm, null, false);
+    }
+
+    /**
+     * <p>
+     * Construct a GravityForceError that uses a given octree for all
+     * evaluations.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * </ul>
+     * </section>
+     *
+     * @param massReference
+     *            A reference mass scale.
+     * @param timeReference
+     *            A reference time scale.
+     * @param gravitationalConstant
+     *            The constant of proportionality of the gravitational force.
+     * @param softeningLength
+     *            The length that limits the force between close particles.
+     * @param openingAngle
+     *            The largest ratio of the size of a group of particles to its
+     *            distance for which the term approximates the attraction of the
+     *            group by the attraction of its centre of mass.
+     * @param massTerm
+     *            Which terms in the solution space vector correspond to the masses
+     *            of the particles.
+     * @param positionTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vectors of the particles.
+     *            {@code positionTerm[3*j+i]} is the index of component
+     *            <var>i</var> of the position of particle <var>j</var>.
+     * @param forceTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the total gravitational force on the particles.
+     *            {@code forceTerm[3*j+i]} is the index of component <var>i</var>
+     *            of the force on particle <var>j</var>.
+     * @param tree
+     *            The octree of the particles, typically built for their positions
+     *            at the start of the time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code massTerm} is null.</li>
+     *             <li>If {@code positionTerm} is null.</li>
+     *             <li>If {@code forceTerm} is null.</li>
+     *             <li>If {@code tree} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>In the same circumstances as the
+     *             {@linkplain #GravityForceError(double, double, double, double, double, int[], int[], int[])
+     *             constructor that does not have a tree}.</li>
+     *             <li>If the {@linkplain BarnesHutOctree#getNumberOfParticles()
+     *             number of particles} of the {@code tree} is not the length of
+     *             {@code massTerm}.</li>
+     *             </ul>
+     */
+    public GravityForceError(final double massReference, final double timeReference,
+            final double gravitationalConstant, final double softeningLength, final double openingAngle,
+            final int[] massTerm, final int[] positionTerm, final int[] forceTerm, final BarnesHutOctree tree) {
+        this(massReference, timeReference, gravitationalConstant, softeningLength, openingAngle, massTerm,
+                positionTerm, forceTerm, Objects.requireNonNull(tree, "tree"), true);
+    }
+
+    private GravityForceError(final double massReference, final double timeReference,
+            final double gravitationalConstant, final double softeningLength, final double openingAngle,
+            final int[] massTerm, final int[] positionTerm, final int[] forceTerm, final BarnesHutOctree tree,
+            final boolean hasTree) {
+        this.massReference = requireReferenceScale(massReference, "massReference");
+        this.timeReference = requireReferenceScale(timeReference, "timeReference");
+        this.gravitationalConstant = requireReferenceScale(gravitationalConstant, "gravitationalConstant");
+        if (!(0.0 <= softeningLength && Double.isFinite(softeningLength))) {
+            throw new IllegalArgumentException("softeningLength " + softeningLength);
+        }
+        if (!(0.0 <= openingAngle && Double.isFinite(openingAngle))) {
+            throw new IllegalArgumentException("openingAngle " + openingAngle);
+        }
+        this.softeningLength = softeningLength;
+        this.openingAngle = openingAngle;
+        this.massTerm = copyTermIndex(massTerm, "massTerm");
+        this.positionTerm = copyTermIndex(positionTerm, "positionTerm");
+        this.forceTerm = copyTermIndex(forceTerm, "forceTerm");
+        requireConsistentLengths(this.positionTerm, "positionTerm", this.forceTerm, "forceTerm");
+        if (this.positionTerm.length != 3 * this.massTerm.length) {
+            throw new IllegalArgumentException("Inconsistent massTerm.length " + massTerm.length
+                    + ", positionTerm.length " + positionTerm.length);
+        }
+        if (hasTree && tree.getNumberOfParticles() != this.massTerm.length) {
+            throw new IllegalArgumentException("Inconsistent tree.numberOfParticles " + tree.getNumberOfParticles()
+                    + ", massTerm.length " + massTerm.length);
+        }
+        this.tree = tree;
+        indexFootprint = createIndexFootprint(this.massTerm, this.positionTerm, this.forceTerm);
+    }
+
+    /*
+     * Adds to workspace[out, out + 9) the field (3 values) and the tidal tensor
+     * (6 values, xx, yy, zz, xy, yz, zx) of the mass of a source at position
+     * (cx, cy, cz), at the position of particle j.
+     */
+    private void addField(final double[] w, final int out, final double[] x, final int j, final double mass,
+            final double cx, final double cy, final double cz) {
+        final double rx = cx - x[3 * j];
+        final double ry = cy - x[3 * j + 1];
+        final double rz = cz - x[3 * j + 2];
+        final double d2 = rx * rx + ry * ry + rz * rz + softeningLength * softeningLength;
+        final double d = Math.sqrt(d2);
+        final double md3 = mass / (d2 * d);
+        final double md5 = 3.0 * md3 / d2;
+        w[out] += md3 * rx;
+        w[out + 1] += md3 * ry;
+        w[out + 2] += md3 * rz;
+        w[out + 3] += md3 - md5 * rx * rx;
+        w[out + 4] += md3 - md5 * ry * ry;
+        w[out + 5] += md3 - md5 * rz * rz;
+        w[out + 6] -= md5 * rx * ry;
+        w[out + 7] -= md5 * ry * rz;
+        w[out + 8] -= md5 * rz * rx;
+    }
+
+    /*
+     * Adds to workspace[out, out + 4) the adjoint sums (the tidal tensor applied
+     * to the moment (wx, wy, wz), 3 values, and the scalar product of the
+     * separation and the moment, divided by the cube of the distance), of a
+     * source at position (cx, cy, cz), at the position of particle j.
+     */
+    private void addMoment(final double[] w, final int out, final double[] x, final int j, final double wx,
+            final double wy, final double wz, final double cx, final double cy, final double cz) {
+        final double rx = cx - x[3 * j];
+        final double ry = cy - x[3 * j + 1];
+        final double rz = cz - x[3 * j + 2];
+        final double d2 = rx * rx + ry * ry + rz * rz + softeningLength * softeningLength;
+        final double d = Math.sqrt(d2);
+        final double id3 = 1.0 / (d2 * d);
+        final double rw = (rx * wx + ry * wy + rz * wz) * id3;
+        final double rw5 = 3.0 * rw / d2;
+        w[out] += id3 * wx - rw5 * rx;
+        w[out + 1] += id3 * wy - rw5 * ry;
+        w[out + 2] += id3 * wz - rw5 * rz;
+        w[out + 3] += rw;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This converts the state vectors to arrays and delegates to the
+     * {@link #evaluate(double[], double[], double[], double)} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the
+     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        return evaluate(dedx, toArray(state0), toArray(state), dt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This allocates a work array and delegates to the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        return evaluate(dedx, state0, state, dt, new double[getWorkspaceLength()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <ol>
+     * <li>The method uses the term index information to extract the masses and
+     * positions of the particles and the gravitational forces on them from the
+     * given state vector. The method uses only the state at the future point in
+     * time; it ignores the state at the current point in time.</li>
+     * <li>If this term has no {@linkplain #getTree() tree}, it builds an octree
+     * for the positions of the particles.</li>
+     * <li>It computes the total mass and the centre of mass of the particles in
+     * each cube of the octree.</li>
+     * <li>For each particle, it computes the Barnes–Hut approximation of the
+     * gravitational force on the particle, and so computes the difference
+     * between the actual and the constitutive force on the particle.</li>
+     * <li>From those force errors it calculates equivalent acceleration errors,
+     * using the {@linkplain #getMassReference() reference mass}, and from those
+     * equivalent velocity errors, using the {@linkplain #getTimeReference()
+     * reference time}.</li>
+     * <li>From those it calculates an equivalent kinetic energy error, using the
+     * reference mass. That is the error term it returns.</li>
+     * <li>It computes the gradient with respect to the masses and positions using
+     * a second pass over the octree, which makes the same decisions about which
+     * groups of particles are far away as the first pass. The gradient is
+     * therefore the exact gradient of the approximated value.</li>
+     * </ol>
+     * <p>
+     * If this term has a tree, the method uses only primitive local variables and
+     * the work array, so it does not allocate any objects. Otherwise, it
+     * allocates the octree and a work array, and ignores the given work array.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt,
+            final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requireWorkspace(workspace, getWorkspaceLength());
+        if (tree == null) {
+            final BarnesHutOctree t = new BarnesHutOctree(positionTerm, state);
+            return evaluate(dedx, state, t, new double[getWorkspaceLength(t)]);
+        } else {
+            return evaluate(dedx, state, tree, workspace);
+        }
+    }
+
+    private double evaluate(final double[] dedx, final double[] state, final BarnesHutOctree t, final double[] w) {
+        final int np = massTerm.length;
+        final int nNodes = t.start.length;
+        final double scale = timeReference * timeReference / massReference;
+        /*
+         * w[ox, ox + 3np) holds the positions; w[om, om + np) the masses; w[og, og +
+         * 3np) the force errors, and then their gradients; w[of, of + 9np) the field
+         * and tidal tensor at each particle; w[oV, oV + 4np) the adjoint sums of
+         * each particle; w[oM, oM + nNodes) the mass of each node; w[oC, oC +
+         * 3nNodes) the centre of mass of each node; w[oP, oP + 4nNodes) the adjoint
+         * sums of each node.
+         */
+        final int ox = 0;
+        final int om = 3 * np;
+        final int og = 4 * np;
+        final int of = 7 * np;
+        final int oV = 16 * np;
+        final int oM = 20 * np;
+        final int oC = oM + nNodes;
+        final int oP = oC + 3 * nNodes;
+        final double[] x = w;// positions are at offset ox == 0
+
+        for (int k = 0; k < 3 * np; ++k) {
+            w[ox + k] = state[positionTerm[k]];
+        }
+        for (int j = 0; j < np; ++j) {
+            w[om + j] = state[massTerm[j]];
+        }
+        for (int node = 0; node < nNodes; ++node) {
+            double mass = 0.0;
+            double mx = 0.0;
+            double my = 0.0;
+            double mz = 0.0;
+            for (int a = t.start[node]; a < t.end[node]; ++a) {
+                final int k = t.order[a];
+                final double mk = w[om + k];
+                mass += mk;
+                mx += mk * x[3 * k];
+                my += mk * x[3 * k + 1];
+                mz += mk * x[3 * k + 2];
+            }
+            w[oM + node] = mass;
+            if (mass == 0.0) {// use any position; the node has no influence
+                final int k = t.order[t.start[node]];
+                w[oC + 3 * node] = x[3 * k];
+                w[oC + 3 * node + 1] = x[3 * k + 1];
+                w[oC + 3 * node + 2] = x[3 * k + 2];
+            } else {
+                w[oC + 3 * node] = mx / mass;
+                w[oC + 3 * node + 1] = my / mass;
+                w[oC + 3 * node + 2] = mz / mass;
+            }
+        }
+
+        /* First pass: the fields, and so the force errors. */
+        Arrays.fill(w, of, oM, 0.0);
+        for (int j = 0; j < np; ++j) {
+            final int out = of + 9 * j;
+            final int rj = t.rank[j];
+            int node = 0;
+            while (node < nNodes) {
+                final int c = oC + 3 * node;
+                if (isFar(t, node, rj, x, j, w[c], w[c + 1], w[c + 2])) {
+                    addField(w, out, x, j, w[oM + node], w[c], w[c + 1], w[c + 2]);
+                    node = t.skip[node];
+                } else if (t.isLeaf(node)) {
+                    for (int a = t.start[node]; a < t.end[node]; ++a) {
+                        final int k = t.order[a];
+                        if (k != j) {
+                            addField(w, out, x, j, w[om + k], x[3 * k], x[3 * k + 1], x[3 * k + 2]);
+                        }
+                    }
+                    node = t.skip[node];
+                } else {
+                    node = node + 1;// first child
+                }
+            }
+        }
+        double e = 0.0;
+        for (int j = 0; j < np; ++j) {
+            final double gmj = gravitationalConstant * w[om + j];
+            for (int i = 0; i < 3; ++i) {
+                final double fe = state[forceTerm[3 * j + i]] - gmj * w[of + 9 * j + i];
+                final double g = scale * fe;
+                e += 0.5 * scale * fe * fe;
+                w[og + 3 * j + i] = g;
+                dedx[forceTerm[3 * j + i]] += g;
+            }
+        }
+
+        /*
+         * Second pass: the gradient with respect to the masses and positions. This
+         * repeats the traversal of the first pass, with the same decisions about
+         * which nodes are far, so it computes the exact gradient of the
+         * approximated value. For target particle k and source s (a particle or a
+         * far node) at separation r from k, the field of the first pass has terms
+         * M_s K(r), so the value depends on the mass and position of the source
+         * through the adjoint sums J(r) m_k g_k and K(r).m_k g_k, for the tidal
+         * tensor J. Those are accumulated for each source particle, and for each far
+         * node; the sums of a node are distributed to its particles through its
+         * total mass and centre of mass.
+         */
+        Arrays.fill(w, oV, oM, 0.0);
+        Arrays.fill(w, oP, oP + 4 * nNodes, 0.0);
+        for (int k = 0; k < np; ++k) {
+            final double mk = w[om + k];
+            final double vx = mk * w[og + 3 * k];
+            final double vy = mk * w[og + 3 * k + 1];
+            final double vz = mk * w[og + 3 * k + 2];
+            final int rk = t.rank[k];
+            int node = 0;
+            while (node < nNodes) {
+                final int c = oC + 3 * node;
+                if (isFar(t, node, rk, x, k, w[c], w[c + 1], w[c + 2])) {
+                    addMoment(w, oP + 4 * node, x, k, vx, vy, vz, w[c], w[c + 1], w[c + 2]);
+                    node = t.skip[node];
+                } else if (t.isLeaf(node)) {
+                    for (int a = t.start[node]; a < t.end[node]; ++a) {
+                        final int i = t.order[a];
+                        if (i != k) {
+                            addMoment(w, oV + 4 * i, x, k, vx, vy, vz, x[3 * i], x[3 * i + 1], x[3 * i + 2]);
+                        }
+                    }
+                    node = t.skip[node];
+                } else {
+                    node = node + 1;// first child
+                }
+            }
+        }
+        for (int node = 0; node < nNodes; ++node) {
+            final int m = oP + 4 * node;
+            final int c = oC + 3 * node;
+            for (int a = t.start[node]; a < t.end[node]; ++a) {
+                final int i = t.order[a];
+                final int v = oV + 4 * i;
+                w[v] += w[m];
+                w[v + 1] += w[m + 1];
+                w[v + 2] += w[m + 2];
+                w[v + 3] += w[m + 3] + (x[3 * i] - w[c]) * w[m] + (x[3 * i + 1] - w[c + 1]) * w[m + 1]
+                        + (x[3 * i + 2] - w[c + 2]) * w[m + 2];
+            }
+        }
+        for (int j = 0; j < np; ++j) {
+            /*
+             * de/dx_j = G m_j (S_j g_j - V_j); de/dm_j = -G (a_j . g_j + W_j), for
+             * field a_j, tidal tensor S_j and adjoint sums V_j and W_j.
+             */
+            final int f = of + 9 * j;
+            final int v = oV + 4 * j;
+            final double gx = w[og + 3 * j];
+            final double gy = w[og + 3 * j + 1];
+            final double gz = w[og + 3 * j + 2];
+            final double gmj = gravitationalConstant * w[om + j];
+            final double sgx = w[f + 3] * gx + w[f + 6] * gy + w[f + 8] * gz;
+            final double sgy = w[f + 6] * gx + w[f + 4] * gy + w[f + 7] * gz;
+            final double sgz = w[f + 8] * gx + w[f + 7] * gy + w[f + 5] * gz;
+            dedx[positionTerm[3 * j]] += gmj * (sgx - w[v]);
+            dedx[positionTerm[3 * j + 1]] += gmj * (sgy - w[v + 1]);
+            dedx[positionTerm[3 * j + 2]] += gmj * (sgz - w[v + 2]);
+            dedx[massTerm[j]] -= gravitationalConstant * (w[f] * gx + w[f + 1] * gy + w[f + 2] * gz + w[v + 3]);
+        }
+
+        return e;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * total gravitational force on a particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the force vector; not negative
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.</li>
+     *             <li>If {@code i} is negative or is not less than 3.</li>
+     *             </ul>
+     */
+    public final int getForceTerm(final int j, final int i) {
+        return forceTerm[3 * j + requireVectorComponent(i)];
+    }
+
+    /**
+     * <p>
+     * The constant of proportionality of the gravitational force.
+     * </p>
+     *
+     * @return the constant; positive and {@linkplain Double#isFinite(double)
+     *         finite}
+     */
+    public final double getGravitationalConstant() {
+        return gravitationalConstant;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the masses of, and the components of the
+     * positions of, and forces on, all the particles.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
+    /**
+     * <p>
+     * A reference mass scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert a force error into an acceleration
+     * error, and a velocity error into an energy error.
+     * </p>
+     *
+     * @return the mass; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getMassReference() {
+        return massReference;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to the mass of a
+     * particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @return the index of the mass; not negative
+     * @throws IndexOutOfBoundsException
+     *             If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.
+     */
+    public final int getMassTerm(final int j) {
+        return massTerm[j];
+    }
+
+    /**
+     * <p>
+     * The number of particles of the system.
+     * </p>
+     *
+     * @return the number of particles; not negative
+     */
+    public final int getNumberOfParticles() {
+        return massTerm.length;
+    }
+
+    /**
+     * <p>
+     * The largest ratio of the size of a group of particles to its distance for
+     * which this term approximates the attraction of the group by the attraction
+     * of its centre of mass.
+     * </p>
+     * <p>
+     * Larger values give faster but less accurate evaluations. If the value is
+     * zero, the term computes the exact attraction between every pair of
+     * particles.
+     * </p>
+     *
+     * @return the opening angle; not negative and
+     *         {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getOpeningAngle() {
+        return openingAngle;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * position of a particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the position vector; not negative
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.</li>
+     *             <li>If {@code i} is negative or is not less than 3.</li>
+     *             </ul>
+     */
+    public final int getPositionTerm(final int j, final int i) {
+        return positionTerm[3 * j + requireVectorComponent(i)];
+    }
+
+    /**
+     * <p>
+     * The length that limits the force between close particles.
+     * </p>
+     * <p>
+     * The term adds the square of this length to the square of the distance
+     * between particles, so the force between particles is finite even if they
+     * coincide.
+     * </p>
+     *
+     * @return the length; not negative and {@linkplain Double#isFinite(double)
+     *         finite}
+     */
+    public final double getSofteningLength() {
+        return softeningLength;
+    }
+
+    /**
+     * <p>
+     * A reference time scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert an acceleration error into a
+     * velocity error.
+     * </p>
+     *
+     * @return the time; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getTimeReference() {
+        return timeReference;
+    }
+
+    /**
+     * <p>
+     * The octree that this term uses for all evaluations.
+     * </p>
+     *
+     * @return the tree, or null if this term builds a tree for each evaluation
+     */
+    public final BarnesHutOctree getTree() {
+        return tree;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * If this term has a {@linkplain #getTree() tree}, the work array holds
+     * twenty values for each particle and eight values for each node of the
+     * tree. Otherwise the length is zero, because the term allocates its work
+     * array when it builds the tree.
+     * </p>
+     *
+     * @return the length
+     */
+    @Override
+    public final int getWorkspaceLength() {
+        return tree == null ? 0 : getWorkspaceLength(tree);
+    }
+
+    private int getWorkspaceLength(final BarnesHutOctree t) {
+        return 20 * massTerm.length + 8 * t.getNumberOfNodes();
+    }
+
+    /*
+     * Whether the attraction of the particles of a node, with centre of mass
+     * (cx, cy, cz), by particle j, at rank rj, can be approximated by the
+     * attraction of their centre of mass. A node that contains the particle
+     * itself is never far.
+     */
+    private boolean isFar(final BarnesHutOctree t, final int node, final int rj, final double[] x, final int j,
+            final double cx, final double cy, final double cz) {
+        if (t.start[node] <= rj && rj < t.end[node]) {
+            return false;
+        }
+        final double rx = cx - x[3 * j];
+        final double ry = cy - x[3 * j + 1];
+        final double rz = cz - x[3 * j + 2];
+        final double width = t.width[node];
+        return width * width < openingAngle * openingAngle * (rx * rx + ry * ry + rz * rz);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The term is valid if, and only if, all its
+     * {@linkplain #getIndexFootprint(int) term indices} are less than the given
+     * dimension.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return indexFootprint.length == 0 || indexFootprint[indexFootprint.length - 1] < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * term indices.
+     * In particular, it uses the same {@linkplain #getTree() tree}, which
+     * identifies particles by their position in the term index arrays rather
+     * than by their state vector indices.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final GravityForceError remap(final int[] map) {
+        return new GravityForceError(massReference, timeReference, gravitationalConstant, softeningLength,
+                openingAngle, remapTermIndex(massTerm, map), remapTermIndex(positionTerm, map),
+                remapTermIndex(forceTerm, map), tree, tree != null);
+    }
+
+    private static int requireVectorComponent(final int i) {
+        if (i < 0 || 3 <= i) {
+            throw new IndexOutOfBoundsException("Not a space vector component " + i);
+        }
+        return i;
+    }
+
+}
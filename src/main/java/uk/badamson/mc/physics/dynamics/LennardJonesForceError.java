@@ -0,0 +1,639 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTerm;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunction;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm term} for a
+ * {@linkplain TimeStepEnergyErrorFunction functor that calculates the physical
+ * modelling error of a system at a future point in time} that gives the degree
+ * to which the pair forces on a system of particles differ from the forces of
+ * a Lennard-Jones pair potential.
+ * </p>
+ * <p>
+ * Each particle has a force that is a state variable, such as a force of a
+ * {@link Newton2Error} term, which is the total pair force on the particle.
+ * The term constrains those forces to be the sum of the forces between the
+ * particle and its neighbours, for the pair potential
+ * 4&epsilon;[(&sigma;/<var>r</var>)<sup>12</sup> -
+ * (&sigma;/<var>r</var>)<sup>6</sup>], where &epsilon; is the
+ * {@linkplain #getWellDepth() well depth} and &sigma; is the
+ * {@linkplain #getCollisionDiameter() collision diameter}. The pair force is
+ * <dfn>shifted</dfn> so it falls continuously to zero at the
+ * {@linkplain #getCutoff() cutoff} distance.
+ * </p>
+ * <p>
+ * The term considers only the pairs of particles that were in a
+ * {@link NeighbourList} when the term was constructed. The term is therefore
+ * correct only for states for which the neighbour list would not need to be
+ * {@linkplain NeighbourList#update(double[]) updated}, but it can be evaluated
+ * in time proportional to the number of particles. A simulation should update
+ * the neighbour list, and construct a new term, for each time-step.
+ * </p>
+ */
+@Immutable
+public final class LennardJonesForceError extends AbstractTimeStepEnergyErrorFunctionTerm {
+
+    private final double massReference;
+    private final double timeReference;
+    private final double wellDepth;
+    private final double collisionDiameter;
+    private final double cutoff;
+    private final double forceAtCutoff;
+    private final int spaceDimension;
+    private final int[] positionTerm;
+    private final int[] forceTerm;
+    private final int[] pairs;
+
+    private final int[] indexFootprint;
+
+    /**
+     * <p>
+     * Construct a LennardJonesForceError for the current pairs of a neighbour
+     * list.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * <li>The constructed object has the {@linkplain #getCutoff() cutoff},
+     * {@linkplain #getSpaceDimension() space dimension},
+     * {@linkplain #getPositionTerm(int, int) position terms} and
+     * {@linkplain #getNumberOfPairs() pairs} of the given neighbour list.</li>
+     * </ul>
+     * </section>
+     *
+     * @param massReference
+     *            A reference mass scale.
+     * @param timeReference
+     *            A reference time scale.
+     * @param wellDepth
+     *            The depth of the potential well of the pair potential.
+     * @param collisionDiameter
+     *            The separation at which the (unshifted) pair potential is zero.
+     * @param neighbours
+     *            The neighbour list that provides the position terms of the
+     *            particles and the pairs of particles that interact.
+     * @param forceTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the total pair force on the particles.
+     *            {@code forceTerm[j*spaceDimension+i]} is the index of component
+     *            <var>i</var> of the force on particle <var>j</var>.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code neighbours} is null.</li>
+     *             <li>If {@code forceTerm} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code massReference} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code timeReference} is not positive and finite.</li>
+     *             <li>If {@code wellDepth} is not positive and finite.</li>
+     *             <li>If {@code collisionDiameter} is not positive and
+     *             finite.</li>
+     *             <li>If the length of {@code forceTerm} is not the product of
+     *             the number of particles and the space dimension of the
+     *             neighbour list.</li>
+     *             <li>If any of the term indices is negative.</li>
+     *             </ul>
+     */
+    public LennardJonesForceError(final double massReference, final double timeReference, final double wellDepth,
+            final double collisionDiameter, final NeighbourList neighbours, final int[] forceTerm) {
+        Objects.requireNonNull(neighbours, "neighbours");
+        this.massReference = requireReferenceScale(massReference, "massReference");
+        this.timeReference = requireReferenceScale(timeReference, "timeReference");
+        this.wellDepth = requireReferenceScale(wellDepth, "wellDepth");
+        this.collisionDiameter = requireReferenceScale(collisionDiameter, "collisionDiameter");
+        this.forceTerm = copyTermIndex(forceTerm, "forceTerm");
+
+        spaceDimension = neighbours.getSpaceDimension();
+        cutoff = neighbours.getCutoff();
+        final int nParticles = neighbours.getNumberOfParticles();
+        if (this.forceTerm.length != nParticles * spaceDimension) {
+            throw new IllegalArgumentException("Inconsistent neighbours.numberOfParticles " + nParticles
+                    + ", neighbours.spaceDimension " + spaceDimension + ", forceTerm.length " + forceTerm.length);
+        }
+        positionTerm = new int[nParticles * spaceDimension];
+        for (int j = 0; j < nParticles; ++j) {
+            for (int i = 0; i < spaceDimension; ++i) {
+                positionTerm[j * spaceDimension + i] = neighbours.getPositionTerm(j, i);
+            }
+        }
+        final int nPairs = neighbours.getNumberOfPairs();
+        pairs = new int[2 * nPairs];
+        for (int p = 0; p < nPairs; ++p) {
+            pairs[2 * p] = neighbours.getParticle1(p);
+            pairs[2 * p + 1] = neighbours.getParticle2(p);
+        }
+
+        forceAtCutoff = radialForce(cutoff);
+        indexFootprint = createIndexFootprint(positionTerm, this.forceTerm);
+    }
+
+    private LennardJonesForceError(final double massReference, final double timeReference, final double wellDepth,
+            final double collisionDiameter, final double cutoff, final int spaceDimension, final int[] positionTerm,
+            final int[] forceTerm, final int[] pairs) {
+        this.massReference = massReference;
+        this.timeReference = timeReference;
+        this.wellDepth = wellDepth;
+        this.collisionDiameter = collisionDiameter;
+        this.cutoff = cutoff;
+        this.spaceDimension = spaceDimension;
+        this.positionTerm = positionTerm;
+        this.forceTerm = forceTerm;
+        this.pairs = pairs;
+
+        forceAtCutoff = radialForce(cutoff);
+        indexFootprint = createIndexFootprint(positionTerm, forceTerm);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This converts the state vectors to arrays and delegates to the
+     * {@link #evaluate(double[], double[], double[], double)} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the
+     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        return evaluate(dedx, toArray(state0), toArray(state), dt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This allocates a work array and delegates to the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        return evaluate(dedx, state0, state, dt, new double[getWorkspaceLength()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <ol>
+     * <li>The method uses the term index information to extract the positions of
+     * the particles and the pair forces on them from the given state vector. The
+     * method uses only the state at the future point in time; it ignores the
+     * state at the current point in time.</li>
+     * <li>For each pair of particles, it computes the pair force between them,
+     * and so computes the difference between the actual and the constitutive
+     * pair force on each particle.</li>
+     * <li>From those force errors it calculates equivalent acceleration errors,
+     * using the {@linkplain #getMassReference() reference mass}, and from those
+     * equivalent velocity errors, using the {@linkplain #getTimeReference()
+     * reference time}.</li>
+     * <li>From those it calculates an equivalent kinetic energy error, using the
+     * reference mass. That is the error term it returns.</li>
+     * </ol>
+     * <p>
+     * The method uses only primitive local variables and the work array, so it
+     * does not allocate any objects. It takes time proportional to the sum of
+     * the number of particles and the {@linkplain #getNumberOfPairs() number of
+     * pairs}.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt,
+            final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requireWorkspace(workspace, getWorkspaceLength());
+
+        final int ns = spaceDimension;
+        final int nForce = forceTerm.length;
+        final int nPairs = pairs.length / 2;
+        final double scale = timeReference * timeReference / massReference;
+        final double cutoff2 = cutoff * cutoff;
+        /*
+         * workspace[0, nForce) holds the force errors, and then their gradients;
+         * workspace[nForce + 2p] and workspace[nForce + 2p + 1] hold the
+         * coefficients psi and chi of pair p. The constitutive force on particle
+         * j1 due to particle j2 is psi r, for separation r = x2 - x1; its
+         * derivative with respect to r is psi I + chi r r^T.
+         */
+        final double[] fe = workspace;
+
+        for (int k = 0; k < nForce; ++k) {
+            fe[k] = state[forceTerm[k]];
+        }
+        for (int p = 0; p < nPairs; ++p) {
+            final int o1 = pairs[2 * p] * ns;
+            final int o2 = pairs[2 * p + 1] * ns;
+            double s2 = 0.0;
+            for (int i = 0; i < ns; ++i) {
+                final double r = state[positionTerm[o2 + i]] - state[positionTerm[o1 + i]];
+                s2 += r * r;
+            }
+            double psi = 0.0;
+            double chi = 0.0;
+            if (s2 < cutoff2) {
+                final double s = Math.sqrt(s2);
+                final double phi = radialForce(s) - forceAtCutoff;
+                psi = phi / s;
+                chi = (radialForceDerivative(s) - psi) / s2;
+                for (int i = 0; i < ns; ++i) {
+                    final double r = state[positionTerm[o2 + i]] - state[positionTerm[o1 + i]];
+                    fe[o1 + i] -= psi * r;
+                    fe[o2 + i] += psi * r;
+                }
+            }
+            workspace[nForce + 2 * p] = psi;
+            workspace[nForce + 2 * p + 1] = chi;
+        }
+
+        double e = 0.0;
+        for (int k = 0; k < nForce; ++k) {
+            final double g = scale * fe[k];
+            e += 0.5 * scale * fe[k] * fe[k];
+            fe[k] = g;
+            dedx[forceTerm[k]] += g;
+        }
+        final double[] g = fe;
+
+        for (int p = 0; p < nPairs; ++p) {
+            final double psi = workspace[nForce + 2 * p];
+            final double chi = workspace[nForce + 2 * p + 1];
+            if (psi == 0.0 && chi == 0.0) {
+                continue;// beyond the cutoff
+            }
+            final int o1 = pairs[2 * p] * ns;
+            final int o2 = pairs[2 * p + 1] * ns;
+            double rd = 0.0;
+            for (int i = 0; i < ns; ++i) {
+                final double r = state[positionTerm[o2 + i]] - state[positionTerm[o1 + i]];
+                rd += r * (g[o2 + i] - g[o1 + i]);
+            }
+            for (int i = 0; i < ns; ++i) {
+                final double r = state[positionTerm[o2 + i]] - state[positionTerm[o1 + i]];
+                final double dedr = psi * (g[o2 + i] - g[o1 + i]) + chi * rd * r;
+                dedx[positionTerm[o2 + i]] += dedr;
+                dedx[positionTerm[o1 + i]] -= dedr;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * <p>
+     * The separation at which the (unshifted) pair potential is zero.
+     * </p>
+     * <p>
+     * That is, &sigma; of the Lennard-Jones potential.
+     * </p>
+     *
+     * @return the diameter; positive and {@linkplain Double#isFinite(double)
+     *         finite}
+     */
+    public final double getCollisionDiameter() {
+        return collisionDiameter;
+    }
+
+    /**
+     * <p>
+     * The distance beyond which particles do not interact.
+     * </p>
+     * <p>
+     * This is the {@linkplain NeighbourList#getCutoff() cutoff} of the neighbour
+     * list used to construct this term.
+     * </p>
+     *
+     * @return the cutoff distance; positive and
+     *         {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * total pair force on a particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the force vector; not negative
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.</li>
+     *             <li>If {@code i} is negative or is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getForceTerm(final int j, final int i) {
+        return forceTerm[j * spaceDimension + requireVectorComponent(i)];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the components of the positions of, and forces
+     * on, all the particles.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
+    /**
+     * <p>
+     * A reference mass scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert a force error into an acceleration
+     * error, and a velocity error into an energy error.
+     * </p>
+     *
+     * @return the mass; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getMassReference() {
+        return massReference;
+    }
+
+    /**
+     * <p>
+     * The number of pairs of particles that this term considers.
+     * </p>
+     * <p>
+     * This is the {@linkplain NeighbourList#getNumberOfPairs() number of pairs} of
+     * the neighbour list when this term was constructed.
+     * </p>
+     *
+     * @return the number of pairs; not negative
+     */
+    public final int getNumberOfPairs() {
+        return pairs.length / 2;
+    }
+
+    /**
+     * <p>
+     * The number of particles of the system.
+     * </p>
+     *
+     * @return the number of particles; not negative
+     */
+    public final int getNumberOfParticles() {
+        return forceTerm.length / spaceDimension;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * position of a particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the position vector; not negative
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.</li>
+     *             <li>If {@code i} is negative or is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getPositionTerm(final int j, final int i) {
+        return positionTerm[j * spaceDimension + requireVectorComponent(i)];
+    }
+
+    /**
+     * <p>
+     * The number of space dimensions of the positions of the particles.
+     * </p>
+     *
+     * @return the number of dimensions; positive
+     */
+    public final int getSpaceDimension() {
+        return spaceDimension;
+    }
+
+    /**
+     * <p>
+     * A reference time scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert an acceleration error into a
+     * velocity error.
+     * </p>
+     *
+     * @return the time; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getTimeReference() {
+        return timeReference;
+    }
+
+    /**
+     * <p>
+     * The depth of the potential well of the pair potential.
+     * </p>
+     * <p>
+     * That is, &epsilon; of the Lennard-Jones potential.
+     * </p>
+     *
+     * @return the depth; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getWellDepth() {
+        return wellDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The work array holds the force errors of all the particles and two values
+     * for each {@linkplain #getNumberOfPairs() pair}.
+     * </p>
+     *
+     * @return the length
+     */
+    @Override
+    public final int getWorkspaceLength() {
+        return forceTerm.length + pairs.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The term is valid if, and only if, all its
+     * {@linkplain #getIndexFootprint(int) term indices} are less than the given
+     * dimension.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return indexFootprint.length == 0 || indexFootprint[indexFootprint.length - 1] < n;
+    }
+
+    /*
+     * The derivative of the unshifted pair potential with respect to the
+     * separation.
+     */
+    private double radialForce(final double s) {
+        final double x = collisionDiameter / s;
+        final double x6 = x * x * x * x * x * x;
+        return 24.0 * wellDepth * x6 * (1.0 - 2.0 * x6) / s;
+    }
+
+    /*
+     * The second derivative of the unshifted pair potential with respect to the
+     * separation.
+     */
+    private double radialForceDerivative(final double s) {
+        final double x = collisionDiameter / s;
+        final double x6 = x * x * x * x * x * x;
+        return 24.0 * wellDepth * x6 * (26.0 * x6 - 7.0) / (s * s);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes and pairs as this term, except
+     * for its term indices. The pairs identify particles by their position in
+     * the term index arrays, so they do not change.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final LennardJonesForceError remap(final int[] map) {
+        return new LennardJonesForceError(massReference, timeReference, wellDepth, collisionDiameter, cutoff,
+                spaceDimension, remapTermIndex(positionTerm, map), remapTermIndex(forceTerm, map), pairs);
+    }
+
+    private int requireVectorComponent(final int i) {
+        if (i < 0 || spaceDimension <= i) {
+            throw new IndexOutOfBoundsException("Not a space vector component " + i);
+        }
+        return i;
+    }
+
+}
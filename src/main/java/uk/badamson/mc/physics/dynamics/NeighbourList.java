@@ -0,0 +1,425 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * <p>
+ * A Verlet neighbour list: the pairs of particles of a system that might
+ * interact through a short range pair force.
+ * </p>
+ * <p>
+ * The list contains every pair of particles that were closer than the
+ * {@linkplain #getListRange() list range}, which is the
+ * {@linkplain #getCutoff() cutoff} distance of the pair force plus a
+ * {@linkplain #getSkin() skin} distance, when the list was last built. The
+ * object remembers the positions of the particles when the list was built, and
+ * the {@linkplain #update(double[]) update} method rebuilds the list only if a
+ * particle has since moved more than half the skin distance. Until then the
+ * list is guaranteed to contain every pair of particles that are within the
+ * cutoff distance, so terms such as the {@link LennardJonesForceError} can
+ * compute pair forces in time proportional to the number of particles, rather
+ * than the square of the number of particles.
+ * </p>
+ * <p>
+ * Building the list sorts the particles by their first position coordinate and
+ * sweeps through them, so it takes time proportional to <var>N</var>
+ * log(<var>N</var>) for <var>N</var> particles, or less if the particles have
+ * not moved much since the previous build.
+ * </p>
+ */
+@NotThreadSafe
+public final class NeighbourList {
+
+    /*
+     * Bottom-up merge sort of order by key, skipping merges of runs that are
+     * already in order, so sorting an almost sorted order is fast.
+     */
+    private static void sort(final int[] order, final double[] key, final int[] scratch) {
+        final int n = order.length;
+        int[] from = order;
+        int[] to = scratch;
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                final int mid = Math.min(lo + width, n);
+                final int hi = Math.min(lo + 2 * width, n);
+                if (mid == hi || key[from[mid - 1]] <= key[from[mid]]) {
+                    System.arraycopy(from, lo, to, lo, hi - lo);
+                } else {
+                    int a = lo;
+                    int b = mid;
+                    for (int k = lo; k < hi; ++k) {
+                        if (b == hi || (a < mid && key[from[a]] <= key[from[b]])) {
+                            to[k] = from[a++];
+                        } else {
+                            to[k] = from[b++];
+                        }
+                    }
+                }
+            }
+            final int[] t = from;
+            from = to;
+            to = t;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, n);
+        }
+    }
+
+    private final int spaceDimension;
+    private final int[] positionTerm;
+    private final double cutoff;
+    private final double skin;
+
+    private final double[] positionAtBuild;
+    private final double[] key;
+    private final int[] order;
+    private final int[] scratch;
+    private int[] pairs = {};
+    private int numberOfPairs;
+    private int numberOfBuilds;
+
+    /**
+     * <p>
+     * Construct a neighbour list that has not yet been built.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * <li>The list has not been {@linkplain #getNumberOfBuilds() built}.</li>
+     * <li>The list has no {@linkplain #getNumberOfPairs() pairs}.</li>
+     * </ul>
+     * </section>
+     *
+     * @param spaceDimension
+     *            The number of space dimensions of the positions of the
+     *            particles.
+     * @param positionTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vectors of the particles.
+     *            {@code positionTerm[j*spaceDimension+i]} is the index of component
+     *            <var>i</var> of the position of particle <var>j</var>.
+     * @param cutoff
+     *            The distance beyond which particles do not interact.
+     * @param skin
+     *            The additional distance included in the list, so the list need
+     *            not be rebuilt every time the particles move.
+     * @throws NullPointerException
+     *             If {@code positionTerm} is null.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code spaceDimension} is not positive.</li>
+     *             <li>If the length of {@code positionTerm} is not a multiple of
+     *             {@code spaceDimension}.</li>
+     *             <li>If any of the term indices is negative.</li>
+     *             <li>If {@code cutoff} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code skin} is negative or is not finite.</li>
+     *             </ul>
+     */
+    public NeighbourList(final int spaceDimension, final int[] positionTerm, final double cutoff,
+            final double skin) {
+        Objects.requireNonNull(positionTerm, "positionTerm");
+        if (spaceDimension <= 0) {
+            throw new IllegalArgumentException("spaceDimension " + spaceDimension);
+        }
+        if (positionTerm.length % spaceDimension != 0) {
+            throw new IllegalArgumentException(
+                    "Inconsistent spaceDimension " + spaceDimension + " positionTerm.length " + positionTerm.length);
+        }
+        if (!(0.0 < cutoff && Double.isFinite(cutoff))) {
+            throw new IllegalArgumentException("cutoff " + cutoff);
+        }
+        if (!(0.0 <= skin && Double.isFinite(skin))) {
+            throw new IllegalArgumentException("skin " + skin);
+        }
+        this.spaceDimension = spaceDimension;
+        this.positionTerm = Arrays.copyOf(positionTerm, positionTerm.length);
+        for (int k = 0; k < this.positionTerm.length; ++k) {
+            if (this.positionTerm[k] < 0) {
+                throw new IllegalArgumentException("positionTerm[" + k + "] " + this.positionTerm[k]);
+            }
+        }
+        this.cutoff = cutoff;
+        this.skin = skin;
+
+        final int nParticles = getNumberOfParticles();
+        positionAtBuild = new double[positionTerm.length];
+        key = new double[nParticles];
+        order = new int[nParticles];
+        scratch = new int[nParticles];
+        for (int j = 0; j < nParticles; ++j) {
+            order[j] = j;
+        }
+    }
+
+    private void addPair(final int j1, final int j2) {
+        if (pairs.length < 2 * (numberOfPairs + 1)) {
+            pairs = Arrays.copyOf(pairs, Math.max(16, 2 * pairs.length));
+        }
+        pairs[2 * numberOfPairs] = Math.min(j1, j2);
+        pairs[2 * numberOfPairs + 1] = Math.max(j1, j2);
+        ++numberOfPairs;
+    }
+
+    private void build(final double[] state) {
+        final int ns = spaceDimension;
+        final int nParticles = getNumberOfParticles();
+        final double range = getListRange();
+        final double range2 = range * range;
+
+        for (int k = 0; k < positionTerm.length; ++k) {
+            positionAtBuild[k] = state[positionTerm[k]];
+        }
+        for (int j = 0; j < nParticles; ++j) {
+            key[j] = positionAtBuild[j * ns];
+        }
+        sort(order, key, scratch);
+
+        numberOfPairs = 0;
+        for (int a = 0; a < nParticles; ++a) {
+            final int j1 = order[a];
+            for (int b = a + 1; b < nParticles && key[order[b]] - key[j1] <= range; ++b) {
+                final int j2 = order[b];
+                double s2 = 0.0;
+                for (int i = 0; i < ns; ++i) {
+                    final double r = positionAtBuild[j2 * ns + i] - positionAtBuild[j1 * ns + i];
+                    s2 += r * r;
+                }
+                if (s2 <= range2) {
+                    addPair(j1, j2);
+                }
+            }
+        }
+        ++numberOfBuilds;
+    }
+
+    /**
+     * <p>
+     * The distance beyond which particles do not interact.
+     * </p>
+     *
+     * @return the cutoff distance; positive and
+     *         {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * <p>
+     * The distance within which pairs of particles were included in the list
+     * when the list was built.
+     * </p>
+     * <p>
+     * The list range is the sum of the {@linkplain #getCutoff() cutoff} and the
+     * {@linkplain #getSkin() skin} distances.
+     * </p>
+     *
+     * @return the range; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getListRange() {
+        return cutoff + skin;
+    }
+
+    /**
+     * <p>
+     * How many times the list has been built.
+     * </p>
+     *
+     * @return the number of builds; not negative
+     */
+    public final int getNumberOfBuilds() {
+        return numberOfBuilds;
+    }
+
+    /**
+     * <p>
+     * The number of pairs of particles in the list.
+     * </p>
+     *
+     * @return the number of pairs; not negative
+     */
+    public final int getNumberOfPairs() {
+        return numberOfPairs;
+    }
+
+    /**
+     * <p>
+     * The number of particles of the system.
+     * </p>
+     *
+     * @return the number of particles; not negative
+     */
+    public final int getNumberOfParticles() {
+        return positionTerm.length / spaceDimension;
+    }
+
+    /**
+     * <p>
+     * The first particle of a pair of particles in the list.
+     * </p>
+     *
+     * @param p
+     *            The index of the pair.
+     * @return the index of the particle; not negative; less than the
+     *         {@linkplain #getParticle2(int) second particle} of the pair.
+     * @throws IndexOutOfBoundsException
+     *             If {@code p} is negative or is not less than the
+     *             {@linkplain #getNumberOfPairs() number of pairs}.
+     */
+    public final int getParticle1(final int p) {
+        return pairs[2 * requirePair(p)];
+    }
+
+    /**
+     * <p>
+     * The second particle of a pair of particles in the list.
+     * </p>
+     *
+     * @param p
+     *            The index of the pair.
+     * @return the index of the particle; less than the
+     *         {@linkplain #getNumberOfParticles() number of particles}.
+     * @throws IndexOutOfBoundsException
+     *             If {@code p} is negative or is not less than the
+     *             {@linkplain #getNumberOfPairs() number of pairs}.
+     */
+    public final int getParticle2(final int p) {
+        return pairs[2 * requirePair(p) + 1];
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * position of a particle.
+     * </p>
+     *
+     * @param j
+     *            The particle of interest.
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the position vector; not negative
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code j} is negative or is not less than the
+     *             {@linkplain #getNumberOfParticles() number of particles}.</li>
+     *             <li>If {@code i} is negative or is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getPositionTerm(final int j, final int i) {
+        if (i < 0 || spaceDimension <= i) {
+            throw new IndexOutOfBoundsException("Not a space vector component " + i);
+        }
+        return positionTerm[j * spaceDimension + i];
+    }
+
+    /**
+     * <p>
+     * The additional distance included in the list, so the list need not be
+     * rebuilt every time the particles move.
+     * </p>
+     * <p>
+     * A larger skin distance means the list must be rebuilt less often, but
+     * contains more pairs that are beyond the {@linkplain #getCutoff() cutoff}
+     * distance.
+     * </p>
+     *
+     * @return the skin distance; not negative and
+     *         {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getSkin() {
+        return skin;
+    }
+
+    /**
+     * <p>
+     * The number of space dimensions of the positions of the particles.
+     * </p>
+     *
+     * @return the number of dimensions; positive
+     */
+    public final int getSpaceDimension() {
+        return spaceDimension;
+    }
+
+    private int requirePair(final int p) {
+        if (p < 0 || numberOfPairs <= p) {
+            throw new IndexOutOfBoundsException("Not a pair " + p);
+        }
+        return p;
+    }
+
+    /**
+     * <p>
+     * Ensure that this list contains every pair of particles that are within the
+     * {@linkplain #getCutoff() cutoff} distance of each other, for given
+     * positions of the particles, rebuilding the list if necessary.
+     * </p>
+     * <p>
+     * The method rebuilds the list if, and only if, the list has not been built
+     * yet, or a particle has moved more than half the {@linkplain #getSkin() skin}
+     * distance since the list was last built. After the update, the list remains
+     * valid for any positions that are within half the skin distance of the
+     * given positions, so it can be used for all the trial states of a time-step
+     * that do not move particles too far.
+     * </p>
+     *
+     * @param state
+     *            The state vector of the system, which holds the positions of the
+     *            particles.
+     * @return whether the method rebuilt the list.
+     * @throws NullPointerException
+     *             If {@code state} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code state} is too short to hold the positions of the
+     *             particles.
+     */
+    public final boolean update(final double[] state) {
+        Objects.requireNonNull(state, "state");
+        if (0 < numberOfBuilds) {
+            final double halfSkin = 0.5 * skin;
+            final double limit2 = halfSkin * halfSkin;
+            final int ns = spaceDimension;
+            boolean moved = false;
+            for (int j = 0, nParticles = getNumberOfParticles(); j < nParticles && !moved; ++j) {
+                double d2 = 0.0;
+                for (int i = 0; i < ns; ++i) {
+                    final int k = j * ns + i;
+                    final double d = state[positionTerm[k]] - positionAtBuild[k];
+                    d2 += d * d;
+                }
+                moved = limit2 < d2;
+            }
+            if (!moved) {
+                return false;
+            }
+        }
+        build(state);
+        return true;
+    }
+
+}
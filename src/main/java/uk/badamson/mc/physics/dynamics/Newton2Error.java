@@ -17,12 +17,16 @@ package uk.badamson.mc.physics.dynamics;/*
                                         * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                         */
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import net.jcip.annotations.Immutable;
 import uk.badamson.mc.math.ImmutableVectorN;
 import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTerm;
 import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunction;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionResidualTerm;
 import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
 
 /**
@@ -34,29 +38,118 @@ import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
  * </p>
  */
 @Immutable
-public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm {
+public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
+        implements TimeStepEnergyErrorFunctionResidualTerm {
 
-    private static boolean isValidForTerm(final int n, final int term[]) {
-        for (final int element : term) {
-            if (n < element + 1) {
+    /**
+     * <p>
+     * The term indices of a {@link Newton2Error}, relative to the lowest index,
+     * and the information derived from them.
+     * </p>
+     * <p>
+     * Systems of many bodies typically have many terms that differ only in the
+     * position of the body in the state vector. Such terms share one
+     * {@linkplain #intern(Layout) interned} layout, and differ only in their base
+     * index. The layouts are weakly interned, so a layout that is no longer used
+     * by any term may be garbage collected.
+     * </p>
+     */
+    @Immutable
+    private static final class Layout {
+
+        private static final Map<Layout, WeakReference<Layout>> INTERNED = new WeakHashMap<>();
+
+        private static Layout intern(final Layout layout) {
+            return AbstractTimeStepEnergyErrorFunctionTerm.intern(INTERNED, layout);
+        }
+
+        private final int massTerm;
+        private final int[] accelerationTerm;
+        private final int[] velocityTerm;
+        private final int[] advectionVelocityTerm;
+        private final int[] advectionMassRateTerm;
+        private final int[] forceTerm;
+
+        private final boolean[] massTransferInto;
+        private final boolean[] forceOn;
+
+        private final int[] indexFootprint;
+        private final int massColumn;
+        private final int[] accelerationColumn;
+        private final int[] velocityColumn;
+        private final int[] advectionVelocityColumn;
+        private final int[] advectionMassRateColumn;
+        private final int[] forceColumn;
+
+        Layout(final int massTerm, final int[] velocityTerm, final int[] accelerationTerm,
+                final boolean[] massTransferInto, final int[] advectionMassRateTerm, final int[] advectionVelocityTerm,
+                final boolean[] forceOn, final int[] forceTerm) {
+            this.massTerm = massTerm;
+            this.velocityTerm = velocityTerm;
+            this.accelerationTerm = accelerationTerm;
+            this.massTransferInto = massTransferInto;
+            this.advectionMassRateTerm = advectionMassRateTerm;
+            this.advectionVelocityTerm = advectionVelocityTerm;
+            this.forceOn = forceOn;
+            this.forceTerm = forceTerm;
+
+            indexFootprint = createIndexFootprint(new int[] { massTerm }, velocityTerm, accelerationTerm,
+                    advectionMassRateTerm, advectionVelocityTerm, forceTerm);
+            massColumn = columnsOf(indexFootprint, new int[] { massTerm })[0];
+            accelerationColumn = columnsOf(indexFootprint, accelerationTerm);
+            velocityColumn = columnsOf(indexFootprint, velocityTerm);
+            advectionVelocityColumn = columnsOf(indexFootprint, advectionVelocityTerm);
+            advectionMassRateColumn = columnsOf(indexFootprint, advectionMassRateTerm);
+            forceColumn = columnsOf(indexFootprint, forceTerm);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Layout)) {
                 return false;
             }
+            final Layout other = (Layout) obj;
+            return massTerm == other.massTerm && Arrays.equals(velocityTerm, other.velocityTerm)
+                    && Arrays.equals(accelerationTerm, other.accelerationTerm)
+                    && Arrays.equals(massTransferInto, other.massTransferInto)
+                    && Arrays.equals(advectionMassRateTerm, other.advectionMassRateTerm)
+                    && Arrays.equals(advectionVelocityTerm, other.advectionVelocityTerm)
+                    && Arrays.equals(forceOn, other.forceOn) && Arrays.equals(forceTerm, other.forceTerm);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + massTerm;
+            result = prime * result + Arrays.hashCode(velocityTerm);
+            result = prime * result + Arrays.hashCode(accelerationTerm);
+            result = prime * result + Arrays.hashCode(massTransferInto);
+            result = prime * result + Arrays.hashCode(advectionMassRateTerm);
+            result = prime * result + Arrays.hashCode(advectionVelocityTerm);
+            result = prime * result + Arrays.hashCode(forceOn);
+            result = prime * result + Arrays.hashCode(forceTerm);
+            return result;
         }
-        return true;
+    }// class
+
+    private static int[] relativeTo(final int base, final int[] term) {
+        final int n = term.length;
+        final int[] relative = new int[n];
+        for (int i = 0; i < n; ++i) {
+            relative[i] = term[i] - base;
+        }
+        return relative;
     }
 
     private final double massReference;
     private final double timeReference;
 
-    private final int massTerm;
-    private final int[] accelerationTerm;
-    private final int[] velocityTerm;
-    private final int[] advectionVelocityTerm;
-    private final int[] advectionMassRateTerm;
-    private final int[] forceTerm;
-
-    private final boolean[] massTransferInto;
-    private final boolean[] forceOn;
+    private final int base;
+    private final Layout layout;
 
     /**
      * <p>
@@ -152,14 +245,14 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
             final int[] forceTerm) {
         this.massReference = requireReferenceScale(massReference, "massReference");
         this.timeReference = requireReferenceScale(timeReference, "timeReference");
-        this.massTerm = requireTermIndex(massTerm, "massTerm");
-        this.velocityTerm = copyTermIndex(velocityTerm, "velocityTerm");
-        this.accelerationTerm = copyTermIndex(accelerationTerm, "accelerationTerm");
-        this.massTransferInto = Arrays.copyOf(massTransferInto, massTransferInto.length);
-        this.advectionMassRateTerm = copyTermIndex(advectionMassRateTerm, "advectionMassRateTerm");
-        this.advectionVelocityTerm = copyTermIndex(advectionVelocityTerm, "advectionVelocityTerm");
-        this.forceOn = Arrays.copyOf(forceOn, forceOn.length);
-        this.forceTerm = copyTermIndex(forceTerm, "forceTerm");
+        requireTermIndex(massTerm, "massTerm");
+        final int[] velocityTermCopy = copyTermIndex(velocityTerm, "velocityTerm");
+        final int[] accelerationTermCopy = copyTermIndex(accelerationTerm, "accelerationTerm");
+        final boolean[] massTransferIntoCopy = Arrays.copyOf(massTransferInto, massTransferInto.length);
+        final int[] advectionMassRateTermCopy = copyTermIndex(advectionMassRateTerm, "advectionMassRateTerm");
+        final int[] advectionVelocityTermCopy = copyTermIndex(advectionVelocityTerm, "advectionVelocityTerm");
+        final boolean[] forceOnCopy = Arrays.copyOf(forceOn, forceOn.length);
+        final int[] forceTermCopy = copyTermIndex(forceTerm, "forceTerm");
 
         final int nSpace = velocityTerm.length;
         final int nAdvection = massTransferInto.length;
@@ -178,6 +271,13 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
             throw new IllegalArgumentException("Inconsistent velocityTerm.length " + nSpace + ", forceOn.length "
                     + nForce + ", forceTerm.length" + forceTerm.length);
         }
+
+        base = createIndexFootprint(new int[] { massTerm }, velocityTermCopy, accelerationTermCopy,
+                advectionMassRateTermCopy, advectionVelocityTermCopy, forceTermCopy)[0];
+        layout = Layout.intern(new Layout(massTerm - base, relativeTo(base, velocityTermCopy),
+                relativeTo(base, accelerationTermCopy), massTransferIntoCopy,
+                relativeTo(base, advectionMassRateTermCopy), relativeTo(base, advectionVelocityTermCopy), forceOnCopy,
+                relativeTo(base, forceTermCopy)));
     }
 
     /**
@@ -224,27 +324,27 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
         final int nf = getNumberOfForces();
         final double mRef2 = massReference * massReference;
 
-        final double m = state.get(massTerm);
+        final double m = state.get(base + layout.massTerm);
 
-        final ImmutableVectorN a = extract(state, accelerationTerm);
-        final ImmutableVectorN v = extract(state, velocityTerm);
+        final ImmutableVectorN a = extract(state, base, layout.accelerationTerm);
+        final ImmutableVectorN v = extract(state, base, layout.velocityTerm);
 
         double massRateTotal = 0.0;
         final double[] massRate = new double[nm];
         final ImmutableVectorN[] vrel = new ImmutableVectorN[nm];
         for (int j = 0; j < nm; ++j) {
-            final double sign = massTransferInto[j] ? 1.0 : -1.0;
-            final double massRateJ = sign * state.get(advectionMassRateTerm[j]);
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double massRateJ = sign * state.get(base + layout.advectionMassRateTerm[j]);
             massRate[j] = massRateJ;
             massRateTotal += massRateJ;
-            vrel[j] = extract(state, advectionVelocityTerm, j * ns, ns).minus(v);
+            vrel[j] = extract(state, base, layout.advectionVelocityTerm, j * ns, ns).minus(v);
         }
 
         final ImmutableVectorN[] f = new ImmutableVectorN[nf];
         final double[] fs = new double[nf];
         for (int k = 0; k < nf; ++k) {
-            f[k] = extract(state, forceTerm, k * ns, ns);
-            fs[k] = forceOn[k] ? 1.0 : -1.0;
+            f[k] = extract(state, base, layout.forceTerm, k * ns, ns);
+            fs[k] = layout.forceOn[k] ? 1.0 : -1.0;
         }
 
         final ImmutableVectorN advectionTotal = 0 < nm ? ImmutableVectorN.weightedSum(massRate, vrel)
@@ -253,10 +353,10 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
 
         final ImmutableVectorN fe = a.scale(m).minus(advectionTotal).minus(fTotal);
         final ImmutableVectorN ve = fe.scale(getTimeReference() / mRef2);
-        final ImmutableVectorN xe = ve.scale(getTimeReference());
+        final ImmutableVectorN xe = ve.scale(getTimeReference() / massReference);
         final double e = 0.5 * massReference * ve.magnitude2();
 
-        dedx[massTerm] += xe.dot(a);
+        dedx[base + layout.massTerm] += xe.dot(a);
         for (int i = 0; i < ns; ++i) {
             final double xi = xe.get(i);
             dedx[getVelocityTerm(i)] += massRateTotal * xi;
@@ -266,10 +366,10 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
         for (int j = 0; j < nm; ++j) {
             final double dedmrate = xe.dot(vrel[j]);
             final ImmutableVectorN dedu = xe.scale(-massRate[j]);
-            if (massTransferInto[j]) {
-                dedx[advectionMassRateTerm[j]] -= dedmrate;
+            if (layout.massTransferInto[j]) {
+                dedx[base + layout.advectionMassRateTerm[j]] -= dedmrate;
             } else {
-                dedx[advectionMassRateTerm[j]] += dedmrate;
+                dedx[base + layout.advectionMassRateTerm[j]] += dedmrate;
             }
             for (int i = 0; i < ns; ++i) {
                 dedx[getAdvectionVelocityTerm(j, i)] += dedu.get(i);
@@ -286,6 +386,394 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
         return e;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method,
+     * with a newly allocated work array.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        return evaluate(dedx, state0, state, dt, new double[getWorkspaceLength()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method, with the same sequence of floating-point operations, so it computes
+     * bitwise identical values. But it uses only primitive local variables and
+     * the work array, which holds the components of the position error, so it
+     * does not allocate any objects.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt,
+            final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requireWorkspace(workspace, getWorkspaceLength());
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final double mRef2 = massReference * massReference;
+        final double veScale = timeReference / mRef2;
+        final double[] xe = workspace;
+
+        final double m = state[base + layout.massTerm];
+
+        double massRateTotal = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            massRateTotal += sign * state[base + layout.advectionMassRateTerm[j]];
+        }
+
+        double ve2 = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double v = state[base + layout.velocityTerm[i]];
+            double advectionTotal = 0.0;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double massRate = sign * state[base + layout.advectionMassRateTerm[j]];
+                advectionTotal += massRate * (state[base + layout.advectionVelocityTerm[j * ns + i]] - v);
+            }
+            double fTotal = 0.0;
+            for (int k = 0; k < nf; ++k) {
+                final double fs = layout.forceOn[k] ? 1.0 : -1.0;
+                fTotal += fs * state[base + layout.forceTerm[k * ns + i]];
+            }
+            final double fe = state[base + layout.accelerationTerm[i]] * m - advectionTotal - fTotal;
+            final double ve = fe * veScale;
+            ve2 += ve * ve;
+            xe[i] = ve * (timeReference / massReference);
+        }
+        final double e = 0.5 * massReference * ve2;
+
+        double dedm = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            dedm += xe[i] * state[base + layout.accelerationTerm[i]];
+        }
+        dedx[base + layout.massTerm] += dedm;
+        for (int i = 0; i < ns; ++i) {
+            final double xi = xe[i];
+            dedx[base + layout.velocityTerm[i]] += massRateTotal * xi;
+            dedx[base + layout.accelerationTerm[i]] += m * xi;
+        }
+
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double massRate = sign * state[base + layout.advectionMassRateTerm[j]];
+            double dedmrate = 0.0;
+            for (int i = 0; i < ns; ++i) {
+                final double vrel = state[base + layout.advectionVelocityTerm[j * ns + i]]
+                        - state[base + layout.velocityTerm[i]];
+                dedmrate += xe[i] * vrel;
+            }
+            if (layout.massTransferInto[j]) {
+                dedx[base + layout.advectionMassRateTerm[j]] -= dedmrate;
+            } else {
+                dedx[base + layout.advectionMassRateTerm[j]] += dedmrate;
+            }
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.advectionVelocityTerm[j * ns + i]] += xe[i] * -massRate;
+            }
+        }
+
+        for (int k = 0; k < nf; ++k) {
+            final double fsk = layout.forceOn[k] ? 1.0 : -1.0;
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.forceTerm[k * ns + i]] -= fsk * xe[i];
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method for each body, but processes the bodies in loops over the components
+     * of the structure of arrays. Each loop has no dependencies between bodies,
+     * so the compiler can vectorise it.
+     * </p>
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluateBatch(double[], double[][], double[][], double[][], double, double[])}
+     * method, with a newly allocated work array.
+     * </p>
+     *
+     * @param e
+     *            {@inheritDoc}
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    @Override
+    public final void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt) {
+        evaluateBatch(e, dedx, state0, state, dt, new double[getBatchWorkspaceLength(e.length)]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method for each body, but processes the bodies in loops over the components
+     * of the structure of arrays. Each loop has no dependencies between bodies,
+     * so the compiler can vectorise it. The work array holds one component of the
+     * force error of each body at a time, so the method does not allocate any
+     * objects.
+     * </p>
+     *
+     * @param e
+     *            {@inheritDoc}
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    @Override
+    public final void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt, final double[] workspace) {
+        requireBatchArguments(e, dedx, state0, state, dt);
+        if (!isValidForDimension(state0.length)) {
+            throw new IllegalArgumentException("Not valid for dimension " + state0.length);
+        }
+        requireWorkspace(workspace, getBatchWorkspaceLength(e.length));
+
+        final int nBodies = e.length;
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final double veScale = timeReference / (massReference * massReference);
+        final double xeScale = veScale * (timeReference / massReference);
+
+        final double[] m = state[base + layout.massTerm];
+        final double[] dedm = dedx[base + layout.massTerm];
+        final double[] xe = workspace;
+        Arrays.fill(e, 0, nBodies, 0.0);
+        for (int i = 0; i < ns; ++i) {
+            final double[] a = state[base + layout.accelerationTerm[i]];
+            final double[] v = state[base + layout.velocityTerm[i]];
+            final double[] deda = dedx[base + layout.accelerationTerm[i]];
+            final double[] dedv = dedx[base + layout.velocityTerm[i]];
+
+            /* Force error component, accumulated in xe. */
+            for (int b = 0; b < nBodies; ++b) {
+                xe[b] = m[b] * a[b];
+            }
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double[] massRate = state[base + layout.advectionMassRateTerm[j]];
+                final double[] u = state[base + layout.advectionVelocityTerm[j * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    xe[b] -= sign * massRate[b] * (u[b] - v[b]);
+                }
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double fs = layout.forceOn[k] ? 1.0 : -1.0;
+                final double[] f = state[base + layout.forceTerm[k * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    xe[b] -= fs * f[b];
+                }
+            }
+
+            for (int b = 0; b < nBodies; ++b) {
+                final double fe = xe[b];
+                final double xeb = xeScale * fe;
+                e[b] += fe * fe;
+                xe[b] = xeb;
+                dedm[b] += xeb * a[b];
+                deda[b] += m[b] * xeb;
+            }
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double[] massRate = state[base + layout.advectionMassRateTerm[j]];
+                final double[] u = state[base + layout.advectionVelocityTerm[j * ns + i]];
+                final double[] dedmrate = dedx[base + layout.advectionMassRateTerm[j]];
+                final double[] dedu = dedx[base + layout.advectionVelocityTerm[j * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    final double xeb = xe[b];
+                    final double signedMassRate = sign * massRate[b];
+                    dedv[b] += signedMassRate * xeb;
+                    dedmrate[b] -= sign * xeb * (u[b] - v[b]);
+                    dedu[b] -= signedMassRate * xeb;
+                }
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double fs = layout.forceOn[k] ? 1.0 : -1.0;
+                final double[] dedf = dedx[base + layout.forceTerm[k * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    dedf[b] -= fs * xe[b];
+                }
+            }
+        }
+
+        final double eScale = 0.5 * massReference * veScale * veScale;
+        for (int b = 0; b < nBodies; ++b) {
+            e[b] *= eScale;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual for each {@linkplain #getSpaceDimension() space
+     * dimension}, each proportional to a component of the force error.
+     * </p>
+     *
+     * @param residuals
+     *            {@inheritDoc}
+     * @param jacobian
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+            final double[] state, final double dt) {
+        requireResidualArguments(residuals, jacobian, state0, state, dt);
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final int p = layout.indexFootprint.length;
+        final double scale = Math.sqrt(massReference) * timeReference / (massReference * massReference);
+
+        final double m = state[base + layout.massTerm];
+        double massRateTotal = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            massRateTotal += (layout.massTransferInto[j] ? 1.0 : -1.0) * state[base + layout.advectionMassRateTerm[j]];
+        }
+
+        Arrays.fill(jacobian, 0, ns * p, 0.0);
+        double e = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final int row = i * p;
+            final double a = state[base + layout.accelerationTerm[i]];
+            final double v = state[base + layout.velocityTerm[i]];
+            double fe = m * a;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final int ji = j * ns + i;
+                final double vrel = state[base + layout.advectionVelocityTerm[ji]] - v;
+                fe -= sign * state[base + layout.advectionMassRateTerm[j]] * vrel;
+                jacobian[row + layout.advectionMassRateColumn[j]] -= scale * sign * vrel;
+                jacobian[row + layout.advectionVelocityColumn[ji]] -= scale * sign
+                        * state[base + layout.advectionMassRateTerm[j]];
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double fs = layout.forceOn[k] ? 1.0 : -1.0;
+                final int ki = k * ns + i;
+                fe -= fs * state[base + layout.forceTerm[ki]];
+                jacobian[row + layout.forceColumn[ki]] -= scale * fs;
+            }
+            jacobian[row + layout.massColumn] += scale * a;
+            jacobian[row + layout.accelerationColumn[i]] += scale * m;
+            jacobian[row + layout.velocityColumn[i]] += scale * massRateTotal;
+
+            final double r = scale * fe;
+            residuals[i] = r;
+            e += 0.5 * r * r;
+        }
+
+        return e;
+    }
+
     /**
      * <p>
      * Which terms in the solution space vector correspond to the components of the
@@ -304,7 +792,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final int getAccelerationTerm(final int i) {
-        return accelerationTerm[i];
+        return base + layout.accelerationTerm[i];
     }
 
     /**
@@ -327,7 +815,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final int getAdvectionMassRateTerm(final int j) {
-        return advectionMassRateTerm[j];
+        return base + layout.advectionMassRateTerm[j];
     }
 
     /**
@@ -355,7 +843,29 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final int getAdvectionVelocityTerm(final int j, final int i) {
-        return advectionVelocityTerm[requireAdvectionProcess(j) * getSpaceDimension() + requireVectorComponent(i)];
+        return base + layout.advectionVelocityTerm[requireAdvectionProcess(j) * getSpaceDimension()
+                + requireVectorComponent(i)];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The work array holds one value for each body.
+     * </p>
+     *
+     * @param nBodies
+     *            {@inheritDoc}
+     * @return the number of bodies
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int getBatchWorkspaceLength(final int nBodies) {
+        if (nBodies < 0) {
+            throw new IllegalArgumentException("nBodies " + nBodies);
+        }
+        return nBodies;
     }
 
     /**
@@ -382,7 +892,34 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final int getForceTerm(final int k, final int i) {
-        return forceTerm[requireForce(k) * getSpaceDimension() + requireVectorComponent(i)];
+        return base + layout.forceTerm[requireForce(k) * getSpaceDimension() + requireVectorComponent(i)];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the mass, velocity, acceleration, advection and force
+     * terms.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        final int p = layout.indexFootprint.length;
+        final int[] indexFootprint = new int[p];
+        for (int c = 0; c < p; ++c) {
+            indexFootprint[c] = base + layout.indexFootprint[c];
+        }
+        return indexFootprint;
     }
 
     /**
@@ -411,7 +948,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      * @return the index of the mass; not negative
      */
     public final int getMassTerm() {
-        return massTerm;
+        return base + layout.massTerm;
     }
 
     /**
@@ -422,7 +959,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      * @return the number of forces; not negative.
      */
     public final int getNumberOfForces() {
-        return forceOn.length;
+        return layout.forceOn.length;
     }
 
     /**
@@ -434,7 +971,22 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      * @return the number of mass transfer processes; not negative.
      */
     public final int getNumberOfMassTransfers() {
-        return massTransferInto.length;
+        return layout.massTransferInto.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual for each {@linkplain #getSpaceDimension() space
+     * dimension}.
+     * </p>
+     *
+     * @return the number of space dimensions
+     */
+    @Override
+    public final int getNumberOfResiduals() {
+        return layout.velocityTerm.length;
     }
 
     /**
@@ -445,7 +997,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      * @return the number of dimensions; positive.
      */
     public final int getSpaceDimension() {
-        return velocityTerm.length;
+        return layout.velocityTerm.length;
     }
 
     /**
@@ -483,7 +1035,22 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final int getVelocityTerm(final int i) {
-        return velocityTerm[i];
+        return base + layout.velocityTerm[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The work array holds one value for each {@linkplain #getSpaceDimension()
+     * space dimension}.
+     * </p>
+     *
+     * @return the space dimension
+     */
+    @Override
+    public final int getWorkspaceLength() {
+        return layout.velocityTerm.length;
     }
 
     /**
@@ -511,7 +1078,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final boolean isForceOn(final int k) {
-        return forceOn[k];
+        return layout.forceOn[k];
     }
 
     /**
@@ -538,7 +1105,7 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
      *             </ul>
      */
     public final boolean isMassTransferInto(final int j) {
-        return massTransferInto[j];
+        return layout.massTransferInto[j];
     }
 
     /**
@@ -556,9 +1123,42 @@ public final class Newton2Error extends AbstractTimeStepEnergyErrorFunctionTerm
         if (n <= 0) {
             throw new IllegalArgumentException("n " + n);
         }
-        return massTerm + 1 <= n && isValidForTerm(n, accelerationTerm) && isValidForTerm(n, velocityTerm)
-                && isValidForTerm(n, advectionVelocityTerm) && isValidForTerm(n, advectionMassRateTerm)
-                && isValidForTerm(n, forceTerm);
+        return base + layout.indexFootprint[layout.indexFootprint.length - 1] < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * term indices.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final Newton2Error remap(final int[] map) {
+        return new Newton2Error(massReference, timeReference, map[base + layout.massTerm],
+                remapRelative(layout.velocityTerm, map), remapRelative(layout.accelerationTerm, map),
+                layout.massTransferInto, remapRelative(layout.advectionMassRateTerm, map),
+                remapRelative(layout.advectionVelocityTerm, map), layout.forceOn, remapRelative(layout.forceTerm, map));
+    }
+
+    private int[] remapRelative(final int[] relative, final int[] map) {
+        final int n = relative.length;
+        final int[] term = new int[n];
+        for (int i = 0; i < n; ++i) {
+            term[i] = map[base + relative[i]];
+        }
+        return term;
     }
 
     private int requireAdvectionProcess(final int j) {
@@ -0,0 +1,553 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTerm;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunction;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionResidualTerm;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTerm;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm term} for a
+ * {@linkplain TimeStepEnergyErrorFunction functor that calculates the physical
+ * modelling error of a system at a future point in time} that gives the degree
+ * to which the force exerted by a linear (Hookean) spring joining two bodies
+ * differs from the force given by the constitutive law of the spring.
+ * </p>
+ * <p>
+ * The term constrains a force that is a state variable, such as a force of a
+ * {@link Newton2Error} term, to be a function of the positions of the two
+ * bodies. The force is the force that the spring exerts on the first body. The
+ * spring exerts an equal and opposite force on the second body, so the same
+ * force state variables can be used for the second body, with the opposite
+ * {@linkplain Newton2Error#isForceOn(int) sense}.
+ * </p>
+ * <p>
+ * If the bodies are at the same position, the direction of the spring force is
+ * undefined, so the value is not a number unless the
+ * {@linkplain #getNaturalLength() natural length} is zero.
+ * </p>
+ *
+ * @see DamperForceError
+ */
+@Immutable
+public final class SpringForceError extends AbstractTimeStepEnergyErrorFunctionTerm
+        implements TimeStepEnergyErrorFunctionResidualTerm {
+
+    private final double massReference;
+    private final double timeReference;
+    private final double stiffness;
+    private final double naturalLength;
+    private final int[] positionTerm1;
+    private final int[] positionTerm2;
+    private final int[] forceTerm;
+
+    private final int[] indexFootprint;
+    private final int[] positionColumn1;
+    private final int[] positionColumn2;
+    private final int[] forceColumn;
+
+    /**
+     * <p>
+     * Construct a SpringForceError.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * </ul>
+     * </section>
+     *
+     * @param massReference
+     *            A reference mass scale.
+     * @param timeReference
+     *            A reference time scale.
+     * @param stiffness
+     *            The stiffness (spring constant) of the spring.
+     * @param naturalLength
+     *            The length of the spring when it exerts no force.
+     * @param positionTerm1
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vector of the first body.
+     *            {@code positionTerm1[i]} is the index of component <var>i</var>.
+     * @param positionTerm2
+     *            Which terms in the solution space vector correspond to the
+     *            components of the position vector of the second body.
+     * @param forceTerm
+     *            Which terms in the solution space vector correspond to the
+     *            components of the force that the spring exerts on the first
+     *            body.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code positionTerm1} is null.</li>
+     *             <li>If {@code positionTerm2} is null.</li>
+     *             <li>If {@code forceTerm} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code massReference} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code timeReference} is not positive and finite.</li>
+     *             <li>If {@code stiffness} is not positive and finite.</li>
+     *             <li>If {@code naturalLength} is negative or is not finite.</li>
+     *             <li>If {@code positionTerm1}, {@code positionTerm2} and
+     *             {@code forceTerm} do not all have the same length.</li>
+     *             <li>If {@code positionTerm1} is empty.</li>
+     *             <li>If any of the term indices is negative.</li>
+     *             </ul>
+     */
+    public SpringForceError(final double massReference, final double timeReference, final double stiffness,
+            final double naturalLength, final int[] positionTerm1, final int[] positionTerm2,
+            final int[] forceTerm) {
+        this.massReference = requireReferenceScale(massReference, "massReference");
+        this.timeReference = requireReferenceScale(timeReference, "timeReference");
+        this.stiffness = requireReferenceScale(stiffness, "stiffness");
+        if (!(0.0 <= naturalLength && Double.isFinite(naturalLength))) {
+            throw new IllegalArgumentException("naturalLength " + naturalLength);
+        }
+        this.naturalLength = naturalLength;
+        this.positionTerm1 = copyTermIndex(positionTerm1, "positionTerm1");
+        this.positionTerm2 = copyTermIndex(positionTerm2, "positionTerm2");
+        this.forceTerm = copyTermIndex(forceTerm, "forceTerm");
+        requireConsistentLengths(this.positionTerm1, "positionTerm1", this.positionTerm2, "positionTerm2");
+        requireConsistentLengths(this.positionTerm1, "positionTerm1", this.forceTerm, "forceTerm");
+        if (this.positionTerm1.length == 0) {
+            throw new IllegalArgumentException("positionTerm1.length 0");
+        }
+
+        indexFootprint = createIndexFootprint(this.positionTerm1, this.positionTerm2, this.forceTerm);
+        positionColumn1 = columnsOf(indexFootprint, this.positionTerm1);
+        positionColumn2 = columnsOf(indexFootprint, this.positionTerm2);
+        forceColumn = columnsOf(indexFootprint, this.forceTerm);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This converts the state vectors to arrays and delegates to the
+     * {@link #evaluate(double[], double[], double[], double)} method.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the
+     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        return evaluate(dedx, toArray(state0), toArray(state), dt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <ol>
+     * <li>The method uses the term index information to extract the positions of
+     * the two bodies and the force on the first body from the given state vector.
+     * The method uses only the state at the future point in time; it ignores the
+     * state at the current point in time.</li>
+     * <li>It computes the force that the spring ought to exert on the first body,
+     * which is proportional to the extension of the spring and directed towards
+     * the second body. If the two bodies are at the same position, there is no
+     * direction between them, and that force is zero.</li>
+     * <li>It computes the difference between the actual force and that
+     * constitutive force. From that it calculates an equivalent acceleration
+     * error, using the {@linkplain #getMassReference() reference mass}, and from
+     * that an equivalent velocity error, using the {@linkplain #getTimeReference()
+     * reference time}.</li>
+     * <li>From that it calculates an equivalent kinetic energy error, using the
+     * reference mass. That is the error term it returns.</li>
+     * </ol>
+     * <p>
+     * The method uses only primitive local variables, and so does not allocate
+     * any objects.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+
+        final int ns = getSpaceDimension();
+        final double scale = timeReference * timeReference / massReference;
+
+        double s2 = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double r = state[positionTerm2[i]] - state[positionTerm1[i]];
+            s2 += r * r;
+        }
+        final double s = Math.sqrt(s2);
+        /*
+         * Coincident bodies have no direction between them, so the natural length
+         * contributes nothing to the constitutive force.
+         */
+        final boolean directed = naturalLength != 0.0 && 0.0 < s;
+        final double psi = stiffness - (directed ? stiffness * naturalLength / s : 0.0);
+        final double chi = directed ? stiffness * naturalLength / (s2 * s) : 0.0;
+
+        /*
+         * The constitutive force is psi r, for separation r; its derivative with
+         * respect to r is psi I + chi r r^T.
+         */
+        double e = 0.0;
+        double rg = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double r = state[positionTerm2[i]] - state[positionTerm1[i]];
+            final double fe = state[forceTerm[i]] - psi * r;
+            final double g = scale * fe;
+            e += 0.5 * scale * fe * fe;
+            rg += r * g;
+            dedx[forceTerm[i]] += g;
+        }
+        for (int i = 0; i < ns; ++i) {
+            final double r = state[positionTerm2[i]] - state[positionTerm1[i]];
+            final double g = scale * (state[forceTerm[i]] - psi * r);
+            final double dedr = -(psi * g + chi * rg * r);
+            dedx[positionTerm2[i]] += dedr;
+            dedx[positionTerm1[i]] -= dedr;
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual for each {@linkplain #getSpaceDimension() space
+     * dimension}, each proportional to a component of the force error.
+     * </p>
+     *
+     * @param residuals
+     *            {@inheritDoc}
+     * @param jacobian
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+            final double[] state, final double dt) {
+        requireResidualArguments(residuals, jacobian, state0, state, dt);
+
+        final int ns = getSpaceDimension();
+        final int p = indexFootprint.length;
+        final double scale = timeReference / Math.sqrt(massReference);
+
+        double s2 = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double r = state[positionTerm2[i]] - state[positionTerm1[i]];
+            s2 += r * r;
+        }
+        final double s = Math.sqrt(s2);
+        /*
+         * Coincident bodies have no direction between them, so the natural length
+         * contributes nothing to the constitutive force.
+         */
+        final boolean directed = naturalLength != 0.0 && 0.0 < s;
+        final double psi = stiffness - (directed ? stiffness * naturalLength / s : 0.0);
+        final double chi = directed ? stiffness * naturalLength / (s2 * s) : 0.0;
+
+        Arrays.fill(jacobian, 0, ns * p, 0.0);
+        double e = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final int row = i * p;
+            final double ri = state[positionTerm2[i]] - state[positionTerm1[i]];
+            final double residual = scale * (state[forceTerm[i]] - psi * ri);
+            residuals[i] = residual;
+            e += 0.5 * residual * residual;
+            jacobian[row + forceColumn[i]] += scale;
+            for (int j = 0; j < ns; ++j) {
+                final double rj = state[positionTerm2[j]] - state[positionTerm1[j]];
+                final double jij = scale * (chi * ri * rj + (i == j ? psi : 0.0));
+                jacobian[row + positionColumn2[j]] -= jij;
+                jacobian[row + positionColumn1[j]] += jij;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * force that the spring exerts on the first body.
+     * </p>
+     *
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the force vector; not negative
+     *
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code i} is negative.</li>
+     *             <li>If {@code i} is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getForceTerm(final int i) {
+        return forceTerm[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the components of the positions of the two
+     * bodies and of the force.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
+    /**
+     * <p>
+     * A reference mass scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert a force error into an acceleration
+     * error, and a velocity error into an energy error. As for the
+     * {@linkplain Newton2Error#getMassReference() reference mass} of the
+     * {@link Newton2Error} term, it is better to use the same value for all
+     * terms, equal to the mass of a typical body.
+     * </p>
+     *
+     * @return the mass; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getMassReference() {
+        return massReference;
+    }
+
+    /**
+     * <p>
+     * The length of the spring when it exerts no force.
+     * </p>
+     *
+     * @return the length; not negative and {@linkplain Double#isFinite(double)
+     *         finite}
+     */
+    public final double getNaturalLength() {
+        return naturalLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the {@linkplain #getSpaceDimension() space dimension}
+     */
+    @Override
+    public final int getNumberOfResiduals() {
+        return forceTerm.length;
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * position vector of the first body.
+     * </p>
+     *
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the position vector; not negative
+     *
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code i} is negative.</li>
+     *             <li>If {@code i} is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getPositionTerm1(final int i) {
+        return positionTerm1[i];
+    }
+
+    /**
+     * <p>
+     * Which term in the solution space vector corresponds to a component of the
+     * position vector of the second body.
+     * </p>
+     *
+     * @param i
+     *            The component of interest.
+     * @return the index of the component of the position vector; not negative
+     *
+     * @throws IndexOutOfBoundsException
+     *             <ul>
+     *             <li>If {@code i} is negative.</li>
+     *             <li>If {@code i} is not less than the
+     *             {@linkplain #getSpaceDimension() space dimension}.</li>
+     *             </ul>
+     */
+    public final int getPositionTerm2(final int i) {
+        return positionTerm2[i];
+    }
+
+    /**
+     * <p>
+     * The number of space dimensions for which this term calculates the force.
+     * </p>
+     *
+     * @return the number of dimensions; positive.
+     */
+    public final int getSpaceDimension() {
+        return forceTerm.length;
+    }
+
+    /**
+     * <p>
+     * The stiffness (spring constant) of the spring.
+     * </p>
+     * <p>
+     * That is, the magnitude of the force exerted by the spring per unit of
+     * extension beyond its {@linkplain #getNaturalLength() natural length}.
+     * </p>
+     *
+     * @return the stiffness; positive and {@linkplain Double#isFinite(double)
+     *         finite}
+     */
+    public final double getStiffness() {
+        return stiffness;
+    }
+
+    /**
+     * <p>
+     * A reference time scale.
+     * </p>
+     * <p>
+     * The functor uses this value to convert an acceleration error into a
+     * velocity error.
+     * </p>
+     *
+     * @return the time; positive and {@linkplain Double#isFinite(double) finite}
+     */
+    public final double getTimeReference() {
+        return timeReference;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The term is valid if, and only if, all its
+     * {@linkplain #getIndexFootprint(int) term indices} are less than the given
+     * dimension.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return indexFootprint[indexFootprint.length - 1] < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * term indices.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final SpringForceError remap(final int[] map) {
+        return new SpringForceError(massReference, timeReference, stiffness, naturalLength,
+                remapTermIndex(positionTerm1, map), remapTermIndex(positionTerm2, map), remapTermIndex(forceTerm, map));
+    }
+
+}
@@ -22,6 +22,7 @@ import java.util.Objects;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import net.jcip.annotations.Immutable;
+import uk.badamson.mc.physics.HarmonicTimeBasis;
 import uk.badamson.mc.physics.HarmonicVector3;
 
 /**
@@ -33,6 +34,12 @@ import uk.badamson.mc.physics.HarmonicVector3;
  * That also allows for exponentially decaying and growing variation as a
  * special case of zero frequency of the sinusoidal variation.
  * </p>
+ * <p>
+ * The position, velocity and acceleration functions share their
+ * {@linkplain HarmonicTimeBasis basis functions}, so they can be evaluated
+ * together, for the same point in time, using one
+ * {@linkplain #createTimeBasis() basis object}.
+ * </p>
  */
 @Immutable
 public final class HarmonicParticleTrajectory implements ParticleTrajectory {
@@ -61,6 +68,28 @@ public final class HarmonicParticleTrajectory implements ParticleTrajectory {
         acceleration = velocity.getTimeDerivative();
     }
 
+    /**
+     * <p>
+     * Create a basis object for evaluating the {@linkplain #getPosition()
+     * position}, {@linkplain #getVelocity() velocity} and
+     * {@linkplain #getAcceleration() acceleration} of this trajectory.
+     * </p>
+     * <ul>
+     * <li>Always creates a (non null) basis.</li>
+     * <li>The created basis is the
+     * {@linkplain HarmonicTimeBasis#isBasisOf(HarmonicVector3) basis of} the
+     * position, velocity and acceleration of this trajectory.</li>
+     * <li>The {@linkplain HarmonicTimeBasis#getTime() time} of the created basis
+     * is null.</li>
+     * </ul>
+     *
+     * @return a new basis
+     */
+    @NonNull
+    public final HarmonicTimeBasis createTimeBasis() {
+        return new HarmonicTimeBasis(position.getT0(), position.getWe(), position.getWh());
+    }
+
     @Override
     @NonNull
     public final HarmonicVector3 getAcceleration() {
@@ -18,7 +18,9 @@ package uk.badamson.mc.physics.solver;
  * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 
 import uk.badamson.mc.math.ImmutableVectorN;;
@@ -33,6 +35,36 @@ import uk.badamson.mc.math.ImmutableVectorN;;
  */
 public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeStepEnergyErrorFunctionTerm {
 
+    /**
+     * <p>
+     * Find the {@linkplain TimeStepEnergyErrorFunctionResidualTerm Jacobian}
+     * columns of some term indices.
+     * </p>
+     *
+     * @param footprint
+     *            The {@linkplain #getIndexFootprint(int) index footprint}.
+     * @param index
+     *            The term index array; each element must be in the footprint.
+     * @return The position in {@code footprint} of each element of
+     *         {@code index}.
+     * @throws NullPointerException
+     *             If {@code footprint} or {@code index} is null.
+     * @throws IllegalArgumentException
+     *             If an element of {@code index} is not in {@code footprint}.
+     */
+    protected static final int[] columnsOf(final int[] footprint, final int[] index) {
+        final int n = index.length;
+        final int[] columns = new int[n];
+        for (int i = 0; i < n; ++i) {
+            final int c = Arrays.binarySearch(footprint, index[i]);
+            if (c < 0) {
+                throw new IllegalArgumentException("index[" + i + "] " + index[i] + " not in footprint");
+            }
+            columns[i] = c;
+        }
+        return columns;
+    }
+
     /**
      * <p>
      * Safely copy a term index array.
@@ -64,6 +96,40 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
         return copy;
     }
 
+    /**
+     * <p>
+     * Create an {@linkplain #getIndexFootprint(int) index footprint} from some
+     * term index arrays.
+     * </p>
+     *
+     * @param indices
+     *            The term index arrays.
+     * @return The indices in the given arrays, sorted in ascending order, without
+     *         duplicates.
+     * @throws NullPointerException
+     *             If {@code indices} is null or contains a null.
+     */
+    protected static final int[] createIndexFootprint(final int[]... indices) {
+        int n = 0;
+        for (final int[] index : indices) {
+            n += index.length;
+        }
+        final int[] all = new int[n];
+        int i = 0;
+        for (final int[] index : indices) {
+            System.arraycopy(index, 0, all, i, index.length);
+            i += index.length;
+        }
+        Arrays.sort(all);
+        int nDistinct = 0;
+        for (int k = 0; k < n; ++k) {
+            if (nDistinct == 0 || all[nDistinct - 1] != all[k]) {
+                all[nDistinct++] = all[k];
+            }
+        }
+        return Arrays.copyOf(all, nDistinct);
+    }
+
     /**
      * <p>
      * Extract some terms from a large state vector into a smaller state vector.
@@ -78,10 +144,58 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
      * @return the smaller vector
      */
     protected static final ImmutableVectorN extract(final ImmutableVectorN x, final int term[]) {
-        final int n = term.length;
+        return extract(x, 0, term, 0, term.length);
+    }
+
+    /**
+     * <p>
+     * Extract some terms from a large state vector into a smaller state vector,
+     * for a case in which the term indices are relative to a base index.
+     * </p>
+     *
+     * @param x
+     *            The state vector.
+     * @param base
+     *            The index of the state vector component corresponding to term
+     *            index zero.
+     * @param term
+     *            Which terms in the solution large state vector correspond to the
+     *            components of smaller state vector {@code base + term[i]} is the
+     *            index of component <var>i</var>.
+     * @return the smaller vector
+     */
+    protected static final ImmutableVectorN extract(final ImmutableVectorN x, final int base, final int term[]) {
+        return extract(x, base, term, 0, term.length);
+    }
+
+    /**
+     * <p>
+     * Extract some terms from a large state vector into a smaller state vector for
+     * a case in which multiple smaller state vectors could be extracted, and in
+     * which the term indices are relative to a base index.
+     * </p>
+     *
+     * @param x
+     *            The state vector.
+     * @param base
+     *            The index of the state vector component corresponding to term
+     *            index zero.
+     * @param term
+     *            Which terms in the solution large state vector correspond to the
+     *            components of smaller state vector {@code base + term[i0 + i]} is
+     *            the index of component <var>i</var>.
+     * @param i0
+     *            Indicates which part of the {@code term} addressing array
+     *            indicates the terms for this extraction.
+     * @param n
+     *            The number of dimensions of the smaller state vector
+     * @return the smaller vector
+     */
+    protected static final ImmutableVectorN extract(final ImmutableVectorN x, final int base, final int term[],
+            final int i0, final int n) {
         final double[] extract = new double[n];
         for (int i = 0; i < n; i++) {
-            extract[i] = x.get(term[i]);
+            extract[i] = x.get(base + term[i0 + i]);
         }
         return ImmutableVectorN.create(extract);
     }
@@ -107,11 +221,172 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
      */
     protected static final ImmutableVectorN extract(final ImmutableVectorN x, final int term[], final int i0,
             final int n) {
-        final double[] extract = new double[n];
-        for (int i = 0; i < n; i++) {
-            extract[i] = x.get(term[i0 + i]);
+        return extract(x, 0, term, i0, n);
+    }
+
+    /**
+     * <p>
+     * Get the canonical object that is {@linkplain Object#equals(Object) equal
+     * to} a given object, from a table of canonical objects.
+     * </p>
+     * <p>
+     * The table holds only weak references to the canonical objects, so a
+     * canonical object that is no longer used elsewhere may be garbage collected.
+     * The {@code interned} table should therefore be a
+     * {@link java.util.WeakHashMap}. The method synchronizes on the table.
+     * </p>
+     *
+     * @param interned
+     *            The table of canonical objects, mapping each canonical object to
+     *            a weak reference to itself.
+     * @param object
+     *            The object to intern.
+     * @return the canonical object equal to {@code object}; {@code object} itself
+     *         if the table had no such object, in which case {@code object} is
+     *         added to the table.
+     * @throws NullPointerException
+     *             If {@code interned} or {@code object} is null.
+     */
+    protected static final <T> T intern(final Map<T, WeakReference<T>> interned, final T object) {
+        Objects.requireNonNull(object, "object");
+        synchronized (interned) {
+            final WeakReference<T> reference = interned.get(object);
+            final T existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            interned.put(object, new WeakReference<>(object));
+            return object;
+        }
+    }
+
+    /**
+     * <p>
+     * Find the new position of a contiguous range of term indices, for
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[]) remapping} a
+     * term that uses a state-space mapper for those indices.
+     * </p>
+     *
+     * @param index0
+     *            The first index of the range.
+     * @param size
+     *            The number of indices of the range.
+     * @param map
+     *            The new position of each component of the state vector.
+     * @return the new position of {@code index0}, or -1 if the new positions of
+     *         the indices of the range are not contiguous and in the same order.
+     * @throws NullPointerException
+     *             If {@code map} is null.
+     * @throws IndexOutOfBoundsException
+     *             If {@code map} is too short for any of the indices.
+     */
+    protected static final int remapContiguousTermIndex(final int index0, final int size, final int[] map) {
+        final int remapped0 = map[index0];
+        if (remapped0 < 0) {
+            return -1;
+        }
+        for (int i = 1; i < size; ++i) {
+            if (map[index0 + i] != remapped0 + i) {
+                return -1;
+            }
+        }
+        return remapped0;
+    }
+
+    /**
+     * <p>
+     * Find the new positions of some term indices, for
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[]) remapping} a
+     * term.
+     * </p>
+     *
+     * @param index
+     *            The term index array.
+     * @param map
+     *            The new position of each component of the state vector.
+     * @return a new array, with {@code map[index[i]]} as element <var>i</var>.
+     * @throws NullPointerException
+     *             If {@code index} or {@code map} is null.
+     * @throws IllegalArgumentException
+     *             If {@code map[index[i]]} is negative for any <var>i</var>.
+     * @throws IndexOutOfBoundsException
+     *             If {@code map} is too short for any of the indices.
+     */
+    protected static final int[] remapTermIndex(final int[] index, final int[] map) {
+        Objects.requireNonNull(map, "map");
+        final int[] remapped = new int[index.length];
+        for (int i = 0; i < index.length; ++i) {
+            remapped[i] = map[index[i]];
+            if (remapped[i] < 0) {
+                throw new IllegalArgumentException("Negative map[" + index[i] + "] " + remapped[i]);
+            }
+        }
+        return remapped;
+    }
+
+    /**
+     * <p>
+     * Throw an {@link IllegalArgumentException} or {@link NullPointerException} if
+     * any of the given arguments are unsuitable for
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluateBatch(double[], double[][], double[][], double[][], double)
+     * evaluating a batch of bodies}.
+     * </p>
+     *
+     * @param e
+     *            The array into which to write the value for each body.
+     * @param dedx
+     *            The arrays for accumulating the components of the gradients.
+     * @param state0
+     *            The components of the state vectors of the bodies at the current
+     *            point in time.
+     * @param state
+     *            The components of the state vectors of the bodies at the future
+     *            point in time.
+     * @param dt
+     *            The size of the time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code e} is null.</li>
+     *             <li>If {@code dedx} is null or has null elements.</li>
+     *             <li>If {@code state0} is null or has null elements.</li>
+     *             <li>If {@code state} is null or has null elements.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0}, {@code state} and {@code dedx} have
+     *             different lengths.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    protected static final void requireBatchArguments(final double[] e, final double[][] dedx,
+            final double[][] state0, final double[][] state, final double dt)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(e, "e");
+        Objects.requireNonNull(dedx, "dedx");
+        Objects.requireNonNull(state0, "x0");
+        Objects.requireNonNull(state, "x");
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        final int nState = state0.length;
+        if (state.length != nState) {
+            throw new IllegalArgumentException("Inconsistent dimensions x0 " + nState + " and x " + state.length);
+        }
+        if (dedx.length != nState) {
+            throw new IllegalArgumentException(
+                    "Inconsistent length of dedx " + dedx.length + " and dimension of x0 " + nState);
+        }
+        final int nBodies = e.length;
+        for (int i = 0; i < nState; ++i) {
+            if (Objects.requireNonNull(dedx[i], "dedx[i]").length < nBodies
+                    || Objects.requireNonNull(state0[i], "x0[i]").length < nBodies
+                    || Objects.requireNonNull(state[i], "x[i]").length < nBodies) {
+                throw new IllegalArgumentException("Component " + i + " shorter than number of bodies " + nBodies);
+            }
         }
-        return ImmutableVectorN.create(extract);
     }
 
     /**
@@ -139,6 +414,106 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
         }
     }
 
+    /**
+     * <p>
+     * Throw an exception if the arguments of an
+     * {@linkplain #evaluate(double[], double[], double[], double) array based
+     * evaluation} do not satisfy its preconditions.
+     * </p>
+     * <p>
+     * Implementations of that method that do not allocate any objects can use this
+     * to check the preconditions.
+     * </p>
+     *
+     * @param dedx
+     *            The array for accumulating the components of the gradient of the
+     *            error value.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dt
+     *            The size of the time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             </ul>
+     */
+    protected static final void requireEvaluationArguments(final double[] dedx, final double[] state0,
+            final double[] state, final double dt) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(dedx, "dedx");
+        Objects.requireNonNull(state0, "x0");
+        Objects.requireNonNull(state, "x");
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        final int nState = state0.length;
+        if (state.length != nState) {
+            throw new IllegalArgumentException("Inconsistent dimensions x0 " + nState + " and x " + state.length);
+        }
+        if (dedx.length != nState) {
+            throw new IllegalArgumentException(
+                    "Inconsistent length of dedx " + dedx.length + " and dimension of x0 " + nState);
+        }
+    }
+
+    /**
+     * <p>
+     * Throw an {@link IllegalArgumentException} or {@link NullPointerException} if
+     * any of the given arguments are unsuitable for
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#prepare(double[], double[], double)
+     * preparing} or
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluatePrepared(double[], double[], double[], double[], double, double[])
+     * using} the prepared values of a term.
+     * </p>
+     *
+     * @param prepared
+     *            The array of prepared values.
+     * @param length
+     *            The {@linkplain TimeStepEnergyErrorFunctionTerm#getPreparedLength()
+     *            prepared length} of the term.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param dt
+     *            The size of the time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code prepared} is null and {@code length} is
+     *             positive.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code prepared} is shorter than {@code length}.</li>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             </ul>
+     */
+    protected static final void requirePrepared(final double[] prepared, final int length, final double[] state0,
+            final double dt) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(state0, "x0");
+        if (0 < length && Objects.requireNonNull(prepared, "prepared").length < length) {
+            throw new IllegalArgumentException("prepared.length " + prepared.length + " < " + length);
+        }
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+    }
+
     /**
      * <p>
      * Throw an {@link IllegalArgumentException} if a given value is unsuitable as a
@@ -160,6 +535,57 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
         return s;
     }
 
+    /**
+     * <p>
+     * Throw an {@link IllegalArgumentException} or {@link NullPointerException} if
+     * any of the given arguments are unsuitable for
+     * {@linkplain TimeStepEnergyErrorFunctionResidualTerm#evaluateResiduals(double[], double[], double[], double[], double)
+     * calculating residuals}.
+     * </p>
+     *
+     * @param residuals
+     *            The array into which to write the residuals.
+     * @param jacobian
+     *            The array into which to write the Jacobian.
+     * @param state0
+     *            The state vector of the physical system at the current point in
+     *            time.
+     * @param state
+     *            The state vector of the physical system at the future point in
+     *            time.
+     * @param dt
+     *            The size of the time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code residuals} is null.</li>
+     *             <li>If {@code jacobian} is null.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             </ul>
+     */
+    protected static final void requireResidualArguments(final double[] residuals, final double[] jacobian,
+            final double[] state0, final double[] state, final double dt)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(residuals, "residuals");
+        Objects.requireNonNull(jacobian, "jacobian");
+        Objects.requireNonNull(state0, "x0");
+        Objects.requireNonNull(state, "x");
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        if (state.length != state0.length) {
+            throw new IllegalArgumentException(
+                    "Inconsistent dimensions x0 " + state0.length + " and x " + state.length);
+        }
+    }
+
     /**
      * <p>
      * Throw an {@link IllegalArgumentException} if a given value is unsuitable as a
@@ -181,6 +607,59 @@ public abstract class AbstractTimeStepEnergyErrorFunctionTerm implements TimeSte
         return index;
     }
 
+    /**
+     * <p>
+     * Throw an {@link IllegalArgumentException} or {@link NullPointerException} if
+     * a given work array is unsuitable for
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluate(double[], double[], double[], double, double[])
+     * evaluating} a term.
+     * </p>
+     *
+     * @param workspace
+     *            The work array.
+     * @param length
+     *            The {@linkplain TimeStepEnergyErrorFunctionTerm#getWorkspaceLength()
+     *            workspace length} of the term.
+     * @throws NullPointerException
+     *             If {@code workspace} is null and {@code length} is positive.
+     * @throws IllegalArgumentException
+     *             If {@code workspace} is shorter than {@code length}.
+     */
+    protected static final void requireWorkspace(final double[] workspace, final int length)
+            throws NullPointerException, IllegalArgumentException {
+        if (0 < length && Objects.requireNonNull(workspace, "workspace").length < length) {
+            throw new IllegalArgumentException("workspace.length " + workspace.length + " < " + length);
+        }
+    }
+
+    /**
+     * <p>
+     * Copy the components of a vector into a new array.
+     * </p>
+     * <p>
+     * This is useful for implementing the
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)
+     * object based evaluation} of a term by delegating to its array based
+     * evaluation.
+     * </p>
+     *
+     * @param x
+     *            The vector.
+     * @return the components; not null; length equal to the
+     *         {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *         {@code x}.
+     * @throws NullPointerException
+     *             If {@code x} is null.
+     */
+    protected static final double[] toArray(final ImmutableVectorN x) throws NullPointerException {
+        final int n = x.getDimension();
+        final double[] a = new double[n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = x.get(i);
+        }
+        return a;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -0,0 +1,319 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Objects;
+import java.util.function.DoubleFunction;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * A controller that chooses the size of successive time-steps for a physical
+ * system, using the physical modelling error of the solved state of each
+ * time-step.
+ * </p>
+ * <p>
+ * The minimum value of a {@linkplain TimeStepEnergyErrorFunction functor that
+ * calculates the physical modelling error of a system at a future point in
+ * time} is a residual energy error, which indicates how well the physical
+ * model is satisfied at the end of the time-step. The controller compares that
+ * residual with a {@linkplain #getTargetError() target error}. If the residual
+ * is too large, the controller rejects the step and retries it with a smaller
+ * time-step. If the residual is small, the controller increases the size of the
+ * next time-step. The residual is assumed to be roughly proportional to the
+ * square of the size of the time-step.
+ * </p>
+ * <p>
+ * A controller holds the state of one sequence of time-steps. Bodies that do
+ * not interact can be given their own controllers, so the time-steps of bodies
+ * with little activity can grow large while the time-steps of active bodies
+ * remain small.
+ * </p>
+ */
+@NotThreadSafe
+public final class AdaptiveTimeStepController {
+
+    /**
+     * <p>
+     * The largest factor by which the controller increases the size of the
+     * time-step from one step to the next.
+     * </p>
+     */
+    public static final double MAX_GROWTH = 2.0;
+
+    /**
+     * <p>
+     * The smallest factor by which the controller decreases the size of the
+     * time-step when it rejects a step.
+     * </p>
+     */
+    public static final double MIN_SHRINK = 0.1;
+
+    private static final double SAFETY_FACTOR = 0.9;
+
+    private static double requirePositiveFinite(final double x, final String name) {
+        if (!(0.0 < x && Double.isFinite(x))) {
+            throw new IllegalArgumentException(name + " " + x);
+        }
+        return x;
+    }
+
+    private final double targetError;
+    private final double minDt;
+    private final double maxDt;
+    private final double tolerance;
+    private final LimitedMemoryBfgsMinimiser minimiser;
+
+    private double dt;
+    private double lastError;
+    private int numberOfRejections;
+
+    /**
+     * <p>
+     * Construct a controller for a physical system with a given number of
+     * variables.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * <li>The {@linkplain #getDt() proposed time-step} of the constructed object
+     * is the given initial time-step.</li>
+     * <li>The constructed object has no {@linkplain #getNumberOfRejections()
+     * rejections}.</li>
+     * <li>The {@linkplain #getLastError() last error} of the constructed object is
+     * {@linkplain Double#NaN NaN}.</li>
+     * </ul>
+     * </section>
+     *
+     * @param dimension
+     *            The number of variables of the physical model.
+     * @param targetError
+     *            The largest acceptable residual physical modelling error of a
+     *            time-step.
+     * @param minDt
+     *            The smallest time-step that the controller may use.
+     * @param maxDt
+     *            The largest time-step that the controller may use.
+     * @param dt
+     *            The initial time-step.
+     * @param historyLength
+     *            The {@linkplain LimitedMemoryBfgsMinimiser#getHistoryLength()
+     *            history length} of the minimiser used to solve each time-step.
+     * @param tolerance
+     *            The convergence tolerance of the minimiser.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dimension} is not positive.</li>
+     *             <li>If {@code targetError} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code minDt} is not positive and finite.</li>
+     *             <li>If {@code maxDt} is less than {@code minDt} or is not
+     *             finite.</li>
+     *             <li>If {@code dt} is not in the range [{@code minDt},
+     *             {@code maxDt}].</li>
+     *             <li>If {@code historyLength} is not positive.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public AdaptiveTimeStepController(final int dimension, final double targetError, final double minDt,
+            final double maxDt, final double dt, final int historyLength, final double tolerance) {
+        this.targetError = requirePositiveFinite(targetError, "targetError");
+        this.minDt = requirePositiveFinite(minDt, "minDt");
+        this.maxDt = requirePositiveFinite(maxDt, "maxDt");
+        if (maxDt < minDt) {
+            throw new IllegalArgumentException("maxDt " + maxDt + " minDt " + minDt);
+        }
+        if (!(minDt <= dt && dt <= maxDt)) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+        this.tolerance = tolerance;
+        this.minimiser = new LimitedMemoryBfgsMinimiser(dimension, historyLength);
+        this.dt = dt;
+        this.lastError = Double.NaN;
+        this.numberOfRejections = 0;
+    }
+
+    private double computeStepFactor(final double e) {
+        if (!(0.0 < e)) {
+            return MAX_GROWTH;
+        }
+        final double factor = SAFETY_FACTOR * Math.sqrt(targetError / e);
+        return Math.max(MIN_SHRINK, Math.min(MAX_GROWTH, factor));
+    }
+
+    /**
+     * <p>
+     * The size of the time-step that the controller will try first for the next
+     * step.
+     * </p>
+     * <ul>
+     * <li>The proposed time-step is in the range [{@linkplain #getMinDt() minDt},
+     * {@linkplain #getMaxDt() maxDt}].</li>
+     * </ul>
+     *
+     * @return the proposed time-step
+     */
+    public final double getDt() {
+        return dt;
+    }
+
+    /**
+     * <p>
+     * The residual physical modelling error of the most recently accepted
+     * time-step.
+     * </p>
+     *
+     * @return the error, or {@linkplain Double#NaN NaN} if the controller has not
+     *         accepted a time-step.
+     */
+    public final double getLastError() {
+        return lastError;
+    }
+
+    /**
+     * <p>
+     * The largest time-step that the controller may use.
+     * </p>
+     *
+     * @return the maximum time-step; positive and finite.
+     */
+    public final double getMaxDt() {
+        return maxDt;
+    }
+
+    /**
+     * <p>
+     * The smallest time-step that the controller may use.
+     * </p>
+     * <p>
+     * The controller accepts a time-step of this size even if its residual error
+     * exceeds the {@linkplain #getTargetError() target error}.
+     * </p>
+     *
+     * @return the minimum time-step; positive and finite.
+     */
+    public final double getMinDt() {
+        return minDt;
+    }
+
+    /**
+     * <p>
+     * The total number of time-steps that the controller has rejected because
+     * their residual error was too large.
+     * </p>
+     *
+     * @return the number of rejections; not negative.
+     */
+    public final int getNumberOfRejections() {
+        return numberOfRejections;
+    }
+
+    /**
+     * <p>
+     * The largest acceptable residual physical modelling error of a time-step.
+     * </p>
+     *
+     * @return the target error; positive and finite.
+     */
+    public final double getTargetError() {
+        return targetError;
+    }
+
+    /**
+     * <p>
+     * Perform one accepted time-step.
+     * </p>
+     * <p>
+     * The controller creates a {@linkplain TimeStepEnergyErrorFunction function}
+     * for the {@linkplain #getDt() proposed time-step}, and
+     * {@linkplain LimitedMemoryBfgsMinimiser minimises} it, starting from the
+     * {@linkplain TimeStepEnergyErrorFunction#getX0() current state}. If the
+     * residual error exceeds the {@linkplain #getTargetError() target error}, and
+     * the time-step is larger than the {@linkplain #getMinDt() minimum
+     * time-step}, the controller rejects the step, reduces the time-step, and
+     * tries again. When it accepts a step, the controller adjusts the proposed
+     * time-step for the next step according to the residual error.
+     * </p>
+     * <ul>
+     * <li>The method writes the components of the state at the end of the
+     * accepted time-step into the given array.</li>
+     * <li>The {@linkplain #getLastError() last error} is the residual error of
+     * the accepted time-step.</li>
+     * </ul>
+     *
+     * @param functions
+     *            Creates the function that calculates the physical modelling error
+     *            of the system for a given time-step, all with the same current
+     *            state.
+     * @param x
+     *            The array into which to write the components of the state at the
+     *            end of the accepted time-step.
+     * @return The size of the accepted time-step.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code functions} is null.</li>
+     *             <li>If {@code x} is null.</li>
+     *             <li>If {@code functions} returns null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code x} does not equal the number of
+     *             variables of the physical model.</li>
+     *             <li>If the {@linkplain TimeStepEnergyErrorFunction#getDimension()
+     *             dimension} of a function returned by {@code functions} does not
+     *             equal the number of variables of the physical model.</li>
+     *             </ul>
+     */
+    public final double step(@NonNull final DoubleFunction<TimeStepEnergyErrorFunction> functions,
+            @NonNull final double[] x) {
+        Objects.requireNonNull(functions, "functions");
+        Objects.requireNonNull(x, "x");
+        final int n = minimiser.getDimension();
+        if (x.length != n) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+
+        while (true) {
+            final TimeStepEnergyErrorFunction f = Objects.requireNonNull(functions.apply(dt), "function");
+            final ImmutableVectorN x0 = f.getX0();
+            for (int i = 0; i < n; ++i) {
+                x[i] = x0.get(i);
+            }
+            final double e = minimiser.minimise(f, x, tolerance);
+            final double factor = computeStepFactor(e);
+            if (e <= targetError || dt <= minDt) {
+                final double accepted = dt;
+                lastError = e;
+                dt = Math.max(minDt, Math.min(maxDt, dt * factor));
+                return accepted;
+            }
+            ++numberOfRejections;
+            dt = Math.max(minDt, dt * Math.min(factor, SAFETY_FACTOR));
+        }
+    }
+
+}
@@ -0,0 +1,858 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.dynamics.Newton2Error;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm term} for a
+ * {@linkplain TimeStepEnergyErrorFunction functor that calculates the physical
+ * modelling error of a system at a future point in time} that combines the
+ * {@link Newton2Error}, {@link MomentumConservationError} and
+ * {@link MassConservationError} terms of one body.
+ * </p>
+ * <p>
+ * The combined terms must describe the same body: they must have the same mass
+ * term, velocity terms, advection terms and force terms. The combined term
+ * computes the sum of the errors of those terms, to within rounding error, in
+ * one pass over arrays of state vector components. It resolves the term
+ * indices and the signs of the mass transfers and forces when it is
+ * constructed, and computes values used by several of the combined terms, such
+ * as the total mass transfer rate and the relative velocities of advected mass,
+ * only once. Its array based evaluation does not allocate any objects.
+ * </p>
+ * <p>
+ * The combined term is a
+ * {@linkplain TimeStepEnergyErrorFunctionResidualTerm sum of squares of
+ * residuals}: its residuals are the residuals of the combined terms, one after
+ * the other.
+ * </p>
+ *
+ * @see TimeStepEnergyErrorFunction#compile()
+ */
+@Immutable
+final class FusedBodyError extends AbstractTimeStepEnergyErrorFunctionTerm
+        implements TimeStepEnergyErrorFunctionResidualTerm {
+
+    /*
+     * The position of the prepared values of the first space dimension; the
+     * mass and the total mass transfer rate precede them.
+     */
+    private static final int PREPARED_MOTION = 2;
+
+    /**
+     * <p>
+     * The terms of one body that can be combined, and where the combined term
+     * should be placed.
+     * </p>
+     */
+    private static final class Group {
+
+        private Newton2Error newton2;
+        private MomentumConservationError momentum;
+        private MassConservationError mass;
+
+        private int massTerm;
+        private boolean[] massTransferInto;
+        private int[] advectionMassRateTerm;
+        private int[] velocityTerm;
+        private int[] advectionVelocityTerm;
+        private boolean[] forceOn;
+        private int[] forceTerm;
+
+        Group(final Member member) {
+            massTerm = member.massTerm;
+            massTransferInto = member.massTransferInto;
+            advectionMassRateTerm = member.advectionMassRateTerm;
+            add(member);
+        }
+
+        private boolean accepts(final Member member) {
+            final TimeStepEnergyErrorFunctionTerm term = member.term;
+            final boolean vacant = term instanceof Newton2Error ? newton2 == null
+                    : term instanceof MomentumConservationError ? momentum == null : mass == null;
+            return vacant && massTerm == member.massTerm
+                    && Arrays.equals(massTransferInto, member.massTransferInto)
+                    && Arrays.equals(advectionMassRateTerm, member.advectionMassRateTerm)
+                    && (member.velocityTerm == null || velocityTerm == null
+                            || Arrays.equals(velocityTerm, member.velocityTerm)
+                                    && Arrays.equals(advectionVelocityTerm, member.advectionVelocityTerm)
+                                    && Arrays.equals(forceOn, member.forceOn)
+                                    && Arrays.equals(forceTerm, member.forceTerm));
+        }
+
+        private void add(final Member member) {
+            final TimeStepEnergyErrorFunctionTerm term = member.term;
+            if (member.velocityTerm != null) {
+                velocityTerm = member.velocityTerm;
+                advectionVelocityTerm = member.advectionVelocityTerm;
+                forceOn = member.forceOn;
+                forceTerm = member.forceTerm;
+            }
+            if (term instanceof Newton2Error) {
+                newton2 = (Newton2Error) term;
+            } else if (term instanceof MomentumConservationError) {
+                momentum = (MomentumConservationError) term;
+            } else {
+                mass = (MassConservationError) term;
+            }
+        }
+
+        private TimeStepEnergyErrorFunctionTerm toTerm() {
+            final int nMembers = (newton2 == null ? 0 : 1) + (momentum == null ? 0 : 1) + (mass == null ? 0 : 1);
+            if (nMembers == 1) {
+                if (newton2 != null) {
+                    return newton2;
+                } else if (momentum != null) {
+                    return momentum;
+                } else {
+                    return mass;
+                }
+            } else {
+                return new FusedBodyError(this);
+            }
+        }
+    }// class
+
+    /**
+     * <p>
+     * The term index layout of a term that might be combined with other terms,
+     * extracted once.
+     * </p>
+     */
+    private static final class Member {
+
+        private final TimeStepEnergyErrorFunctionTerm term;
+        private final int massTerm;
+        private final boolean[] massTransferInto;
+        private final int[] advectionMassRateTerm;
+        private final int[] velocityTerm;
+        private final int[] advectionVelocityTerm;
+        private final boolean[] forceOn;
+        private final int[] forceTerm;
+
+        Member(final MassConservationError term) {
+            this.term = term;
+            final int nm = term.getNumberOfMassTransfers();
+            massTerm = term.getMassTerm();
+            massTransferInto = new boolean[nm];
+            advectionMassRateTerm = new int[nm];
+            for (int j = 0; j < nm; ++j) {
+                massTransferInto[j] = term.isMassTransferInto(j);
+                advectionMassRateTerm[j] = term.getAdvectionMassRateTerm(j);
+            }
+            velocityTerm = null;
+            advectionVelocityTerm = null;
+            forceOn = null;
+            forceTerm = null;
+        }
+
+        Member(final MomentumConservationError term) {
+            this(term, term.getMassTerm(), term.getSpaceDimension(), term.getNumberOfMassTransfers(),
+                    term.getNumberOfForces());
+            final int ns = velocityTerm.length;
+            for (int i = 0; i < ns; ++i) {
+                velocityTerm[i] = term.getVelocityTerm(i);
+            }
+            for (int j = 0; j < massTransferInto.length; ++j) {
+                massTransferInto[j] = term.isMassTransferInto(j);
+                advectionMassRateTerm[j] = term.getAdvectionMassRateTerm(j);
+                for (int i = 0; i < ns; ++i) {
+                    advectionVelocityTerm[j * ns + i] = term.getAdvectionVelocityTerm(j, i);
+                }
+            }
+            for (int k = 0; k < forceOn.length; ++k) {
+                forceOn[k] = term.isForceOn(k);
+                for (int i = 0; i < ns; ++i) {
+                    forceTerm[k * ns + i] = term.getForceTerm(k, i);
+                }
+            }
+        }
+
+        Member(final Newton2Error term) {
+            this(term, term.getMassTerm(), term.getSpaceDimension(), term.getNumberOfMassTransfers(),
+                    term.getNumberOfForces());
+            final int ns = velocityTerm.length;
+            for (int i = 0; i < ns; ++i) {
+                velocityTerm[i] = term.getVelocityTerm(i);
+            }
+            for (int j = 0; j < massTransferInto.length; ++j) {
+                massTransferInto[j] = term.isMassTransferInto(j);
+                advectionMassRateTerm[j] = term.getAdvectionMassRateTerm(j);
+                for (int i = 0; i < ns; ++i) {
+                    advectionVelocityTerm[j * ns + i] = term.getAdvectionVelocityTerm(j, i);
+                }
+            }
+            for (int k = 0; k < forceOn.length; ++k) {
+                forceOn[k] = term.isForceOn(k);
+                for (int i = 0; i < ns; ++i) {
+                    forceTerm[k * ns + i] = term.getForceTerm(k, i);
+                }
+            }
+        }
+
+        private Member(final TimeStepEnergyErrorFunctionTerm term, final int massTerm, final int ns, final int nm,
+                final int nf) {
+            this.term = term;
+            this.massTerm = massTerm;
+            massTransferInto = new boolean[nm];
+            advectionMassRateTerm = new int[nm];
+            velocityTerm = new int[ns];
+            advectionVelocityTerm = new int[nm * ns];
+            forceOn = new boolean[nf];
+            forceTerm = new int[nf * ns];
+        }
+    }// class
+
+    private static Member createMember(final TimeStepEnergyErrorFunctionTerm term) {
+        if (term instanceof Newton2Error) {
+            return new Member((Newton2Error) term);
+        } else if (term instanceof MomentumConservationError) {
+            return new Member((MomentumConservationError) term);
+        } else if (term instanceof MassConservationError) {
+            return new Member((MassConservationError) term);
+        } else {
+            return null;
+        }
+    }
+
+    private static double[] createSigns(final boolean[] positive) {
+        final int n = positive.length;
+        final double[] sign = new double[n];
+        for (int i = 0; i < n; ++i) {
+            sign[i] = positive[i] ? 1.0 : -1.0;
+        }
+        return sign;
+    }
+
+    /**
+     * <p>
+     * Replace the {@link Newton2Error}, {@link MomentumConservationError} and
+     * {@link MassConservationError} terms of each body in a list of terms with a
+     * combined term for that body.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) list of terms.</li>
+     * <li>The sum of the errors of the returned terms equals the sum of the errors
+     * of the given terms, to within rounding error.</li>
+     * <li>Terms that can not be combined with other terms are present in the
+     * returned list.</li>
+     * <li>A combined term is placed at the position of the first of the terms it
+     * replaces.</li>
+     * </ul>
+     *
+     * @param terms
+     *            The terms to combine.
+     * @return The combined terms.
+     * @throws NullPointerException
+     *             If {@code terms} is null or contains a null.
+     */
+    static List<TimeStepEnergyErrorFunctionTerm> fuse(final List<TimeStepEnergyErrorFunctionTerm> terms) {
+        final List<Object> slots = new ArrayList<>(terms.size());
+        /* Only terms with the same mass term can be combined. */
+        final Map<Integer, List<Group>> groups = new HashMap<>();
+        for (final TimeStepEnergyErrorFunctionTerm term : terms) {
+            final Member member = createMember(Objects.requireNonNull(term, "term"));
+            if (member == null) {
+                slots.add(term);
+                continue;
+            }
+            final List<Group> candidates = groups.computeIfAbsent(Integer.valueOf(member.massTerm),
+                    (k) -> new ArrayList<>(1));
+            Group group = null;
+            for (int g = 0, nGroups = candidates.size(); g < nGroups && group == null; ++g) {
+                if (candidates.get(g).accepts(member)) {
+                    group = candidates.get(g);
+                }
+            }
+            if (group == null) {
+                group = new Group(member);
+                candidates.add(group);
+                slots.add(group);
+            } else {
+                group.add(member);
+            }
+        }
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = new ArrayList<>(slots.size());
+        for (final Object slot : slots) {
+            if (slot instanceof Group) {
+                fused.add(((Group) slot).toTerm());
+            } else {
+                fused.add((TimeStepEnergyErrorFunctionTerm) slot);
+            }
+        }
+        return fused;
+    }
+
+    private final Newton2Error newton2;
+    private final MomentumConservationError momentum;
+    private final MassConservationError mass;
+
+    private final int massTerm;
+    private final int[] velocityTerm;
+    private final int[] accelerationTerm;
+    private final int[] advectionMassRateTerm;
+    private final int[] advectionVelocityTerm;
+    private final int[] forceTerm;
+
+    private final double[] massTransferSign;
+    private final double[] forceSign;
+
+    private final int[] indexFootprint;
+    private final int[] newton2Column;
+    private final int[] momentumColumn;
+    private final int[] massColumn;
+
+    private FusedBodyError(final Group group) {
+        newton2 = group.newton2;
+        momentum = group.momentum;
+        mass = group.mass;
+        massTerm = group.massTerm;
+        velocityTerm = group.velocityTerm;
+        advectionMassRateTerm = group.advectionMassRateTerm;
+        advectionVelocityTerm = group.advectionVelocityTerm;
+        forceTerm = group.forceTerm;
+        massTransferSign = createSigns(group.massTransferInto);
+        forceSign = createSigns(group.forceOn);
+        if (newton2 == null) {
+            accelerationTerm = null;
+        } else {
+            final int ns = newton2.getSpaceDimension();
+            accelerationTerm = new int[ns];
+            for (int i = 0; i < ns; ++i) {
+                accelerationTerm[i] = newton2.getAccelerationTerm(i);
+            }
+        }
+
+        /* The footprints of the combined terms do not depend on the dimension. */
+        final int[] none = new int[0];
+        final int[] newton2Footprint = newton2 == null ? none : newton2.getIndexFootprint(1);
+        final int[] momentumFootprint = momentum == null ? none : momentum.getIndexFootprint(1);
+        final int[] massFootprint = mass == null ? none : mass.getIndexFootprint(1);
+        indexFootprint = createIndexFootprint(newton2Footprint, momentumFootprint, massFootprint);
+        newton2Column = columnsOf(indexFootprint, newton2Footprint);
+        momentumColumn = columnsOf(indexFootprint, momentumFootprint);
+        massColumn = columnsOf(indexFootprint, massFootprint);
+    }
+
+    /*
+     * The sum of the momentum transfer rates, in direction i, of the advections,
+     * for a given state vector.
+     */
+    private double advectionMomentumRate(final double[] state, final int i) {
+        final int ns = velocityTerm.length;
+        final double v = state[velocityTerm[i]];
+        double rate = 0.0;
+        for (int j = 0, nm = advectionMassRateTerm.length; j < nm; ++j) {
+            final double massRate = massTransferSign[j] * state[advectionMassRateTerm[j]];
+            final double vrel = state[advectionVelocityTerm[j * ns + i]] - v;
+            rate += massRate * vrel;
+        }
+        return rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The implementation provided for the {@link FusedBodyError} type copies the
+     * components of the state vectors and uses the
+     * {@linkplain #evaluate(double[], double[], double[], double) array based
+     * evaluation}.
+     * </p>
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        return evaluate(dedx, toArray(state0), toArray(state), dt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This computes the sum of the values, and of the gradients, of the combined
+     * terms, to within rounding error, but does not allocate any objects.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        return evaluate(dedx, null, state0, state, dt, state0[massTerm], massRateTotal(state0));
+    }
+
+    /*
+     * If prepared is null, this computes the momentum, advection momentum rates
+     * and forces at the current point in time from state0. Otherwise it takes
+     * them from the prepared values.
+     */
+    private double evaluate(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double m0, final double massRate0Total) {
+        final int nm = advectionMassRateTerm.length;
+        final double m = state[massTerm];
+        final double massRateTotal = massRateTotal(state);
+
+        double e = 0.0;
+        if (mass != null) {
+            final double me = m - m0 + dt * (0.5 * (massRate0Total + massRateTotal));
+            final double ce = mass.getSpecificEnergyReference() * (me / mass.getMassReference());
+            // ce may be negative
+            e += ce * me;
+
+            dedx[massTerm] += 2.0 * ce;
+            final double dedmrate = ce * dt;
+            for (int j = 0; j < nm; ++j) {
+                dedx[advectionMassRateTerm[j]] += massTransferSign[j] * dedmrate;
+            }
+        }
+        if (newton2 != null || momentum != null) {
+            e += evaluateMotion(dedx, prepared, state0, state, dt, m0, m, massRateTotal);
+        }
+        return e;
+    }
+
+    private double evaluateMotion(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double m0, final double m, final double massRateTotal) {
+        final int ns = velocityTerm.length;
+        final int nm = advectionMassRateTerm.length;
+        final int nf = forceSign.length;
+        final boolean hasNewton2 = newton2 != null;
+        final boolean hasMomentum = momentum != null;
+        final double timeReference = hasNewton2 ? newton2.getTimeReference() : 0.0;
+        final double massReference = hasNewton2 ? newton2.getMassReference() : 1.0;
+        final double newton2Scale = timeReference / (massReference * massReference);
+        final double mdedv = m + 0.5 * dt * massRateTotal;
+
+        double e = 0.0;
+        double newton2Ve2 = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final int vTerm = velocityTerm[i];
+            final double vi = state[vTerm];
+            final double advection = advectionMomentumRate(state, i);
+            final double f = force(state, i);
+
+            double xe = 0.0;
+            if (hasNewton2) {
+                final int aTerm = accelerationTerm[i];
+                final double ai = state[aTerm];
+                final double ve = (m * ai - advection - f) * newton2Scale;
+                xe = ve * (timeReference / massReference);
+                newton2Ve2 += ve * ve;
+                dedx[massTerm] += xe * ai;
+                dedx[vTerm] += massRateTotal * xe;
+                dedx[aTerm] += m * xe;
+            }
+            double ve = 0.0;
+            if (hasMomentum) {
+                final double p0;
+                final double advection0;
+                final double f0;
+                if (prepared == null) {
+                    p0 = m0 * state0[vTerm];
+                    advection0 = advectionMomentumRate(state0, i);
+                    f0 = force(state0, i);
+                } else {
+                    p0 = prepared[PREPARED_MOTION + 3 * i];
+                    advection0 = prepared[PREPARED_MOTION + 3 * i + 1];
+                    f0 = prepared[PREPARED_MOTION + 3 * i + 2];
+                }
+                final double pRate = 0.5 * (advection0 + advection) + 0.5 * (f0 + f);
+                final double pe = m * vi - p0 - pRate * dt;
+                ve = pe / m;
+                e += 0.5 * pe * ve;
+                dedx[massTerm] += ve * (vi - 0.5 * ve);
+                dedx[vTerm] += ve * mdedv;
+            }
+
+            /* Gradients with respect to the advection and force terms are shared. */
+            final double dedmrate = xe + 0.5 * dt * ve;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = massTransferSign[j];
+                final int uTerm = advectionVelocityTerm[j * ns + i];
+                final double massRate = sign * state[advectionMassRateTerm[j]];
+                final double vrel = state[uTerm] - vi;
+                dedx[advectionMassRateTerm[j]] -= sign * dedmrate * vrel;
+                dedx[uTerm] -= massRate * dedmrate;
+            }
+            for (int k = 0; k < nf; ++k) {
+                dedx[forceTerm[k * ns + i]] -= forceSign[k] * dedmrate;
+            }
+        }
+        if (hasNewton2) {
+            e += 0.5 * massReference * newton2Ve2;
+        }
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double)} method, with the
+     * same sequence of floating-point operations, so it computes bitwise
+     * identical values. But it takes the mass, the total mass transfer rate, and
+     * the momentum, advection momentum rates and forces, at the current point in
+     * time from the prepared values, so it does not read the {@code state0}
+     * array.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluatePrepared(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+        return evaluate(dedx, prepared, state0, state, dt, prepared[0], prepared[1]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The residuals are the residuals of the {@link Newton2Error} term, then of
+     * the {@link MomentumConservationError} term, then of the
+     * {@link MassConservationError} term, for those of the terms that this
+     * combines. This does not allocate any objects.
+     * </p>
+     *
+     * @param residuals
+     *            {@inheritDoc}
+     * @param jacobian
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+            final double[] state, final double dt) {
+        requireResidualArguments(residuals, jacobian, state0, state, dt);
+
+        /*
+         * Each combined term writes its residuals and Jacobian at the start of the
+         * arrays, so evaluate the last combined term first and move the values of
+         * each to their place before evaluating the next.
+         */
+        final int nNewton2 = newton2 == null ? 0 : newton2.getNumberOfResiduals();
+        final int nMomentum = momentum == null ? 0 : momentum.getNumberOfResiduals();
+        double e = 0.0;
+        if (mass != null) {
+            e += mass.evaluateResiduals(residuals, jacobian, state0, state, dt);
+            placeResiduals(residuals, jacobian, nNewton2 + nMomentum, mass.getNumberOfResiduals(), massColumn);
+        }
+        if (momentum != null) {
+            e += momentum.evaluateResiduals(residuals, jacobian, state0, state, dt);
+            placeResiduals(residuals, jacobian, nNewton2, nMomentum, momentumColumn);
+        }
+        if (newton2 != null) {
+            e += newton2.evaluateResiduals(residuals, jacobian, state0, state, dt);
+            placeResiduals(residuals, jacobian, 0, nNewton2, newton2Column);
+        }
+        return e;
+    }
+
+    /*
+     * The sum of the components, in direction i, of the forces, for a given
+     * state vector.
+     */
+    private double force(final double[] state, final int i) {
+        final int ns = velocityTerm.length;
+        double f = 0.0;
+        for (int k = 0, nf = forceSign.length; k < nf; ++k) {
+            f += forceSign[k] * state[forceTerm[k * ns + i]];
+        }
+        return f;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint is the union of the index footprints of the combined terms.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the sum of the numbers of residuals of the combined terms
+     */
+    @Override
+    public final int getNumberOfResiduals() {
+        return (newton2 == null ? 0 : newton2.getNumberOfResiduals())
+                + (momentum == null ? 0 : momentum.getNumberOfResiduals())
+                + (mass == null ? 0 : mass.getNumberOfResiduals());
+    }
+
+    /**
+     * <p>
+     * The {@link MassConservationError} term that this combines.
+     * </p>
+     *
+     * @return the term, or null if this does not include a mass conservation
+     *         term.
+     */
+    final MassConservationError getMassConservationError() {
+        return mass;
+    }
+
+    /**
+     * <p>
+     * The {@link MomentumConservationError} term that this combines.
+     * </p>
+     *
+     * @return the term, or null if this does not include a momentum
+     *         conservation term.
+     */
+    final MomentumConservationError getMomentumConservationError() {
+        return momentum;
+    }
+
+    /**
+     * <p>
+     * The {@link Newton2Error} term that this combines.
+     * </p>
+     *
+     * @return the term, or null if this does not include a Newton's second law
+     *         term.
+     */
+    final Newton2Error getNewton2Error() {
+        return newton2;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The prepared values are the mass and the total
+     * {@linkplain MassConservationError#isMassTransferInto(int) signed} mass
+     * transfer rate at the current point in time. If this combines a
+     * {@link MomentumConservationError} term, they are followed, for each space
+     * dimension, by the momentum, the total advection momentum transfer rate and
+     * the total force at the current point in time.
+     * </p>
+     *
+     * @return the length
+     */
+    @Override
+    public final int getPreparedLength() {
+        return PREPARED_MOTION + (momentum == null ? 0 : 3 * velocityTerm.length);
+    }
+
+    /**
+     * <p>
+     * Whether this term can be calculated for a physical state vector that has a
+     * given number of variables.
+     * </p>
+     * <p>
+     * This term is valid if all the combined terms are valid.
+     * </p>
+     *
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return (newton2 == null || newton2.isValidForDimension(n))
+                && (momentum == null || momentum.isValidForDimension(n))
+                && (mass == null || mass.isValidForDimension(n));
+    }
+
+    /*
+     * The total signed mass transfer rate, for a given state vector.
+     */
+    private double massRateTotal(final double[] state) {
+        double total = 0.0;
+        for (int j = 0, nm = advectionMassRateTerm.length; j < nm; ++j) {
+            total += massTransferSign[j] * state[advectionMassRateTerm[j]];
+        }
+        return total;
+    }
+
+    /*
+     * Move the residuals and Jacobian of a combined term, written at the start of
+     * the arrays, to the rows starting at row0, with the columns for the footprint
+     * of this term. The destination of each value is not before its source, so
+     * moving the values in reverse order does not overwrite values not yet moved.
+     */
+    private void placeResiduals(final double[] residuals, final double[] jacobian, final int row0, final int nr,
+            final int[] column) {
+        final int p = indexFootprint.length;
+        final int pMember = column.length;
+        System.arraycopy(residuals, 0, residuals, row0, nr);
+        for (int k = nr - 1; 0 <= k; --k) {
+            final int row = (row0 + k) * p;
+            final int memberRow = k * pMember;
+            for (int c = pMember - 1; 0 <= c; --c) {
+                jacobian[row + column[c]] = jacobian[memberRow + c];
+            }
+            for (int j = p - 1, c = pMember - 1; 0 <= j; --j) {
+                if (0 <= c && column[c] == j) {
+                    --c;
+                } else {
+                    jacobian[row + j] = 0.0;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final void prepare(final double[] prepared, final double[] state0, final double dt) {
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+
+        final double m0 = state0[massTerm];
+        prepared[0] = m0;
+        prepared[1] = massRateTotal(state0);
+        if (momentum != null) {
+            for (int i = 0, ns = velocityTerm.length; i < ns; ++i) {
+                prepared[PREPARED_MOTION + 3 * i] = m0 * state0[velocityTerm[i]];
+                prepared[PREPARED_MOTION + 3 * i + 1] = advectionMomentumRate(state0, i);
+                prepared[PREPARED_MOTION + 3 * i + 2] = force(state0, i);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term combines the remapped terms that this term combines.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final TimeStepEnergyErrorFunctionTerm remap(final int[] map) {
+        final List<TimeStepEnergyErrorFunctionTerm> remapped = new ArrayList<>(3);
+        if (newton2 != null) {
+            remapped.add(newton2.remap(map));
+        }
+        if (momentum != null) {
+            remapped.add(momentum.remap(map));
+        }
+        if (mass != null) {
+            remapped.add(mass.remap(map));
+        }
+        return fuse(remapped).get(0);
+    }
+
+}
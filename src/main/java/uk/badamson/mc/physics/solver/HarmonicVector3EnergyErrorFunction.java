@@ -31,6 +31,7 @@ import uk.badamson.mc.math.MinN;
 import uk.badamson.mc.math.PoorlyConditionedFunctionException;
 import uk.badamson.mc.physics.HarmonicVector3;
 import uk.badamson.mc.physics.solver.mapper.HarmonicVector3Mapper;
+import uk.badamson.mc.physics.solver.mapper.ImmutableVector3StateSpaceMapper;
 
 /**
  * <p>
@@ -42,6 +43,15 @@ import uk.badamson.mc.physics.solver.mapper.HarmonicVector3Mapper;
  * <p>
  * This also acts as a Composite of a collection of function terms.
  * </p>
+ * <p>
+ * The {@linkplain #value(ImmutableVectorN) value} of the function is computed by
+ * {@linkplain HarmonicVector3EnergyErrorFunctionTerm#evaluate(double[], HarmonicVector3)
+ * accumulating} the gradients of the terms into one array, so terms that are
+ * {@link HarmonicVector3EnergyErrorFunctionTerm} objects need not create a
+ * {@link HarmonicVector3EnergyErrorValueAndGradients} object for each
+ * evaluation. Other terms are {@linkplain
+ * HarmonicVector3EnergyErrorFunctionTerm#adapt(Function) adapted}.
+ * </p>
  */
 @Immutable
 public final class HarmonicVector3EnergyErrorFunction
@@ -49,6 +59,7 @@ public final class HarmonicVector3EnergyErrorFunction
 
     private final HarmonicVector3Mapper mapper;
     private final Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients>[] terms;
+    private final HarmonicVector3EnergyErrorFunctionTerm[] accumulatingTerms;
 
     /**
      * <p>
@@ -80,8 +91,9 @@ public final class HarmonicVector3EnergyErrorFunction
         final Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients>[] termsArray = new Function[0];
         this.terms = Objects.requireNonNull(terms, "terms").toArray(termsArray);
         // Check after copy to avoid race hazards
-        for (final var term : this.terms) {
-            Objects.requireNonNull(term, "term");
+        accumulatingTerms = new HarmonicVector3EnergyErrorFunctionTerm[this.terms.length];
+        for (int i = 0; i < this.terms.length; ++i) {
+            accumulatingTerms[i] = HarmonicVector3EnergyErrorFunctionTerm.adapt(this.terms[i]);
         }
     }
 
@@ -118,20 +130,11 @@ public final class HarmonicVector3EnergyErrorFunction
         return HarmonicVector3EnergyErrorValueAndGradients.sum(values);
     }
 
-    @NonNull
-    private ImmutableVectorN convertToDeDx(
-            @NonNull final HarmonicVector3EnergyErrorValueAndGradients errorAndGradients) {
-        final double[] dedx = new double[mapper.getMinimumStateSpaceDimension()];
-        dedx[mapper.getWeIndex()] = errorAndGradients.getDedwe();
-        dedx[mapper.getWhIndex()] = errorAndGradients.getDedwh();
+    private static void copyGradient(final double[] dedx, final ImmutableVector3StateSpaceMapper vectorMapper,
+            final double[] gradient, final int g) {
         for (int i = 0; i < 3; ++i) {
-            dedx[mapper.getF0Mapper().getComponentIndex(i)] = errorAndGradients.getDedf0().get(i);
-            dedx[mapper.getF1Mapper().getComponentIndex(i)] = errorAndGradients.getDedf1().get(i);
-            dedx[mapper.getF2Mapper().getComponentIndex(i)] = errorAndGradients.getDedf2().get(i);
-            dedx[mapper.getFcMapper().getComponentIndex(i)] = errorAndGradients.getDedfc().get(i);
-            dedx[mapper.getFsMapper().getComponentIndex(i)] = errorAndGradients.getDedfs().get(i);
+            dedx[vectorMapper.getComponentIndex(i)] = gradient[g + i];
         }
-        return ImmutableVectorN.create(dedx);
     }
 
     /**
@@ -226,8 +229,20 @@ public final class HarmonicVector3EnergyErrorFunction
     @Override
     public FunctionNWithGradientValue value(final ImmutableVectorN state) {
         final HarmonicVector3 vector = mapper.toObject(state);
-        final HarmonicVector3EnergyErrorValueAndGradients errorAndGradients = apply(vector);
-        final ImmutableVectorN dedx = convertToDeDx(errorAndGradients);
-        return new FunctionNWithGradientValue(state, errorAndGradients.getE(), dedx);
+        final double[] gradient = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+        double e = 0.0;
+        for (final var term : accumulatingTerms) {
+            e += term.evaluate(gradient, vector);
+        }
+
+        final double[] dedx = new double[mapper.getMinimumStateSpaceDimension()];
+        dedx[mapper.getWeIndex()] = gradient[HarmonicVector3EnergyErrorFunctionTerm.DEDWE];
+        dedx[mapper.getWhIndex()] = gradient[HarmonicVector3EnergyErrorFunctionTerm.DEDWH];
+        copyGradient(dedx, mapper.getF0Mapper(), gradient, HarmonicVector3EnergyErrorFunctionTerm.DEDF0);
+        copyGradient(dedx, mapper.getF1Mapper(), gradient, HarmonicVector3EnergyErrorFunctionTerm.DEDF1);
+        copyGradient(dedx, mapper.getF2Mapper(), gradient, HarmonicVector3EnergyErrorFunctionTerm.DEDF2);
+        copyGradient(dedx, mapper.getFcMapper(), gradient, HarmonicVector3EnergyErrorFunctionTerm.DEDFC);
+        copyGradient(dedx, mapper.getFsMapper(), gradient, HarmonicVector3EnergyErrorFunctionTerm.DEDFS);
+        return new FunctionNWithGradientValue(state, e, ImmutableVectorN.create(dedx));
     }
 }
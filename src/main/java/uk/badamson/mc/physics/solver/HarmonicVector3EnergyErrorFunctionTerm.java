@@ -0,0 +1,215 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicVector3;
+
+/**
+ * <p>
+ * A contributor to the {@linkplain HarmonicVector3EnergyErrorFunction physical
+ * modelling error of a time varying 3D vector property} that can accumulate
+ * its gradient into an array, without creating a
+ * {@link HarmonicVector3EnergyErrorValueAndGradients} object.
+ * </p>
+ * <p>
+ * The components of the gradient are accumulated into an array of
+ * {@value #GRADIENT_LENGTH} elements. Component <var>i</var> of the derivative
+ * with respect to the f<sub>0</sub> parameter is at index {@code DEDF0 + i},
+ * and similarly for the other vector parameters. The derivatives with respect
+ * to the frequency parameters are at indices {@link #DEDWE} and
+ * {@link #DEDWH}.
+ * </p>
+ * <p>
+ * The term is also a {@link Function} that computes a
+ * {@link HarmonicVector3EnergyErrorValueAndGradients}, so it can be used
+ * wherever other terms can be used.
+ * </p>
+ *
+ * @see HarmonicVector3EnergyErrorFunction
+ */
+@Immutable
+@FunctionalInterface
+public interface HarmonicVector3EnergyErrorFunctionTerm
+        extends Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients> {
+
+    /**
+     * <p>
+     * The index of the x component of the derivative with respect to the
+     * f<sub>0</sub> parameter.
+     * </p>
+     */
+    public static final int DEDF0 = 0;
+
+    /**
+     * <p>
+     * The index of the x component of the derivative with respect to the
+     * f<sub>1</sub> parameter.
+     * </p>
+     */
+    public static final int DEDF1 = 3;
+
+    /**
+     * <p>
+     * The index of the x component of the derivative with respect to the
+     * f<sub>2</sub> parameter.
+     * </p>
+     */
+    public static final int DEDF2 = 6;
+
+    /**
+     * <p>
+     * The index of the x component of the derivative with respect to the
+     * f<sub>c</sub> parameter.
+     * </p>
+     */
+    public static final int DEDFC = 9;
+
+    /**
+     * <p>
+     * The index of the x component of the derivative with respect to the
+     * f<sub>s</sub> parameter.
+     * </p>
+     */
+    public static final int DEDFS = 12;
+
+    /**
+     * <p>
+     * The index of the derivative with respect to the &omega;<sub>e</sub>
+     * parameter.
+     * </p>
+     */
+    public static final int DEDWE = 15;
+
+    /**
+     * <p>
+     * The index of the derivative with respect to the &omega;<sub>h</sub>
+     * parameter.
+     * </p>
+     */
+    public static final int DEDWH = 16;
+
+    /**
+     * <p>
+     * The number of components of the gradient.
+     * </p>
+     */
+    public static final int GRADIENT_LENGTH = 17;
+
+    /**
+     * <p>
+     * Create a term that accumulates the gradient computed by a given functor.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) term.</li>
+     * <li>If the given functor is already a term of this type, the method
+     * returns that functor.</li>
+     * <li>Otherwise, the {@linkplain #evaluate(double[], HarmonicVector3)
+     * evaluation} of the returned term delegates to the
+     * {@link Function#apply(Object)} method of the given functor, and adds the
+     * gradients of the computed value to the array.</li>
+     * </ul>
+     *
+     * @param term
+     *            The functor to adapt.
+     * @return the term
+     * @throws NullPointerException
+     *             If {@code term} is null.
+     */
+    public static @NonNull HarmonicVector3EnergyErrorFunctionTerm adapt(
+            @NonNull final Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients> term) {
+        Objects.requireNonNull(term, "term");
+        if (term instanceof HarmonicVector3EnergyErrorFunctionTerm) {
+            return (HarmonicVector3EnergyErrorFunctionTerm) term;
+        }
+        return (dedx, v) -> {
+            final HarmonicVector3EnergyErrorValueAndGradients value = term.apply(v);
+            for (int i = 0; i < 3; ++i) {
+                dedx[DEDF0 + i] += value.getDedf0().get(i);
+                dedx[DEDF1 + i] += value.getDedf1().get(i);
+                dedx[DEDF2 + i] += value.getDedf2().get(i);
+                dedx[DEDFC + i] += value.getDedfc().get(i);
+                dedx[DEDFS + i] += value.getDedfs().get(i);
+            }
+            dedx[DEDWE] += value.getDedwe();
+            dedx[DEDWH] += value.getDedwh();
+            return value.getE();
+        };
+    }
+
+    private static ImmutableVector3 vector(final double[] dedx, final int i) {
+        return ImmutableVector3.create(dedx[i], dedx[i + 1], dedx[i + 2]);
+    }
+
+    /**
+     * <p>
+     * Compute the value and gradients of this term.
+     * </p>
+     * <p>
+     * The method computes the same values as the
+     * {@link #evaluate(double[], HarmonicVector3)} method.
+     * </p>
+     *
+     * @param v
+     *            The functor for which to compute the error.
+     * @return The error value and its gradients; not null.
+     * @throws NullPointerException
+     *             If {@code v} is null.
+     */
+    @Override
+    public default @NonNull HarmonicVector3EnergyErrorValueAndGradients apply(@NonNull final HarmonicVector3 v) {
+        Objects.requireNonNull(v, "v");
+        final double[] dedx = new double[GRADIENT_LENGTH];
+        final double e = evaluate(dedx, v);
+        return new HarmonicVector3EnergyErrorValueAndGradients(e, vector(dedx, DEDF0), vector(dedx, DEDF1),
+                vector(dedx, DEDF2), vector(dedx, DEDFC), vector(dedx, DEDFS), dedx[DEDWE], dedx[DEDWH]);
+    }
+
+    /**
+     * <p>
+     * Calculate the value of this term.
+     * </p>
+     * <p>
+     * The method returns the value for this error term, and adds the components
+     * of the gradient of the error value to the given array of components.
+     * </p>
+     *
+     * @param dedx
+     *            An array for accumulating the components of the gradient of the
+     *            error value, with the layout described by the
+     *            {@linkplain HarmonicVector3EnergyErrorFunctionTerm interface}.
+     * @param v
+     *            The functor for which to compute the error.
+     * @return the value, which has dimensions of energy.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code v} is null.</li>
+     *             </ul>
+     * @throws IndexOutOfBoundsException
+     *             If the length of {@code dedx} is less than
+     *             {@value #GRADIENT_LENGTH}.
+     */
+    public double evaluate(@NonNull double[] dedx, @NonNull HarmonicVector3 v);
+}
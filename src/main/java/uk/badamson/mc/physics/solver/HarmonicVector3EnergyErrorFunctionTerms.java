@@ -24,6 +24,7 @@ import java.util.function.Function;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicTimeBasis;
 import uk.badamson.mc.physics.HarmonicVector3;
 
 /**
@@ -39,7 +40,9 @@ import uk.badamson.mc.physics.HarmonicVector3;
  * {@code Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients>}
  * functors. The {@link Function#apply(Object)} method of all the functors
  * provided by this class expect a non-null {@link HarmonicVector3} and return a
- * non-null {@link HarmonicVector3EnergyErrorValueAndGradients}.
+ * non-null {@link HarmonicVector3EnergyErrorValueAndGradients}. The value
+ * terms are {@link HarmonicVector3EnergyErrorFunctionTerm} objects, which can
+ * also accumulate their gradients without creating any objects.
  * </p>
  */
 public final class HarmonicVector3EnergyErrorFunctionTerms {
@@ -85,48 +88,92 @@ public final class HarmonicVector3EnergyErrorFunctionTerms {
      *             <li>If {@linkplain f} is null.</li>
      *             </ul>
      */
-    public static Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients> createValueTerm(
-            final double scale, @NonNull final Duration t, @NonNull final ImmutableVector3 f) {
+    public static HarmonicVector3EnergyErrorFunctionTerm createValueTerm(final double scale,
+            @NonNull final Duration t, @NonNull final ImmutableVector3 f) {
         Objects.requireNonNull(t, "t");
         Objects.requireNonNull(f, "f");
-        final double scale2 = 2.0 * scale;
-        return (actual) -> {
-            /*
-             * Inline calculation of fa = actual.at(t), so can reuse the intermediate terms.
-             */
-            final Duration tr = t.minus(actual.getT0());
-            final double ts = tr.getSeconds() + 1E-9 * tr.getNano();
-            final ImmutableVector3 fc = actual.getFc();
-            final ImmutableVector3 fs = actual.getFs();
-            final double we = actual.getWe();
-            final double wh = actual.getWh();
-
-            final double tau = we * ts;
-            final double tau2 = tau * tau;
-            final double alpha = wh * ts;
-            final double exp = Math.exp(tau);
-            final double expCos = exp * Math.cos(alpha);
-            final double expSin = exp * Math.sin(alpha);
+        return (dedx, actual) -> valueTerm(scale, f, actual, HarmonicTimeBasis.secondsSince(t, actual.getT0()), dedx);
+    }
 
-            final double fWeights[] = { 1.0, tau, tau2, expCos, expSin };
-            final ImmutableVector3 termsArray[] = { actual.getF0(), actual.getF1(), actual.getF2(), fc, fs };
-            final ImmutableVector3 fa = ImmutableVector3.weightedSum(fWeights, termsArray);
+    /**
+     * <p>
+     * Create a term that is tends to cause the {@linkplain HarmonicVector3 time
+     * varying 3D vector property} to have a given value for a given point in time,
+     * expressed as a number of nanoseconds.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) term.</li>
+     * <li>The term is equivalent to the term
+     * {@linkplain #createValueTerm(double, Duration, ImmutableVector3) created}
+     * for the equivalent duration.</li>
+     * </ul>
+     * <p>
+     * Evaluating the term does not require creating any {@link Duration}
+     * objects.
+     * </p>
+     *
+     * @param scale
+     *            The scaling factor for converting the square of a value difference
+     *            to an energy.
+     * @param t
+     *            The point in time of where the property ought to have the given
+     *            value, expressed as the number of nanoseconds since an (implied)
+     *            epoch.
+     * @param f
+     *            The value that the property ought to have at the given point in
+     *            time.
+     * @return the term functor.
+     * @throws NullPointerException
+     *             If {@linkplain f} is null.
+     */
+    public static HarmonicVector3EnergyErrorFunctionTerm createValueTerm(final double scale, final long t,
+            @NonNull final ImmutableVector3 f) {
+        Objects.requireNonNull(f, "f");
+        return (dedx, actual) -> valueTerm(scale, f, actual, HarmonicTimeBasis.secondsSince(t, actual.getT0()), dedx);
+    }
 
-            final ImmutableVector3 fe = fa.minus(f);
-            final double e = scale * fe.magnitude2();
+    private static double valueTerm(final double scale, final ImmutableVector3 f, final HarmonicVector3 actual,
+            final double ts, final double[] dedx) {
+        final double scale2 = 2.0 * scale;
+        /*
+         * Inline calculation of fa = actual.at(t), so can reuse the intermediate terms.
+         */
+        final ImmutableVector3 f0 = actual.getF0();
+        final ImmutableVector3 f1 = actual.getF1();
+        final ImmutableVector3 f2 = actual.getF2();
+        final ImmutableVector3 fc = actual.getFc();
+        final ImmutableVector3 fs = actual.getFs();
+        final double we = actual.getWe();
+        final double wh = actual.getWh();
 
-            final ImmutableVector3 dedf0 = fe.scale(scale2);
-            final ImmutableVector3 dedf1 = fe.scale(scale2 * tau);
-            final ImmutableVector3 dedf2 = fe.scale(scale2 * tau2);
-            final ImmutableVector3 dedfc = fe.scale(scale2 * expCos);
-            final ImmutableVector3 dedfs = fe.scale(scale2 * expSin);
-            final double dedweWeights[] = { 0, ts, 2.0 * tau * ts, expCos * we * ts, expSin * we * ts };
-            final ImmutableVector3 dfdwe = ImmutableVector3.weightedSum(dedweWeights, termsArray);
-            final double dedwe = scale2 * fe.dot(dfdwe);
-            final ImmutableVector3 dfdwh = fc.scale(-wh * expSin).plus(fs.scale(wh * expCos));
-            final double dedwh = scale2 * fe.dot(dfdwh);
+        final double tau = we * ts;
+        final double tau2 = tau * tau;
+        final double alpha = wh * ts;
+        final double exp = Math.exp(tau);
+        final double expCos = exp * Math.cos(alpha);
+        final double expSin = exp * Math.sin(alpha);
 
-            return new HarmonicVector3EnergyErrorValueAndGradients(e, dedf0, dedf1, dedf2, dedfc, dedfs, dedwe, dedwh);
-        };
+        double e = 0.0;
+        double dedwe = 0.0;
+        double dedwh = 0.0;
+        for (int i = 0; i < 3; ++i) {
+            final double fci = fc.get(i);
+            final double fsi = fs.get(i);
+            final double fe = f0.get(i) + tau * f1.get(i) + tau2 * f2.get(i) + expCos * fci + expSin * fsi - f.get(i);
+            final double dfdwe = ts * (f1.get(i) + 2.0 * tau * f2.get(i) + expCos * fci + expSin * fsi);
+            final double dfdwh = ts * (expCos * fsi - expSin * fci);
+            final double dedfe = scale2 * fe;
+            e += fe * fe;
+            dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF0 + i] += dedfe;
+            dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF1 + i] += dedfe * tau;
+            dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF2 + i] += dedfe * tau2;
+            dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFC + i] += dedfe * expCos;
+            dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFS + i] += dedfe * expSin;
+            dedwe += dedfe * dfdwe;
+            dedwh += dedfe * dfdwh;
+        }
+        dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWE] += dedwe;
+        dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWH] += dedwh;
+        return scale * e;
     }
 }
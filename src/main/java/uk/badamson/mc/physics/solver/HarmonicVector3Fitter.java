@@ -0,0 +1,514 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicTimeBasis;
+import uk.badamson.mc.physics.HarmonicVector3;
+
+/**
+ * <p>
+ * A least squares fitter of {@linkplain HarmonicVector3 harmonic vectors} to
+ * samples of a time varying 3D vector property.
+ * </p>
+ * <p>
+ * The fitter finds the harmonic vector, with a given
+ * {@linkplain #getT0() time origin}, that minimises the
+ * {@linkplain #sumOfSquares(HarmonicVector3) sum of the squares} of the
+ * differences between the values of the vector and the sample values. That
+ * is equivalent to minimising a {@linkplain HarmonicVector3EnergyErrorFunction
+ * energy error function} composed of
+ * {@linkplain HarmonicVector3EnergyErrorFunctionTerms#createValueTerm(double, long, ImmutableVector3)
+ * value terms} of equal scale, one for each sample, but is much faster.
+ * </p>
+ * <p>
+ * The values of a harmonic vector are linear in its f<sub>0</sub>,
+ * f<sub>1</sub>, f<sub>2</sub>, f<sub>c</sub> and f<sub>s</sub> parameters.
+ * So, for given frequencies, the fitter {@linkplain #fit(double, double)
+ * computes} the best values of those parameters directly, by solving the 5 by
+ * 5 normal equations shared by the three components. Basis functions that are
+ * linearly dependent on the preceding basis functions for the samples, such as
+ * &tau; when &omega;<sub>e</sub> is zero, are given zero coefficients. To
+ * {@linkplain #fit(double, double, double) fit the frequencies} too, the fitter
+ * uses the Levenberg–Marquardt method for only those two variables, with the
+ * linear parameters eliminated (<dfn>variable projection</dfn>).
+ * </p>
+ * <p>
+ * A fitter holds work arrays with sizes proportional to the
+ * {@linkplain #getNumberOfSamples() number of samples}, which it reuses for
+ * each fit. A fitter is not safe for use by multiple threads.
+ * </p>
+ *
+ * @see LevenbergMarquardtMinimiser
+ */
+@NotThreadSafe
+public final class HarmonicVector3Fitter {
+
+    /**
+     * <p>
+     * The maximum number of iterations of a {@linkplain #fit(double, double,
+     * double) fit of the frequencies}.
+     * </p>
+     */
+    public static final int MAX_ITERATIONS = 1_000;
+
+    private static final int BASIS = 5;
+    private static final double PIVOT_TOLERANCE = 1E-12;
+    private static final double INITIAL_DAMPING = 1E-3;
+    private static final double DAMPING_FACTOR = 10.0;
+    private static final double MAX_DAMPING = 1E16;
+
+    private static void requireFrequencies(final double we, final double wh) {
+        if (!Double.isFinite(we)) {
+            throw new IllegalArgumentException("we " + we);
+        }
+        if (!Double.isFinite(wh)) {
+            throw new IllegalArgumentException("wh " + wh);
+        }
+    }
+
+    private static void requireTolerance(final double tolerance) {
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+    }
+
+    private final Duration t0;
+    private final long[] t;
+    private final double[] ts;
+    private final double[] f;
+
+    private final double[] basis;
+    private final double[] gram = new double[BASIS * BASIS];
+    private final double[] cholesky = new double[BASIS * BASIS];
+    private final double[] coefficients = new double[BASIS * 3];
+    private final double[] projection = new double[BASIS * 3];
+    private final double[] jacobian;
+    private double we;
+    private double wh;
+
+    /**
+     * <p>
+     * Construct a fitter for given samples.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #getT0() time origin} of this fitter is the given time
+     * origin.</li>
+     * <li>The {@linkplain #getNumberOfSamples() number of samples} of this fitter
+     * is the length of the {@code t} array.</li>
+     * </ul>
+     * </section>
+     *
+     * @param t0
+     *            The time origin of the harmonic vectors to fit.
+     * @param t
+     *            The points in time of the samples, expressed as the number of
+     *            nanoseconds since an (implied) epoch.
+     * @param f
+     *            The sample values. Component <var>i</var> of sample
+     *            <var>k</var> is {@code f[3 * k + i]}.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code t0} is null.</li>
+     *             <li>If {@code t} is null.</li>
+     *             <li>If {@code f} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code f} is not three times the length of
+     *             {@code t}.</li>
+     *             <li>If any sample value is not {@linkplain Double#isFinite(double)
+     *             finite}.</li>
+     *             </ul>
+     */
+    public HarmonicVector3Fitter(@NonNull final Duration t0, @NonNull final long[] t, @NonNull final double[] f) {
+        this.t0 = Objects.requireNonNull(t0, "t0");
+        Objects.requireNonNull(t, "t");
+        Objects.requireNonNull(f, "f");
+        if (f.length != 3L * t.length) {
+            throw new IllegalArgumentException("Inconsistent f.length " + f.length + " for t.length " + t.length);
+        }
+        this.t = Arrays.copyOf(t, t.length);
+        ts = new double[t.length];
+        for (int k = 0; k < t.length; ++k) {
+            ts[k] = HarmonicTimeBasis.secondsSince(t[k], t0);
+        }
+        this.f = Arrays.copyOf(f, f.length);
+        for (int k = 0; k < f.length; ++k) {
+            if (!Double.isFinite(this.f[k])) {
+                throw new IllegalArgumentException("f[" + k + "] " + this.f[k]);
+            }
+        }
+        basis = new double[BASIS * t.length];
+        jacobian = new double[2 * 3 * t.length];
+    }
+
+    /**
+     * <p>
+     * Find the best harmonic vector with given frequencies.
+     * </p>
+     * <ul>
+     * <li>The returned vector has the {@linkplain #getT0() time origin} of this
+     * fitter and the given frequencies.</li>
+     * <li>The returned vector has the f<sub>0</sub>, f<sub>1</sub>,
+     * f<sub>2</sub>, f<sub>c</sub> and f<sub>s</sub> parameters that minimise the
+     * {@linkplain #sumOfSquares(HarmonicVector3) sum of squares}, for those
+     * frequencies.</li>
+     * </ul>
+     *
+     * @param we
+     *            The &omega;<sub>e</sub> parameter; the exponential frequency term.
+     * @param wh
+     *            The &omega;<sub>h</sub> parameter; the harmonic frequency term.
+     * @return the best harmonic vector; not null.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code we} is not {@linkplain Double#isFinite(double)
+     *             finite}.</li>
+     *             <li>If {@code wh} is not finite.</li>
+     *             </ul>
+     */
+    public final @NonNull HarmonicVector3 fit(final double we, final double wh) {
+        requireFrequencies(we, wh);
+        fitCoefficients(we, wh);
+        return toHarmonicVector3();
+    }
+
+    /**
+     * <p>
+     * Find the best harmonic vector, starting from a guess for its frequencies.
+     * </p>
+     * <p>
+     * The method uses the Levenberg–Marquardt method to adjust the frequencies,
+     * {@linkplain #fit(double, double) computing} the best linear parameters for
+     * each trial pair of frequencies. It stops when an iteration reduces the sum
+     * of squares by a fraction less than the tolerance, if the sum of squares or
+     * its gradient is zero, if it can not find a step that reduces the sum of
+     * squares, or after {@value #MAX_ITERATIONS} iterations. As for all
+     * non-linear fits, the method finds a local minimum, so the initial guess for
+     * the frequencies should be close to their best values.
+     * </p>
+     * <ul>
+     * <li>The returned vector has the {@linkplain #getT0() time origin} of this
+     * fitter.</li>
+     * <li>The {@linkplain #sumOfSquares(HarmonicVector3) sum of squares} of the
+     * returned vector is not greater than the sum of squares of the best vector
+     * for the initial frequencies.</li>
+     * </ul>
+     *
+     * @param we0
+     *            The initial guess for the &omega;<sub>e</sub> parameter.
+     * @param wh0
+     *            The initial guess for the &omega;<sub>h</sub> parameter.
+     * @param tolerance
+     *            The convergence tolerance.
+     * @return the best harmonic vector found; not null.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code we0} is not {@linkplain Double#isFinite(double)
+     *             finite}.</li>
+     *             <li>If {@code wh0} is not finite.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public final @NonNull HarmonicVector3 fit(final double we0, final double wh0, final double tolerance) {
+        requireFrequencies(we0, wh0);
+        requireTolerance(tolerance);
+        final int n = ts.length;
+
+        double e = fitCoefficients(we0, wh0);
+        double damping = INITIAL_DAMPING;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            /*
+             * The Jacobian of the residuals with respect to the frequencies, with
+             * the linear coefficients eliminated, is the derivative for fixed
+             * coefficients projected onto the complement of the span of the basis
+             * functions (Kaufman's approximation). Because the coefficients are
+             * optimal, the residuals are in that complement, so the gradient of the
+             * sum of squares computed from the Jacobian is exact.
+             */
+            final int wh0Offset = 3 * n;
+            for (int k = 0, b = 0; k < n; ++k, b += BASIS) {
+                final double tk = ts[k];
+                final double tau = basis[b + 1];
+                final double expCos = basis[b + 3];
+                final double expSin = basis[b + 4];
+                for (int i = 0; i < 3; ++i) {
+                    final double f1 = coefficients[3 + i];
+                    final double f2 = coefficients[6 + i];
+                    final double fc = coefficients[9 + i];
+                    final double fs = coefficients[12 + i];
+                    jacobian[3 * k + i] = tk * (f1 + 2.0 * tau * f2 + expCos * fc + expSin * fs);
+                    jacobian[wh0Offset + 3 * k + i] = tk * (expCos * fs - expSin * fc);
+                }
+            }
+            project(0);
+            project(wh0Offset);
+            double a00 = 0.0;
+            double a01 = 0.0;
+            double a11 = 0.0;
+            double g0 = 0.0;
+            double g1 = 0.0;
+            for (int k = 0; k < n; ++k) {
+                for (int i = 0; i < 3; ++i) {
+                    final double jwe = jacobian[3 * k + i];
+                    final double jwh = jacobian[wh0Offset + 3 * k + i];
+                    final double r = residual(k, i);
+                    a00 += jwe * jwe;
+                    a01 += jwe * jwh;
+                    a11 += jwh * jwh;
+                    g0 += jwe * r;
+                    g1 += jwh * r;
+                }
+            }
+            if (e == 0.0 || g0 == 0.0 && g1 == 0.0) {
+                break;// at a stationary point
+            }
+
+            final double weOld = we;
+            final double whOld = wh;
+            double eNew = Double.NaN;
+            boolean accepted = false;
+            while (!accepted && damping <= MAX_DAMPING) {
+                final double d00 = a00 + damping * Math.max(a00, Double.MIN_NORMAL);
+                final double d11 = a11 + damping * Math.max(a11, Double.MIN_NORMAL);
+                final double det = d00 * d11 - a01 * a01;
+                if (0.0 < det) {
+                    final double weNew = weOld - (d11 * g0 - a01 * g1) / det;
+                    final double whNew = whOld - (d00 * g1 - a01 * g0) / det;
+                    if (Double.isFinite(weNew) && Double.isFinite(whNew)) {
+                        eNew = fitCoefficients(weNew, whNew);
+                        accepted = eNew < e;
+                    }
+                }
+                if (accepted) {
+                    damping = Math.max(damping / DAMPING_FACTOR, Double.MIN_NORMAL);
+                } else {
+                    damping *= DAMPING_FACTOR;
+                }
+            }
+            if (!accepted) {
+                fitCoefficients(weOld, whOld);
+                break;// can not reduce the sum of squares
+            }
+
+            final double eOld = e;
+            e = eNew;
+            if (2.0 * Math.abs(eOld - eNew) <= tolerance * (Math.abs(eOld) + Math.abs(eNew) + Double.MIN_NORMAL)) {
+                break;
+            }
+        }
+        return toHarmonicVector3();
+    }
+
+    /**
+     * <p>
+     * Compute the basis function values of the samples, and the best linear
+     * coefficients, for given frequencies.
+     * </p>
+     *
+     * @return the sum of squares of the residuals.
+     */
+    private double fitCoefficients(final double weNew, final double whNew) {
+        we = weNew;
+        wh = whNew;
+        final int n = ts.length;
+        Arrays.fill(gram, 0.0);
+        Arrays.fill(coefficients, 0.0);
+        for (int k = 0, b = 0; k < n; ++k, b += BASIS) {
+            final double tau = we * ts[k];
+            final double alpha = wh * ts[k];
+            final double exp = Math.exp(tau);
+            basis[b] = 1.0;
+            basis[b + 1] = tau;
+            basis[b + 2] = tau * tau;
+            basis[b + 3] = exp * Math.cos(alpha);
+            basis[b + 4] = exp * Math.sin(alpha);
+            for (int p = 0; p < BASIS; ++p) {
+                final double bp = basis[b + p];
+                for (int q = 0; q <= p; ++q) {
+                    gram[p * BASIS + q] += bp * basis[b + q];
+                }
+                for (int i = 0; i < 3; ++i) {
+                    coefficients[3 * p + i] += bp * f[3 * k + i];
+                }
+            }
+        }
+
+        /*
+         * Cholesky decomposition, dropping basis functions that are (nearly)
+         * linearly dependent on the preceding basis functions.
+         */
+        for (int p = 0; p < BASIS; ++p) {
+            final int row = p * BASIS;
+            for (int q = 0; q <= p; ++q) {
+                double sum = gram[row + q];
+                for (int m = 0; m < q; ++m) {
+                    sum -= cholesky[row + m] * cholesky[q * BASIS + m];
+                }
+                if (p == q) {
+                    cholesky[row + p] = PIVOT_TOLERANCE * gram[row + p] < sum ? Math.sqrt(sum) : 0.0;
+                } else {
+                    final double lqq = cholesky[q * BASIS + q];
+                    cholesky[row + q] = lqq == 0.0 ? 0.0 : sum / lqq;
+                }
+            }
+        }
+        solve(coefficients);
+
+        double e = 0.0;
+        for (int k = 0; k < n; ++k) {
+            for (int i = 0; i < 3; ++i) {
+                final double r = residual(k, i);
+                e += r * r;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * The number of samples to which this fitter fits harmonic vectors.
+     * </p>
+     *
+     * @return the number of samples; not negative.
+     */
+    public final int getNumberOfSamples() {
+        return ts.length;
+    }
+
+    /**
+     * <p>
+     * The time origin of the harmonic vectors that this fitter fits to the
+     * samples.
+     * </p>
+     *
+     * @return the time origin; not null.
+     */
+    public final @NonNull Duration getT0() {
+        return t0;
+    }
+
+    /*
+     * Replace a derivative of the values of the samples with its component that
+     * is orthogonal to all the basis functions.
+     */
+    private void project(final int offset) {
+        final int n = ts.length;
+        Arrays.fill(projection, 0.0);
+        for (int k = 0, b = 0; k < n; ++k, b += BASIS) {
+            for (int p = 0; p < BASIS; ++p) {
+                for (int i = 0; i < 3; ++i) {
+                    projection[3 * p + i] += basis[b + p] * jacobian[offset + 3 * k + i];
+                }
+            }
+        }
+        solve(projection);
+        for (int k = 0, b = 0; k < n; ++k, b += BASIS) {
+            for (int i = 0; i < 3; ++i) {
+                double v = 0.0;
+                for (int p = 0; p < BASIS; ++p) {
+                    v += basis[b + p] * projection[3 * p + i];
+                }
+                jacobian[offset + 3 * k + i] -= v;
+            }
+        }
+    }
+
+    /*
+     * The difference between the current fit and a sample value, using the
+     * current basis function values.
+     */
+    private double residual(final int k, final int i) {
+        double v = 0.0;
+        for (int p = 0, b = BASIS * k; p < BASIS; ++p, ++b) {
+            v += basis[b] * coefficients[3 * p + i];
+        }
+        return v - f[3 * k + i];
+    }
+
+    /**
+     * <p>
+     * The sum of the squares of the differences between the values of a given
+     * harmonic vector and the sample values.
+     * </p>
+     *
+     * @param v
+     *            The harmonic vector.
+     * @return the sum of squares; not negative.
+     * @throws NullPointerException
+     *             If {@code v} is null.
+     */
+    public final double sumOfSquares(@NonNull final HarmonicVector3 v) {
+        Objects.requireNonNull(v, "v");
+        double e = 0.0;
+        for (int k = 0; k < t.length; ++k) {
+            final ImmutableVector3 value = v.atNanos(t[k]);
+            for (int i = 0; i < 3; ++i) {
+                final double r = value.get(i) - f[3 * k + i];
+                e += r * r;
+            }
+        }
+        return e;
+    }
+
+    /*
+     * Solve the normal equations for three right hand sides, using the Cholesky
+     * decomposition, by forward and back substitution in place.
+     */
+    private void solve(final double[] x) {
+        for (int p = 0; p < BASIS; ++p) {
+            final double lpp = cholesky[p * BASIS + p];
+            for (int i = 0; i < 3; ++i) {
+                double sum = x[3 * p + i];
+                for (int m = 0; m < p; ++m) {
+                    sum -= cholesky[p * BASIS + m] * x[3 * m + i];
+                }
+                x[3 * p + i] = lpp == 0.0 ? 0.0 : sum / lpp;
+            }
+        }
+        for (int p = BASIS - 1; 0 <= p; --p) {
+            final double lpp = cholesky[p * BASIS + p];
+            for (int i = 0; i < 3; ++i) {
+                double sum = x[3 * p + i];
+                for (int m = p + 1; m < BASIS; ++m) {
+                    sum -= cholesky[m * BASIS + p] * x[3 * m + i];
+                }
+                x[3 * p + i] = lpp == 0.0 ? 0.0 : sum / lpp;
+            }
+        }
+    }
+
+    private HarmonicVector3 toHarmonicVector3() {
+        return new HarmonicVector3(t0, vector(0), vector(3), vector(6), vector(9), vector(12), we, wh);
+    }
+
+    private ImmutableVector3 vector(final int q) {
+        return ImmutableVector3.create(coefficients[q], coefficients[q + 1], coefficients[q + 2]);
+    }
+}
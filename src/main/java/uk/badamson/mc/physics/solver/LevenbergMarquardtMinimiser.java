@@ -0,0 +1,404 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * A minimiser of {@linkplain TimeStepEnergyErrorFunction functions that
+ * calculate the physical modelling error of a system at a future point in
+ * time} that uses the Levenberg–Marquardt method.
+ * </p>
+ * <p>
+ * The method requires that every {@linkplain TimeStepEnergyErrorFunction#getTerms()
+ * term} of the function is a {@linkplain TimeStepEnergyErrorFunctionResidualTerm
+ * sum of squares of residuals}. It approximates the Hessian of the function by
+ * <var>J</var><sup>T</sup><var>J</var>, where <var>J</var> is the Jacobian of
+ * the residuals, and solves the damped Gauss–Newton equations for each step.
+ * The damping is reduced when a step reduces the function, so the method
+ * converges quadratically near a minimum at which the residuals are small, as
+ * is the case for a well resolved time-step. The damping is increased when a
+ * step does not reduce the function, so the method takes steps closer to the
+ * steepest descent direction far from a minimum.
+ * </p>
+ * <p>
+ * The method does not form <var>J</var><sup>T</sup><var>J</var>. It keeps the
+ * Jacobian of each term, which has a column for each index of the
+ * {@linkplain TimeStepEnergyErrorFunctionTerm#getIndexFootprint(int) index
+ * footprint} of the term, and solves the damped Gauss–Newton equations by the
+ * preconditioned conjugate gradient method, computing the product of
+ * <var>J</var><sup>T</sup><var>J</var> and a vector one term at a time. The
+ * memory used, and the cost of each conjugate gradient iteration, are therefore
+ * proportional to the dimension plus the total size of the Jacobians of the
+ * terms, rather than to the square of the dimension.
+ * </p>
+ * <p>
+ * A minimiser holds work vectors for a given {@linkplain #getDimension()
+ * dimension}, which it reuses for each minimisation. A minimiser is not safe
+ * for use by multiple threads.
+ * </p>
+ */
+@NotThreadSafe
+public final class LevenbergMarquardtMinimiser {
+
+    /**
+     * <p>
+     * The maximum number of iterations of a minimisation.
+     * </p>
+     */
+    public static final int MAX_ITERATIONS = 1_000;
+
+    private static final double INITIAL_DAMPING = 1E-3;
+    private static final double DAMPING_FACTOR = 10.0;
+    private static final double MAX_DAMPING = 1E16;
+    private static final double CG_TOLERANCE = 1E-10;
+
+    private static double dot(final double[] a, final double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; ++i) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static void requireTolerance(final double tolerance) {
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+    }
+
+    private final int dimension;
+
+    private final double[] jtr;
+    private final double[] jtjDiagonal;
+    private final double[] step;
+    private final double[] cgResidual;
+    private final double[] cgPreconditioned;
+    private final double[] cgDirection;
+    private final double[] cgProduct;
+    private final double[] xNew;
+    private final double[] dedx;
+
+    /**
+     * <p>
+     * Construct a minimiser for functions of a given dimension.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * </ul>
+     * </section>
+     *
+     * @param dimension
+     *            The number of independent variables of the functions that the
+     *            minimiser can minimise.
+     * @throws IllegalArgumentException
+     *             If {@code dimension} is not positive.
+     */
+    public LevenbergMarquardtMinimiser(final int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension " + dimension);
+        }
+        this.dimension = dimension;
+        jtr = new double[dimension];
+        jtjDiagonal = new double[dimension];
+        step = new double[dimension];
+        cgResidual = new double[dimension];
+        cgPreconditioned = new double[dimension];
+        cgDirection = new double[dimension];
+        cgProduct = new double[dimension];
+        xNew = new double[dimension];
+        dedx = new double[dimension];
+    }
+
+    /**
+     * <p>
+     * Compute the Jacobians of the terms, <var>J</var><sup>T</sup><var>r</var>
+     * and the diagonal of <var>J</var><sup>T</sup><var>J</var> for the given
+     * state.
+     * </p>
+     *
+     * @return the value of the function.
+     */
+    private double assemble(final TimeStepEnergyErrorFunctionResidualTerm[] terms, final int[][] footprints,
+            final int[] jacobianOffsets, final double[] jacobians, final double[] state0, final double[] x,
+            final double dt, final double[] residuals, final double[] jacobian) {
+        Arrays.fill(jtr, 0.0);
+        Arrays.fill(jtjDiagonal, 0.0);
+        double e = 0.0;
+        for (int t = 0; t < terms.length; ++t) {
+            final TimeStepEnergyErrorFunctionResidualTerm term = terms[t];
+            final int[] footprint = footprints[t];
+            final int p = footprint.length;
+            final int nr = term.getNumberOfResiduals();
+            e += term.evaluateResiduals(residuals, jacobian, state0, x, dt);
+            System.arraycopy(jacobian, 0, jacobians, jacobianOffsets[t], nr * p);
+            for (int k = 0; k < nr; ++k) {
+                final int row = k * p;
+                final double r = residuals[k];
+                for (int c = 0; c < p; ++c) {
+                    final double j = jacobian[row + c];
+                    final int i = footprint[c];
+                    jtr[i] += j * r;
+                    jtjDiagonal[i] += j * j;
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Solve the damped Gauss–Newton equations for the step, by the conjugate
+     * gradient method, preconditioned by the diagonal of the damped matrix.
+     * </p>
+     *
+     * @return whether the damped matrix is positive definite.
+     */
+    private boolean computeStep(final TimeStepEnergyErrorFunctionResidualTerm[] terms, final int[][] footprints,
+            final int[] jacobianOffsets, final double[] jacobians, final double damping) {
+        final int n = dimension;
+        for (int i = 0; i < n; ++i) {
+            step[i] = 0.0;
+            cgResidual[i] = -jtr[i];
+            cgPreconditioned[i] = cgResidual[i] / dampedDiagonal(i, damping);
+            cgDirection[i] = cgPreconditioned[i];
+        }
+        double rz = dot(cgResidual, cgPreconditioned);
+        final double r2Tolerance = CG_TOLERANCE * CG_TOLERANCE * dot(cgResidual, cgResidual);
+        for (int iteration = 0; iteration < n; ++iteration) {
+            multiply(terms, footprints, jacobianOffsets, jacobians, damping, cgDirection, cgProduct);
+            final double pq = dot(cgDirection, cgProduct);
+            if (!(0.0 < pq && pq < Double.POSITIVE_INFINITY)) {
+                return false;
+            }
+            final double alpha = rz / pq;
+            for (int i = 0; i < n; ++i) {
+                step[i] += alpha * cgDirection[i];
+                cgResidual[i] -= alpha * cgProduct[i];
+            }
+            if (dot(cgResidual, cgResidual) <= r2Tolerance) {
+                break;
+            }
+            for (int i = 0; i < n; ++i) {
+                cgPreconditioned[i] = cgResidual[i] / dampedDiagonal(i, damping);
+            }
+            final double rzNew = dot(cgResidual, cgPreconditioned);
+            final double beta = rzNew / rz;
+            rz = rzNew;
+            for (int i = 0; i < n; ++i) {
+                cgDirection[i] = cgPreconditioned[i] + beta * cgDirection[i];
+            }
+        }
+        return true;
+    }
+
+    private double dampedDiagonal(final int i, final double damping) {
+        final double d = jtjDiagonal[i];
+        return d + damping * Math.max(d, Double.MIN_NORMAL);
+    }
+
+    /**
+     * <p>
+     * The number of independent variables of the functions that this minimiser
+     * can minimise.
+     * </p>
+     *
+     * @return the dimension; positive.
+     */
+    public final int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * <p>
+     * Find a minimum of a {@linkplain TimeStepEnergyErrorFunction function that
+     * calculates the physical modelling error of a system at a future point in
+     * time}, for a state vector represented as an array of components.
+     * </p>
+     * <p>
+     * The method has the same convergence criterion as the
+     * {@linkplain LimitedMemoryBfgsMinimiser#minimise(TimeStepEnergyErrorFunction, double[], double)
+     * L-BFGS minimiser}: it stops when an iteration reduces the value of the
+     * function by a fraction less than the tolerance. It also stops if the value
+     * or the gradient is zero, if it can not find a step that reduces the value of
+     * the function, or after {@value #MAX_ITERATIONS} iterations.
+     * </p>
+     * <ul>
+     * <li>The method replaces the values in the {@code x} array with the
+     * components of the minimum found.</li>
+     * <li>The returned value is not greater than the value of the function at the
+     * initial guess.</li>
+     * </ul>
+     *
+     * @param f
+     *            The function to minimise.
+     * @param x
+     *            The components of the initial guess for the position of the
+     *            minimum, which are replaced by the components of the minimum
+     *            found.
+     * @param tolerance
+     *            The convergence tolerance.
+     * @return the value of the function at the minimum found.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code f} is null.</li>
+     *             <li>If {@code x} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the {@linkplain TimeStepEnergyErrorFunction#getDimension()
+     *             dimension} of {@code f} is not equal to the
+     *             {@linkplain #getDimension() dimension} of this minimiser.</li>
+     *             <li>If the length of {@code x} is not equal to the dimension of
+     *             this minimiser.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             <li>If any {@linkplain TimeStepEnergyErrorFunction#getTerms()
+     *             term} of {@code f} is not a
+     *             {@link TimeStepEnergyErrorFunctionResidualTerm}.</li>
+     *             </ul>
+     */
+    public final double minimise(@NonNull final TimeStepEnergyErrorFunction f, @NonNull final double[] x,
+            final double tolerance) {
+        Objects.requireNonNull(f, "f");
+        Objects.requireNonNull(x, "x");
+        final int n = dimension;
+        if (f.getDimension() != n) {
+            throw new IllegalArgumentException("Inconsistent dimension of f " + f.getDimension());
+        }
+        if (x.length != n) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+        requireTolerance(tolerance);
+
+        final List<TimeStepEnergyErrorFunctionTerm> termList = f.getTerms();
+        final int nTerms = termList.size();
+        final TimeStepEnergyErrorFunctionResidualTerm[] terms = new TimeStepEnergyErrorFunctionResidualTerm[nTerms];
+        final int[][] footprints = new int[nTerms][];
+        final int[] jacobianOffsets = new int[nTerms];
+        int maxResiduals = 0;
+        int maxJacobian = 0;
+        int jacobiansLength = 0;
+        for (int t = 0; t < nTerms; ++t) {
+            final TimeStepEnergyErrorFunctionTerm term = termList.get(t);
+            if (!(term instanceof TimeStepEnergyErrorFunctionResidualTerm)) {
+                throw new IllegalArgumentException("Term " + t + " does not provide residuals " + term);
+            }
+            terms[t] = (TimeStepEnergyErrorFunctionResidualTerm) term;
+            footprints[t] = term.getIndexFootprint(n);
+            final int nr = terms[t].getNumberOfResiduals();
+            maxResiduals = Math.max(maxResiduals, nr);
+            maxJacobian = Math.max(maxJacobian, nr * footprints[t].length);
+            jacobianOffsets[t] = jacobiansLength;
+            jacobiansLength += nr * footprints[t].length;
+        }
+        final double[] residuals = new double[maxResiduals];
+        final double[] jacobian = new double[maxJacobian];
+        final double[] jacobians = new double[jacobiansLength];
+        final double[] state0 = new double[n];
+        final ImmutableVectorN x0 = f.getX0();
+        for (int i = 0; i < n; ++i) {
+            state0[i] = x0.get(i);
+        }
+        final double dt = f.getDt();
+        final double[] workspace = new double[f.getWorkspaceLength()];
+
+        double e = assemble(terms, footprints, jacobianOffsets, jacobians, state0, x, dt, residuals, jacobian);
+        double damping = INITIAL_DAMPING;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            double g2 = 0.0;
+            for (int i = 0; i < n; ++i) {
+                g2 += jtr[i] * jtr[i];
+            }
+            if (e == 0.0 || g2 == 0.0) {
+                return e;// at a stationary point
+            }
+
+            double eNew = Double.NaN;
+            boolean accepted = false;
+            while (!accepted && damping <= MAX_DAMPING) {
+                if (computeStep(terms, footprints, jacobianOffsets, jacobians, damping)) {
+                    for (int i = 0; i < n; ++i) {
+                        xNew[i] = x[i] + step[i];
+                    }
+                    eNew = f.evaluateInto(xNew, dedx, workspace);
+                    accepted = eNew < e;
+                }
+                if (accepted) {
+                    damping = Math.max(damping / DAMPING_FACTOR, Double.MIN_NORMAL);
+                } else {
+                    damping *= DAMPING_FACTOR;
+                }
+            }
+            if (!accepted) {
+                return e;// can not reduce the function
+            }
+
+            System.arraycopy(xNew, 0, x, 0, n);
+            final double eOld = e;
+            e = assemble(terms, footprints, jacobianOffsets, jacobians, state0, x, dt, residuals, jacobian);
+            if (2.0 * Math.abs(eOld - eNew) <= tolerance * (Math.abs(eOld) + Math.abs(eNew) + Double.MIN_NORMAL)) {
+                return e;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Compute the product of the damped <var>J</var><sup>T</sup><var>J</var>
+     * matrix and a vector, from the Jacobians of the terms.
+     * </p>
+     */
+    private void multiply(final TimeStepEnergyErrorFunctionResidualTerm[] terms, final int[][] footprints,
+            final int[] jacobianOffsets, final double[] jacobians, final double damping, final double[] v,
+            final double[] result) {
+        final int n = dimension;
+        for (int i = 0; i < n; ++i) {
+            result[i] = damping * Math.max(jtjDiagonal[i], Double.MIN_NORMAL) * v[i];
+        }
+        for (int t = 0; t < terms.length; ++t) {
+            final int[] footprint = footprints[t];
+            final int p = footprint.length;
+            final int nr = terms[t].getNumberOfResiduals();
+            for (int k = 0; k < nr; ++k) {
+                final int row = jacobianOffsets[t] + k * p;
+                double jv = 0.0;
+                for (int c = 0; c < p; ++c) {
+                    jv += jacobians[row + c] * v[footprint[c]];
+                }
+                if (jv != 0.0) {
+                    for (int c = 0; c < p; ++c) {
+                        result[footprint[c]] += jacobians[row + c] * jv;
+                    }
+                }
+            }
+        }
+    }
+
+}
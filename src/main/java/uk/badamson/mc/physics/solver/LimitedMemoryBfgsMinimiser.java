@@ -0,0 +1,441 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.FunctionNWithGradient;
+import uk.badamson.mc.math.FunctionNWithGradientValue;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.math.MinN;
+
+/**
+ * <p>
+ * A minimiser of {@linkplain FunctionNWithGradient functions of multiple
+ * variables} that uses the limited-memory Broyden–Fletcher–Goldfarb–Shanno
+ * (L-BFGS) quasi-Newton method.
+ * </p>
+ * <p>
+ * The method builds an approximation of the inverse of the Hessian of the
+ * function from the changes in the state vector and gradient of a
+ * {@linkplain #getHistoryLength() limited number} of the most recent
+ * iterations. It therefore adapts to functions that are badly scaled, such as
+ * {@linkplain EnergyErrorFunction energy error functions} that combine terms
+ * with very different reference scales, which can cause a
+ * {@linkplain MinN#findFletcherReevesPolakRibere(FunctionNWithGradient, ImmutableVectorN, double)
+ * conjugate-gradient method} to converge slowly. Each iteration uses a line
+ * search that satisfies the weak Wolfe conditions.
+ * </p>
+ * <p>
+ * A minimiser holds work arrays for a given {@linkplain #getDimension()
+ * dimension} and history length, which it reuses for each minimisation. A
+ * minimiser is therefore not safe for use by multiple threads, but a thread
+ * that solves many time-steps can use one minimiser for all of them. The
+ * {@linkplain #minimise(TimeStepEnergyErrorFunction, double[], double) array
+ * based minimisation} of a {@link TimeStepEnergyErrorFunction} allocates no
+ * objects for each iteration, if the terms of the function can be
+ * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluate(double[], double[], double[], double)
+ * evaluated without allocating objects}.
+ * </p>
+ */
+@NotThreadSafe
+public final class LimitedMemoryBfgsMinimiser {
+
+    /**
+     * <p>
+     * A function to minimise, which computes its value and gradient for a state
+     * vector represented as an array of components.
+     * </p>
+     */
+    @FunctionalInterface
+    private interface Objective {
+        double evaluate(double[] x, double[] dfdx);
+    }// interface
+
+    /**
+     * <p>
+     * The maximum number of iterations of a minimisation.
+     * </p>
+     */
+    public static final int MAX_ITERATIONS = 10_000;
+
+    private static final int MAX_LINE_SEARCH_ITERATIONS = 64;
+    private static final double ARMIJO_PARAMETER = 1E-4;
+    private static final double CURVATURE_PARAMETER = 0.9;
+
+    private static double dot(final double[] a, final double[] b) {
+        final int n = a.length;
+        double sum = 0.0;
+        for (int i = 0; i < n; ++i) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static void requireTolerance(final double tolerance) {
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+    }
+
+    private final int dimension;
+    private final int historyLength;
+
+    private final double[][] s;
+    private final double[][] y;
+    private final double[] rho;
+    private final double[] alpha;
+    private final double[] dfdx;
+    private final double[] direction;
+    private final double[] xNew;
+    private final double[] dfdxNew;
+
+    /**
+     * <p>
+     * Construct a minimiser for functions of a given dimension.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * </ul>
+     * </section>
+     *
+     * @param dimension
+     *            The number of independent variables of the functions that the
+     *            minimiser can minimise.
+     * @param historyLength
+     *            The number of iterations from which the minimiser approximates
+     *            the inverse of the Hessian of the function.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dimension} is not positive.</li>
+     *             <li>If {@code historyLength} is not positive.</li>
+     *             </ul>
+     */
+    public LimitedMemoryBfgsMinimiser(final int dimension, final int historyLength) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension " + dimension);
+        }
+        if (historyLength <= 0) {
+            throw new IllegalArgumentException("historyLength " + historyLength);
+        }
+        this.dimension = dimension;
+        this.historyLength = historyLength;
+        s = new double[historyLength][dimension];
+        y = new double[historyLength][dimension];
+        rho = new double[historyLength];
+        alpha = new double[historyLength];
+        dfdx = new double[dimension];
+        direction = new double[dimension];
+        xNew = new double[dimension];
+        dfdxNew = new double[dimension];
+    }
+
+    /**
+     * <p>
+     * Compute the search direction, using the two-loop recursion to multiply the
+     * gradient by the approximate inverse Hessian.
+     * </p>
+     *
+     * @return the directional derivative of the function along the search
+     *         direction.
+     */
+    private double computeDirection(final int nHistory, final int newest) {
+        final int n = dimension;
+        for (int i = 0; i < n; ++i) {
+            direction[i] = -dfdx[i];
+        }
+        if (nHistory == 0) {
+            /* Initial step of unit length. */
+            final double g2 = dot(dfdx, dfdx);
+            final double scale = 1.0 / Math.sqrt(g2);
+            for (int i = 0; i < n; ++i) {
+                direction[i] *= scale;
+            }
+            return -g2 * scale;
+        }
+
+        int h = newest;
+        for (int k = 0; k < nHistory; ++k) {
+            final double a = rho[h] * dot(s[h], direction);
+            alpha[h] = a;
+            final double[] yh = y[h];
+            for (int i = 0; i < n; ++i) {
+                direction[i] -= a * yh[i];
+            }
+            h = (h + historyLength - 1) % historyLength;
+        }
+        final double gamma = 1.0 / (rho[newest] * dot(y[newest], y[newest]));
+        for (int i = 0; i < n; ++i) {
+            direction[i] *= gamma;
+        }
+        for (int k = 0; k < nHistory; ++k) {
+            h = (h + 1) % historyLength;
+            final double b = rho[h] * dot(y[h], direction);
+            final double a = alpha[h];
+            final double[] sh = s[h];
+            for (int i = 0; i < n; ++i) {
+                direction[i] += (a - b) * sh[i];
+            }
+        }
+        return dot(direction, dfdx);
+    }
+
+    /**
+     * <p>
+     * The number of independent variables of the functions that this minimiser
+     * can minimise.
+     * </p>
+     *
+     * @return the dimension; positive.
+     */
+    public final int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * <p>
+     * The number of iterations from which this minimiser approximates the inverse
+     * of the Hessian of the function.
+     * </p>
+     *
+     * @return the history length; positive.
+     */
+    public final int getHistoryLength() {
+        return historyLength;
+    }
+
+    /**
+     * <p>
+     * Find a minimum of a {@linkplain FunctionNWithGradient function of multiple
+     * variables}.
+     * </p>
+     * <p>
+     * The method has the same convergence criterion as the
+     * {@linkplain MinN#findFletcherReevesPolakRibere(FunctionNWithGradient, ImmutableVectorN, double)
+     * conjugate-gradient method}: it stops when an iteration reduces the value of
+     * the function by a fraction less than the tolerance. It also stops if the
+     * gradient is zero, if it can not find a point that reduces the value of the
+     * function, or after {@value #MAX_ITERATIONS} iterations.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) value.</li>
+     * <li>The value of the function at the returned point is not greater than the
+     * value at the initial guess.</li>
+     * </ul>
+     *
+     * @param f
+     *            The function to minimise.
+     * @param x0
+     *            The initial guess for the position of the minimum.
+     * @param tolerance
+     *            The convergence tolerance.
+     * @return the minimum found.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code f} is null.</li>
+     *             <li>If {@code x0} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the {@linkplain FunctionNWithGradient#getDimension()
+     *             dimension} of {@code f} is not equal to the
+     *             {@linkplain #getDimension() dimension} of this minimiser.</li>
+     *             <li>If the {@linkplain ImmutableVectorN#getDimension()
+     *             dimension} of {@code x0} is not equal to the dimension of this
+     *             minimiser.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public final @NonNull FunctionNWithGradientValue minimise(@NonNull final FunctionNWithGradient f,
+            @NonNull final ImmutableVectorN x0, final double tolerance) {
+        Objects.requireNonNull(f, "f");
+        Objects.requireNonNull(x0, "x0");
+        if (f.getDimension() != dimension) {
+            throw new IllegalArgumentException("Inconsistent dimension of f " + f.getDimension());
+        }
+        if (x0.getDimension() != dimension) {
+            throw new IllegalArgumentException("Inconsistent dimension of x0 " + x0.getDimension());
+        }
+        requireTolerance(tolerance);
+
+        final double[] x = new double[dimension];
+        for (int i = 0; i < dimension; ++i) {
+            x[i] = x0.get(i);
+        }
+        final double fMin = minimise((xi, dfdxi) -> {
+            final FunctionNWithGradientValue v = f.value(ImmutableVectorN.create(xi));
+            final ImmutableVectorN g = v.getDfDx();
+            for (int i = 0; i < dimension; ++i) {
+                dfdxi[i] = g.get(i);
+            }
+            return v.getF();
+        }, x, tolerance);
+        return new FunctionNWithGradientValue(ImmutableVectorN.create(x), fMin, ImmutableVectorN.create(dfdx));
+    }
+
+    private double minimise(final Objective f, final double[] x, final double tolerance) {
+        final int n = dimension;
+        double fx = f.evaluate(x, dfdx);
+        int nHistory = 0;
+        int newest = historyLength - 1;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            if (dot(dfdx, dfdx) == 0.0) {
+                return fx;// at a stationary point
+            }
+            double dfds = computeDirection(nHistory, newest);
+            if (!(dfds < 0.0)) {
+                /* Approximate inverse Hessian is poor: restart with steepest descent. */
+                nHistory = 0;
+                dfds = computeDirection(0, newest);
+            }
+
+            /* Line search, by bisection, for a step satisfying the weak Wolfe conditions. */
+            double step = 1.0;
+            double stepLow = 0.0;
+            double stepHigh = Double.POSITIVE_INFINITY;
+            double fNew = Double.NaN;
+            boolean found = false;
+            for (int l = 0; l < MAX_LINE_SEARCH_ITERATIONS && !found; ++l) {
+                for (int i = 0; i < n; ++i) {
+                    xNew[i] = x[i] + step * direction[i];
+                }
+                fNew = f.evaluate(xNew, dfdxNew);
+                if (!(fNew <= fx + ARMIJO_PARAMETER * step * dfds)) {
+                    stepHigh = step;
+                } else if (dot(dfdxNew, direction) < CURVATURE_PARAMETER * dfds) {
+                    stepLow = step;
+                } else {
+                    found = true;
+                }
+                if (!found) {
+                    step = Double.isInfinite(stepHigh) ? 2.0 * stepLow : 0.5 * (stepLow + stepHigh);
+                }
+            }
+            if (!found) {
+                if (0.0 < stepLow) {
+                    /* Accept a step that reduces the function, without updating the history. */
+                    for (int i = 0; i < n; ++i) {
+                        x[i] += stepLow * direction[i];
+                    }
+                    fx = f.evaluate(x, dfdx);
+                    nHistory = 0;
+                    continue;
+                } else if (0 < nHistory) {
+                    nHistory = 0;
+                    continue;
+                } else {
+                    return fx;// can not reduce the function
+                }
+            }
+
+            /* Accept the step and record the change in the history. */
+            newest = (newest + 1) % historyLength;
+            final double[] sNewest = s[newest];
+            final double[] yNewest = y[newest];
+            for (int i = 0; i < n; ++i) {
+                sNewest[i] = xNew[i] - x[i];
+                yNewest[i] = dfdxNew[i] - dfdx[i];
+                x[i] = xNew[i];
+                dfdx[i] = dfdxNew[i];
+            }
+            final double sy = dot(sNewest, yNewest);
+            if (0.0 < sy) {
+                rho[newest] = 1.0 / sy;
+                nHistory = Math.min(nHistory + 1, historyLength);
+            } else {
+                /* Discard the change, which has overwritten the oldest record. */
+                newest = (newest + historyLength - 1) % historyLength;
+                nHistory = Math.min(nHistory, historyLength - 1);
+            }
+            final double fOld = fx;
+            fx = fNew;
+            if (2.0 * Math.abs(fOld - fx) <= tolerance * (Math.abs(fOld) + Math.abs(fx) + Double.MIN_NORMAL)) {
+                return fx;
+            }
+        }
+        return fx;
+    }
+
+    /**
+     * <p>
+     * Find a minimum of a {@linkplain TimeStepEnergyErrorFunction function that
+     * calculates the physical modelling error of a system at a future point in
+     * time}, for a state vector represented as an array of components.
+     * </p>
+     * <p>
+     * This has the same convergence criterion as the
+     * {@link #minimise(FunctionNWithGradient, ImmutableVectorN, double)} method,
+     * but
+     * {@linkplain TimeStepEnergyErrorFunction#evaluateInto(double[], double[], double[])
+     * evaluates} the function using arrays of components, with one work array for
+     * all the evaluations, and updates the given array of components in place.
+     * </p>
+     * <ul>
+     * <li>The method replaces the values in the {@code x} array with the
+     * components of the minimum found.</li>
+     * <li>The returned value is not greater than the value of the function at the
+     * initial guess.</li>
+     * </ul>
+     *
+     * @param f
+     *            The function to minimise.
+     * @param x
+     *            The components of the initial guess for the position of the
+     *            minimum, which are replaced by the components of the minimum
+     *            found.
+     * @param tolerance
+     *            The convergence tolerance.
+     * @return the value of the function at the minimum found.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code f} is null.</li>
+     *             <li>If {@code x} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the {@linkplain TimeStepEnergyErrorFunction#getDimension()
+     *             dimension} of {@code f} is not equal to the
+     *             {@linkplain #getDimension() dimension} of this minimiser.</li>
+     *             <li>If the length of {@code x} is not equal to the dimension of
+     *             this minimiser.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public final double minimise(@NonNull final TimeStepEnergyErrorFunction f, @NonNull final double[] x,
+            final double tolerance) {
+        Objects.requireNonNull(f, "f");
+        Objects.requireNonNull(x, "x");
+        if (f.getDimension() != dimension) {
+            throw new IllegalArgumentException("Inconsistent dimension of f " + f.getDimension());
+        }
+        if (x.length != dimension) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+        requireTolerance(tolerance);
+
+        final double[] workspace = new double[f.getWorkspaceLength()];
+        return minimise((xi, dfdxi) -> f.evaluateInto(xi, dfdxi, workspace), x, tolerance);
+    }
+
+}
@@ -32,7 +32,8 @@ import uk.badamson.mc.math.ImmutableVectorN;
  * </p>
  */
 @Immutable
-public final class MassConservationError extends AbstractTimeStepEnergyErrorFunctionTerm {
+public final class MassConservationError extends AbstractTimeStepEnergyErrorFunctionTerm
+        implements TimeStepEnergyErrorFunctionResidualTerm {
 
     private static boolean isValidForTerm(final int n, final int term[]) {
         for (final int element : term) {
@@ -51,6 +52,10 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
 
     private final boolean[] massTransferInto;
 
+    private final int[] indexFootprint;
+    private final int massColumn;
+    private final int[] advectionMassRateColumn;
+
     /**
      * <p>
      * Construct a MassConservationError.
@@ -110,6 +115,10 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
             throw new IllegalArgumentException("Inconsistent massTransferInto.length " + nAdvection
                     + " advectionMassRateTerm.length " + advectionMassRateTerm.length);
         }
+
+        indexFootprint = createIndexFootprint(new int[] { this.massTerm }, this.advectionMassRateTerm);
+        massColumn = columnsOf(indexFootprint, new int[] { this.massTerm })[0];
+        advectionMassRateColumn = columnsOf(indexFootprint, this.advectionMassRateTerm);
     }
 
     /**
@@ -182,6 +191,274 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
         return e;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method, but does not allocate any objects.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+
+        final int nm = getNumberOfMassTransfers();
+
+        final double m0 = state0[massTerm];
+        final double m = state[massTerm];
+
+        double massRateMean = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = massTransferInto[j] ? 1.0 : -1.0;
+            final double massRate0 = state0[advectionMassRateTerm[j]];
+            final double massRate = state[advectionMassRateTerm[j]];
+            massRateMean += 0.5 * sign * (massRate0 + massRate);
+        }
+
+        final double me = m - m0 + dt * massRateMean;
+        final double ce = specificEnergyReference * (me / massReference);
+        // ce may be negative
+        final double e = ce * me;
+
+        dedx[massTerm] += 2.0 * ce;
+        final double dedmrate = ce * dt;
+        for (int j = 0; j < nm; ++j) {
+            if (massTransferInto[j]) {
+                dedx[advectionMassRateTerm[j]] += dedmrate;
+            } else {
+                dedx[advectionMassRateTerm[j]] -= dedmrate;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double)} method for each
+     * body, but processes the bodies in loops over the components of the
+     * structure of arrays, and does not allocate any objects.
+     * </p>
+     *
+     * @param e
+     *            {@inheritDoc}
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    @Override
+    public final void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt) {
+        requireBatchArguments(e, dedx, state0, state, dt);
+        if (!isValidForDimension(state0.length)) {
+            throw new IllegalArgumentException("Not valid for dimension " + state0.length);
+        }
+
+        final int nBodies = e.length;
+        final int nm = getNumberOfMassTransfers();
+        final double k = specificEnergyReference / massReference;
+
+        /* Accumulate the mass conservation error of each body in e. */
+        final double[] m0 = state0[massTerm];
+        final double[] m = state[massTerm];
+        for (int b = 0; b < nBodies; ++b) {
+            e[b] = m[b] - m0[b];
+        }
+        for (int j = 0; j < nm; ++j) {
+            final double halfDtSign = massTransferInto[j] ? 0.5 * dt : -0.5 * dt;
+            final double[] massRate0 = state0[advectionMassRateTerm[j]];
+            final double[] massRate = state[advectionMassRateTerm[j]];
+            for (int b = 0; b < nBodies; ++b) {
+                e[b] += halfDtSign * (massRate0[b] + massRate[b]);
+            }
+        }
+
+        for (int j = 0; j < nm; ++j) {
+            final double kDtSign = massTransferInto[j] ? k * dt : -k * dt;
+            final double[] dedmrate = dedx[advectionMassRateTerm[j]];
+            for (int b = 0; b < nBodies; ++b) {
+                dedmrate[b] += kDtSign * e[b];
+            }
+        }
+        final double[] dedm = dedx[massTerm];
+        for (int b = 0; b < nBodies; ++b) {
+            final double ce = k * e[b];
+            dedm[b] += 2.0 * ce;
+            e[b] *= ce;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double)} method, with the
+     * same sequence of floating-point operations, so it computes bitwise
+     * identical values. But it takes the mass and the signed mass transfer rates
+     * at the current point in time from the prepared values.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluatePrepared(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+
+        final int nm = getNumberOfMassTransfers();
+
+        final double m0 = prepared[0];
+        final double m = state[massTerm];
+
+        double massRateMean = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = massTransferInto[j] ? 1.0 : -1.0;
+            final double massRate = state[advectionMassRateTerm[j]];
+            massRateMean += 0.5 * (prepared[1 + j] + sign * massRate);
+        }
+
+        final double me = m - m0 + dt * massRateMean;
+        final double ce = specificEnergyReference * (me / massReference);
+        // ce may be negative
+        final double e = ce * me;
+
+        dedx[massTerm] += 2.0 * ce;
+        final double dedmrate = ce * dt;
+        for (int j = 0; j < nm; ++j) {
+            if (massTransferInto[j]) {
+                dedx[advectionMassRateTerm[j]] += dedmrate;
+            } else {
+                dedx[advectionMassRateTerm[j]] -= dedmrate;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual, which is proportional to the mass conservation
+     * error.
+     * </p>
+     *
+     * @param residuals
+     *            {@inheritDoc}
+     * @param jacobian
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+            final double[] state, final double dt) {
+        requireResidualArguments(residuals, jacobian, state0, state, dt);
+
+        final int nm = getNumberOfMassTransfers();
+        final int p = indexFootprint.length;
+
+        final double m0 = state0[massTerm];
+        final double m = state[massTerm];
+
+        double massRateMean = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = massTransferInto[j] ? 1.0 : -1.0;
+            massRateMean += 0.5 * sign * (state0[advectionMassRateTerm[j]] + state[advectionMassRateTerm[j]]);
+        }
+
+        final double me = m - m0 + dt * massRateMean;
+        final double scale = Math.sqrt(2.0 * specificEnergyReference / massReference);
+        final double r = scale * me;
+        residuals[0] = r;
+
+        Arrays.fill(jacobian, 0, p, 0.0);
+        jacobian[massColumn] += scale;
+        final double drdmrate = 0.5 * dt * scale;
+        for (int j = 0; j < nm; ++j) {
+            if (massTransferInto[j]) {
+                jacobian[advectionMassRateColumn[j]] += drdmrate;
+            } else {
+                jacobian[advectionMassRateColumn[j]] -= drdmrate;
+            }
+        }
+
+        return 0.5 * r * r;
+    }
+
     /**
      * <p>
      * Which term in the solution space vector correspond to the mass transfer rate
@@ -205,6 +482,27 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
         return advectionMassRateTerm[j];
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the mass and advection mass transfer rate terms.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return Arrays.copyOf(indexFootprint, indexFootprint.length);
+    }
+
     /**
      * <p>
      * A reference mass scale.
@@ -246,6 +544,36 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
         return massTransferInto.length;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual.
+     * </p>
+     *
+     * @return 1
+     */
+    @Override
+    public final int getNumberOfResiduals() {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The prepared values are the mass at the current point in time, and the
+     * {@linkplain #isMassTransferInto(int) signed} mass transfer rate of each
+     * advection at the current point in time.
+     * </p>
+     *
+     * @return one more than the number of mass transfers
+     */
+    @Override
+    public final int getPreparedLength() {
+        return 1 + massTransferInto.length;
+    }
+
     /**
      * <p>
      * A reference specific energy scale.
@@ -309,4 +637,56 @@ public final class MassConservationError extends AbstractTimeStepEnergyErrorFunc
         return massTerm + 1 <= n && isValidForTerm(n, advectionMassRateTerm);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final void prepare(final double[] prepared, final double[] state0, final double dt) {
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+
+        final int nm = getNumberOfMassTransfers();
+        prepared[0] = state0[massTerm];
+        for (int j = 0; j < nm; ++j) {
+            final double sign = massTransferInto[j] ? 1.0 : -1.0;
+            prepared[1 + j] = sign * state0[advectionMassRateTerm[j]];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * term indices.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final MassConservationError remap(final int[] map) {
+        return new MassConservationError(massReference, specificEnergyReference,
+                remapTermIndex(new int[] { massTerm }, map)[0], massTransferInto,
+                remapTermIndex(advectionMassRateTerm, map));
+    }
+
 }
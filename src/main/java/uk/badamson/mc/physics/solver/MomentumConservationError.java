@@ -18,7 +18,10 @@ package uk.badamson.mc.physics.solver;
                                * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                */
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import net.jcip.annotations.Immutable;
 import uk.badamson.mc.math.ImmutableVectorN;
@@ -48,25 +51,109 @@ import uk.badamson.mc.physics.dynamics.Newton2Error;
  * @see Newton2Error
  */
 @Immutable
-public final class MomentumConservationError extends AbstractTimeStepEnergyErrorFunctionTerm {
+public final class MomentumConservationError extends AbstractTimeStepEnergyErrorFunctionTerm
+        implements TimeStepEnergyErrorFunctionResidualTerm {
 
-    private static boolean isValidForTerm(final int n, final int term[]) {
-        for (final int element : term) {
-            if (n < element + 1) {
+    /**
+     * <p>
+     * The term indices of a {@link MomentumConservationError}, relative to the
+     * lowest index, and the information derived from them.
+     * </p>
+     * <p>
+     * Systems of many bodies typically have many terms that differ only in the
+     * position of the body in the state vector. Such terms share one
+     * {@linkplain #intern(Layout) interned} layout, and differ only in their base
+     * index. The layouts are weakly interned, so a layout that is no longer used
+     * by any term may be garbage collected.
+     * </p>
+     */
+    @Immutable
+    private static final class Layout {
+
+        private static final Map<Layout, WeakReference<Layout>> INTERNED = new WeakHashMap<>();
+
+        private static Layout intern(final Layout layout) {
+            return AbstractTimeStepEnergyErrorFunctionTerm.intern(INTERNED, layout);
+        }
+
+        private final int massTerm;
+        private final int[] velocityTerm;
+        private final int[] advectionVelocityTerm;
+        private final int[] advectionMassRateTerm;
+        private final int[] forceTerm;
+
+        private final boolean[] massTransferInto;
+        private final boolean[] forceOn;
+
+        private final int[] indexFootprint;
+        private final int massColumn;
+        private final int[] velocityColumn;
+        private final int[] advectionVelocityColumn;
+        private final int[] advectionMassRateColumn;
+        private final int[] forceColumn;
+
+        Layout(final int massTerm, final int[] velocityTerm, final boolean[] massTransferInto,
+                final int[] advectionMassRateTerm, final int[] advectionVelocityTerm, final boolean[] forceOn,
+                final int[] forceTerm) {
+            this.massTerm = massTerm;
+            this.velocityTerm = velocityTerm;
+            this.massTransferInto = massTransferInto;
+            this.advectionMassRateTerm = advectionMassRateTerm;
+            this.advectionVelocityTerm = advectionVelocityTerm;
+            this.forceOn = forceOn;
+            this.forceTerm = forceTerm;
+
+            indexFootprint = createIndexFootprint(new int[] { massTerm }, velocityTerm, advectionMassRateTerm,
+                    advectionVelocityTerm, forceTerm);
+            massColumn = columnsOf(indexFootprint, new int[] { massTerm })[0];
+            velocityColumn = columnsOf(indexFootprint, velocityTerm);
+            advectionVelocityColumn = columnsOf(indexFootprint, advectionVelocityTerm);
+            advectionMassRateColumn = columnsOf(indexFootprint, advectionMassRateTerm);
+            forceColumn = columnsOf(indexFootprint, forceTerm);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Layout)) {
                 return false;
             }
+            final Layout other = (Layout) obj;
+            return massTerm == other.massTerm && Arrays.equals(velocityTerm, other.velocityTerm)
+                    && Arrays.equals(massTransferInto, other.massTransferInto)
+                    && Arrays.equals(advectionMassRateTerm, other.advectionMassRateTerm)
+                    && Arrays.equals(advectionVelocityTerm, other.advectionVelocityTerm)
+                    && Arrays.equals(forceOn, other.forceOn) && Arrays.equals(forceTerm, other.forceTerm);
         }
-        return true;
-    }
 
-    private final int massTerm;
-    private final int[] velocityTerm;
-    private final int[] advectionVelocityTerm;
-    private final int[] advectionMassRateTerm;
-    private final int[] forceTerm;
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + massTerm;
+            result = prime * result + Arrays.hashCode(velocityTerm);
+            result = prime * result + Arrays.hashCode(massTransferInto);
+            result = prime * result + Arrays.hashCode(advectionMassRateTerm);
+            result = prime * result + Arrays.hashCode(advectionVelocityTerm);
+            result = prime * result + Arrays.hashCode(forceOn);
+            result = prime * result + Arrays.hashCode(forceTerm);
+            return result;
+        }
+    }// class
+
+    private static int[] relativeTo(final int base, final int[] term) {
+        final int n = term.length;
+        final int[] relative = new int[n];
+        for (int i = 0; i < n; ++i) {
+            relative[i] = term[i] - base;
+        }
+        return relative;
+    }
 
-    private final boolean[] massTransferInto;
-    private final boolean[] forceOn;
+    private final int base;
+    private final Layout layout;
 
     /**
      * <p>
@@ -144,13 +231,13 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
     public MomentumConservationError(final int massTerm, final int[] velocityTerm, final boolean[] massTransferInto,
             final int[] advectionMassRateTerm, final int[] advectionVelocityTerm, final boolean[] forceOn,
             final int[] forceTerm) {
-        this.massTerm = requireTermIndex(massTerm, "massTerm");
-        this.velocityTerm = copyTermIndex(velocityTerm, "velocityTerm");
-        this.massTransferInto = Arrays.copyOf(massTransferInto, massTransferInto.length);
-        this.advectionMassRateTerm = copyTermIndex(advectionMassRateTerm, "advectionMassRateTerm");
-        this.advectionVelocityTerm = copyTermIndex(advectionVelocityTerm, "advectionVelocityTerm");
-        this.forceOn = Arrays.copyOf(forceOn, forceOn.length);
-        this.forceTerm = copyTermIndex(forceTerm, "forceTerm");
+        requireTermIndex(massTerm, "massTerm");
+        final int[] velocityTermCopy = copyTermIndex(velocityTerm, "velocityTerm");
+        final boolean[] massTransferIntoCopy = Arrays.copyOf(massTransferInto, massTransferInto.length);
+        final int[] advectionMassRateTermCopy = copyTermIndex(advectionMassRateTerm, "advectionMassRateTerm");
+        final int[] advectionVelocityTermCopy = copyTermIndex(advectionVelocityTerm, "advectionVelocityTerm");
+        final boolean[] forceOnCopy = Arrays.copyOf(forceOn, forceOn.length);
+        final int[] forceTermCopy = copyTermIndex(forceTerm, "forceTerm");
 
         final int nSpace = velocityTerm.length;
         final int nAdvection = massTransferInto.length;
@@ -168,6 +255,12 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
             throw new IllegalArgumentException("Inconsistent velocityTerm.length " + nSpace + ", forceOn.length "
                     + nForce + ", forceTerm.length" + forceTerm.length);
         }
+
+        base = createIndexFootprint(new int[] { massTerm }, velocityTermCopy, advectionMassRateTermCopy,
+                advectionVelocityTermCopy, forceTermCopy)[0];
+        layout = Layout.intern(new Layout(massTerm - base, relativeTo(base, velocityTermCopy), massTransferIntoCopy,
+                relativeTo(base, advectionMassRateTermCopy), relativeTo(base, advectionVelocityTermCopy), forceOnCopy,
+                relativeTo(base, forceTermCopy)));
     }
 
     /**
@@ -213,22 +306,22 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
         final int nf = getNumberOfForces();
         final ImmutableVectorN zero = ImmutableVectorN.create0(ns);
 
-        final double m0 = state0.get(massTerm);
-        final ImmutableVectorN v0 = extract(state0, velocityTerm);
+        final double m0 = state0.get(base + layout.massTerm);
+        final ImmutableVectorN v0 = extract(state0, base, layout.velocityTerm);
 
-        final double m = state.get(massTerm);
-        final ImmutableVectorN v = extract(state, velocityTerm);
+        final double m = state.get(base + layout.massTerm);
+        final ImmutableVectorN v = extract(state, base, layout.velocityTerm);
 
         double massRateTotal = 0.0;
         final double[] massRate = new double[nm];
         final ImmutableVectorN[] vrel = new ImmutableVectorN[nm];
         final ImmutableVectorN[] pRateAdvection = new ImmutableVectorN[nm];
         for (int j = 0; j < nm; ++j) {
-            final double sign = massTransferInto[j] ? 1.0 : -1.0;
-            final double massRate0J = sign * state0.get(advectionMassRateTerm[j]);
-            final double massRateJ = sign * state.get(advectionMassRateTerm[j]);
-            final ImmutableVectorN vrel0j = extract(state0, advectionVelocityTerm, j * ns, ns).minus(v0);
-            final ImmutableVectorN vrelj = extract(state, advectionVelocityTerm, j * ns, ns).minus(v);
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double massRate0J = sign * state0.get(base + layout.advectionMassRateTerm[j]);
+            final double massRateJ = sign * state.get(base + layout.advectionMassRateTerm[j]);
+            final ImmutableVectorN vrel0j = extract(state0, base, layout.advectionVelocityTerm, j * ns, ns).minus(v0);
+            final ImmutableVectorN vrelj = extract(state, base, layout.advectionVelocityTerm, j * ns, ns).minus(v);
             massRate[j] = massRateJ;
             vrel[j] = vrelj;
             pRateAdvection[j] = vrel0j.scale(massRate0J).mean(vrelj.scale(massRateJ));
@@ -241,10 +334,10 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
         final double[] fs = new double[nf];
         for (int k = 0; k < nf; ++k) {
             double sign = 1.0;
-            final ImmutableVectorN f0k = extract(state0, forceTerm, k * ns, ns);
-            final ImmutableVectorN fk = extract(state, forceTerm, k * ns, ns);
+            final ImmutableVectorN f0k = extract(state0, base, layout.forceTerm, k * ns, ns);
+            final ImmutableVectorN fk = extract(state, base, layout.forceTerm, k * ns, ns);
             ImmutableVectorN mean = f0k.mean(fk);
-            if (!forceOn[k]) {
+            if (!layout.forceOn[k]) {
                 sign = -1.0;
                 mean = mean.minus();
             }
@@ -262,16 +355,16 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
         final ImmutableVectorN ve = pe.scale(1.0 / m);
         final double e = 0.5 * pe.dot(ve);
 
-        dedx[massTerm] += ve
+        dedx[base + layout.massTerm] += ve
                 .dot(ImmutableVectorN.weightedSum(new double[] { 1.0, -0.5 }, new ImmutableVectorN[] { v, ve }));
-        final double mdedv = m - 0.5 * dt * massRateTotal;
+        final double mdedv = m + 0.5 * dt * massRateTotal;
         for (int i = 0; i < ns; ++i) {
             dedx[getVelocityTerm(i)] += ve.get(i) * mdedv;
         }
         for (int j = 0; j < nm; ++j) {
-            final double sign = massTransferInto[j] ? 1.0 : -1.0;
-            final double mdedu = -0.25 * massRate[j];
-            dedx[advectionMassRateTerm[j]] += -0.5 * dt * sign * ve.dot(vrel[j]);
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double mdedu = -0.5 * dt * massRate[j];
+            dedx[base + layout.advectionMassRateTerm[j]] += -0.5 * dt * sign * ve.dot(vrel[j]);
             for (int i = 0; i < ns; ++i) {
                 dedx[getAdvectionVelocityTerm(j, i)] += mdedu * ve.get(i);
             }
@@ -287,6 +380,510 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
         return e;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method,
+     * with a newly allocated work array.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        return evaluate(dedx, state0, state, dt, new double[getWorkspaceLength()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method, with the same sequence of floating-point operations, so it computes
+     * bitwise identical values. But it uses only primitive local variables and
+     * the work array, which holds the components of the velocity error, so it
+     * does not allocate any objects.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt,
+            final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requireWorkspace(workspace, getWorkspaceLength());
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final double[] ve = workspace;
+
+        final double m0 = state0[base + layout.massTerm];
+        final double m = state[base + layout.massTerm];
+        final double mInverse = 1.0 / m;
+
+        double massRateTotal = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            massRateTotal += sign * state[base + layout.advectionMassRateTerm[j]];
+        }
+
+        double peDotVe = 0.0;
+        double dedm = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double v0 = state0[base + layout.velocityTerm[i]];
+            final double v = state[base + layout.velocityTerm[i]];
+            double pRateAdvectionTotal = 0.0;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final int uTerm = base + layout.advectionVelocityTerm[j * ns + i];
+                final double massRate0 = sign * state0[base + layout.advectionMassRateTerm[j]];
+                final double massRate = sign * state[base + layout.advectionMassRateTerm[j]];
+                final double vrel0 = state0[uTerm] - v0;
+                final double vrel = state[uTerm] - v;
+                pRateAdvectionTotal += 0.5 * (vrel0 * massRate0 + vrel * massRate);
+            }
+            double fTotal = 0.0;
+            for (int k = 0; k < nf; ++k) {
+                final int fTerm = base + layout.forceTerm[k * ns + i];
+                final double mean = 0.5 * (state0[fTerm] + state[fTerm]);
+                fTotal += layout.forceOn[k] ? mean : -mean;
+            }
+            final double pRate = pRateAdvectionTotal + fTotal;
+            final double pe = v * m - v0 * m0 - pRate * dt;
+            final double vei = pe * mInverse;
+            ve[i] = vei;
+            peDotVe += pe * vei;
+            dedm += vei * (v + -0.5 * vei);
+        }
+        final double e = 0.5 * peDotVe;
+
+        dedx[base + layout.massTerm] += dedm;
+        final double mdedv = m + 0.5 * dt * massRateTotal;
+        for (int i = 0; i < ns; ++i) {
+            dedx[base + layout.velocityTerm[i]] += ve[i] * mdedv;
+        }
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double mdedu = -0.5 * dt * (sign * state[base + layout.advectionMassRateTerm[j]]);
+            double veDotVrel = 0.0;
+            for (int i = 0; i < ns; ++i) {
+                final double vrel = state[base + layout.advectionVelocityTerm[j * ns + i]]
+                        - state[base + layout.velocityTerm[i]];
+                veDotVrel += ve[i] * vrel;
+            }
+            dedx[base + layout.advectionMassRateTerm[j]] += -0.5 * dt * sign * veDotVrel;
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.advectionVelocityTerm[j * ns + i]] += mdedu * ve[i];
+            }
+        }
+
+        for (int k = 0; k < nf; ++k) {
+            final double fsk = layout.forceOn[k] ? 1.0 : -1.0;
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.forceTerm[k * ns + i]] += -0.5 * dt * fsk * ve[i];
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method for each body, but processes the bodies in loops over the components
+     * of the structure of arrays. Each loop has no dependencies between bodies,
+     * so the compiler can vectorise it.
+     * </p>
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluateBatch(double[], double[][], double[][], double[][], double, double[])}
+     * method, with a newly allocated work array.
+     * </p>
+     *
+     * @param e
+     *            {@inheritDoc}
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    @Override
+    public final void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt) {
+        evaluateBatch(e, dedx, state0, state, dt, new double[getBatchWorkspaceLength(e.length)]);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method for each body, but processes the bodies in loops over the components
+     * of the structure of arrays. Each loop has no dependencies between bodies,
+     * so the compiler can vectorise it. The work array holds one component of the
+     * velocity error of each body at a time, so the method does not allocate any
+     * objects.
+     * </p>
+     *
+     * @param e
+     *            {@inheritDoc}
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.</li>
+     *             <li>If any of the elements of {@code dedx}, {@code state0} and
+     *             {@code state} are shorter than {@code e}.</li>
+     *             </ul>
+     */
+    @Override
+    public final void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt, final double[] workspace) {
+        requireBatchArguments(e, dedx, state0, state, dt);
+        if (!isValidForDimension(state0.length)) {
+            throw new IllegalArgumentException("Not valid for dimension " + state0.length);
+        }
+        requireWorkspace(workspace, getBatchWorkspaceLength(e.length));
+
+        final int nBodies = e.length;
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final double halfDt = 0.5 * dt;
+
+        final double[] m0 = state0[base + layout.massTerm];
+        final double[] m = state[base + layout.massTerm];
+        final double[] dedm = dedx[base + layout.massTerm];
+        final double[] ve = workspace;
+        Arrays.fill(e, 0, nBodies, 0.0);
+        for (int i = 0; i < ns; ++i) {
+            final double[] v0 = state0[base + layout.velocityTerm[i]];
+            final double[] v = state[base + layout.velocityTerm[i]];
+            final double[] dedv = dedx[base + layout.velocityTerm[i]];
+
+            /* Momentum error component, accumulated in ve. */
+            for (int b = 0; b < nBodies; ++b) {
+                ve[b] = m[b] * v[b] - m0[b] * v0[b];
+            }
+            for (int j = 0; j < nm; ++j) {
+                final double halfDtSign = layout.massTransferInto[j] ? halfDt : -halfDt;
+                final double[] massRate0 = state0[base + layout.advectionMassRateTerm[j]];
+                final double[] massRate = state[base + layout.advectionMassRateTerm[j]];
+                final double[] u0 = state0[base + layout.advectionVelocityTerm[j * ns + i]];
+                final double[] u = state[base + layout.advectionVelocityTerm[j * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    ve[b] -= halfDtSign * (massRate0[b] * (u0[b] - v0[b]) + massRate[b] * (u[b] - v[b]));
+                }
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double halfDtSign = layout.forceOn[k] ? halfDt : -halfDt;
+                final double[] f0 = state0[base + layout.forceTerm[k * ns + i]];
+                final double[] f = state[base + layout.forceTerm[k * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    ve[b] -= halfDtSign * (f0[b] + f[b]);
+                }
+            }
+
+            for (int b = 0; b < nBodies; ++b) {
+                final double pe = ve[b];
+                final double veb = pe / m[b];
+                e[b] += 0.5 * pe * veb;
+                ve[b] = veb;
+                dedm[b] += veb * (v[b] - 0.5 * veb);
+                dedv[b] += veb * m[b];
+            }
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double[] massRate = state[base + layout.advectionMassRateTerm[j]];
+                final double[] u = state[base + layout.advectionVelocityTerm[j * ns + i]];
+                final double[] dedmrate = dedx[base + layout.advectionMassRateTerm[j]];
+                final double[] dedu = dedx[base + layout.advectionVelocityTerm[j * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    final double veb = ve[b];
+                    final double signedMassRate = sign * massRate[b];
+                    dedv[b] += halfDt * signedMassRate * veb;
+                    dedmrate[b] -= halfDt * sign * veb * (u[b] - v[b]);
+                    dedu[b] -= halfDt * signedMassRate * veb;
+                }
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double halfDtSign = layout.forceOn[k] ? halfDt : -halfDt;
+                final double[] dedf = dedx[base + layout.forceTerm[k * ns + i]];
+                for (int b = 0; b < nBodies; ++b) {
+                    dedf[b] -= halfDtSign * ve[b];
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This performs the same calculation as the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method,
+     * with the same sequence of floating-point operations, so it computes bitwise
+     * identical values. But it takes the momentum, the advection momentum rates
+     * and the forces at the current point in time from the prepared values, so it
+     * does not read the {@code state0} array.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @param workspace
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
+     */
+    @Override
+    public final double evaluatePrepared(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double[] workspace) {
+        requireEvaluationArguments(dedx, state0, state, dt);
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+        requireWorkspace(workspace, getWorkspaceLength());
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final int advectionPrepared = ns;
+        final int forcePrepared = ns + nm * ns;
+        final double[] ve = workspace;
+
+        final double m = state[base + layout.massTerm];
+        final double mInverse = 1.0 / m;
+
+        double massRateTotal = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            massRateTotal += sign * state[base + layout.advectionMassRateTerm[j]];
+        }
+
+        double peDotVe = 0.0;
+        double dedm = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final double v = state[base + layout.velocityTerm[i]];
+            double pRateAdvectionTotal = 0.0;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double massRate = sign * state[base + layout.advectionMassRateTerm[j]];
+                final double vrel = state[base + layout.advectionVelocityTerm[j * ns + i]] - v;
+                pRateAdvectionTotal += 0.5 * (prepared[advectionPrepared + j * ns + i] + vrel * massRate);
+            }
+            double fTotal = 0.0;
+            for (int k = 0; k < nf; ++k) {
+                final double mean = 0.5
+                        * (prepared[forcePrepared + k * ns + i] + state[base + layout.forceTerm[k * ns + i]]);
+                fTotal += layout.forceOn[k] ? mean : -mean;
+            }
+            final double pRate = pRateAdvectionTotal + fTotal;
+            final double pe = v * m - prepared[i] - pRate * dt;
+            final double vei = pe * mInverse;
+            ve[i] = vei;
+            peDotVe += pe * vei;
+            dedm += vei * (v + -0.5 * vei);
+        }
+        final double e = 0.5 * peDotVe;
+
+        dedx[base + layout.massTerm] += dedm;
+        final double mdedv = m + 0.5 * dt * massRateTotal;
+        for (int i = 0; i < ns; ++i) {
+            dedx[base + layout.velocityTerm[i]] += ve[i] * mdedv;
+        }
+        for (int j = 0; j < nm; ++j) {
+            final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+            final double mdedu = -0.5 * dt * (sign * state[base + layout.advectionMassRateTerm[j]]);
+            double veDotVrel = 0.0;
+            for (int i = 0; i < ns; ++i) {
+                final double vrel = state[base + layout.advectionVelocityTerm[j * ns + i]]
+                        - state[base + layout.velocityTerm[i]];
+                veDotVrel += ve[i] * vrel;
+            }
+            dedx[base + layout.advectionMassRateTerm[j]] += -0.5 * dt * sign * veDotVrel;
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.advectionVelocityTerm[j * ns + i]] += mdedu * ve[i];
+            }
+        }
+
+        for (int k = 0; k < nf; ++k) {
+            final double fsk = layout.forceOn[k] ? 1.0 : -1.0;
+            for (int i = 0; i < ns; ++i) {
+                dedx[base + layout.forceTerm[k * ns + i]] += -0.5 * dt * fsk * ve[i];
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual for each {@linkplain #getSpaceDimension() space
+     * dimension}: a component of the momentum conservation error divided by the
+     * square root of the mass of the body.
+     * </p>
+     *
+     * @param residuals
+     *            {@inheritDoc}
+     * @param jacobian
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+            final double[] state, final double dt) {
+        requireResidualArguments(residuals, jacobian, state0, state, dt);
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final int p = layout.indexFootprint.length;
+        final double halfDt = 0.5 * dt;
+
+        final double m0 = state0[base + layout.massTerm];
+        final double m = state[base + layout.massTerm];
+        final double rootM = Math.sqrt(m);
+        double massRateTotal = 0.0;
+        for (int j = 0; j < nm; ++j) {
+            massRateTotal += (layout.massTransferInto[j] ? 1.0 : -1.0)
+                    * state[base + layout.advectionMassRateTerm[j]];
+        }
+
+        Arrays.fill(jacobian, 0, ns * p, 0.0);
+        double e = 0.0;
+        for (int i = 0; i < ns; ++i) {
+            final int row = i * p;
+            final double v0 = state0[base + layout.velocityTerm[i]];
+            final double v = state[base + layout.velocityTerm[i]];
+            double pRate = 0.0;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final int ji = j * ns + i;
+                final double massRate0 = sign * state0[base + layout.advectionMassRateTerm[j]];
+                final double massRate = sign * state[base + layout.advectionMassRateTerm[j]];
+                final double vrel0 = state0[base + layout.advectionVelocityTerm[ji]] - v0;
+                final double vrel = state[base + layout.advectionVelocityTerm[ji]] - v;
+                pRate += 0.5 * (massRate0 * vrel0 + massRate * vrel);
+                jacobian[row + layout.advectionMassRateColumn[j]] -= halfDt * sign * vrel / rootM;
+                jacobian[row + layout.advectionVelocityColumn[ji]] -= halfDt * massRate / rootM;
+            }
+            for (int k = 0; k < nf; ++k) {
+                final double fs = layout.forceOn[k] ? 1.0 : -1.0;
+                final int ki = k * ns + i;
+                pRate += 0.5 * fs * (state0[base + layout.forceTerm[ki]] + state[base + layout.forceTerm[ki]]);
+                jacobian[row + layout.forceColumn[ki]] -= halfDt * fs / rootM;
+            }
+
+            final double pe = m * v - m0 * v0 - pRate * dt;
+            final double r = pe / rootM;
+            jacobian[row + layout.massColumn] += (v - 0.5 * r / rootM) / rootM;
+            jacobian[row + layout.velocityColumn[i]] += (m + halfDt * massRateTotal) / rootM;
+
+            residuals[i] = r;
+            e += 0.5 * r * r;
+        }
+
+        return e;
+    }
+
     /**
      * <p>
      * Which term in the solution space vector correspond to the mass transfer rate
@@ -307,7 +904,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final int getAdvectionMassRateTerm(final int j) {
-        return advectionMassRateTerm[j];
+        return base + layout.advectionMassRateTerm[j];
     }
 
     /**
@@ -335,7 +932,29 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final int getAdvectionVelocityTerm(final int j, final int i) {
-        return advectionVelocityTerm[requireAdvectionProcess(j) * getSpaceDimension() + requireVectorComponent(i)];
+        return base + layout.advectionVelocityTerm[requireAdvectionProcess(j) * getSpaceDimension()
+                + requireVectorComponent(i)];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The work array holds one value for each body.
+     * </p>
+     *
+     * @param nBodies
+     *            {@inheritDoc}
+     * @return the number of bodies
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int getBatchWorkspaceLength(final int nBodies) {
+        if (nBodies < 0) {
+            throw new IllegalArgumentException("nBodies " + nBodies);
+        }
+        return nBodies;
     }
 
     /**
@@ -362,7 +981,33 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final int getForceTerm(final int k, final int i) {
-        return forceTerm[requireForce(k) * getSpaceDimension() + requireVectorComponent(i)];
+        return base + layout.forceTerm[requireForce(k) * getSpaceDimension() + requireVectorComponent(i)];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the mass, velocity, advection and force terms.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        final int p = layout.indexFootprint.length;
+        final int[] indexFootprint = new int[p];
+        for (int c = 0; c < p; ++c) {
+            indexFootprint[c] = base + layout.indexFootprint[c];
+        }
+        return indexFootprint;
     }
 
     /**
@@ -373,7 +1018,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      * @return the index of the mass; not negative
      */
     public final int getMassTerm() {
-        return massTerm;
+        return base + layout.massTerm;
     }
 
     /**
@@ -384,7 +1029,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      * @return the number of forces; not negative.
      */
     public final int getNumberOfForces() {
-        return forceOn.length;
+        return layout.forceOn.length;
     }
 
     /**
@@ -396,7 +1041,40 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      * @return the number of mass transfer processes; not negative.
      */
     public final int getNumberOfMassTransfers() {
-        return massTransferInto.length;
+        return layout.massTransferInto.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This term has one residual for each {@linkplain #getSpaceDimension() space
+     * dimension}.
+     * </p>
+     *
+     * @return the number of space dimensions
+     */
+    @Override
+    public final int getNumberOfResiduals() {
+        return layout.velocityTerm.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The prepared values are, for each {@linkplain #getSpaceDimension() space
+     * dimension}, the momentum at the current point in time, then the momentum
+     * transfer rate of each advection at the current point in time, then the
+     * components of each force at the current point in time.
+     * </p>
+     *
+     * @return the product of the space dimension and one more than the sum of
+     *         the number of mass transfers and the number of forces
+     */
+    @Override
+    public final int getPreparedLength() {
+        return layout.velocityTerm.length * (1 + layout.massTransferInto.length + layout.forceOn.length);
     }
 
     /**
@@ -407,7 +1085,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      * @return the number of dimensions; positive.
      */
     public final int getSpaceDimension() {
-        return velocityTerm.length;
+        return layout.velocityTerm.length;
     }
 
     /**
@@ -428,7 +1106,22 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final int getVelocityTerm(final int i) {
-        return velocityTerm[i];
+        return base + layout.velocityTerm[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The work array holds one value for each {@linkplain #getSpaceDimension()
+     * space dimension}.
+     * </p>
+     *
+     * @return the space dimension
+     */
+    @Override
+    public final int getWorkspaceLength() {
+        return layout.velocityTerm.length;
     }
 
     /**
@@ -456,7 +1149,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final boolean isForceOn(final int k) {
-        return forceOn[k];
+        return layout.forceOn[k];
     }
 
     /**
@@ -483,7 +1176,7 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
      *             </ul>
      */
     public final boolean isMassTransferInto(final int j) {
-        return massTransferInto[j];
+        return layout.massTransferInto[j];
     }
 
     /**
@@ -501,8 +1194,82 @@ public final class MomentumConservationError extends AbstractTimeStepEnergyError
         if (n <= 0) {
             throw new IllegalArgumentException("n " + n);
         }
-        return massTerm + 1 <= n && isValidForTerm(n, velocityTerm) && isValidForTerm(n, advectionVelocityTerm)
-                && isValidForTerm(n, advectionMassRateTerm) && isValidForTerm(n, forceTerm);
+        return base + layout.indexFootprint[layout.indexFootprint.length - 1] < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param prepared
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final void prepare(final double[] prepared, final double[] state0, final double dt) {
+        requirePrepared(prepared, getPreparedLength(), state0, dt);
+
+        final int ns = getSpaceDimension();
+        final int nm = getNumberOfMassTransfers();
+        final int nf = getNumberOfForces();
+        final int advectionPrepared = ns;
+        final int forcePrepared = ns + nm * ns;
+
+        final double m0 = state0[base + layout.massTerm];
+        for (int i = 0; i < ns; ++i) {
+            final double v0 = state0[base + layout.velocityTerm[i]];
+            prepared[i] = v0 * m0;
+            for (int j = 0; j < nm; ++j) {
+                final double sign = layout.massTransferInto[j] ? 1.0 : -1.0;
+                final double massRate0 = sign * state0[base + layout.advectionMassRateTerm[j]];
+                final double vrel0 = state0[base + layout.advectionVelocityTerm[j * ns + i]] - v0;
+                prepared[advectionPrepared + j * ns + i] = vrel0 * massRate0;
+            }
+            for (int k = 0; k < nf; ++k) {
+                prepared[forcePrepared + k * ns + i] = state0[base + layout.forceTerm[k * ns + i]];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * term indices.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term; not null.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final MomentumConservationError remap(final int[] map) {
+        return new MomentumConservationError(map[base + layout.massTerm], remapRelative(layout.velocityTerm, map),
+                layout.massTransferInto, remapRelative(layout.advectionMassRateTerm, map),
+                remapRelative(layout.advectionVelocityTerm, map), layout.forceOn, remapRelative(layout.forceTerm, map));
+    }
+
+    private int[] remapRelative(final int[] relative, final int[] map) {
+        final int n = relative.length;
+        final int[] term = new int[n];
+        for (int i = 0; i < n; ++i) {
+            term[i] = map[base + relative[i]];
+        }
+        return term;
     }
 
     private int requireAdvectionProcess(final int j) {
@@ -19,12 +19,16 @@ package uk.badamson.mc.physics.solver;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
 import uk.badamson.mc.math.Function1WithGradientValue;
 import uk.badamson.mc.math.FunctionNWithGradient;
 import uk.badamson.mc.math.FunctionNWithGradientValue;
@@ -69,13 +73,370 @@ import uk.badamson.mc.math.MinN;
  * processes and multiple objects can be modelled by including terms for each of
  * the processes and objects.
  * </p>
+ * <p>
+ * The function can also be {@linkplain #evaluateInto(double[], double[])
+ * evaluated} using arrays of components, rather than vector objects. That
+ * enables a minimiser to evaluate the function repeatedly without allocating
+ * any objects, by reusing the arrays. For systems with many terms, the
+ * function can instead be
+ * {@linkplain #evaluateInto(double[], double[], ForkJoinPool, ParallelWorkspace) evaluated
+ * in parallel}.
+ * </p>
+ * <p>
+ * The function records the union of the
+ * {@linkplain TimeStepEnergyErrorFunctionTerm#getIndexFootprint(int) index
+ * footprints} of its terms, as its {@linkplain #getGradientFootprint() gradient
+ * footprint}. The error depends on only those components of the state vector.
+ * If the terms use only a small part of a large state vector, the function can
+ * be {@linkplain #evaluateSparse(double[], double[], double[]) evaluated} using
+ * arrays of only the components of the gradient footprint, at a cost
+ * proportional to the size of the gradient footprint, rather than the size of
+ * the state vector.
+ * </p>
  */
 @Immutable
 public final class TimeStepEnergyErrorFunction implements FunctionNWithGradient {
 
+    /*
+     * The prepared values of a term that is not valid for the dimension of the
+     * state vector.
+     */
+    private static final double[] NOT_PREPARED = {};
+
+    /**
+     * <p>
+     * The arrays that a {@link TimeStepEnergyErrorFunction} uses to
+     * {@linkplain TimeStepEnergyErrorFunction#evaluateInto(double[], double[], ForkJoinPool, ParallelWorkspace)
+     * evaluate its terms in parallel}.
+     * </p>
+     * <p>
+     * The workspace divides the {@linkplain TimeStepEnergyErrorFunction#getTerms()
+     * terms} of the function into contiguous ranges of no more than a
+     * {@linkplain #getThreshold() threshold} number of terms. For each range, it
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[]) remaps} the terms
+     * to a state vector of only the components that the terms of that range use,
+     * and holds arrays of that size for the state, the gradient and temporary
+     * values. Parallel evaluation using the workspace therefore does not allocate
+     * any arrays, and the storage it uses is proportional to the total size of the
+     * index footprints of the terms, rather than the number of threads times the
+     * dimension of the function. A range that has a term that can not be remapped
+     * instead has a gradient array for the full state vector.
+     * </p>
+     * <p>
+     * A workspace must not be used by more than one evaluation at a time. A
+     * minimiser can reuse one workspace for all its parallel evaluations of a
+     * function.
+     * </p>
+     */
+    @NotThreadSafe
+    public static final class ParallelWorkspace {
+
+        private final TimeStepEnergyErrorFunction function;
+        private final int threshold;
+        private final Range[] ranges;
+
+        /**
+         * <p>
+         * Construct the arrays for evaluating the terms of a given function in
+         * parallel.
+         * </p>
+         * <ul>
+         * <li>The {@linkplain #getFunction() function} of the constructed workspace
+         * is the given function.</li>
+         * <li>The {@linkplain #getThreshold() threshold} of the constructed
+         * workspace is the given threshold.</li>
+         * </ul>
+         *
+         * @param function
+         *            The function to evaluate.
+         * @param threshold
+         *            The maximum number of terms that a task evaluates serially.
+         * @throws NullPointerException
+         *             If {@code function} is null.
+         * @throws IllegalArgumentException
+         *             If {@code threshold} is not positive.
+         */
+        public ParallelWorkspace(final TimeStepEnergyErrorFunction function, final int threshold) {
+            Objects.requireNonNull(function, "function");
+            if (threshold <= 0) {
+                throw new IllegalArgumentException("threshold " + threshold);
+            }
+            this.function = function;
+            this.threshold = threshold;
+            final int nTerms = function.terms.size();
+            final int nRanges = (int) ((nTerms + (long) threshold - 1) / threshold);
+            ranges = new Range[nRanges];
+            final int[] map = new int[function.getDimension()];
+            Arrays.fill(map, -1);
+            for (int r = 0; r < nRanges; ++r) {
+                final int from = r * threshold;
+                ranges[r] = new Range(function, from, Math.min(nTerms, from + threshold), map);
+            }
+        }
+
+        /**
+         * <p>
+         * The function that this workspace is for.
+         * </p>
+         *
+         * @return the function; not null.
+         */
+        public final TimeStepEnergyErrorFunction getFunction() {
+            return function;
+        }
+
+        /**
+         * <p>
+         * The maximum number of terms that a task evaluates serially.
+         * </p>
+         *
+         * @return the threshold; positive.
+         */
+        public final int getThreshold() {
+            return threshold;
+        }
+    }// class
+
+    /*
+     * A contiguous range of the terms of a function, and the arrays for
+     * evaluating them. If the terms are remapped, the arrays have an element for
+     * each index of the footprint of the range. Otherwise, the terms are the terms
+     * of the function, state is null, and dedx is for the full state vector.
+     */
+    private static final class Range {
+
+        private final int[] footprint;
+        private final List<TimeStepEnergyErrorFunctionTerm> terms;
+        private final double[] x0;
+        private final double[][] prepared;
+        private final double[] state;
+        private final double[] dedx;
+        private final double[] workspace;
+        private double e;
+
+        Range(final TimeStepEnergyErrorFunction function, final int from, final int to, final int[] map) {
+            final int n = function.getDimension();
+            final List<TimeStepEnergyErrorFunctionTerm> functionTerms = function.terms.subList(from, to);
+            footprint = createFootprint(n, functionTerms);
+            final List<TimeStepEnergyErrorFunctionTerm> remapped = createSparseTerms(n, footprint, functionTerms,
+                    map);
+            if (remapped == null || remapped == functionTerms) {
+                terms = functionTerms;
+                x0 = function.x0Components;
+                prepared = Arrays.copyOfRange(function.prepared, from, to);
+                state = null;
+                dedx = new double[n];
+            } else {
+                terms = remapped;
+                x0 = new double[footprint.length];
+                for (int c = 0; c < footprint.length; ++c) {
+                    x0[c] = function.x0Components[footprint[c]];
+                }
+                prepared = prepare(x0, function.dt, terms);
+                state = new double[footprint.length];
+                dedx = new double[footprint.length];
+            }
+            int workspaceLength = 0;
+            for (final TimeStepEnergyErrorFunctionTerm term : terms) {
+                workspaceLength = Math.max(workspaceLength, term.getWorkspaceLength());
+            }
+            workspace = new double[workspaceLength];
+        }
+
+        /*
+         * Adds the gradient of this range to the gradient of the function, and
+         * returns the error of this range.
+         */
+        double addTo(final double[] functionDedx) {
+            if (state == null) {
+                for (final int i : footprint) {
+                    functionDedx[i] += dedx[i];
+                }
+            } else {
+                for (int c = 0; c < footprint.length; ++c) {
+                    functionDedx[footprint[c]] += dedx[c];
+                }
+            }
+            return e;
+        }
+
+        void evaluate(final double[] functionState, final double dt) {
+            final double[] s;
+            if (state == null) {
+                for (final int i : footprint) {
+                    dedx[i] = 0.0;
+                }
+                s = functionState;
+            } else {
+                for (int c = 0; c < footprint.length; ++c) {
+                    state[c] = functionState[footprint[c]];
+                }
+                Arrays.fill(dedx, 0.0);
+                s = state;
+            }
+            double sum = 0.0;
+            final int nTerms = terms.size();
+            for (int t = 0; t < nTerms; ++t) {
+                sum += terms.get(t).evaluatePrepared(dedx, prepared[t], x0, s, dt, workspace);
+            }
+            e = sum;
+        }
+    }// class
+
+    /**
+     * <p>
+     * A task that evaluates a contiguous sequence of the ranges of terms of a
+     * {@linkplain ParallelWorkspace workspace}.
+     * </p>
+     * <p>
+     * The task recursively splits its sequence of ranges in two, until it has
+     * only one range, which it
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluatePrepared(double[], double[], double[], double[], double, double[])
+     * evaluates} using the arrays of that range.
+     * </p>
+     */
+    private static final class EvaluationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Range[] ranges;
+        private final double[] state;
+        private final double dt;
+        private final int from;
+        private final int to;
+
+        EvaluationTask(final Range[] ranges, final double[] state, final double dt, final int from, final int to) {
+            this.ranges = ranges;
+            this.state = state;
+            this.dt = dt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected final void compute() {
+            if (to - from == 1) {
+                ranges[from].evaluate(state, dt);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new EvaluationTask(ranges, state, dt, from, middle),
+                        new EvaluationTask(ranges, state, dt, middle, to));
+            }
+        }
+    }// class
+
+    private static double[][] prepare(final double[] x0, final double dt,
+            final List<TimeStepEnergyErrorFunctionTerm> terms) {
+        final int n = x0.length;
+        final int nTerms = terms.size();
+        final double[][] prepared = new double[nTerms][];
+        for (int t = 0; t < nTerms; ++t) {
+            final TimeStepEnergyErrorFunctionTerm term = terms.get(t);
+            final int length = term.getPreparedLength();
+            if (0 < length && term.isValidForDimension(n)) {
+                prepared[t] = new double[length];
+                term.prepare(prepared[t], x0, dt);
+            } else {
+                /* Evaluation of a term not valid for the dimension will fail anyway. */
+                prepared[t] = NOT_PREPARED;
+            }
+        }
+        return prepared;
+    }
+
+    /*
+     * The union of the index footprints of some terms, in ascending order. This
+     * sorts the indices, so its cost does not depend on the dimension.
+     */
+    private static int[] createFootprint(final int n, final List<TimeStepEnergyErrorFunctionTerm> terms) {
+        int nIndices = 0;
+        final int[][] termFootprints = new int[terms.size()][];
+        for (int t = 0; t < termFootprints.length; ++t) {
+            termFootprints[t] = terms.get(t).getIndexFootprint(n);
+            nIndices += termFootprints[t].length;
+        }
+        final int[] indices = new int[nIndices];
+        int k = 0;
+        for (final int[] termFootprint : termFootprints) {
+            System.arraycopy(termFootprint, 0, indices, k, termFootprint.length);
+            k += termFootprint.length;
+        }
+        Arrays.sort(indices);
+        int nUsed = 0;
+        for (final int index : indices) {
+            /* Indices of terms not valid for the dimension are ignored. */
+            if (index < n && (nUsed == 0 || indices[nUsed - 1] != index)) {
+                indices[nUsed++] = index;
+            }
+        }
+        return Arrays.copyOf(indices, nUsed);
+    }
+
+    private static int[] createGradientFootprint(final int n, final List<TimeStepEnergyErrorFunctionTerm> terms) {
+        final boolean[] used = new boolean[n];
+        int nUsed = 0;
+        for (final TimeStepEnergyErrorFunctionTerm term : terms) {
+            for (final int index : term.getIndexFootprint(n)) {
+                /* Indices of terms not valid for the dimension are ignored. */
+                if (index < n && !used[index]) {
+                    used[index] = true;
+                    ++nUsed;
+                }
+            }
+        }
+        final int[] footprint = new int[nUsed];
+        int f = 0;
+        for (int i = 0; i < n; ++i) {
+            if (used[i]) {
+                footprint[f++] = i;
+            }
+        }
+        return footprint;
+    }
+
+    /*
+     * The terms remapped to a state vector of only the components of the given
+     * footprint, or null if any of the terms can not be remapped. The map must be
+     * all -1 values, and is restored to all -1 values.
+     */
+    private static List<TimeStepEnergyErrorFunctionTerm> createSparseTerms(final int n, final int[] footprint,
+            final List<TimeStepEnergyErrorFunctionTerm> terms, final int[] map) {
+        final int p = footprint.length;
+        if (p == n) {
+            /* The footprint is all the indices, so no remapping is needed. */
+            return terms;
+        } else if (p == 0 && !terms.isEmpty()) {
+            /* The terms can not be evaluated for an empty state vector. */
+            return null;
+        }
+        for (int c = 0; c < p; ++c) {
+            map[footprint[c]] = c;
+        }
+        List<TimeStepEnergyErrorFunctionTerm> sparseTerms = new ArrayList<>(terms.size());
+        for (final TimeStepEnergyErrorFunctionTerm term : terms) {
+            final TimeStepEnergyErrorFunctionTerm remapped = term.isValidForDimension(n) ? term.remap(map) : null;
+            if (remapped == null) {
+                sparseTerms = null;
+                break;
+            }
+            sparseTerms.add(remapped);
+        }
+        for (final int index : footprint) {
+            map[index] = -1;
+        }
+        return sparseTerms;
+    }
+
     private final ImmutableVectorN x0;
+    private final double[] x0Components;
     private final double dt;
     private final List<TimeStepEnergyErrorFunctionTerm> terms;
+    private final int[] gradientFootprint;
+    private final int workspaceLength;
+    private final double[][] prepared;
+    private final List<TimeStepEnergyErrorFunctionTerm> sparseTerms;
+    private final double[] sparseX0;
+    private final double[][] sparsePrepared;
 
     /**
      * <p>
@@ -121,7 +482,370 @@ public final class TimeStepEnergyErrorFunction implements FunctionNWithGradient
 
         this.x0 = x0;
         this.dt = dt;
+        final int n = x0.getDimension();
+        x0Components = new double[n];
+        for (int i = 0; i < n; ++i) {
+            x0Components[i] = x0.get(i);
+        }
         this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+        gradientFootprint = createGradientFootprint(n, this.terms);
+        prepared = prepare(x0Components, dt, this.terms);
+        final int[] map = new int[n];
+        Arrays.fill(map, -1);
+        sparseTerms = createSparseTerms(n, gradientFootprint, this.terms, map);
+        if (sparseTerms == this.terms) {
+            sparseX0 = x0Components;
+            sparsePrepared = prepared;
+        } else if (sparseTerms != null) {
+            sparseX0 = new double[gradientFootprint.length];
+            for (int c = 0; c < gradientFootprint.length; ++c) {
+                sparseX0[c] = x0Components[gradientFootprint[c]];
+            }
+            sparsePrepared = prepare(sparseX0, dt, sparseTerms);
+        } else {
+            sparseX0 = null;
+            sparsePrepared = null;
+        }
+        int maxWorkspaceLength = 0;
+        for (final TimeStepEnergyErrorFunctionTerm term : this.terms) {
+            maxWorkspaceLength = Math.max(maxWorkspaceLength, term.getWorkspaceLength());
+        }
+        if (sparseTerms != null) {
+            for (final TimeStepEnergyErrorFunctionTerm term : sparseTerms) {
+                maxWorkspaceLength = Math.max(maxWorkspaceLength, term.getWorkspaceLength());
+            }
+        }
+        workspaceLength = maxWorkspaceLength;
+    }
+
+    /**
+     * <p>
+     * Create a functor that calculates the same physical modelling error as this
+     * functor, but which is more efficient to evaluate.
+     * </p>
+     * <p>
+     * The created functor has the same {@linkplain #getX0() current state} and
+     * {@linkplain #getDt() time-step}, but its {@linkplain #getTerms() terms} are
+     * a compiled form of the terms of this functor. The
+     * {@link uk.badamson.mc.physics.dynamics.Newton2Error},
+     * {@link MomentumConservationError} and {@link MassConservationError} terms
+     * for each body are replaced by one combined term. The combined term resolves
+     * the term indices and signs once, when this method is called, computes the
+     * values shared by those terms once per evaluation, and evaluates them in one
+     * pass over the state vector components. Compiling is therefore worthwhile if
+     * the functor will be evaluated many times.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) functor.</li>
+     * <li>The returned functor has the same current state and time-step as this
+     * functor.</li>
+     * <li>The returned functor has the same {@linkplain #getGradientFootprint()
+     * gradient footprint} as this functor.</li>
+     * <li>The returned functor calculates the same values as this functor, to
+     * within rounding error.</li>
+     * </ul>
+     *
+     * @return the compiled functor
+     */
+    public final TimeStepEnergyErrorFunction compile() {
+        return new TimeStepEnergyErrorFunction(x0, dt, FusedBodyError.fuse(terms));
+    }
+
+    /**
+     * <p>
+     * Calculate the physical modelling error of the system at the
+     * {@linkplain #getDt() future point in time}, for a state vector represented
+     * as an array of components.
+     * </p>
+     * <p>
+     * This calculates the same error and gradient as the
+     * {@link #value(ImmutableVectorN)} method, but writes the gradient into a
+     * given array rather than creating a new vector object. If the
+     * {@linkplain #getTerms() terms} of this function
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluate(double[], double[], double[], double)
+     * evaluate without allocating objects}, this method does not allocate any
+     * objects.
+     * </p>
+     * <ul>
+     * <li>The method sets all the components of {@code dedx}; it does not
+     * accumulate into existing values.</li>
+     * <li>The method does not change the values of the {@code state} array.</li>
+     * </ul>
+     *
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dedx
+     *            The array into which to write the components of the gradient of
+     *            the error.
+     * @return The error.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code dedx} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code state} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             <li>If the length of {@code dedx} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             </ul>
+     */
+    public final double evaluateInto(final double[] state, final double[] dedx) {
+        requireEvaluationArguments(state, dedx);
+
+        Arrays.fill(dedx, 0.0);
+        double e = 0.0;
+        final int nTerms = terms.size();
+        for (int t = 0; t < nTerms; ++t) {
+            e += terms.get(t).evaluate(dedx, x0Components, state, dt);
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Calculate the physical modelling error of the system at the
+     * {@linkplain #getDt() future point in time}, for a state vector represented
+     * as an array of components, using a caller-supplied work array.
+     * </p>
+     * <p>
+     * This calculates the same error and gradient as the
+     * {@link #evaluateInto(double[], double[])} method, but
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluate(double[], double[], double[], double, double[])
+     * evaluates the terms} using the given work array. A minimiser can therefore
+     * reuse one work array for all its evaluations of this function, so terms
+     * that need temporary storage need not allocate it for each evaluation.
+     * </p>
+     * <p>
+     * Furthermore, the constructor
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#prepare(double[], double[], double)
+     * prepares} the values of each term that depend on only the
+     * {@linkplain #getX0() current state} and the {@linkplain #getDt() time-step
+     * size}, so this method
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluatePrepared(double[], double[], double[], double[], double, double[])
+     * evaluates the terms} without recomputing those values.
+     * </p>
+     * <ul>
+     * <li>The method sets all the components of {@code dedx}; it does not
+     * accumulate into existing values.</li>
+     * <li>The method does not change the values of the {@code state} array.</li>
+     * </ul>
+     *
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dedx
+     *            The array into which to write the components of the gradient of
+     *            the error.
+     * @param workspace
+     *            An array for temporary values, of at least the
+     *            {@linkplain #getWorkspaceLength() workspace length} of this
+     *            functor.
+     * @return The error.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code workspace} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code state} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             <li>If the length of {@code dedx} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             <li>If {@code workspace} is shorter than the workspace length of
+     *             this functor.</li>
+     *             </ul>
+     */
+    public final double evaluateInto(final double[] state, final double[] dedx, final double[] workspace) {
+        requireEvaluationArguments(state, dedx);
+        requireWorkspace(workspace);
+
+        Arrays.fill(dedx, 0.0);
+        double e = 0.0;
+        final int nTerms = terms.size();
+        for (int t = 0; t < nTerms; ++t) {
+            e += terms.get(t).evaluatePrepared(dedx, prepared[t], x0Components, state, dt, workspace);
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Calculate the physical modelling error of the system at the
+     * {@linkplain #getDt() future point in time}, for a state vector represented
+     * as an array of components, evaluating the {@linkplain #getTerms() terms} in
+     * parallel.
+     * </p>
+     * <p>
+     * This calculates the same error and gradient as the
+     * {@link #evaluateInto(double[], double[])} method, to within rounding error.
+     * It evaluates the ranges of terms of a given
+     * {@linkplain ParallelWorkspace workspace} using tasks executed by a given
+     * pool of threads. Each range
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluatePrepared(double[], double[], double[], double[], double, double[])
+     * evaluates its prepared terms} using its own arrays, so the terms need not be
+     * thread-safe with respect to those arrays. When all the tasks have completed,
+     * the method adds the errors and gradients of the ranges, in the order of the
+     * ranges. The order of the floating-point operations therefore does not depend
+     * on which threads evaluate which ranges, so repeated evaluations compute
+     * bitwise identical values. The terms must be safe for concurrent evaluation,
+     * as the {@link TimeStepEnergyErrorFunctionTerm} interface requires.
+     * </p>
+     * <p>
+     * If the workspace has only one range of terms, the method evaluates it in
+     * the calling thread. Parallel evaluation has overheads, including creating
+     * the tasks and summing the gradients of the ranges. It is worthwhile only if
+     * the function has many terms; the threshold of the workspace should
+     * typically be hundreds of terms.
+     * </p>
+     * <ul>
+     * <li>The method sets all the components of {@code dedx}; it does not
+     * accumulate into existing values.</li>
+     * <li>The method does not change the values of the {@code state} array.</li>
+     * </ul>
+     *
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dedx
+     *            The array into which to write the components of the gradient of
+     *            the error.
+     * @param pool
+     *            The thread pool to use for evaluating the terms.
+     * @param workspace
+     *            The arrays to use for evaluating the terms.
+     * @return The error.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code pool} is null.</li>
+     *             <li>If {@code workspace} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code state} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             <li>If the length of {@code dedx} does not equal the
+     *             {@linkplain #getDimension() dimension} of this functor.</li>
+     *             <li>If the {@linkplain ParallelWorkspace#getFunction() function}
+     *             of {@code workspace} is not this functor.</li>
+     *             </ul>
+     */
+    public final double evaluateInto(final double[] state, final double[] dedx, final ForkJoinPool pool,
+            final ParallelWorkspace workspace) {
+        Objects.requireNonNull(pool, "pool");
+        Objects.requireNonNull(workspace, "workspace");
+        if (workspace.function != this) {
+            throw new IllegalArgumentException("workspace is for a different function");
+        }
+        requireEvaluationArguments(state, dedx);
+
+        final Range[] ranges = workspace.ranges;
+        if (ranges.length == 1) {
+            ranges[0].evaluate(state, dt);
+        } else if (1 < ranges.length) {
+            pool.invoke(new EvaluationTask(ranges, state, dt, 0, ranges.length));
+        }
+        Arrays.fill(dedx, 0.0);
+        double e = 0.0;
+        for (final Range range : ranges) {
+            e += range.addTo(dedx);
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Calculate the physical modelling error of the system at the
+     * {@linkplain #getDt() future point in time}, for a state vector represented
+     * by only its components in the {@linkplain #getGradientFootprint() gradient
+     * footprint}.
+     * </p>
+     * <p>
+     * The error depends on only the components of the state vector that are in
+     * the gradient footprint, and the other components of the gradient are zero.
+     * This method therefore uses arrays that have an element for each index of
+     * the gradient footprint, rather than for each component of the state vector:
+     * element <var>c</var> of the arrays corresponds to component
+     * {@code getGradientFootprint()[c]} of the state vector. It calculates the same
+     * error and gradient components as the
+     * {@link #evaluateInto(double[], double[], double[])} method, to within
+     * rounding error.
+     * </p>
+     * <p>
+     * The constructor {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[])
+     * remaps} the {@linkplain #getTerms() terms} to a state vector that has only
+     * the components of the gradient footprint, and prepares the remapped terms,
+     * so this method
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#evaluatePrepared(double[], double[], double[], double[], double, double[])
+     * evaluates} the remapped terms directly, at a cost that is independent of the
+     * {@linkplain #getDimension() dimension} of this functor. Sparse evaluation
+     * is {@linkplain #isSparseEvaluationSupported() supported} only if all the
+     * terms can be remapped.
+     * </p>
+     * <ul>
+     * <li>The method sets all the elements of {@code dedx}; it does not
+     * accumulate into existing values.</li>
+     * <li>The method does not change the values of the {@code state} array.</li>
+     * </ul>
+     *
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time that are in the gradient footprint.
+     * @param dedx
+     *            The array into which to write the components of the gradient of
+     *            the error that are in the gradient footprint.
+     * @param workspace
+     *            An array for temporary values, of at least the
+     *            {@linkplain #getWorkspaceLength() workspace length} of this
+     *            functor.
+     * @return The error.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code workspace} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code state} does not equal the length of
+     *             the gradient footprint.</li>
+     *             <li>If the length of {@code dedx} does not equal the length of
+     *             the gradient footprint.</li>
+     *             <li>If {@code workspace} is shorter than the workspace length of
+     *             this functor.</li>
+     *             </ul>
+     * @throws IllegalStateException
+     *             If sparse evaluation is not
+     *             {@linkplain #isSparseEvaluationSupported() supported}.
+     */
+    public final double evaluateSparse(final double[] state, final double[] dedx, final double[] workspace) {
+        Objects.requireNonNull(state, "state");
+        Objects.requireNonNull(dedx, "dedx");
+        final int p = gradientFootprint.length;
+        if (state.length != p) {
+            throw new IllegalArgumentException("Inconsistent state.length " + state.length + " footprint " + p);
+        }
+        if (dedx.length != p) {
+            throw new IllegalArgumentException("Inconsistent dedx.length " + dedx.length + " footprint " + p);
+        }
+        requireWorkspace(workspace);
+
+        if (sparseTerms == null) {
+            throw new IllegalStateException("Sparse evaluation not supported");
+        }
+        Arrays.fill(dedx, 0.0);
+        double e = 0.0;
+        final int nTerms = sparseTerms.size();
+        for (int t = 0; t < nTerms; ++t) {
+            e += sparseTerms.get(t).evaluatePrepared(dedx, sparsePrepared[t], sparseX0, state, dt, workspace);
+        }
+        return e;
     }
 
     /**
@@ -158,6 +882,32 @@ public final class TimeStepEnergyErrorFunction implements FunctionNWithGradient
         return dt;
     }
 
+    /**
+     * <p>
+     * The indices of the components of the state vector on which the
+     * {@linkplain #getTerms() terms} of this function depend.
+     * </p>
+     * <ul>
+     * <li>Always have a (non null) gradient footprint.</li>
+     * <li>The gradient footprint is the union of the
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#getIndexFootprint(int) index
+     * footprints} of the terms, for the {@linkplain #getDimension() dimension} of
+     * this functor.</li>
+     * <li>The indices of the gradient footprint are in ascending order, without
+     * duplicates.</li>
+     * <li>The indices of the gradient footprint are non-negative and less than the
+     * dimension of this functor.</li>
+     * <li>The components of the gradient of the error that are not in the gradient
+     * footprint are zero.</li>
+     * <li>Returns a new array.</li>
+     * </ul>
+     *
+     * @return the gradient footprint
+     */
+    public final int[] getGradientFootprint() {
+        return Arrays.copyOf(gradientFootprint, gradientFootprint.length);
+    }
+
     /**
      * <p>
      * The terms that contribute to the {@linkplain #value(ImmutableVectorN) value}
@@ -179,6 +929,25 @@ public final class TimeStepEnergyErrorFunction implements FunctionNWithGradient
         return terms;
     }
 
+    /**
+     * <p>
+     * The minimum length of the work array that the
+     * {@link #evaluateInto(double[], double[], double[])} and
+     * {@link #evaluateSparse(double[], double[], double[])} methods require.
+     * </p>
+     * <ul>
+     * <li>The workspace length is at least the largest
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#getWorkspaceLength() workspace
+     * length} of the {@linkplain #getTerms() terms} of this functor.</li>
+     * <li>The workspace length is not negative.</li>
+     * </ul>
+     *
+     * @return the length; not negative.
+     */
+    public final int getWorkspaceLength() {
+        return workspaceLength;
+    }
+
     /**
      * <p>
      * The state vector of the physical system at the current point in time.
@@ -194,6 +963,48 @@ public final class TimeStepEnergyErrorFunction implements FunctionNWithGradient
         return x0;
     }
 
+    /**
+     * <p>
+     * Whether this functor can be
+     * {@linkplain #evaluateSparse(double[], double[], double[]) evaluated} using
+     * arrays of only the components of its {@linkplain #getGradientFootprint()
+     * gradient footprint}.
+     * </p>
+     * <ul>
+     * <li>Sparse evaluation is supported if the gradient footprint is all the
+     * indices of the state vector.</li>
+     * <li>Otherwise, sparse evaluation is supported if, and only if, all the
+     * {@linkplain #getTerms() terms} of this functor are
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#isValidForDimension(int) valid}
+     * for the {@linkplain #getDimension() dimension} of this functor and can be
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[]) remapped}.</li>
+     * </ul>
+     *
+     * @return whether supported.
+     */
+    public final boolean isSparseEvaluationSupported() {
+        return sparseTerms != null;
+    }
+
+    private void requireEvaluationArguments(final double[] state, final double[] dedx) {
+        Objects.requireNonNull(state, "state");
+        Objects.requireNonNull(dedx, "dedx");
+        final int n = x0Components.length;
+        if (state.length != n) {
+            throw new IllegalArgumentException("Inconsistent state.length " + state.length + " dimension " + n);
+        }
+        if (dedx.length != n) {
+            throw new IllegalArgumentException("Inconsistent dedx.length " + dedx.length + " dimension " + n);
+        }
+    }
+
+    private void requireWorkspace(final double[] workspace) {
+        Objects.requireNonNull(workspace, "workspace");
+        if (workspace.length < workspaceLength) {
+            throw new IllegalArgumentException("workspace.length " + workspace.length + " < " + workspaceLength);
+        }
+    }
+
     /**
      * <p>
      * Calculate the physical modelling error of the system at the
@@ -0,0 +1,528 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.FunctionNWithGradientValue;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * A decomposition of a {@linkplain TimeStepEnergyErrorFunction functor that
+ * calculates the physical modelling error of a system at a future point in
+ * time} into independent blocks, which can be minimised separately.
+ * </p>
+ * <p>
+ * Two {@linkplain TimeStepEnergyErrorFunction#getTerms() terms} of the
+ * function interact if their
+ * {@linkplain TimeStepEnergyErrorFunctionTerm#getIndexFootprint(int) index
+ * footprints} share an index. The decomposition finds the connected components
+ * of the graph of interacting terms. Each component, or <dfn>block</dfn>,
+ * depends on a set of state vector components that no other block depends on,
+ * so the Hessian of the function is block diagonal. For a system of many
+ * loosely coupled bodies, minimising each block separately replaces one large
+ * minimisation with many small ones, which can be
+ * {@linkplain #minimise(double[], int, double, ForkJoinPool) performed in
+ * parallel}.
+ * </p>
+ * <p>
+ * The decomposition {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[])
+ * remaps} the terms of each block to a state vector that has only the
+ * components of that block, so the cost of minimising a block does not depend
+ * on the dimension of the function.
+ * </p>
+ */
+@Immutable
+public final class TimeStepEnergyErrorFunctionDecomposition {
+
+    /**
+     * <p>
+     * The energy error function of one block, as a function of the state vector
+     * components of that block.
+     * </p>
+     * <p>
+     * A block that has a {@linkplain TimeStepEnergyErrorFunction function} of
+     * its remapped terms is minimised using arrays of only the components of
+     * that block. Otherwise, the functions of the blocks share arrays of the
+     * components of the full state vector and its gradient, and the terms of the
+     * block are evaluated using those arrays. Evaluation of a term can read all
+     * the components of the state vector, so those blocks are minimised one at a
+     * time, and the cost of each evaluation is proportional to the dimension of
+     * the function.
+     * </p>
+     */
+    @NotThreadSafe
+    private static final class BlockFunction implements EnergyErrorFunction {
+
+        private final TimeStepEnergyErrorFunctionDecomposition decomposition;
+        private final int block;
+        private final double[] state;
+        private final double[] dedx;
+
+        BlockFunction(final TimeStepEnergyErrorFunctionDecomposition decomposition, final int block,
+                final double[] state, final double[] dedx) {
+            this.decomposition = decomposition;
+            this.block = block;
+            this.state = state;
+            this.dedx = dedx;
+        }
+
+        @Override
+        public int getDimension() {
+            return decomposition.blockIndices[block].length;
+        }
+
+        @Override
+        public @NonNull FunctionNWithGradientValue value(@NonNull final ImmutableVectorN x) {
+            final int[] indices = decomposition.blockIndices[block];
+            final int n = indices.length;
+            if (x.getDimension() != n) {
+                throw new IllegalArgumentException("Inconsistent dimension " + x.getDimension());
+            }
+            for (int i = 0; i < n; ++i) {
+                state[indices[i]] = x.get(i);
+                dedx[indices[i]] = 0.0;
+            }
+            final double e = decomposition.evaluate(decomposition.blockTerms.get(block), state, dedx);
+            final double[] dedxBlock = new double[n];
+            for (int i = 0; i < n; ++i) {
+                dedxBlock[i] = dedx[indices[i]];
+            }
+            return new FunctionNWithGradientValue(x, e, ImmutableVectorN.create(dedxBlock));
+        }
+
+        private double minimise(final int historyLength, final double tolerance) {
+            final int[] indices = decomposition.blockIndices[block];
+            final int n = indices.length;
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x[i] = state[indices[i]];
+            }
+            final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(n, historyLength);
+            final TimeStepEnergyErrorFunction blockFunction = decomposition.blockFunctions[block];
+            final double e;
+            if (blockFunction == null) {
+                final FunctionNWithGradientValue min = minimiser.minimise(this, ImmutableVectorN.create(x),
+                        tolerance);
+                e = min.getF();
+                for (int i = 0; i < n; ++i) {
+                    x[i] = min.getX().get(i);
+                }
+            } else {
+                e = minimiser.minimise(blockFunction, x, tolerance);
+            }
+            for (int i = 0; i < n; ++i) {
+                state[indices[i]] = x[i];
+            }
+            return e;
+        }
+    }// class
+
+    /**
+     * <p>
+     * A task that minimises a contiguous range of the blocks.
+     * </p>
+     */
+    private static final class MinimisationTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BlockFunction[] blocks;
+        private final int historyLength;
+        private final double tolerance;
+        private final int begin;
+        private final int end;
+
+        MinimisationTask(final BlockFunction[] blocks, final int historyLength, final double tolerance,
+                final int begin, final int end) {
+            this.blocks = blocks;
+            this.historyLength = historyLength;
+            this.tolerance = tolerance;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected Double compute() {
+            if (end - begin == 1) {
+                return Double.valueOf(blocks[begin].minimise(historyLength, tolerance));
+            }
+            final int middle = begin + (end - begin) / 2;
+            final MinimisationTask second = new MinimisationTask(blocks, historyLength, tolerance, middle, end);
+            second.fork();
+            final double e1 = new MinimisationTask(blocks, historyLength, tolerance, begin, middle).compute()
+                    .doubleValue();
+            return Double.valueOf(e1 + second.join().doubleValue());
+        }
+    }// class
+
+    private static int find(final int[] parent, final int i) {
+        int root = i;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        /* Path compression. */
+        int j = i;
+        while (parent[j] != root) {
+            final int next = parent[j];
+            parent[j] = root;
+            j = next;
+        }
+        return root;
+    }
+
+    private final TimeStepEnergyErrorFunction function;
+    private final double[] x0;
+    private final int[][] blockIndices;
+    private final List<List<TimeStepEnergyErrorFunctionTerm>> blockTerms;
+    private final TimeStepEnergyErrorFunction[] blockFunctions;
+    private final List<TimeStepEnergyErrorFunctionTerm> constantTerms;
+
+    /**
+     * <p>
+     * Construct the decomposition of a given function.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The {@linkplain #getFunction() decomposed function} of this
+     * decomposition is the given function.</li>
+     * </ul>
+     * </section>
+     *
+     * @param function
+     *            The function to decompose.
+     * @throws NullPointerException
+     *             If {@code function} is null.
+     */
+    public TimeStepEnergyErrorFunctionDecomposition(@NonNull final TimeStepEnergyErrorFunction function) {
+        this.function = Objects.requireNonNull(function, "function");
+        final int n = function.getDimension();
+        final List<TimeStepEnergyErrorFunctionTerm> terms = function.getTerms();
+        final int nTerms = terms.size();
+
+        final ImmutableVectorN x0Vector = function.getX0();
+        x0 = new double[n];
+        for (int i = 0; i < n; ++i) {
+            x0[i] = x0Vector.get(i);
+        }
+
+        final int[][] footprints = new int[nTerms][];
+        final int[] parent = new int[n];
+        final boolean[] used = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            parent[i] = i;
+        }
+        for (int t = 0; t < nTerms; ++t) {
+            /* Indices of terms not valid for the dimension are ignored. */
+            final int[] footprint = Arrays.stream(terms.get(t).getIndexFootprint(n)).filter(i -> i < n).toArray();
+            footprints[t] = footprint;
+            for (final int index : footprint) {
+                used[index] = true;
+            }
+            for (int k = 1; k < footprint.length; ++k) {
+                final int root0 = find(parent, footprint[0]);
+                final int rootK = find(parent, footprint[k]);
+                if (root0 != rootK) {
+                    parent[rootK] = root0;
+                }
+            }
+        }
+
+        final int[] blockOfRoot = new int[n];
+        Arrays.fill(blockOfRoot, -1);
+        final List<List<Integer>> indices = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            if (used[i]) {
+                final int root = find(parent, i);
+                if (blockOfRoot[root] < 0) {
+                    blockOfRoot[root] = indices.size();
+                    indices.add(new ArrayList<>());
+                }
+                indices.get(blockOfRoot[root]).add(Integer.valueOf(i));
+            }
+        }
+        final int nBlocks = indices.size();
+        blockIndices = new int[nBlocks][];
+        final List<List<TimeStepEnergyErrorFunctionTerm>> blockTermsList = new ArrayList<>(nBlocks);
+        for (int b = 0; b < nBlocks; ++b) {
+            final List<Integer> blockIndexList = indices.get(b);
+            final int nb = blockIndexList.size();
+            blockIndices[b] = new int[nb];
+            for (int i = 0; i < nb; ++i) {
+                blockIndices[b][i] = blockIndexList.get(i).intValue();
+            }
+            blockTermsList.add(new ArrayList<>());
+        }
+        final List<TimeStepEnergyErrorFunctionTerm> constantTermsList = new ArrayList<>();
+        for (int t = 0; t < nTerms; ++t) {
+            final int[] footprint = footprints[t];
+            if (footprint.length == 0) {
+                constantTermsList.add(terms.get(t));
+            } else {
+                blockTermsList.get(blockOfRoot[find(parent, footprint[0])]).add(terms.get(t));
+            }
+        }
+        for (int b = 0; b < nBlocks; ++b) {
+            blockTermsList.set(b, Collections.unmodifiableList(blockTermsList.get(b)));
+        }
+        blockTerms = Collections.unmodifiableList(blockTermsList);
+        constantTerms = Collections.unmodifiableList(constantTermsList);
+
+        /* The position of each state vector component in its block. */
+        final int[] map = new int[n];
+        Arrays.fill(map, -1);
+        for (final int[] block : blockIndices) {
+            for (int i = 0; i < block.length; ++i) {
+                map[block[i]] = i;
+            }
+        }
+        blockFunctions = new TimeStepEnergyErrorFunction[nBlocks];
+        for (int b = 0; b < nBlocks; ++b) {
+            blockFunctions[b] = createBlockFunction(blockIndices[b], blockTerms.get(b), map);
+        }
+    }
+
+    /**
+     * <p>
+     * Create the function of the remapped terms of a block, or null if any of
+     * the terms is not valid for the dimension of the function or can not be
+     * remapped.
+     * </p>
+     */
+    private TimeStepEnergyErrorFunction createBlockFunction(final int[] indices,
+            final List<TimeStepEnergyErrorFunctionTerm> terms, final int[] map) {
+        final int nTerms = terms.size();
+        final List<TimeStepEnergyErrorFunctionTerm> remapped = new ArrayList<>(nTerms);
+        for (int t = 0; t < nTerms; ++t) {
+            final TimeStepEnergyErrorFunctionTerm term = terms.get(t);
+            final TimeStepEnergyErrorFunctionTerm remappedTerm = term.isValidForDimension(map.length)
+                    ? term.remap(map)
+                    : null;
+            if (remappedTerm == null) {
+                return null;
+            }
+            remapped.add(remappedTerm);
+        }
+        final int n = indices.length;
+        final double[] x0Block = new double[n];
+        for (int i = 0; i < n; ++i) {
+            x0Block[i] = x0[indices[i]];
+        }
+        return new TimeStepEnergyErrorFunction(ImmutableVectorN.create(x0Block), function.getDt(), remapped);
+    }
+
+    private double evaluate(final List<TimeStepEnergyErrorFunctionTerm> terms, final double[] state,
+            final double[] dedx) {
+        final double dt = function.getDt();
+        double e = 0.0;
+        for (int t = 0, nTerms = terms.size(); t < nTerms; ++t) {
+            e += terms.get(t).evaluate(dedx, x0, state, dt);
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * The indices of the state vector components of a given block.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) array.</li>
+     * <li>The indices are in ascending order, without duplicates.</li>
+     * <li>The indices of different blocks are disjoint.</li>
+     * <li>The indices of the blocks are the
+     * {@linkplain TimeStepEnergyErrorFunction#getGradientFootprint() gradient
+     * footprint} of the function.</li>
+     * <li>Returns a new array.</li>
+     * </ul>
+     *
+     * @param block
+     *            The index of the block.
+     * @return the indices
+     * @throws IndexOutOfBoundsException
+     *             If {@code block} is negative or not less than the
+     *             {@linkplain #getNumberOfBlocks() number of blocks}.
+     */
+    public final int[] getBlockIndices(final int block) {
+        return Arrays.copyOf(blockIndices[block], blockIndices[block].length);
+    }
+
+    /**
+     * <p>
+     * The {@linkplain TimeStepEnergyErrorFunction#getTerms() terms} of the
+     * function that depend on the state vector components of a given block.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) list.</li>
+     * <li>The list is not empty.</li>
+     * <li>The list is unmodifiable.</li>
+     * <li>The terms are in the same order as in the function.</li>
+     * </ul>
+     *
+     * @param block
+     *            The index of the block.
+     * @return the terms
+     * @throws IndexOutOfBoundsException
+     *             If {@code block} is negative or not less than the
+     *             {@linkplain #getNumberOfBlocks() number of blocks}.
+     */
+    public final List<TimeStepEnergyErrorFunctionTerm> getBlockTerms(final int block) {
+        return blockTerms.get(block);
+    }
+
+    /**
+     * <p>
+     * The {@linkplain TimeStepEnergyErrorFunction#getTerms() terms} of the
+     * function that do not depend on any state vector components.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) list.</li>
+     * <li>The list is unmodifiable.</li>
+     * <li>Every term of the function is either a constant term or a term of
+     * exactly one block.</li>
+     * </ul>
+     *
+     * @return the terms
+     */
+    public final List<TimeStepEnergyErrorFunctionTerm> getConstantTerms() {
+        return constantTerms;
+    }
+
+    /**
+     * <p>
+     * The function that this decomposes.
+     * </p>
+     *
+     * @return the function; not null.
+     */
+    public final TimeStepEnergyErrorFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * <p>
+     * The number of independent blocks of the function.
+     * </p>
+     *
+     * @return the number of blocks; not negative.
+     */
+    public final int getNumberOfBlocks() {
+        return blockIndices.length;
+    }
+
+    /**
+     * <p>
+     * Find a minimum of the {@linkplain #getFunction() function}, by minimising
+     * each block separately.
+     * </p>
+     * <p>
+     * Each block is minimised using a {@link LimitedMemoryBfgsMinimiser}, with
+     * the given history length and tolerance. The blocks whose terms can all be
+     * {@linkplain TimeStepEnergyErrorFunctionTerm#remap(int[]) remapped} are
+     * minimised by tasks executed by the given pool of threads. The other blocks
+     * are evaluated using arrays of the full state vector, so they are minimised
+     * serially, in the calling thread, after the other blocks. The state vector
+     * components that are not in any block do not affect the function, so the
+     * method does not change them.
+     * </p>
+     * <ul>
+     * <li>The method replaces the values in the {@code x} array with the
+     * components of the minimum found.</li>
+     * <li>The returned value is the value of the function at the minimum found,
+     * to within rounding error.</li>
+     * </ul>
+     *
+     * @param x
+     *            The components of the initial guess for the position of the
+     *            minimum, which are replaced by the components of the minimum
+     *            found.
+     * @param historyLength
+     *            The {@linkplain LimitedMemoryBfgsMinimiser#getHistoryLength()
+     *            history length} of the minimisers.
+     * @param tolerance
+     *            The convergence tolerance of the minimisers.
+     * @param pool
+     *            The thread pool to use for minimising the blocks.
+     * @return the value of the function at the minimum found.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code x} is null.</li>
+     *             <li>If {@code pool} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the length of {@code x} is not equal to the
+     *             {@linkplain TimeStepEnergyErrorFunction#getDimension()
+     *             dimension} of the function.</li>
+     *             <li>If {@code historyLength} is not positive.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public final double minimise(@NonNull final double[] x, final int historyLength, final double tolerance,
+            @NonNull final ForkJoinPool pool) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(pool, "pool");
+        final int n = function.getDimension();
+        if (x.length != n) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+        if (historyLength <= 0) {
+            throw new IllegalArgumentException("historyLength " + historyLength);
+        }
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+
+        final int nBlocks = blockIndices.length;
+        final double[] dedx = new double[n];
+        final List<BlockFunction> remappedBlocks = new ArrayList<>(nBlocks);
+        final List<BlockFunction> fullBlocks = new ArrayList<>();
+        for (int b = 0; b < nBlocks; ++b) {
+            final BlockFunction block = new BlockFunction(this, b, x, dedx);
+            if (blockFunctions[b] == null) {
+                fullBlocks.add(block);
+            } else {
+                remappedBlocks.add(block);
+            }
+        }
+        double e = evaluate(constantTerms, x, dedx);
+        if (!remappedBlocks.isEmpty()) {
+            final BlockFunction[] blocks = remappedBlocks.toArray(new BlockFunction[0]);
+            e += pool.invoke(new MinimisationTask(blocks, historyLength, tolerance, 0, blocks.length))
+                    .doubleValue();
+        }
+        /* Blocks evaluated using the full arrays must not run concurrently. */
+        for (final BlockFunction block : fullBlocks) {
+            e += block.minimise(historyLength, tolerance);
+        }
+        return e;
+    }
+
+}
@@ -0,0 +1,114 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * A {@linkplain TimeStepEnergyErrorFunctionTerm contributor to the physical
+ * modelling error of a system at a future point in time} that is half the sum
+ * of the squares of a vector of residuals.
+ * </p>
+ * <p>
+ * The term can calculate its residuals and the Jacobian of the residuals with
+ * respect to the state vector. That enables the error of a system of such terms
+ * to be {@linkplain LevenbergMarquardtMinimiser minimised} using the
+ * Gauss–Newton method, which converges quadratically near the minimum.
+ * </p>
+ */
+@Immutable
+public interface TimeStepEnergyErrorFunctionResidualTerm extends TimeStepEnergyErrorFunctionTerm {
+
+    /**
+     * <p>
+     * Calculate the residuals of this term, and the Jacobian of the residuals.
+     * </p>
+     * <p>
+     * The Jacobian is stored in row-major order, with a row for each residual and
+     * a column for each index of the {@linkplain #getIndexFootprint(int) index
+     * footprint} of this term for the dimension of the state vector. Element
+     * {@code jacobian[k * p + c]}, where <var>p</var> is the length of the index
+     * footprint, is the derivative of residual <var>k</var> with respect to the
+     * state vector component with index {@code getIndexFootprint(n)[c]}.
+     * </p>
+     * <ul>
+     * <li>The method sets the first {@linkplain #getNumberOfResiduals() number of
+     * residuals} elements of {@code residuals}.</li>
+     * <li>The method sets the first <var>p</var> times number of residuals
+     * elements of {@code jacobian}.</li>
+     * <li>The returned value is half the sum of the squares of the residuals.</li>
+     * <li>The returned value equals the
+     * {@linkplain #evaluate(double[], double[], double[], double) value} of this
+     * term, to within rounding error.</li>
+     * <li>The method does not change the values of the {@code state0} and
+     * {@code state} arrays.</li>
+     * </ul>
+     *
+     * @param residuals
+     *            The array into which to write the residuals.
+     * @param jacobian
+     *            The array into which to write the Jacobian.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     * @return the value, which has dimensions of energy.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code residuals} is null.</li>
+     *             <li>If {@code jacobian} is null.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             </ul>
+     * @throws IndexOutOfBoundsException
+     *             If {@code residuals} or {@code jacobian} are too short.
+     */
+    public double evaluateResiduals(double[] residuals, double[] jacobian, double[] state0, double[] state,
+            double dt);
+
+    /**
+     * <p>
+     * The number of residuals of this term.
+     * </p>
+     * <p>
+     * This attribute must be <dfn>constant</dfn>: the value for a given object must
+     * always be the same value.
+     * </p>
+     *
+     * @return the number of residuals; not negative.
+     */
+    public int getNumberOfResiduals();
+
+}
@@ -18,6 +18,8 @@ package uk.badamson.mc.physics.solver;
                                * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                */
 
+import java.util.Objects;
+
 import net.jcip.annotations.Immutable;
 import uk.badamson.mc.math.ImmutableVectorN;
 
@@ -80,6 +82,502 @@ public interface TimeStepEnergyErrorFunctionTerm {
      */
     public double evaluate(double[] dedx, ImmutableVectorN state0, ImmutableVectorN state, double dt);
 
+    /**
+     * <p>
+     * Calculate the value of this term, for state vectors represented as arrays
+     * of components.
+     * </p>
+     * <p>
+     * The method returns the value for this error term, and adds the components of
+     * the gradient of the error value to the given array of components. The
+     * computed value and gradient are the same as those computed by the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method for equivalent state vectors. This method enables a minimiser to
+     * evaluate the term without creating any objects, by reusing the arrays.
+     * Implementations should therefore override this method so it does not
+     * allocate any objects.
+     * </p>
+     * <ul>
+     * <li>The method does not change the values of the {@code state0} and
+     * {@code state} arrays.</li>
+     * <li>The default implementation creates {@linkplain ImmutableVectorN vector}
+     * objects for the state vectors and delegates to the
+     * {@link #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)}
+     * method.</li>
+     * </ul>
+     *
+     * @param dedx
+     *            An array for accumulating the components of the gradient of the
+     *            error value.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     * @return the value, which has dimensions of energy.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             </ul>
+     * @throws RuntimeException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}. For a typical implementation this would be an
+     *             {@link IndexOutOfBoundsException}, but it could be an
+     *             {@link IllegalArgumentException}.
+     */
+    public default double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt) {
+        return evaluate(dedx, ImmutableVectorN.create(state0), ImmutableVectorN.create(state), dt);
+    }
+
+    /**
+     * <p>
+     * Calculate the value of this term, for state vectors represented as arrays
+     * of components, using a caller-supplied work array.
+     * </p>
+     * <p>
+     * The computed value and gradient are the same as those computed by the
+     * {@link #evaluate(double[], double[], double[], double)} method. Some terms
+     * need temporary storage for intermediate values; this method enables the
+     * caller to provide that storage, so a minimiser that evaluates a term many
+     * times can reuse one work array, of at least the
+     * {@linkplain #getWorkspaceLength() workspace length} of the term, for all
+     * the evaluations.
+     * </p>
+     * <ul>
+     * <li>The method does not change the values of the {@code state0} and
+     * {@code state} arrays.</li>
+     * <li>The method may change the values of the first workspace length elements
+     * of the {@code workspace} array.</li>
+     * <li>The default implementation delegates to the
+     * {@link #evaluate(double[], double[], double[], double)} method.</li>
+     * </ul>
+     *
+     * @param dedx
+     *            An array for accumulating the components of the gradient of the
+     *            error value.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     * @param workspace
+     *            An array for temporary values.
+     * @return the value, which has dimensions of energy.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code workspace} is null and the workspace length is
+     *             positive.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             <li>If {@code workspace} is shorter than the workspace
+     *             length.</li>
+     *             </ul>
+     * @throws RuntimeException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}. For a typical implementation this would be an
+     *             {@link IndexOutOfBoundsException}, but it could be an
+     *             {@link IllegalArgumentException}.
+     */
+    public default double evaluate(final double[] dedx, final double[] state0, final double[] state,
+            final double dt, final double[] workspace) {
+        return evaluate(dedx, state0, state, dt);
+    }
+
+    /**
+     * <p>
+     * Calculate the values of this term for a batch of independent bodies (or
+     * other physical systems) that have the same structure, with the state
+     * vectors laid out as a <dfn>structure of arrays</dfn>.
+     * </p>
+     * <p>
+     * Component <var>i</var> of the state vector of body <var>b</var> is
+     * {@code state[i][b]}, and similarly for {@code state0}. The method sets
+     * {@code e[b]} to the value of this term for body <var>b</var>, and adds the
+     * components of the gradient of that value to {@code dedx[i][b]}. The
+     * computed values and gradients are the same as those computed by the
+     * {@link #evaluate(double[], double[], double[], double)} method for each
+     * body, to within rounding error. Implementations for which many structurally
+     * identical bodies are common should override this method with a loop over
+     * the bodies for each component, which avoids per-body dispatch and which the
+     * compiler can vectorise.
+     * </p>
+     * <ul>
+     * <li>The number of bodies is the length of the {@code e} array.</li>
+     * <li>The method does not change the values of the {@code state0} and
+     * {@code state} arrays.</li>
+     * <li>The default implementation gathers the state vectors of each body and
+     * delegates to the {@link #evaluate(double[], double[], double[], double)}
+     * method.</li>
+     * </ul>
+     *
+     * @param e
+     *            The array into which to write the value for each body.
+     * @param dedx
+     *            The arrays for accumulating the components of the gradients of
+     *            the values; {@code dedx[i][b]} is component <var>i</var> of the
+     *            gradient for body <var>b</var>.
+     * @param state0
+     *            The components of the state vectors of the bodies at the current
+     *            point in time; {@code state0[i][b]} is component <var>i</var> of
+     *            the state vector of body <var>b</var>.
+     * @param state
+     *            The components of the state vectors of the bodies at the future
+     *            point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code e} is null.</li>
+     *             <li>If {@code dedx} is null or has null elements.</li>
+     *             <li>If {@code state0} is null or has null elements.</li>
+     *             <li>If {@code state} is null or has null elements.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             </ul>
+     * @throws RuntimeException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}, or if any of the elements of {@code dedx},
+     *             {@code state0} and {@code state} are shorter than {@code e}. For
+     *             a typical implementation this would be an
+     *             {@link IndexOutOfBoundsException}, but it could be an
+     *             {@link IllegalArgumentException}.
+     */
+    public default void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt) {
+        final int nBodies = e.length;
+        final int n = state0.length;
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        if (state.length != n) {
+            throw new IllegalArgumentException("Inconsistent dimensions x0 " + n + " and x " + state.length);
+        }
+        if (!isValidForDimension(n)) {
+            throw new IllegalArgumentException("Not valid for dimension " + n);
+        }
+        final double[] x0 = new double[n];
+        final double[] x = new double[n];
+        final double[] dedxB = new double[n];
+        for (int b = 0; b < nBodies; ++b) {
+            for (int i = 0; i < n; ++i) {
+                x0[i] = state0[i][b];
+                x[i] = state[i][b];
+                dedxB[i] = 0.0;
+            }
+            e[b] = evaluate(dedxB, x0, x, dt);
+            for (int i = 0; i < n; ++i) {
+                dedx[i][b] += dedxB[i];
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Calculate the values of this term for a batch of independent bodies, using
+     * a caller-supplied work array.
+     * </p>
+     * <p>
+     * The computed values and gradients are the same as those computed by the
+     * {@link #evaluateBatch(double[], double[][], double[][], double[][], double)}
+     * method. Some terms need temporary storage for intermediate values for each
+     * body; this method enables the caller to provide that storage, so a caller
+     * that evaluates batches of the same size many times can reuse one work
+     * array, of at least the {@linkplain #getBatchWorkspaceLength(int) batch
+     * workspace length} for that number of bodies, for all the evaluations.
+     * </p>
+     * <ul>
+     * <li>The method does not change the values of the {@code state0} and
+     * {@code state} arrays.</li>
+     * <li>The method may change the values of the first batch workspace length
+     * elements of the {@code workspace} array.</li>
+     * <li>The default implementation delegates to the
+     * {@link #evaluateBatch(double[], double[][], double[][], double[][], double)}
+     * method.</li>
+     * </ul>
+     *
+     * @param e
+     *            The array into which to write the value for each body.
+     * @param dedx
+     *            The arrays for accumulating the components of the gradients of
+     *            the values; {@code dedx[i][b]} is component <var>i</var> of the
+     *            gradient for body <var>b</var>.
+     * @param state0
+     *            The components of the state vectors of the bodies at the current
+     *            point in time; {@code state0[i][b]} is component <var>i</var> of
+     *            the state vector of body <var>b</var>.
+     * @param state
+     *            The components of the state vectors of the bodies at the future
+     *            point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     * @param workspace
+     *            An array for temporary values.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code e} is null.</li>
+     *             <li>If {@code dedx} is null or has null elements.</li>
+     *             <li>If {@code state0} is null or has null elements.</li>
+     *             <li>If {@code state} is null or has null elements.</li>
+     *             <li>If {@code workspace} is null and the batch workspace length
+     *             is positive.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             <li>If {@code workspace} is shorter than the batch workspace
+     *             length.</li>
+     *             </ul>
+     * @throws RuntimeException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}, or if any of the elements of {@code dedx},
+     *             {@code state0} and {@code state} are shorter than {@code e}. For
+     *             a typical implementation this would be an
+     *             {@link IndexOutOfBoundsException}, but it could be an
+     *             {@link IllegalArgumentException}.
+     */
+    public default void evaluateBatch(final double[] e, final double[][] dedx, final double[][] state0,
+            final double[][] state, final double dt, final double[] workspace) {
+        evaluateBatch(e, dedx, state0, state, dt);
+    }
+
+    /**
+     * <p>
+     * Calculate the value of this term, for state vectors represented as arrays
+     * of components, using values that were
+     * {@linkplain #prepare(double[], double[], double) prepared} from the state
+     * vector at the current point in time.
+     * </p>
+     * <p>
+     * A minimiser evaluates a term many times for one time-step, with the same
+     * current state vector and time-step size for every evaluation. Some of the
+     * work of the evaluation depends on only those values. This method enables a
+     * caller to do that part of the work once for each time-step, rather than for
+     * every evaluation. The computed value and gradient are the same as those
+     * computed by the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method.
+     * </p>
+     * <ul>
+     * <li>The method does not change the values of the {@code prepared},
+     * {@code state0} and {@code state} arrays.</li>
+     * <li>The method may change the values of the first
+     * {@linkplain #getWorkspaceLength() workspace length} elements of the
+     * {@code workspace} array.</li>
+     * <li>The default implementation ignores the prepared values and delegates to
+     * the {@link #evaluate(double[], double[], double[], double, double[])}
+     * method.</li>
+     * </ul>
+     *
+     * @param dedx
+     *            An array for accumulating the components of the gradient of the
+     *            error value.
+     * @param prepared
+     *            The values set by the
+     *            {@link #prepare(double[], double[], double)} method for the
+     *            given {@code state0} and {@code dt}.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param state
+     *            The components of the state vector of the physical system at the
+     *            future point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     * @param workspace
+     *            An array for temporary values.
+     * @return the value, which has dimensions of energy.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code dedx} is null.</li>
+     *             <li>If {@code prepared} is null and the prepared length is
+     *             positive.</li>
+     *             <li>If {@code state0} is null.</li>
+     *             <li>If {@code state} is null.</li>
+     *             <li>If {@code workspace} is null and the workspace length is
+     *             positive.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If {@code state0} and {@code state} have different
+     *             lengths.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             <li>If {@code prepared} is shorter than the
+     *             {@linkplain #getPreparedLength() prepared length}.</li>
+     *             <li>If {@code workspace} is shorter than the workspace
+     *             length.</li>
+     *             </ul>
+     * @throws RuntimeException
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}. For a typical implementation this would be an
+     *             {@link IndexOutOfBoundsException}, but it could be an
+     *             {@link IllegalArgumentException}.
+     */
+    public default double evaluatePrepared(final double[] dedx, final double[] prepared, final double[] state0,
+            final double[] state, final double dt, final double[] workspace) {
+        return evaluate(dedx, state0, state, dt, workspace);
+    }
+
+    /**
+     * <p>
+     * The minimum length of the work array that the
+     * {@link #evaluateBatch(double[], double[][], double[][], double[][], double, double[])}
+     * method requires, for a given number of bodies.
+     * </p>
+     * <p>
+     * This attribute must be <dfn>constant</dfn>: the value for a given object and
+     * number of bodies must always be the same value.
+     * </p>
+     * <ul>
+     * <li>The default implementation returns zero.</li>
+     * </ul>
+     *
+     * @param nBodies
+     *            The number of bodies in the batch.
+     * @return the length; not negative.
+     * @throws IllegalArgumentException
+     *             If {@code nBodies} is negative.
+     */
+    public default int getBatchWorkspaceLength(final int nBodies) {
+        if (nBodies < 0) {
+            throw new IllegalArgumentException("nBodies " + nBodies);
+        }
+        return 0;
+    }
+
+    /**
+     * <p>
+     * The <dfn>index footprint</dfn> of this term: the indices of the components
+     * of the state vector that this term uses.
+     * </p>
+     * <p>
+     * The {@linkplain #evaluate(double[], ImmutableVectorN, ImmutableVectorN, double)
+     * evaluation} of this term uses only these components of the state vectors,
+     * and adds only to these components of the gradient. A
+     * {@linkplain TimeStepEnergyErrorFunction function} can use the footprints of
+     * its terms to avoid processing components of the gradient that none of its
+     * terms changes.
+     * </p>
+     * <ul>
+     * <li>Always returns a (non null) footprint.</li>
+     * <li>The footprint is sorted in ascending order.</li>
+     * <li>The footprint does not contain duplicates.</li>
+     * <li>The footprint does not contain negative indices.</li>
+     * <li>The footprint of a term that is {@linkplain #isValidForDimension(int)
+     * valid} for the given number of variables does not contain indices that are
+     * greater than or equal to that number of variables.</li>
+     * <li>The returned array may be a newly created array.</li>
+     * <li>The default implementation returns all the indices of the state
+     * vector.</li>
+     * </ul>
+     *
+     * @param n
+     *            The number of variables of the state vector.
+     * @return the indices.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    public default int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        final int[] footprint = new int[n];
+        for (int i = 0; i < n; ++i) {
+            footprint[i] = i;
+        }
+        return footprint;
+    }
+
+    /**
+     * <p>
+     * The number of values that the
+     * {@link #prepare(double[], double[], double)} method sets.
+     * </p>
+     * <p>
+     * This attribute must be <dfn>constant</dfn>: the value for a given object must
+     * always be the same value.
+     * </p>
+     * <ul>
+     * <li>The default implementation returns zero.</li>
+     * </ul>
+     *
+     * @return the length; not negative.
+     */
+    public default int getPreparedLength() {
+        return 0;
+    }
+
+    /**
+     * <p>
+     * The minimum length of the work array that the
+     * {@link #evaluate(double[], double[], double[], double, double[])} method
+     * requires.
+     * </p>
+     * <p>
+     * This attribute must be <dfn>constant</dfn>: the value for a given object must
+     * always be the same value.
+     * </p>
+     * <ul>
+     * <li>The default implementation returns zero.</li>
+     * </ul>
+     *
+     * @return the length; not negative.
+     */
+    public default int getWorkspaceLength() {
+        return 0;
+    }
+
     /**
      * <p>
      * Whether this term can be calculated for a state vector that has a given
@@ -92,4 +590,87 @@ public interface TimeStepEnergyErrorFunctionTerm {
      */
     public boolean isValidForDimension(int n);
 
+    /**
+     * <p>
+     * Calculate the intermediate values of this term that depend on only the
+     * state vector at the current point in time and the size of the time-step,
+     * for use by the
+     * {@link #evaluatePrepared(double[], double[], double[], double[], double, double[])}
+     * method.
+     * </p>
+     * <ul>
+     * <li>The method sets the first {@linkplain #getPreparedLength() prepared
+     * length} elements of the {@code prepared} array.</li>
+     * <li>The method does not change the values of the {@code state0} array.</li>
+     * <li>The default implementation does nothing.</li>
+     * </ul>
+     *
+     * @param prepared
+     *            The array into which to write the prepared values.
+     * @param state0
+     *            The components of the state vector of the physical system at the
+     *            current point in time.
+     * @param dt
+     *            The size of the time-step; the difference between the future point
+     *            in time and the current point in time.
+     *
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code prepared} is null and the prepared length is
+     *             positive.</li>
+     *             <li>If {@code state0} is null and the prepared length is
+     *             positive.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isInfinite() finite}.</li>
+     *             <li>If this is not {@linkplain #isValidForDimension(int) valid}
+     *             for the length of {@code state0}.</li>
+     *             <li>If {@code prepared} is shorter than the prepared
+     *             length.</li>
+     *             </ul>
+     */
+    public default void prepare(final double[] prepared, final double[] state0, final double dt) {
+        // Do nothing
+    }
+
+    /**
+     * <p>
+     * Create a term that is equivalent to this term, but for a state vector
+     * that has its components at different positions.
+     * </p>
+     * <p>
+     * Component <var>i</var> of the state vector of this term is component
+     * {@code map[i]} of the state vector of the created term. Only the elements of
+     * {@code map} for the indices of the
+     * {@linkplain #getIndexFootprint(int) index footprint} of this term are used.
+     * A {@linkplain TimeStepEnergyErrorFunctionDecomposition decomposition} of a
+     * function uses this to evaluate each of its blocks using state vectors that
+     * have only the components of that block.
+     * </p>
+     * <ul>
+     * <li>Returns null if this term can not be remapped.</li>
+     * <li>The created term computes the same value as this term, for state
+     * vectors with the components at the mapped positions.</li>
+     * <li>The default implementation returns null.</li>
+     * </ul>
+     *
+     * @param map
+     *            The new position of each component of the state vector.
+     * @return the remapped term, or null.
+     * @throws NullPointerException
+     *             If {@code map} is null.
+     * @throws IllegalArgumentException
+     *             If any element of {@code map} for an index of the index
+     *             footprint is negative.
+     * @throws IndexOutOfBoundsException
+     *             If {@code map} is not long enough to contain the indices of the
+     *             index footprint.
+     */
+    public default TimeStepEnergyErrorFunctionTerm remap(final int[] map) {
+        Objects.requireNonNull(map, "map");
+        return null;
+    }
+
 }
\ No newline at end of file
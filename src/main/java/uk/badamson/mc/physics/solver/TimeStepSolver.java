@@ -0,0 +1,342 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Objects;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * A driver that solves a sequence of {@linkplain TimeStepEnergyErrorFunction
+ * time-steps} for a physical system, using the states found for previous
+ * time-steps to predict the initial guess for the next time-step.
+ * </p>
+ * <p>
+ * The {@linkplain TimeStepEnergyErrorFunction#getX0() current state} of a
+ * time-step is a poor initial guess for the state at the end of the time-step
+ * if the state is changing. This instead extrapolates a polynomial, of a given
+ * {@linkplain #getExtrapolationOrder() order}, through the most recently solved
+ * states. For smooth motions, the extrapolated state is close to the solution,
+ * so the {@linkplain LimitedMemoryBfgsMinimiser minimiser} needs fewer
+ * iterations to find the solution.
+ * </p>
+ * <p>
+ * The solver records the states it finds. For the extrapolation to be valid,
+ * the current state of the function for each time-step should be the state
+ * found for the previous time-step. If it is not, the solver discards the
+ * recorded states, and begins a new sequence of time-steps.
+ * </p>
+ */
+@NotThreadSafe
+public final class TimeStepSolver {
+
+    /**
+     * <p>
+     * The maximum {@linkplain #getExtrapolationOrder() extrapolation order}.
+     * </p>
+     */
+    public static final int MAX_EXTRAPOLATION_ORDER = 2;
+
+    private final int extrapolationOrder;
+    private final double tolerance;
+    private final LimitedMemoryBfgsMinimiser minimiser;
+
+    private final double[][] states;
+    private final double[] times;
+    private int nStates;
+    private int newest;
+
+    /**
+     * <p>
+     * Construct a solver for time-steps of a given dimension.
+     * </p>
+     *
+     * <section>
+     * <h1>Post Conditions</h1>
+     * <ul>
+     * <li>The constructed object has the given attribute values.</li>
+     * <li>The constructed object has no {@linkplain #getNumberOfSolvedStates()
+     * solved states}.</li>
+     * </ul>
+     * </section>
+     *
+     * @param dimension
+     *            The number of variables of the physical model.
+     * @param extrapolationOrder
+     *            The order of the polynomial through the previously solved states
+     *            used to predict the initial guess for the next time-step.
+     * @param historyLength
+     *            The {@linkplain LimitedMemoryBfgsMinimiser#getHistoryLength()
+     *            history length} of the minimiser used to solve each time-step.
+     * @param tolerance
+     *            The convergence tolerance of the minimiser.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dimension} is not positive.</li>
+     *             <li>If {@code extrapolationOrder} is negative.</li>
+     *             <li>If {@code extrapolationOrder} is greater than
+     *             {@value #MAX_EXTRAPOLATION_ORDER}.</li>
+     *             <li>If {@code historyLength} is not positive.</li>
+     *             <li>If {@code tolerance} is not in the range (0.0, 1.0).</li>
+     *             </ul>
+     */
+    public TimeStepSolver(final int dimension, final int extrapolationOrder, final int historyLength,
+            final double tolerance) {
+        if (extrapolationOrder < 0 || MAX_EXTRAPOLATION_ORDER < extrapolationOrder) {
+            throw new IllegalArgumentException("extrapolationOrder " + extrapolationOrder);
+        }
+        if (!(0.0 < tolerance && tolerance < 1.0)) {
+            throw new IllegalArgumentException("tolerance " + tolerance);
+        }
+        this.minimiser = new LimitedMemoryBfgsMinimiser(dimension, historyLength);
+        this.extrapolationOrder = extrapolationOrder;
+        this.tolerance = tolerance;
+        final int nRecord = extrapolationOrder + 1;
+        states = new double[nRecord][dimension];
+        times = new double[nRecord];
+        nStates = 0;
+        newest = nRecord - 1;
+    }
+
+    /**
+     * <p>
+     * The number of variables of the physical model.
+     * </p>
+     *
+     * @return the dimension; positive.
+     */
+    public final int getDimension() {
+        return minimiser.getDimension();
+    }
+
+    /**
+     * <p>
+     * The order of the polynomial through the previously solved states used to
+     * predict the initial guess for the next time-step.
+     * </p>
+     * <ul>
+     * <li>The extrapolation order is not negative.</li>
+     * <li>The extrapolation order is not greater than
+     * {@value #MAX_EXTRAPOLATION_ORDER}.</li>
+     * <li>An extrapolation order of 0 uses the current state as the initial
+     * guess.</li>
+     * </ul>
+     *
+     * @return the extrapolation order
+     */
+    public final int getExtrapolationOrder() {
+        return extrapolationOrder;
+    }
+
+    /**
+     * <p>
+     * The number of recorded states available for extrapolation.
+     * </p>
+     * <ul>
+     * <li>The number of solved states is not negative.</li>
+     * <li>The number of solved states does not exceed one more than the
+     * {@linkplain #getExtrapolationOrder() extrapolation order}.</li>
+     * </ul>
+     *
+     * @return the number of solved states.
+     */
+    public final int getNumberOfSolvedStates() {
+        return nStates;
+    }
+
+    /**
+     * <p>
+     * The convergence tolerance of the minimiser used to solve each time-step.
+     * </p>
+     *
+     * @return the tolerance; in the range (0.0, 1.0).
+     */
+    public final double getTolerance() {
+        return tolerance;
+    }
+
+    private boolean isNewestState(final ImmutableVectorN x0) {
+        if (nStates == 0) {
+            return false;
+        }
+        final double[] state = states[newest];
+        for (int i = 0, n = state.length; i < n; ++i) {
+            if (state[i] != x0.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Predict the state of the physical system a given time after the most
+     * recently recorded state.
+     * </p>
+     * <p>
+     * The prediction is the value at the given time of the Lagrange interpolating
+     * polynomial through the recorded states. The order of the polynomial is the
+     * smaller of the {@linkplain #getExtrapolationOrder() extrapolation order} and
+     * one less than the {@linkplain #getNumberOfSolvedStates() number of recorded
+     * states}.
+     * </p>
+     *
+     * @param dt
+     *            The time after the most recently recorded state.
+     * @param x
+     *            The array into which to write the components of the predicted
+     *            state.
+     * @throws NullPointerException
+     *             If {@code x} is null.
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If {@code dt} is not positive and
+     *             {@linkplain Double#isFinite(double) finite}.</li>
+     *             <li>If the length of {@code x} does not equal the
+     *             {@linkplain #getDimension() dimension} of this solver.</li>
+     *             </ul>
+     * @throws IllegalStateException
+     *             If this solver has no recorded states.
+     */
+    public final void predict(final double dt, @NonNull final double[] x) {
+        Objects.requireNonNull(x, "x");
+        if (!(0.0 < dt && Double.isFinite(dt))) {
+            throw new IllegalArgumentException("dt " + dt);
+        }
+        final int n = getDimension();
+        if (x.length != n) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+        if (nStates == 0) {
+            throw new IllegalStateException("No recorded states");
+        }
+
+        final int nRecord = times.length;
+        final int nPoints = Math.min(nStates, extrapolationOrder + 1);
+        final double t = times[newest] + dt;
+        for (int i = 0; i < n; ++i) {
+            x[i] = 0.0;
+        }
+        for (int p = 0; p < nPoints; ++p) {
+            final int rp = (newest + nRecord - p) % nRecord;
+            double w = 1.0;
+            for (int q = 0; q < nPoints; ++q) {
+                if (q != p) {
+                    final int rq = (newest + nRecord - q) % nRecord;
+                    w *= (t - times[rq]) / (times[rp] - times[rq]);
+                }
+            }
+            final double[] state = states[rp];
+            for (int i = 0; i < n; ++i) {
+                x[i] += w * state[i];
+            }
+        }
+    }
+
+    private void record(final double t, final double[] x) {
+        newest = (newest + 1) % times.length;
+        times[newest] = t;
+        System.arraycopy(x, 0, states[newest], 0, x.length);
+        nStates = Math.min(nStates + 1, times.length);
+    }
+
+    /**
+     * <p>
+     * Discard all the recorded states, so the next time-step begins a new
+     * sequence of time-steps.
+     * </p>
+     * <ul>
+     * <li>The solver has no {@linkplain #getNumberOfSolvedStates() solved
+     * states}.</li>
+     * </ul>
+     */
+    public final void reset() {
+        nStates = 0;
+    }
+
+    /**
+     * <p>
+     * Solve a time-step, finding the state of the physical system at the end of
+     * the time-step.
+     * </p>
+     * <p>
+     * If the {@linkplain TimeStepEnergyErrorFunction#getX0() current state} of the
+     * function is not the most recently solved state, the solver first
+     * {@linkplain #reset() discards} its recorded states and records the current
+     * state. The solver {@linkplain #predict(double, double[]) predicts} the
+     * state at the end of the time-step, uses that as the initial guess for
+     * {@linkplain LimitedMemoryBfgsMinimiser#minimise(TimeStepEnergyErrorFunction, double[], double)
+     * minimising} the function, and records the state found.
+     * </p>
+     * <ul>
+     * <li>The method writes the components of the state found into the given
+     * array.</li>
+     * <li>The state found is the most recently recorded state.</li>
+     * </ul>
+     *
+     * @param f
+     *            The function that calculates the physical modelling error of the
+     *            system at the end of the time-step.
+     * @param x
+     *            The array into which to write the components of the state found.
+     * @return The physical modelling error of the state found.
+     * @throws NullPointerException
+     *             <ul>
+     *             <li>If {@code f} is null.</li>
+     *             <li>If {@code x} is null.</li>
+     *             </ul>
+     * @throws IllegalArgumentException
+     *             <ul>
+     *             <li>If the {@linkplain TimeStepEnergyErrorFunction#getDimension()
+     *             dimension} of {@code f} does not equal the
+     *             {@linkplain #getDimension() dimension} of this solver.</li>
+     *             <li>If the length of {@code x} does not equal the dimension of
+     *             this solver.</li>
+     *             </ul>
+     */
+    public final double solve(@NonNull final TimeStepEnergyErrorFunction f, @NonNull final double[] x) {
+        Objects.requireNonNull(f, "f");
+        Objects.requireNonNull(x, "x");
+        final int n = getDimension();
+        if (f.getDimension() != n) {
+            throw new IllegalArgumentException("Inconsistent dimension of f " + f.getDimension());
+        }
+        if (x.length != n) {
+            throw new IllegalArgumentException("Inconsistent x.length " + x.length);
+        }
+
+        final ImmutableVectorN x0 = f.getX0();
+        if (!isNewestState(x0)) {
+            reset();
+            for (int i = 0; i < n; ++i) {
+                x[i] = x0.get(i);
+            }
+            record(0.0, x);
+        }
+        final double dt = f.getDt();
+        predict(dt, x);
+        final double e = minimiser.minimise(f, x, tolerance);
+        record(times[newest] + dt, x);
+        return e;
+    }
+
+}
@@ -57,7 +57,6 @@ public final class VersorError extends AbstractTimeStepEnergyErrorFunctionTerm {
      *             {@linkplain Double#isFinite(double) finite}.</li>
      *             <li>If {@code mass} is not a positive and
      *             {@linkplain Double#isFinite(double) finite}.</li>
-     *             <li>
      *             </ul>
      */
     public VersorError(final double length, final double mass, final QuaternionStateSpaceMapper quaternionMapper) {
@@ -66,14 +65,51 @@ public final class VersorError extends AbstractTimeStepEnergyErrorFunctionTerm {
         this.quaternionMapper = Objects.requireNonNull(quaternionMapper, "quaternionMapper");
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This reads the components of the quaternion directly from the state
+     * vector, and so does not allocate any objects; see
+     * {@link #evaluate(double[], double[], double[], double)}.
+     * </p>
+     *
+     * @param dedx
+     *            {@inheritDoc}
+     * @param state0
+     *            {@inheritDoc}
+     * @param state
+     *            {@inheritDoc}
+     * @param dt
+     *            {@inheritDoc}
+     * @return the value; not negative
+     *
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             If the length of {@code dedx} does not equal the
+     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
+     *             {@code state}.
+     */
+    @Override
+    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+            final double dt) {
+        super.evaluate(dedx, state0, state, dt);// check preconditions
+        final int index0 = quaternionMapper.getIndex0();
+        return evaluate(dedx, state.get(index0), state.get(index0 + 1), state.get(index0 + 2),
+                state.get(index0 + 3), dt);
+    }
+
     /**
      * {@inheritDoc}
      *
      * <ol>
      * <li>The method uses the {@linkplain #getQuaternionMapper() quaternion mapper}
-     * to extract from the given state vector the quaternion that ought to be a
-     * versor. The method uses only the state at teh future point in time; it
-     * ignores the state at the current point in time.</li>
+     * index to read from the given state vector the components of the quaternion
+     * that ought to be a versor. The method uses only the state at the future
+     * point in time; it ignores the state at the current point in time.</li>
      * <li>It computes the differences between the {@linkplain Quaternion#norm()
      * norm} (magnitude) of the quaternion and the unit norm.</li>
      * <li>Assuming that the quaternion is dimensionless, it converts that to a
@@ -84,9 +120,16 @@ public final class VersorError extends AbstractTimeStepEnergyErrorFunctionTerm {
      * <li>From that it calculates an equivalent kinetic energy error, using the
      * {@linkplain #getMass() characteristic mass value}. That is the error term it
      * returns.</li>
+     * <li>It adds the gradient of that error to the four quaternion components of
+     * {@code dedx}. The gradient points away from the unit sphere, and is zero if
+     * the quaternion is zero.</li>
      * </ol>
+     * <p>
+     * The method reads and writes the quaternion components directly, and so does
+     * not allocate any objects.
+     * </p>
      *
-     * @param dedState
+     * @param dedx
      *            {@inheritDoc}
      * @param state0
      *            {@inheritDoc}
@@ -94,35 +137,66 @@ public final class VersorError extends AbstractTimeStepEnergyErrorFunctionTerm {
      *            {@inheritDoc}
      * @param dt
      *            {@inheritDoc}
-     * @return the value
+     * @return the value; not negative
      *
      * @throws NullPointerException
      *             {@inheritDoc}
      * @throws IllegalArgumentException
      *             {@inheritDoc}
      * @throws IllegalArgumentException
-     *             If the length of {@code dedx} does not equal the
-     *             {@linkplain ImmutableVectorN#getDimension() dimension} of
-     *             {@code state}.
+     *             If the length of {@code dedx} does not equal the length of
+     *             {@code state0}.
      */
     @Override
-    public final double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+    public final double evaluate(final double[] dedx, final double[] state0, final double[] state,
             final double dt) {
-        super.evaluate(dedx, state0, state, dt);// check preconditions
+        requireEvaluationArguments(dedx, state0, state, dt);
+        final int index0 = quaternionMapper.getIndex0();
+        return evaluate(dedx, state[index0], state[index0 + 1], state[index0 + 2], state[index0 + 3], dt);
+    }
 
-        final Quaternion q = quaternionMapper.toObject(state);
-        final double n = q.norm();
-        final double ne = n - 1.0;// TODO smaller
+    private double evaluate(final double[] dedx, final double a, final double b, final double c, final double d,
+            final double dt) {
+        final double n2 = a * a + b * b + c * c + d * d;
+        final double n = Math.sqrt(n2);
+        final double ne = n - 1.0;// exact for n near 1
         final double ve = length * ne / dt;
-        final double deda2 = -mass * length * ve / (dt * n);// TODO sign
-
         final double e = 0.5 * mass * ve * ve;
-        final Quaternion dedq = q.scale(deda2);
-        quaternionMapper.fromObject(dedx, dedq);
+
+        if (0.0 < n) {
+            final double dedqn = mass * length * ve / (dt * n);
+            final int index0 = quaternionMapper.getIndex0();
+            dedx[index0] += dedqn * a;
+            dedx[index0 + 1] += dedqn * b;
+            dedx[index0 + 2] += dedqn * c;
+            dedx[index0 + 3] += dedqn * d;
+        }
 
         return e;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The footprint consists of the components of the quaternion.
+     * </p>
+     *
+     * @param n
+     *            {@inheritDoc}
+     * @return {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     */
+    @Override
+    public final int[] getIndexFootprint(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        final int index0 = quaternionMapper.getIndex0();
+        return new int[] { index0, index0 + 1, index0 + 2, index0 + 3 };
+    }
+
     /**
      * <p>
      * A reference length scale.
@@ -174,13 +248,54 @@ public final class VersorError extends AbstractTimeStepEnergyErrorFunctionTerm {
     }
 
     /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The term is valid if, and only if, all the components of the quaternion
+     * are within the state vector.
+     * </p>
+     *
      * @param n
-     * @return
+     *            {@inheritDoc}
+     * @return whether valid.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not positive.
+     */
+    @Override
+    public final boolean isValidForDimension(final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n " + n);
+        }
+        return quaternionMapper.getIndex0() + 3 < n;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The remapped term has the same attributes as this term, except for its
+     * state-space mappers. It can be created only if the state vector components
+     * of each mapper remain contiguous and in the same order.
+     * </p>
+     *
+     * @param map
+     *            {@inheritDoc}
+     * @return the remapped term, or null if the components of the quaternion would
+     *         not be contiguous.
+     * @throws NullPointerException
+     *             {@inheritDoc}
+     * @throws IllegalArgumentException
+     *             {@inheritDoc}
+     * @throws IndexOutOfBoundsException
+     *             {@inheritDoc}
      */
     @Override
-    public boolean isValidForDimension(final int n) {
-        // TODO Auto-generated method stub
-        return false;
+    public final VersorError remap(final int[] map) {
+        final int quaternionTerm = remapContiguousTermIndex(quaternionMapper.getIndex0(), 4, map);
+        if (quaternionTerm < 0) {
+            return null;
+        }
+        return new VersorError(length, mass, new QuaternionStateSpaceMapper(quaternionTerm));
     }
 
 }
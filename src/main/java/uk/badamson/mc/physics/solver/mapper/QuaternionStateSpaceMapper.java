@@ -80,6 +80,21 @@ public final class QuaternionStateSpaceMapper implements ObjectStateSpaceMapper<
         state[index0 + 3] = object.getD();
     }
 
+    /**
+     * <p>
+     * The indexes origin: the position in the state-space vector of the real
+     * component of the quaternion.
+     * </p>
+     * <ul>
+     * <li>The indexes origin is not negative.</li>
+     * </ul>
+     *
+     * @return the index of the real component.
+     */
+    public final int getIndex0() {
+        return index0;
+    }
+
     /**
      * {@inheritDoc}
      * <ul>
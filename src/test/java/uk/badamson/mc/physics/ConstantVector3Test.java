@@ -79,6 +79,27 @@ public class ConstantVector3Test {
 
     }// class
 
+    @Nested
+    public class Sample {
+
+        @Test
+        public void a() {
+            test(V_1, T_1, Duration.ofSeconds(1), 3);
+        }
+
+        @Test
+        public void empty() {
+            test(V_2, T_2, Duration.ofSeconds(1), 0);
+        }
+
+        private void test(final ImmutableVector3 value, final Duration start, final Duration step,
+                final int count) {
+            final ConstantVector3 v = new ConstantVector3(value);
+            TimeVaryingVector3Test.sample(v, start, step, count);
+            assertInvariants(v);
+        }
+    }// class
+
     private static final Duration T_1 = TimeVaryingScalarTest.T_1;
 
     private static final Duration T_2 = TimeVaryingScalarTest.T_2;
@@ -0,0 +1,217 @@
+package uk.badamson.mc.physics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVector3;
+
+/**
+ * <p>
+ * Unit tests for the {@link HarmonicTimeBasis} class.
+ * </p>
+ */
+public class HarmonicTimeBasisTest {
+
+    @Nested
+    public class Constructor {
+
+        @Test
+        public void a() {
+            test(Duration.ofSeconds(1), 0.5, 2.0);
+        }
+
+        @Test
+        public void b() {
+            test(Duration.ofSeconds(-3), -1.0, 0.0);
+        }
+
+        private void test(final Duration t0, final double we, final double wh) {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(t0, we, wh);
+
+            assertInvariants(basis);
+            assertSame(t0, basis.getT0(), "t0");
+            assertEquals(we, basis.getWe(), "we");
+            assertEquals(wh, basis.getWh(), "wh");
+            assertNull(basis.getTime(), "time");
+            assertThrows(IllegalStateException.class, () -> basis.getTau(), "No basis function values");
+        }
+    }// class
+
+    @Nested
+    public class IsBasisOf {
+
+        @Test
+        public void differentT0() {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final HarmonicVector3 f = new HarmonicVector3(T_2, V_1, V_1, V_1, V_1, V_1, 0.5, 2.0);
+
+            assertFalse(basis.isBasisOf(f), "Not basis");
+            assertThrows(IllegalArgumentException.class, () -> f.at(basis));
+        }
+
+        @Test
+        public void differentWe() {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final HarmonicScalar f = new HarmonicScalar(T_1, 1, 2, 3, 4, 5, 0.75, 2.0);
+
+            assertFalse(basis.isBasisOf(f), "Not basis");
+            assertThrows(IllegalArgumentException.class, () -> f.at(basis));
+        }
+
+        @Test
+        public void differentWh() {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final HarmonicVector3 f = new HarmonicVector3(T_1, V_1, V_1, V_1, V_1, V_1, 0.5, 3.0);
+
+            assertFalse(basis.isBasisOf(f), "Not basis");
+        }
+
+        @Test
+        public void same() {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final HarmonicVector3 f = new HarmonicVector3(Duration.ofSeconds(1), V_1, V_1, V_1, V_1, V_1, 0.5, 2.0);
+
+            assertTrue(basis.isBasisOf(f), "Basis");
+        }
+    }// class
+
+    @Nested
+    public class SecondsSince {
+
+        @Test
+        public void borrow() {
+            test(Duration.ofSeconds(3, 1), Duration.ofSeconds(1, 999_999_999));
+        }
+
+        @Test
+        public void negative() {
+            test(Duration.ofMillis(-1500), T_2);
+        }
+
+        @Test
+        public void negativeOrigin() {
+            test(Duration.ofNanos(7), Duration.ofNanos(-1_000_000_003));
+        }
+
+        @Test
+        public void same() {
+            test(T_1, T_1);
+        }
+
+        @Test
+        public void simple() {
+            test(Duration.ofMillis(2500), T_1);
+        }
+
+        private void test(final Duration t, final Duration t0) {
+            final Duration d = t.minus(t0);
+            final double expected = d.getSeconds() + 1E-9 * d.getNano();
+
+            assertEquals(expected, HarmonicTimeBasis.secondsSince(t, t0), "Duration");
+            assertEquals(expected, HarmonicTimeBasis.secondsSince(t.toNanos(), t0), "nanoseconds");
+        }
+    }// class
+
+    @Nested
+    public class SetTime {
+
+        @Test
+        public void a() {
+            test(T_1, 0.5, 2.0, Duration.ofMillis(2500));
+        }
+
+        @Test
+        public void b() {
+            test(T_2, -0.25, 3.0, Duration.ofNanos(1000000001));
+        }
+
+        @Test
+        public void repeated() {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final Duration t = Duration.ofSeconds(4);
+            basis.setTime(t);
+            final double expCos = basis.getExpCos();
+
+            basis.setTime(Duration.ofSeconds(4));
+
+            assertInvariants(basis);
+            assertEquals(expCos, basis.getExpCos(), "expCos");
+        }
+
+        @Test
+        public void scalar() {
+            final HarmonicScalar f = new HarmonicScalar(T_1, 1, 2, 3, 4, 5, 0.5, 2.0);
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(T_1, 0.5, 2.0);
+            final Duration t = Duration.ofMillis(300);
+
+            basis.setTime(t);
+
+            assertEquals(f.at(t), f.at(basis), "Same value as direct evaluation");
+        }
+
+        private void test(final Duration t0, final double we, final double wh, final Duration t) {
+            final HarmonicTimeBasis basis = new HarmonicTimeBasis(t0, we, wh);
+            final HarmonicVector3 f = new HarmonicVector3(t0, V_1, V_2, V_3, V_4, V_5, we, wh);
+
+            basis.setTime(t);
+
+            assertInvariants(basis);
+            assertSame(t, basis.getTime(), "time");
+            final double ts = 1E-9 * t.minus(t0).toNanos();
+            final double precision = 1E-12;
+            assertEquals(we * ts, basis.getTau(), precision, "tau");
+            assertEquals(we * ts * we * ts, basis.getTau2(), precision, "tau2");
+            assertEquals(Math.exp(we * ts) * Math.cos(wh * ts), basis.getExpCos(), precision, "expCos");
+            assertEquals(Math.exp(we * ts) * Math.sin(wh * ts), basis.getExpSin(), precision, "expSin");
+            assertEquals(f.at(t), f.at(basis), "Same value as direct evaluation");
+            final double[] result = { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+            f.at(basis, result, 1);
+            assertEquals(f.at(t), ImmutableVector3.create(result[1], result[2], result[3]),
+                    "Same value placed in array");
+            assertTrue(Double.isNaN(result[0]), "Does not write before offset");
+        }
+    }// class
+
+    private static final Duration T_1 = Duration.ofSeconds(1);
+    private static final Duration T_2 = Duration.ofSeconds(2);
+    private static final ImmutableVector3 V_1 = ImmutableVector3.I;
+    private static final ImmutableVector3 V_2 = ImmutableVector3.J;
+    private static final ImmutableVector3 V_3 = ImmutableVector3.K;
+    private static final ImmutableVector3 V_4 = ImmutableVector3.create(1, 2, 3);
+    private static final ImmutableVector3 V_5 = ImmutableVector3.create(4, 3, 2);
+
+    public static void assertInvariants(final HarmonicTimeBasis basis) {
+        ObjectTest.assertInvariants(basis);// inherited
+
+        assertNotNull(basis.getT0(), "Not null, t0");
+    }
+}
@@ -0,0 +1,272 @@
+package uk.badamson.mc.physics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVector3;
+
+/**
+ * <p>
+ * Unit tests for the {@link HarmonicVector3Array} class.
+ * </p>
+ */
+public class HarmonicVector3ArrayTest {
+
+    @Nested
+    public class At {
+
+        @Test
+        public void empty() {
+            final HarmonicVector3Array array = new HarmonicVector3Array(0);
+
+            at(array, T_1);
+        }
+
+        @Test
+        public void negativeTime() {
+            at(create(), Duration.ofMillis(-2750));
+        }
+
+        @Test
+        public void nonIntegralTime() {
+            at(create(), Duration.ofNanos(3_000_000_017L));
+        }
+
+        @Test
+        public void origin() {
+            at(create(), T_1);
+        }
+
+        @Test
+        public void tooShort() {
+            final HarmonicVector3Array array = create();
+
+            assertThrows(IndexOutOfBoundsException.class, () -> array.at(T_1, new double[9], 1));
+            assertThrows(IndexOutOfBoundsException.class, () -> array.atNanos(0L, new double[9], 1));
+        }
+    }// class
+
+    @Nested
+    public class Constructor {
+
+        @Test
+        public void empty() {
+            constructor(0);
+        }
+
+        @Test
+        public void negative() {
+            assertThrows(IllegalArgumentException.class, () -> new HarmonicVector3Array(-1));
+        }
+
+        @Test
+        public void several() {
+            constructor(3);
+        }
+    }// class
+
+    @Nested
+    public class Element {
+
+        @Test
+        public void changed() {
+            final HarmonicVector3Array array = create();
+
+            set(array, 1, V_1);
+
+            assertEquals(V_1.at(T_2), at(array, 1, T_2), "Value reflects the changed element");
+        }
+
+        @Test
+        public void outOfBounds() {
+            final HarmonicVector3Array array = create();
+
+            assertThrows(IndexOutOfBoundsException.class, () -> array.at(3, T_1));
+            assertThrows(IndexOutOfBoundsException.class, () -> array.atNanos(-1, 0L));
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> array.sample(3, T_1, Duration.ofMillis(125), 1, new double[3], 0));
+        }
+
+        @Test
+        public void sample() {
+            final HarmonicVector3Array array = create();
+
+            HarmonicVector3ArrayTest.sample(array, 2, Duration.ofMillis(-500), Duration.ofMillis(125), 100);
+        }
+
+        @Test
+        public void value() {
+            final HarmonicVector3Array array = create();
+
+            for (int j = 0; j < array.getSize(); ++j) {
+                final ImmutableVector3 expected = array.get(j).at(T_2);
+
+                assertEquals(expected, at(array, j, T_2), "Same value as the element");
+            }
+        }
+    }// class
+
+    @Nested
+    public class Set {
+
+        @Test
+        public void outOfBounds() {
+            final HarmonicVector3Array array = new HarmonicVector3Array(2);
+
+            assertThrows(IndexOutOfBoundsException.class, () -> array.set(2, V_1));
+        }
+
+        @Test
+        public void overwrite() {
+            final HarmonicVector3Array array = create();
+
+            set(array, 0, V_3);
+        }
+
+        @Test
+        public void several() {
+            create();
+        }
+    }// class
+
+    private static final Duration T_1 = Duration.ofSeconds(1);
+    private static final Duration T_2 = Duration.ofMillis(2500);
+
+    private static final HarmonicVector3 V_1 = new HarmonicVector3(T_1, ImmutableVector3.I, ImmutableVector3.J,
+            ImmutableVector3.K, ImmutableVector3.create(1, 2, 3), ImmutableVector3.create(4, 3, 2), 0.5, 2.0);
+    private static final HarmonicVector3 V_2 = new HarmonicVector3(Duration.ofNanos(-1_000_000_003L),
+            ImmutableVector3.create(-1, 0, 2), ImmutableVector3.ZERO, ImmutableVector3.create(0.25, 0, 0),
+            ImmutableVector3.J, ImmutableVector3.K, -0.25, 3.0);
+    private static final HarmonicVector3 V_3 = new HarmonicVector3(Duration.ofSeconds(7, 123), ImmutableVector3.K,
+            ImmutableVector3.I, ImmutableVector3.ZERO, ImmutableVector3.create(2, -1, 1), ImmutableVector3.I, 0.0,
+            1.5);
+
+    public static void assertInvariants(final HarmonicVector3Array array) {
+        ObjectTest.assertInvariants(array);// inherited
+
+        final int size = array.getSize();
+        assertTrue(0 <= size, "size not negative");
+        for (int j = 0; j < size; ++j) {
+            final HarmonicVector3 v = array.get(j);
+            assertNotNull(v, "Not null, element");
+            assertEquals(v.getT0(), array.getT0(j), "t0");
+            assertEquals(v.getWe(), array.getWe(j), "we");
+            assertEquals(v.getWh(), array.getWh(j), "wh");
+        }
+    }
+
+    private static double[] at(final HarmonicVector3Array array, final Duration t) {
+        final int size = array.getSize();
+        final double[] result = new double[1 + 3 * size + 1];
+        result[0] = Double.NaN;
+        result[result.length - 1] = Double.NaN;
+        final double[] resultNanos = new double[3 * size];
+
+        array.at(t, result, 1);
+        array.atNanos(t.toNanos(), resultNanos, 0);
+
+        assertInvariants(array);
+        assertTrue(Double.isNaN(result[0]), "Does not write before the offset");
+        assertTrue(Double.isNaN(result[result.length - 1]), "Does not write after the last vector");
+        for (int j = 0; j < size; ++j) {
+            final ImmutableVector3 expected = array.get(j).at(t);
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(expected.get(i), result[1 + 3 * j + i], "Same value as the element [" + j + "," + i + "]");
+                assertEquals(expected.get(i), resultNanos[3 * j + i],
+                        "Same value for the time expressed in nanoseconds [" + j + "," + i + "]");
+            }
+        }
+        return result;
+    }
+
+    private static ImmutableVector3 at(final HarmonicVector3Array array, final int index, final Duration t) {
+        final ImmutableVector3 result = array.at(index, t);
+
+        assertInvariants(array);
+        assertNotNull(result, "Not null, result");
+        assertEquals(result, array.atNanos(index, t.toNanos()), "Same value for the time expressed in nanoseconds");
+
+        return result;
+    }
+
+    private static HarmonicVector3Array constructor(final int size) {
+        final HarmonicVector3Array array = new HarmonicVector3Array(size);
+
+        assertInvariants(array);
+        assertEquals(size, array.getSize(), "size");
+        for (int j = 0; j < size; ++j) {
+            final HarmonicVector3 v = array.get(j);
+            assertEquals(Duration.ZERO, v.getT0(), "t0 [" + j + "]");
+            assertEquals(ImmutableVector3.ZERO, v.at(T_2), "Zero [" + j + "]");
+        }
+
+        return array;
+    }
+
+    private static HarmonicVector3Array create() {
+        final HarmonicVector3Array array = new HarmonicVector3Array(3);
+        set(array, 0, V_1);
+        set(array, 1, V_2);
+        set(array, 2, V_3);
+        return array;
+    }
+
+    private static void sample(final HarmonicVector3Array array, final int index, final Duration start,
+            final Duration step, final int count) {
+        final double[] expected = TimeVaryingVector3Test.sample(array.get(index), start, step, count);
+        final double[] result = new double[expected.length];
+        result[0] = Double.NaN;
+        result[result.length - 1] = Double.NaN;
+
+        array.sample(index, start, step, count, result, 1);
+
+        assertInvariants(array);
+        assertArrayEquals(expected, result, "Same values as the element");
+    }
+
+    private static void set(final HarmonicVector3Array array, final int index, final HarmonicVector3 v) {
+        final int size = array.getSize();
+        final HarmonicVector3[] before = new HarmonicVector3[size];
+        for (int j = 0; j < size; ++j) {
+            before[j] = array.get(j);
+        }
+
+        array.set(index, v);
+
+        assertInvariants(array);
+        assertEquals(size, array.getSize(), "size unchanged");
+        assertEquals(v, array.get(index), "Element is the given vector");
+        for (int j = 0; j < size; ++j) {
+            if (j != index) {
+                assertEquals(before[j], array.get(j), "Other element unchanged [" + j + "]");
+            }
+        }
+    }
+}
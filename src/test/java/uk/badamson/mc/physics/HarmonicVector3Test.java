@@ -833,6 +833,35 @@ public class HarmonicVector3Test {
         }
     }// class
 
+    @Nested
+    public class Sample {
+
+        @Test
+        public void backwards() {
+            test(new HarmonicVector3(T_2, V_1, V_2, V_3, V_4, V_5, -0.3, 5.0), T_3, Duration.ofMillis(-7), 300);
+        }
+
+        @Test
+        public void decaying() {
+            test(new HarmonicVector3(T_1, V_1, V_2, V_3, V_4, V_5, -0.5, 3.0), T_2, Duration.ofMillis(10), 1000);
+        }
+
+        @Test
+        public void growing() {
+            test(new HarmonicVector3(T_1, V_6, V_5, V_4, V_3, V_2, 0.1, 11.0), T_1, Duration.ofMillis(3), 2000);
+        }
+
+        @Test
+        public void one() {
+            test(new HarmonicVector3(T_1, V_1, V_2, V_3, V_4, V_5, 0.5, 2.0), T_3, Duration.ofSeconds(1), 1);
+        }
+
+        private void test(final HarmonicVector3 v, final Duration start, final Duration step, final int count) {
+            TimeVaryingVector3Test.sample(v, start, step, count);
+            assertInvariants(v);
+        }
+    }// class
+
     private static final Duration T_1 = TimeVaryingScalarTest.T_1;
 
     private static final Duration T_2 = TimeVaryingScalarTest.T_2;
@@ -18,8 +18,12 @@ package uk.badamson.mc.physics;
  * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 import java.time.Duration;
 
+import org.junit.jupiter.api.Test;
+
 /**
  * <p>
  * Auxiliary test code for classes that implement the {@link TimeVaryingScalar}
@@ -49,7 +53,15 @@ public class TimeVaryingScalarTest {
         final double result = s.at(t);
 
         assertInvariants(s);
+        assertEquals(result, s.atNanos(t.toNanos()), "Same value for the time expressed in nanoseconds");
 
         return result;
     }
+
+    @Test
+    public void atNanos_default() {
+        final TimeVaryingScalar s = t -> t.toMillis();
+
+        assertEquals(2500.0, s.atNanos(2_500_000_000L), "value");
+    }
 }
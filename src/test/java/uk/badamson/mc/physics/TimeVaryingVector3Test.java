@@ -18,10 +18,15 @@ package uk.badamson.mc.physics;
  * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
 
+import org.junit.jupiter.api.Test;
+
 import uk.badamson.mc.math.ImmutableVector3;
 
 /**
@@ -54,7 +59,60 @@ public class TimeVaryingVector3Test {
 
         assertInvariants(v);
         assertNotNull(result, "Not null, result");
+        assertEquals(result, v.atNanos(t.toNanos()), "Same value for the time expressed in nanoseconds");
+
+        return result;
+    }
+
+    public static double[] sample(final TimeVaryingVector3 v, final Duration start, final Duration step,
+            final int count) {
+        final double[] result = new double[1 + 3 * count + 1];
+        result[0] = Double.NaN;
+        result[result.length - 1] = Double.NaN;
 
+        v.sample(start, step, count, result, 1);
+
+        assertInvariants(v);
+        assertTrue(Double.isNaN(result[0]), "Does not write before the offset");
+        assertTrue(Double.isNaN(result[result.length - 1]), "Does not write after the last vector");
+        for (int k = 0; k < count; ++k) {
+            final ImmutableVector3 expected = v.at(start.plus(step.multipliedBy(k)));
+            for (int i = 0; i < 3; ++i) {
+                final double e = expected.get(i);
+                assertEquals(e, result[1 + 3 * k + i], 1E-9 * (1.0 + Math.abs(e)),
+                        "Sample " + k + " component " + i + " is the value at that time");
+            }
+        }
         return result;
     }
+
+    @Test
+    public void atNanos_default() {
+        final TimeVaryingVector3 v = t -> ImmutableVector3.create(t.toMillis(), 1.0, -t.toMillis());
+
+        assertEquals(ImmutableVector3.create(2500, 1, -2500), v.atNanos(2_500_000_000L), "value");
+    }
+
+    @Test
+    public void sample_default() {
+        final TimeVaryingVector3 v = t -> ImmutableVector3.create(t.toMillis(), 1.0, -t.toMillis());
+
+        sample(v, Duration.ofSeconds(1), Duration.ofMillis(250), 7);
+    }
+
+    @Test
+    public void sample_negativeCount() {
+        final TimeVaryingVector3 v = t -> ImmutableVector3.I;
+
+        assertThrows(IllegalArgumentException.class,
+                () -> v.sample(Duration.ZERO, Duration.ofSeconds(1), -1, new double[3], 0));
+    }
+
+    @Test
+    public void sample_tooShort() {
+        final TimeVaryingVector3 v = t -> ImmutableVector3.I;
+
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> v.sample(Duration.ZERO, Duration.ofSeconds(1), 2, new double[6], 1));
+    }
 }
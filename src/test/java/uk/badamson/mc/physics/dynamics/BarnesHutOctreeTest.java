@@ -0,0 +1,125 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link BarnesHutOctree}.
+ * </p>
+ */
+public class BarnesHutOctreeTest {
+
+    public static void assertInvariants(final BarnesHutOctree tree) {
+        ObjectTest.assertInvariants(tree);// inherited
+
+        final int nParticles = tree.getNumberOfParticles();
+        final int nNodes = tree.getNumberOfNodes();
+
+        assertTrue(0 <= nParticles, "numberOfParticles not negative");
+        assertEquals(0 < nParticles, 0 < nNodes, "Has nodes if, and only if, has particles");
+        final boolean[] found = new boolean[nParticles];
+        for (int a = 0; a < nParticles; ++a) {
+            final int j = tree.getParticle(a);
+            assertTrue(0 <= j && j < nParticles, "Particle order holds particle indices");
+            assertTrue(!found[j], "Particle order does not repeat particles");
+            found[j] = true;
+        }
+        int nLeafParticles = 0;
+        for (int node = 0; node < nNodes; ++node) {
+            if (tree.isLeaf(node)) {
+                nLeafParticles += tree.end[node] - tree.start[node];
+            }
+            assertTrue(tree.start[node] < tree.end[node], "Nodes are not empty");
+        }
+        assertEquals(nParticles, nLeafParticles, "Each particle is in exactly one leaf");
+    }
+
+    private static BarnesHutOctree constructor(final double[] state) {
+        final int[] positionTerm = new int[state.length];
+        for (int k = 0; k < state.length; ++k) {
+            positionTerm[k] = k;
+        }
+
+        final BarnesHutOctree tree = new BarnesHutOctree(positionTerm, state);
+
+        assertInvariants(tree);
+        assertEquals(state.length / 3, tree.getNumberOfParticles(), "numberOfParticles");
+
+        return tree;
+    }
+
+    @Test
+    public void constructor_0() {
+        constructor(new double[0]);
+    }
+
+    @Test
+    public void constructor_1() {
+        final BarnesHutOctree tree = constructor(new double[] { 1.0, 2.0, 3.0 });
+
+        assertEquals(1, tree.getNumberOfNodes(), "numberOfNodes");
+        assertTrue(tree.isLeaf(0), "Root is a leaf");
+    }
+
+    @Test
+    public void constructor_coincident() {
+        final double[] state = new double[3 * 20];
+        for (int k = 0; k < state.length; ++k) {
+            state[k] = 1.0;
+        }
+
+        constructor(state);
+    }
+
+    @Test
+    public void constructor_inconsistentLength() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new BarnesHutOctree(new int[] { 0, 1 }, new double[] { 0.0, 0.0 }));
+    }
+
+    @Test
+    public void constructor_nonFinite() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new BarnesHutOctree(new int[] { 0, 1, 2 }, new double[] { 0.0, Double.NaN, 0.0 }));
+    }
+
+    @Test
+    public void constructor_random() {
+        final Random random = new Random(23L);
+        final double[] state = new double[3 * 500];
+        for (int k = 0; k < state.length; ++k) {
+            state[k] = random.nextGaussian();
+        }
+
+        final BarnesHutOctree tree = constructor(state);
+
+        assertTrue(1 < tree.getNumberOfNodes(), "Divides space");
+    }
+
+}
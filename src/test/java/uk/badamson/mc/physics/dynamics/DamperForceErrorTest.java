@@ -0,0 +1,188 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionResidualTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link DamperForceError}.
+ * </p>
+ */
+public class DamperForceErrorTest {
+
+    /*
+     * State vector for 2D tests: velocity 1, velocity 2, force.
+     */
+    private static final int[] VELOCITY_1 = { 0, 1 };
+    private static final int[] VELOCITY_2 = { 2, 3 };
+    private static final int[] FORCE = { 4, 5 };
+
+    public static void assertInvariants(final DamperForceError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+        TimeStepEnergyErrorFunctionResidualTermTest.assertInvariants(term);// inherited
+
+        final int spaceDimension = term.getSpaceDimension();
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("massReference", term.getMassReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("timeReference", term.getTimeReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("dampingCoefficient",
+                term.getDampingCoefficient());
+        assertTrue(0 < spaceDimension, "spaceDimension is positive");
+        assertEquals(spaceDimension, term.getNumberOfResiduals(), "numberOfResiduals");
+        for (int i = 0; i < spaceDimension; ++i) {
+            assertTrue(0 <= term.getVelocityTerm1(i), "velocityTerm1 is not negative");
+            assertTrue(0 <= term.getVelocityTerm2(i), "velocityTerm2 is not negative");
+            assertTrue(0 <= term.getForceTerm(i), "forceTerm is not negative");
+        }
+    }
+
+    public static void assertInvariants(final DamperForceError term1, final DamperForceError term2) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term1, term2);// inherited
+    }
+
+    private static DamperForceError constructor(final double massReference, final double timeReference,
+            final double dampingCoefficient, final int[] velocityTerm1, final int[] velocityTerm2,
+            final int[] forceTerm) {
+        final DamperForceError term = new DamperForceError(massReference, timeReference, dampingCoefficient,
+                velocityTerm1, velocityTerm2, forceTerm);
+
+        assertInvariants(term);
+        assertEquals(massReference, term.getMassReference(), Double.MIN_NORMAL, "massReference");
+        assertEquals(timeReference, term.getTimeReference(), Double.MIN_NORMAL, "timeReference");
+        assertEquals(dampingCoefficient, term.getDampingCoefficient(), Double.MIN_NORMAL, "dampingCoefficient");
+        assertEquals(forceTerm.length, term.getSpaceDimension(), "spaceDimension");
+        for (int i = 0; i < forceTerm.length; ++i) {
+            assertEquals(velocityTerm1[i], term.getVelocityTerm1(i), "velocityTerm1[" + i + "]");
+            assertEquals(velocityTerm2[i], term.getVelocityTerm2(i), "velocityTerm2[" + i + "]");
+            assertEquals(forceTerm[i], term.getForceTerm(i), "forceTerm[" + i + "]");
+        }
+
+        return term;
+    }
+
+    private static double evaluate(final DamperForceError term, final double[] dedx, final double[] x) {
+        final double e = AbstractTimeStepEnergyErrorFunctionTermTest.evaluate(term, dedx,
+                ImmutableVectorN.create0(x.length), ImmutableVectorN.create(x), 1.0);
+
+        assertInvariants(term);
+        assertTrue(0.0 <= e, "Value is not negative");
+
+        return e;
+    }
+
+    private static void evaluate_gradient(final double massReference, final double timeReference,
+            final double dampingCoefficient, final double[] x) {
+        final int n = x.length;
+        final DamperForceError term = new DamperForceError(massReference, timeReference, dampingCoefficient,
+                VELOCITY_1, VELOCITY_2, FORCE);
+        final double[] dedx = new double[n];
+        final double h = 1E-6;
+
+        evaluate(term, dedx, x);
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, new double[n], x, 1.0, h,
+                1E-6);
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, new double[n], x, 1.0, h);
+    }
+
+    @Test
+    public void constructor_1() {
+        constructor(1.0, 1.0, 1.0, new int[] { 0 }, new int[] { 1 }, new int[] { 2 });
+    }
+
+    @Test
+    public void constructor_2() {
+        constructor(2.0, 3.0, 5.0, VELOCITY_1, VELOCITY_2, FORCE);
+    }
+
+    @Test
+    public void constructor_inconsistentLengths() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DamperForceError(1.0, 1.0, 1.0, VELOCITY_1, new int[] { 2 }, FORCE));
+    }
+
+    @Test
+    public void evaluate_consistent() {
+        final DamperForceError term = new DamperForceError(1.0, 1.0, 2.0, VELOCITY_1, VELOCITY_2, FORCE);
+        final double[] dedx = new double[6];
+
+        final double e = evaluate(term, dedx, new double[] { 1.0, 2.0, 3.0, 1.0, 4.0, -2.0 });
+
+        assertEquals(0.0, e, 1E-12, "e");
+    }
+
+    @Test
+    public void evaluate_gradientA() {
+        evaluate_gradient(1.0, 1.0, 1.0, new double[] { 0.1, -0.3, 1.7, 0.9, 0.4, -0.2 });
+    }
+
+    @Test
+    public void evaluate_gradientB() {
+        evaluate_gradient(2.0, 3.0, 5.0, new double[] { -1.0, 2.0, 0.5, 1.5, 3.0, -7.0 });
+    }
+
+    @Test
+    public void evaluate_noForce() {
+        final double massReference = 2.0;
+        final double timeReference = 3.0;
+        final DamperForceError term = new DamperForceError(massReference, timeReference, 2.0, VELOCITY_1,
+                VELOCITY_2, FORCE);
+        final double[] dedx = new double[6];
+
+        final double e = evaluate(term, dedx, new double[] { 0.0, 0.0, 1.0, 0.0, 0.0, 0.0 });
+
+        final double scale = timeReference * timeReference / massReference;
+        assertEquals(0.5 * scale * 4.0, e, 1E-12, "e");
+        assertEquals(-2.0 * scale, dedx[4], 1E-12, "dedx[force x]");
+    }
+
+    @Test
+    public void isValidForDimension() {
+        final DamperForceError term = new DamperForceError(1.0, 1.0, 1.0, VELOCITY_1, VELOCITY_2, FORCE);
+
+        assertTrue(term.isValidForDimension(6), "Valid for dimension just large enough");
+        assertFalse(term.isValidForDimension(5), "Not valid for dimension too small");
+    }
+
+    @Test
+    public void remap() {
+        final DamperForceError term = new DamperForceError(2.0, 3.0, 5.0, new int[] { 1, 3 }, new int[] { 5, 7 },
+                new int[] { 9, 11 });
+
+        final DamperForceError remapped = (DamperForceError) TimeStepEnergyErrorFunctionTermTest.remap(term, 13,
+                1.0);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getVelocityTerm1(0), "velocityTerm1[0]");
+        assertEquals(2, remapped.getVelocityTerm2(0), "velocityTerm2[0]");
+        assertEquals(5, remapped.getForceTerm(1), "forceTerm[1]");
+    }
+
+}
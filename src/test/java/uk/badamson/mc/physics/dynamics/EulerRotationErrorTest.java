@@ -0,0 +1,249 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.mapper.ImmutableVector3StateSpaceMapper;
+import uk.badamson.mc.physics.solver.mapper.QuaternionStateSpaceMapper;
+
+/**
+ * <p>
+ * Unit tests for the class {@link EulerRotationError}.
+ * </p>
+ */
+public class EulerRotationErrorTest {
+
+    private static final ImmutableVector3 MOMENT_OF_INERTIA_1 = ImmutableVector3.create(1, 2, 3);
+
+    /*
+     * State vector: orientation quaternion, angular velocity, angular
+     * acceleration, torque.
+     */
+    private static final int N = 13;
+
+    public static void assertInvariants(final EulerRotationError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+
+        final int numberOfTorques = term.getNumberOfTorques();
+        final ImmutableVector3 momentOfInertia = term.getMomentOfInertia();
+
+        assertTrue(0 <= numberOfTorques, "numberOfTorques not negative");
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("momentOfInertiaReference",
+                term.getMomentOfInertiaReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("timeReference", term.getTimeReference());
+        for (int i = 0; i < 3; ++i) {
+            AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("momentOfInertia[" + i + "]",
+                    momentOfInertia.get(i));
+        }
+        assertTrue(term.getQuaternionMapper() != null, "Not null, quaternionMapper");
+        assertTrue(term.getAngularVelocityMapper() != null, "Not null, angularVelocityMapper");
+        assertTrue(term.getAngularAccelerationMapper() != null, "Not null, angularAccelerationMapper");
+        for (int k = 0; k < numberOfTorques; ++k) {
+            assertTrue(term.getTorqueMapper(k) != null, "Not null, torqueMapper[" + k + "]");
+        }
+    }
+
+    public static void assertInvariants(final EulerRotationError term1, final EulerRotationError term2) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term1, term2);// inherited
+    }
+
+    private static EulerRotationError constructor(final double momentOfInertiaReference, final double timeReference,
+            final ImmutableVector3 momentOfInertia, final QuaternionStateSpaceMapper quaternionMapper,
+            final ImmutableVector3StateSpaceMapper angularVelocityMapper,
+            final ImmutableVector3StateSpaceMapper angularAccelerationMapper, final boolean[] torqueOn,
+            final ImmutableVector3StateSpaceMapper[] torqueMapper) {
+        final EulerRotationError term = new EulerRotationError(momentOfInertiaReference, timeReference,
+                momentOfInertia, quaternionMapper, angularVelocityMapper, angularAccelerationMapper, torqueOn,
+                torqueMapper);
+
+        assertInvariants(term);
+        assertEquals(momentOfInertiaReference, term.getMomentOfInertiaReference(), Double.MIN_NORMAL,
+                "momentOfInertiaReference");
+        assertEquals(timeReference, term.getTimeReference(), Double.MIN_NORMAL, "timeReference");
+        assertSame(momentOfInertia, term.getMomentOfInertia(), "momentOfInertia");
+        assertSame(quaternionMapper, term.getQuaternionMapper(), "quaternionMapper");
+        assertSame(angularVelocityMapper, term.getAngularVelocityMapper(), "angularVelocityMapper");
+        assertSame(angularAccelerationMapper, term.getAngularAccelerationMapper(), "angularAccelerationMapper");
+        assertEquals(torqueOn.length, term.getNumberOfTorques(), "numberOfTorques");
+        for (int k = 0; k < torqueOn.length; ++k) {
+            assertEquals(Boolean.valueOf(torqueOn[k]), Boolean.valueOf(term.isTorqueOn(k)), "torqueOn[" + k + "]");
+            assertSame(torqueMapper[k], term.getTorqueMapper(k), "torqueMapper[" + k + "]");
+        }
+
+        return term;
+    }
+
+    private static EulerRotationError create(final double momentOfInertiaReference, final double timeReference,
+            final ImmutableVector3 momentOfInertia, final boolean torqueOn) {
+        return constructor(momentOfInertiaReference, timeReference, momentOfInertia,
+                new QuaternionStateSpaceMapper(0), new ImmutableVector3StateSpaceMapper(4),
+                new ImmutableVector3StateSpaceMapper(7), new boolean[] { torqueOn },
+                new ImmutableVector3StateSpaceMapper[] { new ImmutableVector3StateSpaceMapper(10) });
+    }
+
+    private static double evaluate(final EulerRotationError term, final double[] dedx, final ImmutableVectorN state0,
+            final ImmutableVectorN state, final double dt) {
+        final double e = AbstractTimeStepEnergyErrorFunctionTermTest.evaluate(term, dedx, state0, state, dt);
+
+        assertInvariants(term);
+        assertTrue(0.0 <= e, "Value is not negative");
+
+        return e;
+    }
+
+    private static void evaluate_gradient(final double momentOfInertiaReference, final double timeReference,
+            final ImmutableVector3 momentOfInertia, final boolean torqueOn, final double[] x) {
+        final EulerRotationError term = create(momentOfInertiaReference, timeReference, momentOfInertia, torqueOn);
+        final ImmutableVectorN state0 = ImmutableVectorN.create0(N);
+        final double[] dedx = new double[N];
+        final double h = 1E-6;
+
+        evaluate(term, dedx, state0, ImmutableVectorN.create(x), 1.0);
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, new double[N], x, 1.0, h,
+                1E-6);
+    }
+
+    private static void evaluate_zero(final double momentOfInertiaReference, final double timeReference,
+            final ImmutableVector3 momentOfInertia, final boolean torqueOn, final double[] x) {
+        final EulerRotationError term = create(momentOfInertiaReference, timeReference, momentOfInertia, torqueOn);
+        final double[] dedx = new double[N];
+
+        final double e = evaluate(term, dedx, ImmutableVectorN.create0(N), ImmutableVectorN.create(x), 1.0);
+
+        assertEquals(0.0, e, 1E-12, "e");
+        assertArrayEquals(new double[N], dedx, 1E-12, "dedx");
+    }
+
+    @Test
+    public void constructor_2() {
+        constructor(2.0, 3.0, ImmutableVector3.create(5, 7, 11), new QuaternionStateSpaceMapper(20),
+                new ImmutableVector3StateSpaceMapper(0), new ImmutableVector3StateSpaceMapper(3),
+                new boolean[] { true, false }, new ImmutableVector3StateSpaceMapper[] {
+                        new ImmutableVector3StateSpaceMapper(6), new ImmutableVector3StateSpaceMapper(9) });
+    }
+
+    @Test
+    public void constructor_invalidMomentOfInertia() {
+        assertThrows(IllegalArgumentException.class, () -> create(1.0, 1.0, ImmutableVector3.create(1, 0, 3), true));
+    }
+
+    @Test
+    public void constructor_noTorques() {
+        final EulerRotationError term = constructor(1.0, 1.0, MOMENT_OF_INERTIA_1, new QuaternionStateSpaceMapper(0),
+                new ImmutableVector3StateSpaceMapper(4), new ImmutableVector3StateSpaceMapper(7), new boolean[] {},
+                new ImmutableVector3StateSpaceMapper[] {});
+
+        assertTrue(term.isValidForDimension(10), "Valid for dimension just large enough");
+        assertFalse(term.isValidForDimension(9), "Not valid for dimension too small");
+    }
+
+    @Test
+    public void evaluate_freeSpin() {
+        evaluate_zero(1.0, 1.0, MOMENT_OF_INERTIA_1, true,
+                new double[] { 1, 0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0 });
+    }
+
+    @Test
+    public void evaluate_gradientA() {
+        evaluate_gradient(1.0, 1.0, MOMENT_OF_INERTIA_1, true,
+                new double[] { 0.9, 0.2, -0.3, 0.4, 0.5, -0.7, 1.1, 0.3, 0.2, -0.1, 1.3, -0.6, 0.8 });
+    }
+
+    @Test
+    public void evaluate_gradientB() {
+        evaluate_gradient(2.0, 3.0, ImmutableVector3.create(5, 7, 11), false,
+                new double[] { -0.5, 1.2, 0.7, -0.3, -1.5, 0.4, 0.9, -0.2, 0.6, 0.1, -0.8, 0.3, 1.7 });
+    }
+
+    @Test
+    public void evaluate_rotatedTorque() {
+        final double c = Math.sqrt(0.5);
+        /*
+         * A rotation of 90 degrees about the z axis rotates the world x axis to the
+         * body -y axis.
+         */
+        evaluate_zero(1.0, 1.0, MOMENT_OF_INERTIA_1, true,
+                new double[] { c, 0, 0, c, 0, 0, 0, 0, -0.5, 0, 1, 0, 0 });
+    }
+
+    @Test
+    public void evaluate_torqueError() {
+        final EulerRotationError term = create(2.0, 3.0, MOMENT_OF_INERTIA_1, true);
+        final double[] dedx = new double[N];
+        final ImmutableVectorN state = ImmutableVectorN.create(1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0);
+
+        final double e = evaluate(term, dedx, ImmutableVectorN.create0(N), state, 1.0);
+
+        assertEquals(2.25, e, 1E-12, "e");
+        assertEquals(4.5, dedx[10], 1E-12, "dedx[torque x]");
+        assertEquals(-4.5, dedx[7], 1E-12, "dedx[angular acceleration x]");
+    }
+
+    @Test
+    public void evaluate_zeroQuaternion() {
+        final EulerRotationError term = create(2.0, 3.0, MOMENT_OF_INERTIA_1, true);
+        final double[] dedx = new double[N];
+        final ImmutableVectorN state = ImmutableVectorN.create(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0);
+
+        final double e = evaluate(term, dedx, ImmutableVectorN.create0(N), state, 1.0);
+
+        assertEquals(2.25, e, 1E-12, "e (torque treated as in the body frame)");
+        assertEquals(4.5, dedx[10], 1E-12, "dedx[torque x]");
+        assertEquals(-4.5, dedx[7], 1E-12, "dedx[angular acceleration x]");
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(0.0, dedx[i], Double.MIN_NORMAL, "dedx[" + i + "]");
+        }
+    }
+
+    @Test
+    public void evaluate_zeroState() {
+        evaluate_zero(1.0, 1.0, MOMENT_OF_INERTIA_1, false, new double[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+    }
+
+    @Test
+    public void remap() {
+        final EulerRotationError term = new EulerRotationError(2.0, 3.0, MOMENT_OF_INERTIA_1,
+                new QuaternionStateSpaceMapper(2), new ImmutableVector3StateSpaceMapper(8),
+                new ImmutableVector3StateSpaceMapper(12), new boolean[] { true },
+                new ImmutableVector3StateSpaceMapper[] { new ImmutableVector3StateSpaceMapper(17) });
+
+        final EulerRotationError remapped = (EulerRotationError) TimeStepEnergyErrorFunctionTermTest.remap(term,
+                22, 1.0);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getQuaternionMapper().getIndex0(), "quaternionMapper.index0");
+        assertEquals(4, remapped.getAngularVelocityMapper().getIndex0(), "angularVelocityMapper.index0");
+        assertEquals(7, remapped.getAngularAccelerationMapper().getIndex0(), "angularAccelerationMapper.index0");
+        assertEquals(10, remapped.getTorqueMapper(0).getIndex0(), "torqueMapper[0].index0");
+    }
+
+}
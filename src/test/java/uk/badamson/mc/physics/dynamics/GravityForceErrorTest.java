@@ -0,0 +1,291 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link GravityForceError}.
+ * </p>
+ */
+public class GravityForceErrorTest {
+
+    public static void assertInvariants(final GravityForceError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+
+        final int nParticles = term.getNumberOfParticles();
+        final double softeningLength = term.getSofteningLength();
+        final double openingAngle = term.getOpeningAngle();
+        final BarnesHutOctree tree = term.getTree();
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("massReference", term.getMassReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("timeReference", term.getTimeReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("gravitationalConstant",
+                term.getGravitationalConstant());
+        assertTrue(0.0 <= softeningLength && Double.isFinite(softeningLength),
+                "softeningLength not negative and finite");
+        assertTrue(0.0 <= openingAngle && Double.isFinite(openingAngle), "openingAngle not negative and finite");
+        assertTrue(0 <= nParticles, "numberOfParticles not negative");
+        assertTrue(tree == null || tree.getNumberOfParticles() == nParticles,
+                "The tree, if any, has the same number of particles");
+        for (int j = 0; j < nParticles; ++j) {
+            assertTrue(0 <= term.getMassTerm(j), "massTerm is not negative");
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(0 <= term.getPositionTerm(j, i), "positionTerm is not negative");
+                assertTrue(0 <= term.getForceTerm(j, i), "forceTerm is not negative");
+            }
+        }
+    }
+
+    public static void assertInvariants(final GravityForceError term1, final GravityForceError term2) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term1, term2);// inherited
+    }
+
+    private static GravityForceError constructor(final double massReference, final double timeReference,
+            final double gravitationalConstant, final double softeningLength, final double openingAngle,
+            final int[] massTerm, final int[] positionTerm, final int[] forceTerm, final BarnesHutOctree tree) {
+        final GravityForceError term = tree == null
+                ? new GravityForceError(massReference, timeReference, gravitationalConstant, softeningLength,
+                        openingAngle, massTerm, positionTerm, forceTerm)
+                : new GravityForceError(massReference, timeReference, gravitationalConstant, softeningLength,
+                        openingAngle, massTerm, positionTerm, forceTerm, tree);
+
+        assertInvariants(term);
+        assertEquals(massReference, term.getMassReference(), Double.MIN_NORMAL, "massReference");
+        assertEquals(timeReference, term.getTimeReference(), Double.MIN_NORMAL, "timeReference");
+        assertEquals(gravitationalConstant, term.getGravitationalConstant(), Double.MIN_NORMAL,
+                "gravitationalConstant");
+        assertEquals(softeningLength, term.getSofteningLength(), Double.MIN_NORMAL, "softeningLength");
+        assertEquals(openingAngle, term.getOpeningAngle(), Double.MIN_NORMAL, "openingAngle");
+        assertSame(tree, term.getTree(), "tree");
+        assertEquals(massTerm.length, term.getNumberOfParticles(), "numberOfParticles");
+        for (int j = 0; j < massTerm.length; ++j) {
+            assertEquals(massTerm[j], term.getMassTerm(j), "massTerm[" + j + "]");
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(positionTerm[3 * j + i], term.getPositionTerm(j, i), "positionTerm");
+                assertEquals(forceTerm[3 * j + i], term.getForceTerm(j, i), "forceTerm");
+            }
+        }
+
+        return term;
+    }
+
+    /*
+     * State vector: masses of the particles, then positions, then forces.
+     */
+    private static GravityForceError create(final double[] x, final double softeningLength,
+            final double openingAngle, final boolean withTree) {
+        final int np = x.length / 7;
+        final int[] massTerm = new int[np];
+        final int[] positionTerm = new int[3 * np];
+        final int[] forceTerm = new int[3 * np];
+        for (int j = 0; j < np; ++j) {
+            massTerm[j] = j;
+        }
+        for (int k = 0; k < 3 * np; ++k) {
+            positionTerm[k] = np + k;
+            forceTerm[k] = 4 * np + k;
+        }
+        final BarnesHutOctree tree = withTree ? new BarnesHutOctree(positionTerm, x) : null;
+        return constructor(2.0, 3.0, 1.5, softeningLength, openingAngle, massTerm, positionTerm, forceTerm, tree);
+    }
+
+    private static double evaluate(final GravityForceError term, final double[] dedx, final double[] x) {
+        final double e = AbstractTimeStepEnergyErrorFunctionTermTest.evaluate(term, dedx,
+                ImmutableVectorN.create0(x.length), ImmutableVectorN.create(x), 1.0);
+
+        assertInvariants(term);
+        assertTrue(0.0 <= e, "Value is not negative");
+
+        final int n = x.length;
+        final double[] dedxWorkspace = new double[n];
+        final double[] workspace = new double[term.getWorkspaceLength()];
+        Arrays.fill(workspace, Double.NaN);
+        final double eWorkspace = term.evaluate(dedxWorkspace, new double[n], x, 1.0, workspace);
+        assertEquals(e, eWorkspace, "Workspace evaluation computes the same value");
+        assertArrayEquals(dedx, dedxWorkspace, "Workspace evaluation computes the same gradient");
+
+        return e;
+    }
+
+    private static void evaluate_gradient(final int np, final double openingAngle, final boolean withTree) {
+        final double[] x = randomState(new Random(5L), np, 0.5);
+        final GravityForceError term = create(x, 0.1, openingAngle, withTree);
+        final double[] dedx = new double[x.length];
+
+        evaluate(term, dedx, x);
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, new double[x.length], x,
+                1.0, 1E-6, 1E-5);
+    }
+
+    private static double[] randomState(final Random random, final int np, final double forceScale) {
+        final double[] x = new double[7 * np];
+        for (int j = 0; j < np; ++j) {
+            x[j] = 0.5 + random.nextDouble();
+        }
+        for (int k = np; k < 4 * np; ++k) {
+            x[k] = random.nextGaussian();
+        }
+        for (int k = 4 * np; k < 7 * np; ++k) {
+            x[k] = forceScale * random.nextGaussian();
+        }
+        return x;
+    }
+
+    @Test
+    public void constructor_inconsistentLengths() {
+        assertThrows(IllegalArgumentException.class, () -> new GravityForceError(1.0, 1.0, 1.0, 0.0, 0.5,
+                new int[] { 0, 1 }, new int[] { 2, 3, 4 }, new int[] { 5, 6, 7 }));
+    }
+
+    @Test
+    public void constructor_inconsistentTree() {
+        final BarnesHutOctree tree = new BarnesHutOctree(new int[0], new double[0]);
+
+        assertThrows(IllegalArgumentException.class, () -> new GravityForceError(1.0, 1.0, 1.0, 0.0, 0.5,
+                new int[] { 0 }, new int[] { 1, 2, 3 }, new int[] { 4, 5, 6 }, tree));
+    }
+
+    @Test
+    public void constructor_invalidOpeningAngle() {
+        assertThrows(IllegalArgumentException.class, () -> new GravityForceError(1.0, 1.0, 1.0, 0.0, -0.5,
+                new int[] { 0 }, new int[] { 1, 2, 3 }, new int[] { 4, 5, 6 }));
+    }
+
+    @Test
+    public void constructor_noTree() {
+        create(new double[14], 0.0, 0.5, false);
+    }
+
+    @Test
+    public void constructor_tree() {
+        create(new double[14], 0.25, 0.0, true);
+    }
+
+    @Test
+    public void evaluate_approximation() {
+        final int np = 400;
+        final double[] x = randomState(new Random(11L), np, 0.0);
+        final GravityForceError exact = create(x, 0.01, 0.0, false);
+        final GravityForceError approximate = create(x, 0.01, 0.5, false);
+        final int n = x.length;
+
+        final double eExact = exact.evaluate(new double[n], new double[n], x, 1.0);
+        final double eApproximate = approximate.evaluate(new double[n], new double[n], x, 1.0);
+
+        assertEquals(eExact, eApproximate, 1E-2 * eExact, "Approximate value");
+    }
+
+    @Test
+    public void evaluate_consistentTwoBodies() {
+        /* G m1 m2 / r^2 = 1.5 * 2 * 3 / 4 */
+        final double f = 2.25;
+        final double[] x = { 2.0, 3.0, 0.0, 0.0, 0.0, 2.0, 0.0, 0.0, f, 0.0, 0.0, -f, 0.0, 0.0 };
+        final GravityForceError term = create(x, 0.0, 0.5, false);
+        final double[] dedx = new double[x.length];
+
+        final double e = evaluate(term, dedx, x);
+
+        assertEquals(0.0, e, 1E-12, "e");
+    }
+
+    @Test
+    public void evaluate_gradientNoTree() {
+        evaluate_gradient(6, 0.0, false);
+    }
+
+    @Test
+    public void evaluate_gradientNoTreeApproximate() {
+        /* Many more particles than fit in one leaf, so some nodes are far. */
+        evaluate_gradient(64, 0.5, false);
+    }
+
+    @Test
+    public void evaluate_gradientTree() {
+        evaluate_gradient(6, 0.0, true);
+    }
+
+    @Test
+    public void evaluate_gradientTreeApproximate() {
+        evaluate_gradient(64, 0.5, true);
+    }
+
+    @Test
+    public void evaluate_treeForState() {
+        final double[] x = randomState(new Random(3L), 100, 0.1);
+        final GravityForceError noTree = create(x, 0.01, 0.7, false);
+        final GravityForceError tree = create(x, 0.01, 0.7, true);
+        final int n = x.length;
+        final double[] dedxNoTree = new double[n];
+        final double[] dedxTree = new double[n];
+
+        final double eNoTree = evaluate(noTree, dedxNoTree, x);
+        final double eTree = evaluate(tree, dedxTree, x);
+
+        assertEquals(eNoTree, eTree, "A tree for the state computes the same value");
+        assertArrayEquals(dedxNoTree, dedxTree, "A tree for the state computes the same gradient");
+    }
+
+    @Test
+    public void evaluate_twoBodies() {
+        final double massReference = 2.0;
+        final double timeReference = 3.0;
+        final double[] x = { 2.0, 3.0, 0.0, 0.0, 0.0, 2.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0 };
+        final GravityForceError term = create(x, 0.0, 0.5, false);
+        final double[] dedx = new double[x.length];
+
+        final double e = evaluate(term, dedx, x);
+
+        final double scale = timeReference * timeReference / massReference;
+        assertEquals(scale * 2.25 * 2.25, e, 1E-12, "e");
+        assertEquals(-2.25 * scale, dedx[8], 1E-12, "dedx[force 0 x]");
+        assertEquals(2.25 * scale, dedx[11], 1E-12, "dedx[force 1 x]");
+    }
+
+    @Test
+    public void remap() {
+        final GravityForceError term = new GravityForceError(2.0, 3.0, 5.0, 0.25, 0.0, new int[] { 1, 3 },
+                new int[] { 5, 6, 7, 9, 10, 11 }, new int[] { 13, 14, 15, 17, 18, 19 });
+
+        final GravityForceError remapped = (GravityForceError) TimeStepEnergyErrorFunctionTermTest.remap(term, 21,
+                1.0);
+
+        assertInvariants(remapped);
+        assertEquals(1, remapped.getMassTerm(1), "massTerm[1]");
+        assertEquals(5, remapped.getPositionTerm(1, 0), "positionTerm[1][0]");
+        assertEquals(13, remapped.getForceTerm(1, 2), "forceTerm[1][2]");
+    }
+
+}
@@ -0,0 +1,215 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link LennardJonesForceError}.
+ * </p>
+ */
+public class LennardJonesForceErrorTest {
+
+    public static void assertInvariants(final LennardJonesForceError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+
+        final int spaceDimension = term.getSpaceDimension();
+        final int nParticles = term.getNumberOfParticles();
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("massReference", term.getMassReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("timeReference", term.getTimeReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("wellDepth", term.getWellDepth());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("collisionDiameter",
+                term.getCollisionDiameter());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("cutoff", term.getCutoff());
+        assertTrue(0 < spaceDimension, "spaceDimension is positive");
+        assertTrue(0 <= nParticles, "numberOfParticles not negative");
+        assertTrue(0 <= term.getNumberOfPairs(), "numberOfPairs not negative");
+        for (int j = 0; j < nParticles; ++j) {
+            for (int i = 0; i < spaceDimension; ++i) {
+                assertTrue(0 <= term.getPositionTerm(j, i), "positionTerm is not negative");
+                assertTrue(0 <= term.getForceTerm(j, i), "forceTerm is not negative");
+            }
+        }
+    }
+
+    public static void assertInvariants(final LennardJonesForceError term1, final LennardJonesForceError term2) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term1, term2);// inherited
+    }
+
+    private static LennardJonesForceError constructor(final double massReference, final double timeReference,
+            final double wellDepth, final double collisionDiameter, final NeighbourList neighbours,
+            final int[] forceTerm) {
+        final LennardJonesForceError term = new LennardJonesForceError(massReference, timeReference, wellDepth,
+                collisionDiameter, neighbours, forceTerm);
+
+        assertInvariants(term);
+        assertEquals(massReference, term.getMassReference(), Double.MIN_NORMAL, "massReference");
+        assertEquals(timeReference, term.getTimeReference(), Double.MIN_NORMAL, "timeReference");
+        assertEquals(wellDepth, term.getWellDepth(), Double.MIN_NORMAL, "wellDepth");
+        assertEquals(collisionDiameter, term.getCollisionDiameter(), Double.MIN_NORMAL, "collisionDiameter");
+        assertEquals(neighbours.getCutoff(), term.getCutoff(), Double.MIN_NORMAL, "cutoff");
+        assertEquals(neighbours.getSpaceDimension(), term.getSpaceDimension(), "spaceDimension");
+        assertEquals(neighbours.getNumberOfParticles(), term.getNumberOfParticles(), "numberOfParticles");
+        assertEquals(neighbours.getNumberOfPairs(), term.getNumberOfPairs(), "numberOfPairs");
+
+        return term;
+    }
+
+    private static double evaluate(final LennardJonesForceError term, final double[] dedx, final double[] x) {
+        final double e = AbstractTimeStepEnergyErrorFunctionTermTest.evaluate(term, dedx,
+                ImmutableVectorN.create0(x.length), ImmutableVectorN.create(x), 1.0);
+
+        assertInvariants(term);
+        assertTrue(0.0 <= e, "Value is not negative");
+
+        final int n = x.length;
+        final double[] dedxWorkspace = new double[n];
+        final double[] workspace = new double[term.getWorkspaceLength()];
+        Arrays.fill(workspace, Double.NaN);
+        final double eWorkspace = term.evaluate(dedxWorkspace, new double[n], x, 1.0, workspace);
+        assertEquals(e, eWorkspace, "Workspace evaluation computes the same value");
+        assertArrayEquals(dedx, dedxWorkspace, "Workspace evaluation computes the same gradient");
+
+        return e;
+    }
+
+    /*
+     * State vector: positions of the particles, then forces on the particles.
+     */
+    private static LennardJonesForceError create(final int spaceDimension, final double[] x, final double cutoff,
+            final double skin) {
+        final int n = x.length / 2;
+        final int[] positionTerm = new int[n];
+        final int[] forceTerm = new int[n];
+        for (int k = 0; k < n; ++k) {
+            positionTerm[k] = k;
+            forceTerm[k] = n + k;
+        }
+        final NeighbourList neighbours = new NeighbourList(spaceDimension, positionTerm, cutoff, skin);
+        neighbours.update(x);
+        return constructor(2.0, 3.0, 1.5, 1.0, neighbours, forceTerm);
+    }
+
+    @Test
+    public void constructor_inconsistentForceTerm() {
+        final NeighbourList neighbours = new NeighbourList(2, new int[] { 0, 1, 2, 3 }, 1.0, 0.0);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new LennardJonesForceError(1.0, 1.0, 1.0, 1.0, neighbours, new int[] { 4, 5 }));
+    }
+
+    @Test
+    public void constructor_notBuilt() {
+        final NeighbourList neighbours = new NeighbourList(2, new int[] { 0, 1, 2, 3 }, 1.0, 0.0);
+
+        constructor(1.0, 1.0, 1.0, 1.0, neighbours, new int[] { 4, 5, 6, 7 });
+    }
+
+    @Test
+    public void evaluate_beyondCutoff() {
+        final double[] x = { 0.0, 3.0, 0.0, 0.0 };
+        final LennardJonesForceError term = create(1, x, 2.5, 1.0);
+        final double[] dedx = new double[4];
+
+        final double e = evaluate(term, dedx, x);
+
+        assertEquals(1, term.getNumberOfPairs(), "Pair in the skin");
+        assertEquals(0.0, e, Double.MIN_NORMAL, "e");
+        assertArrayEquals(new double[4], dedx, "dedx");
+    }
+
+    @Test
+    public void evaluate_gradient() {
+        final double[] x = { 0.0, 0.0, 1.1, 0.2, -0.3, 1.0, 0.9, 1.2, 0.5, -0.5, 2.0, 0.1, 0.7, -1.3, 0.2, 0.4 };
+        final LennardJonesForceError term = create(2, x, 2.5, 0.5);
+        final int n = x.length;
+        final double[] dedx = new double[n];
+        final double h = 1E-7;
+
+        evaluate(term, dedx, x);
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, new double[n], x, 1.0, h,
+                1E-5);
+    }
+
+    @Test
+    public void evaluate_potentialMinimum() {
+        /*
+         * At the minimum of the unshifted potential, the shifted force is minus the
+         * force at the cutoff.
+         */
+        final double s = Math.pow(2.0, 1.0 / 6.0);
+        final double cutoff = 2.5;
+        final double x6 = Math.pow(1.0 / cutoff, 6);
+        final double forceAtCutoff = 24.0 * 1.5 * x6 * (1.0 - 2.0 * x6) / cutoff;
+        final double[] x = { 0.0, s, -forceAtCutoff, forceAtCutoff };
+        final LennardJonesForceError term = create(1, x, cutoff, 0.0);
+        final double[] dedx = new double[4];
+
+        final double e = evaluate(term, dedx, x);
+
+        assertEquals(0.0, e, 1E-20, "e");
+    }
+
+    @Test
+    public void evaluate_repulsive() {
+        final double[] x = { 0.0, 1.0, 0.0, 0.0 };
+        final LennardJonesForceError term = create(1, x, 2.5, 0.0);
+        final double[] dedx = new double[4];
+
+        evaluate(term, dedx, x);
+
+        /*
+         * The particles repel, so the constitutive force on the first particle is
+         * negative; zero force is too large.
+         */
+        assertTrue(0.0 < dedx[2], "dedx[force 0] positive");
+        assertTrue(dedx[3] < 0.0, "dedx[force 1] negative");
+    }
+
+    @Test
+    public void remap() {
+        final NeighbourList neighbours = new NeighbourList(1, new int[] { 1, 3, 5 }, 2.5, 0.0);
+        neighbours.update(new double[] { 0.0, 0.0, 0.0, 1.0, 0.0, 2.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0 });
+        final LennardJonesForceError term = new LennardJonesForceError(2.0, 3.0, 1.5, 0.1, neighbours,
+                new int[] { 7, 9, 11 });
+
+        final LennardJonesForceError remapped = (LennardJonesForceError) TimeStepEnergyErrorFunctionTermTest
+                .remap(term, 13, 1.0);
+
+        assertInvariants(remapped);
+        assertEquals(term.getNumberOfPairs(), remapped.getNumberOfPairs(), "numberOfPairs");
+        assertEquals(0, remapped.getPositionTerm(0, 0), "positionTerm[0]");
+        assertEquals(4, remapped.getForceTerm(1, 0), "forceTerm[1]");
+    }
+
+}
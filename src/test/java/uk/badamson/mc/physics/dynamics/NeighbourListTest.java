@@ -0,0 +1,212 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link NeighbourList}.
+ * </p>
+ */
+public class NeighbourListTest {
+
+    public static void assertInvariants(final NeighbourList list) {
+        ObjectTest.assertInvariants(list);// inherited
+
+        final int spaceDimension = list.getSpaceDimension();
+        final int nParticles = list.getNumberOfParticles();
+        final int nPairs = list.getNumberOfPairs();
+        final double cutoff = list.getCutoff();
+        final double skin = list.getSkin();
+
+        assertTrue(0 < spaceDimension, "spaceDimension is positive");
+        assertTrue(0 <= nParticles, "numberOfParticles not negative");
+        assertTrue(0 <= nPairs, "numberOfPairs not negative");
+        assertTrue(0 <= list.getNumberOfBuilds(), "numberOfBuilds not negative");
+        assertTrue(0.0 < cutoff && Double.isFinite(cutoff), "cutoff is positive and finite");
+        assertTrue(0.0 <= skin && Double.isFinite(skin), "skin is not negative and finite");
+        assertEquals(cutoff + skin, list.getListRange(), Double.MIN_NORMAL, "listRange");
+        for (int p = 0; p < nPairs; ++p) {
+            final int j1 = list.getParticle1(p);
+            final int j2 = list.getParticle2(p);
+            assertTrue(0 <= j1 && j1 < j2 && j2 < nParticles, "Pair " + p + " is two distinct particles");
+        }
+        for (int j = 0; j < nParticles; ++j) {
+            for (int i = 0; i < spaceDimension; ++i) {
+                assertTrue(0 <= list.getPositionTerm(j, i), "positionTerm is not negative");
+            }
+        }
+    }
+
+    private static Set<Long> bruteForcePairs(final int spaceDimension, final double[] state, final double range) {
+        final int nParticles = state.length / spaceDimension;
+        final Set<Long> pairs = new HashSet<>();
+        for (int j1 = 0; j1 < nParticles; ++j1) {
+            for (int j2 = j1 + 1; j2 < nParticles; ++j2) {
+                double s2 = 0.0;
+                for (int i = 0; i < spaceDimension; ++i) {
+                    final double r = state[j2 * spaceDimension + i] - state[j1 * spaceDimension + i];
+                    s2 += r * r;
+                }
+                if (s2 <= range * range) {
+                    pairs.add(Long.valueOf((long) j1 * nParticles + j2));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static NeighbourList constructor(final int spaceDimension, final int[] positionTerm,
+            final double cutoff, final double skin) {
+        final NeighbourList list = new NeighbourList(spaceDimension, positionTerm, cutoff, skin);
+
+        assertInvariants(list);
+        assertEquals(spaceDimension, list.getSpaceDimension(), "spaceDimension");
+        assertEquals(positionTerm.length / spaceDimension, list.getNumberOfParticles(), "numberOfParticles");
+        assertEquals(cutoff, list.getCutoff(), Double.MIN_NORMAL, "cutoff");
+        assertEquals(skin, list.getSkin(), Double.MIN_NORMAL, "skin");
+        assertEquals(0, list.getNumberOfBuilds(), "Not built");
+        assertEquals(0, list.getNumberOfPairs(), "No pairs");
+
+        return list;
+    }
+
+    private static Set<Long> pairs(final NeighbourList list) {
+        final int nParticles = list.getNumberOfParticles();
+        final Set<Long> pairs = new HashSet<>();
+        for (int p = 0; p < list.getNumberOfPairs(); ++p) {
+            assertTrue(pairs.add(Long.valueOf((long) list.getParticle1(p) * nParticles + list.getParticle2(p))),
+                    "Pairs are distinct");
+        }
+        return pairs;
+    }
+
+    private static int[] sequence(final int n) {
+        final int[] terms = new int[n];
+        for (int k = 0; k < n; ++k) {
+            terms[k] = k;
+        }
+        return terms;
+    }
+
+    private static boolean update(final NeighbourList list, final double[] state) {
+        final int nBuilds0 = list.getNumberOfBuilds();
+
+        final boolean rebuilt = list.update(state);
+
+        assertInvariants(list);
+        assertEquals(nBuilds0 + (rebuilt ? 1 : 0), list.getNumberOfBuilds(), "Number of builds counts rebuilds");
+        final Set<Long> pairs = pairs(list);
+        final Set<Long> withinCutoff = bruteForcePairs(list.getSpaceDimension(), state, list.getCutoff());
+        assertTrue(pairs.containsAll(withinCutoff), "Contains all pairs within the cutoff");
+
+        return rebuilt;
+    }
+
+    @Test
+    public void constructor_1() {
+        constructor(1, new int[] { 0, 1, 2 }, 1.0, 0.0);
+    }
+
+    @Test
+    public void constructor_3() {
+        constructor(3, sequence(12), 2.5, 0.5);
+    }
+
+    @Test
+    public void constructor_inconsistentLength() {
+        assertThrows(IllegalArgumentException.class, () -> new NeighbourList(3, sequence(4), 1.0, 0.0));
+    }
+
+    @Test
+    public void constructor_invalidCutoff() {
+        assertThrows(IllegalArgumentException.class, () -> new NeighbourList(1, sequence(2), 0.0, 0.0));
+    }
+
+    @Test
+    public void update_first() {
+        final NeighbourList list = new NeighbourList(1, sequence(3), 1.5, 0.0);
+
+        final boolean rebuilt = update(list, new double[] { 0.0, 1.0, 3.0 });
+
+        assertTrue(rebuilt, "Builds the list the first time");
+        assertEquals(1, list.getNumberOfPairs(), "numberOfPairs");
+        assertEquals(0, list.getParticle1(0), "particle1");
+        assertEquals(1, list.getParticle2(0), "particle2");
+    }
+
+    @Test
+    public void update_largeMove() {
+        final NeighbourList list = new NeighbourList(1, sequence(3), 1.5, 0.5);
+        update(list, new double[] { 0.0, 1.0, 3.0 });
+
+        final boolean rebuilt = update(list, new double[] { 0.0, 1.0, 2.0 });
+
+        assertTrue(rebuilt, "Rebuilds the list after a move more than half the skin");
+        assertEquals(3, list.getNumberOfPairs(), "numberOfPairs");
+    }
+
+    @Test
+    public void update_random() {
+        final int spaceDimension = 3;
+        final int nParticles = 200;
+        final Random random = new Random(17L);
+        final NeighbourList list = new NeighbourList(spaceDimension, sequence(spaceDimension * nParticles), 1.0,
+                0.4);
+        final double[] state = new double[spaceDimension * nParticles];
+        for (int k = 0; k < state.length; ++k) {
+            state[k] = 6.0 * random.nextDouble();
+        }
+        update(list, state);
+        assertEquals(bruteForcePairs(spaceDimension, state, list.getListRange()), pairs(list),
+                "Contains exactly the pairs within the list range when built");
+
+        for (int step = 0; step < 20; ++step) {
+            for (int k = 0; k < state.length; ++k) {
+                state[k] += 0.05 * (random.nextDouble() - 0.5);
+            }
+            update(list, state);
+        }
+        assertTrue(list.getNumberOfBuilds() < 21, "Does not rebuild for every small move");
+    }
+
+    @Test
+    public void update_smallMove() {
+        final NeighbourList list = new NeighbourList(1, sequence(3), 1.5, 0.5);
+        update(list, new double[] { 0.0, 1.0, 3.0 });
+
+        final boolean rebuilt = update(list, new double[] { 0.1, 1.0, 2.8 });
+
+        assertFalse(rebuilt, "Does not rebuild the list after a move less than half the skin");
+        assertEquals(1, list.getNumberOfBuilds(), "numberOfBuilds");
+    }
+
+}
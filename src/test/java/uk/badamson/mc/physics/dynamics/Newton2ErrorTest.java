@@ -1,12 +1,19 @@
 package uk.badamson.mc.physics.dynamics;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Test;
 
 import uk.badamson.mc.math.ImmutableVectorN;
 import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionResidualTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
 
 /**
  * <p>
@@ -245,6 +252,57 @@ public class Newton2ErrorTest {
                 advectionMassRateTerm, advectionVelocityTerm, forceOn, forceTerm);
     }
 
+    @Test
+    public void evaluateBatch_1Force() {
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, 0, new int[] { 1 },
+                new int[] { 2 }, new boolean[] {}, new int[] {}, new int[] {}, new boolean[] { true },
+                new int[] { 3 });
+        final double[][] x0 = new double[4][3];
+        final double[][] x = { { 1.0, 2.0, 0.5 }, { 1.0, -1.0, 0.0 }, { 2.0, 0.5, 3.0 }, { 1.0, 1.0, -1.0 } };
+
+        TimeStepEnergyErrorFunctionTermTest.evaluateBatch(term, new double[3], new double[4][3], x0, x, 0.5);
+    }
+
+    @Test
+    public void evaluateBatch_2() {
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, 0, new int[] { 1, 2 },
+                new int[] { 3, 4 }, new boolean[] { true, false }, new int[] { 5, 6 }, new int[] { 7, 8, 9, 10 },
+                new boolean[] { true, false }, new int[] { 11, 12, 13, 14 });
+        final int nBodies = 5;
+        final double[][] x0 = new double[15][nBodies];
+        final double[][] x = new double[15][nBodies];
+        for (int i = 0; i < 15; ++i) {
+            for (int b = 0; b < nBodies; ++b) {
+                x[i][b] = Math.cos(2.0 * i + b);
+            }
+        }
+
+        TimeStepEnergyErrorFunctionTermTest.evaluateBatch(term, new double[nBodies], new double[15][nBodies], x0, x,
+                0.5);
+    }
+
+    @Test
+    public void evaluateBatch_invalidDimension() {
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_1, TIME_REFERNCE_1, 0, new int[] { 1 },
+                new int[] { 2 }, new boolean[] {}, new int[] {}, new int[] {}, new boolean[] { true }, new int[] { 3 });
+
+        assertThrows(IllegalArgumentException.class,
+                () -> term.evaluateBatch(new double[2], new double[2][2], new double[2][2], new double[2][2], 1.0));
+    }
+
+    @Test
+    public void evaluateResiduals_2() {
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, 0, new int[] { 1, 2 },
+                new int[] { 3, 4 }, new boolean[] { true, false }, new int[] { 5, 6 }, new int[] { 7, 8, 9, 10 },
+                new boolean[] { true, false }, new int[] { 11, 12, 13, 14 });
+        final double[] x0 = new double[15];
+        final double[] x = { 2.5, 1.5, -0.5, 0.75, -0.5, 2.0, -1.0, 1.5, 0.25, 0.5, 1.0, -2.0, 1.5, 0.5, 3.0 };
+
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, x0, x, 0.5, 1E-4);
+
+        assertEquals(2, term.getNumberOfResiduals(), "numberOfResiduals");
+    }
+
     @Test
     public void evaluate_1AdvectionA() {
         final double massReference = 1.0;
@@ -540,11 +598,11 @@ public class Newton2ErrorTest {
         final double dedu0 = 0.0;
 
         final double expectedE = 0.0625;
-        final double expectedDedm = 0.25;
-        final double expectedDedv = 0.25;
-        final double expectedDeda = 0.25;
+        final double expectedDedm = 0.125;
+        final double expectedDedv = 0.125;
+        final double expectedDeda = 0.125;
         final double expectedDedmrate = 0.0;
-        final double expectedDedu = -0.25;
+        final double expectedDedu = -0.125;
 
         evaluate_1Advection(massReference, timeReference, massTransferInto, m0, v0, mrate0, u0, a0, m, v, a, mrate, u,
                 dt, dedmrate0, dedu0, expectedE, expectedDedm, expectedDedv, expectedDeda, expectedDedmrate,
@@ -1380,10 +1438,10 @@ public class Newton2ErrorTest {
         final double dedf0 = 0.0;
 
         final double expectedE = 0.0625;
-        final double expectedDedm = -0.25;
+        final double expectedDedm = -0.125;
         final double expectedDedv = 0.0;
-        final double expectedDeda = -0.25;
-        final double expectedDedf = 0.25;
+        final double expectedDeda = -0.125;
+        final double expectedDedf = 0.125;
 
         evaluate_1Force(massReference, timeReference, forceOn, m0, v0, a0, f0, m, v, a, f, dt, dedf0, expectedE,
                 expectedDedm, expectedDedv, expectedDeda, expectedDedf);
@@ -1520,12 +1578,96 @@ public class Newton2ErrorTest {
         final double a = 1.0;
         final double dt = 1.0;
         final double expectedE = 0.0625;
-        final double expectedDedm = 0.25;
+        final double expectedDedm = 0.125;
         final double expectedDedv = 0.0;
-        final double expectedDeda = 0.25;
+        final double expectedDeda = 0.125;
 
         evaluate_1Closed(massReference, timeReference, dedm0, dedv0, deda0, m0, v0, a0, m, v, a, dt, expectedE,
                 expectedDedm, expectedDedv, expectedDeda);
     }
 
+    @Test
+    public void evaluate_shifted() {
+        final int offset = 5;
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, 0, new int[] { 1, 2, 3 },
+                new int[] { 4, 5, 6 }, new boolean[] { true, false }, new int[] { 7, 8 },
+                new int[] { 9, 10, 11, 12, 13, 14 }, new boolean[] { true, false }, new int[] { 15, 16, 17, 18, 19, 20 });
+        final Newton2Error shifted = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, offset, new int[] { 6, 7, 8 },
+                new int[] { 9, 10, 11 }, new boolean[] { true, false }, new int[] { 12, 13 },
+                new int[] { 14, 15, 16, 17, 18, 19 }, new boolean[] { true, false }, new int[] { 20, 21, 22, 23, 24, 25 });
+        final int n = 21;
+        final double[] x0 = new double[n];
+        final double[] x = new double[n];
+        final double[] x0Shifted = new double[n + offset];
+        final double[] xShifted = new double[n + offset];
+        for (int i = 0; i < n; ++i) {
+            x0[i] = Math.sin(1.7 * i) + 2.0;
+            x[i] = Math.cos(0.3 * i + 1.1) + 2.0;
+            x0Shifted[i + offset] = x0[i];
+            xShifted[i + offset] = x[i];
+        }
+        final double[] dedx = new double[n];
+        final double[] dedxShifted = new double[n + offset];
+
+        final double e = term.evaluate(dedx, x0, x, 0.25);
+        final double eShifted = shifted.evaluate(dedxShifted, x0Shifted, xShifted, 0.25);
+
+        assertInvariants(shifted);
+        assertEquals(term.getMassTerm() + offset, shifted.getMassTerm(), "massTerm");
+        assertEquals(term.getForceTerm(1, 2) + offset, shifted.getForceTerm(1, 2), "forceTerm");
+        assertTrue(shifted.isValidForDimension(n + offset), "Valid for the shifted dimension");
+        assertFalse(shifted.isValidForDimension(n + offset - 1), "Not valid for a smaller dimension");
+        final int[] footprint = term.getIndexFootprint(n);
+        final int[] footprintShifted = shifted.getIndexFootprint(n + offset);
+        for (int c = 0; c < footprint.length; ++c) {
+            footprint[c] += offset;
+        }
+        assertArrayEquals(footprint, footprintShifted, "Shifted index footprint");
+        assertEquals(e, eShifted, "Same value");
+        assertArrayEquals(dedx, Arrays.copyOfRange(dedxShifted, offset, n + offset), "Shifted gradient");
+    }
+
+    @Test
+    public void evaluate_workspace() {
+        final Newton2Error term = new Newton2Error(MASS_REFERENCE_2, TIME_REFERNCE_2, 0, new int[] { 1, 2, 3 },
+                new int[] { 4, 5, 6 }, new boolean[] { true, false }, new int[] { 7, 8 },
+                new int[] { 9, 10, 11, 12, 13, 14 }, new boolean[] { true, false }, new int[] { 15, 16, 17, 18, 19, 20 });
+        final int n = 21;
+        final double[] workspace = new double[term.getWorkspaceLength()];
+        assertEquals(3, workspace.length, "workspaceLength");
+        Arrays.fill(workspace, Double.NaN);
+        for (int s = 0; s < 8; ++s) {
+            final double[] x0 = new double[n];
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0[i] = Math.sin(1.7 * i + s);
+                x[i] = Math.cos(0.3 * i * s + 1.1) * (1.0 + s);
+            }
+            final double[] dedxExpected = new double[n];
+            final double[] dedx = new double[n];
+
+            final double eExpected = term.evaluate(dedxExpected, ImmutableVectorN.create(x0), ImmutableVectorN.create(x),
+                    0.25);
+            final double e = term.evaluate(dedx, x0, x, 0.25, workspace);
+
+            assertEquals(eExpected, e, "Bitwise identical value [" + s + "]");
+            assertArrayEquals(dedxExpected, dedx, "Bitwise identical gradient [" + s + "]");
+        }
+    }
+
+    @Test
+    public void remap() {
+        final Newton2Error term = new Newton2Error(2.0, 3.0, 1, new int[] { 3, 5 }, new int[] { 17, 19 },
+                new boolean[] { true }, new int[] { 7 }, new int[] { 9, 11 }, new boolean[] { false },
+                new int[] { 13, 15 });
+
+        final Newton2Error remapped = (Newton2Error) TimeStepEnergyErrorFunctionTermTest.remap(term, 21, 0.5);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getMassTerm(), "massTerm");
+        assertEquals(2, remapped.getVelocityTerm(1), "velocityTerm[1]");
+        assertEquals(9, remapped.getAccelerationTerm(1), "accelerationTerm[1]");
+        assertEquals(3, remapped.getAdvectionMassRateTerm(0), "advectionMassRateTerm[0]");
+    }
+
 }
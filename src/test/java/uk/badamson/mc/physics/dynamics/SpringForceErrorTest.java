@@ -0,0 +1,249 @@
+package uk.badamson.mc.physics.dynamics;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.solver.AbstractTimeStepEnergyErrorFunctionTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionResidualTermTest;
+import uk.badamson.mc.physics.solver.TimeStepEnergyErrorFunctionTermTest;
+
+/**
+ * <p>
+ * Unit tests for the class {@link SpringForceError}.
+ * </p>
+ */
+public class SpringForceErrorTest {
+
+    /*
+     * State vector for 2D tests: position 1, position 2, force.
+     */
+    private static final int[] POSITION_1 = { 0, 1 };
+    private static final int[] POSITION_2 = { 2, 3 };
+    private static final int[] FORCE = { 4, 5 };
+
+    public static void assertInvariants(final SpringForceError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+        TimeStepEnergyErrorFunctionResidualTermTest.assertInvariants(term);// inherited
+
+        final int spaceDimension = term.getSpaceDimension();
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("massReference", term.getMassReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("timeReference", term.getTimeReference());
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertIsReferenceScale("stiffness", term.getStiffness());
+        final double naturalLength = term.getNaturalLength();
+        assertTrue(0.0 <= naturalLength && Double.isFinite(naturalLength), "naturalLength not negative and finite");
+        assertTrue(0 < spaceDimension, "spaceDimension is positive");
+        assertEquals(spaceDimension, term.getNumberOfResiduals(), "numberOfResiduals");
+        for (int i = 0; i < spaceDimension; ++i) {
+            assertTrue(0 <= term.getPositionTerm1(i), "positionTerm1 is not negative");
+            assertTrue(0 <= term.getPositionTerm2(i), "positionTerm2 is not negative");
+            assertTrue(0 <= term.getForceTerm(i), "forceTerm is not negative");
+        }
+    }
+
+    public static void assertInvariants(final SpringForceError term1, final SpringForceError term2) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term1, term2);// inherited
+    }
+
+    private static SpringForceError constructor(final double massReference, final double timeReference,
+            final double stiffness, final double naturalLength, final int[] positionTerm1, final int[] positionTerm2,
+            final int[] forceTerm) {
+        final SpringForceError term = new SpringForceError(massReference, timeReference, stiffness, naturalLength,
+                positionTerm1, positionTerm2, forceTerm);
+
+        assertInvariants(term);
+        assertEquals(massReference, term.getMassReference(), Double.MIN_NORMAL, "massReference");
+        assertEquals(timeReference, term.getTimeReference(), Double.MIN_NORMAL, "timeReference");
+        assertEquals(stiffness, term.getStiffness(), Double.MIN_NORMAL, "stiffness");
+        assertEquals(naturalLength, term.getNaturalLength(), Double.MIN_NORMAL, "naturalLength");
+        assertEquals(forceTerm.length, term.getSpaceDimension(), "spaceDimension");
+        for (int i = 0; i < forceTerm.length; ++i) {
+            assertEquals(positionTerm1[i], term.getPositionTerm1(i), "positionTerm1[" + i + "]");
+            assertEquals(positionTerm2[i], term.getPositionTerm2(i), "positionTerm2[" + i + "]");
+            assertEquals(forceTerm[i], term.getForceTerm(i), "forceTerm[" + i + "]");
+        }
+
+        return term;
+    }
+
+    private static double evaluate(final SpringForceError term, final double[] dedx, final double[] x) {
+        final double e = AbstractTimeStepEnergyErrorFunctionTermTest.evaluate(term, dedx,
+                ImmutableVectorN.create0(x.length), ImmutableVectorN.create(x), 1.0);
+
+        assertInvariants(term);
+        assertTrue(0.0 <= e, "Value is not negative");
+
+        return e;
+    }
+
+    private static void evaluate_gradient(final double massReference, final double timeReference,
+            final double stiffness, final double naturalLength, final double[] x) {
+        final int n = x.length;
+        final SpringForceError term = new SpringForceError(massReference, timeReference, stiffness, naturalLength,
+                POSITION_1, POSITION_2, FORCE);
+        final double[] dedx = new double[n];
+        final double h = 1E-6;
+
+        evaluate(term, dedx, x);
+
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, new double[n], x, 1.0, h,
+                1E-6);
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, new double[n], x, 1.0, h);
+    }
+
+    @Test
+    public void constructor_1() {
+        constructor(1.0, 1.0, 1.0, 0.0, new int[] { 0 }, new int[] { 1 }, new int[] { 2 });
+    }
+
+    @Test
+    public void constructor_2() {
+        constructor(2.0, 3.0, 5.0, 7.0, POSITION_1, POSITION_2, FORCE);
+    }
+
+    @Test
+    public void constructor_inconsistentLengths() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SpringForceError(1.0, 1.0, 1.0, 0.0, POSITION_1, POSITION_2, new int[] { 4 }));
+    }
+
+    @Test
+    public void constructor_negativeNaturalLength() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SpringForceError(1.0, 1.0, 1.0, -1.0, POSITION_1, POSITION_2, FORCE));
+    }
+
+    @Test
+    public void evaluateBatch_invalidDimension() {
+        final SpringForceError term = new SpringForceError(1.0, 1.0, 1.0, 0.0, POSITION_1, POSITION_2, FORCE);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> term.evaluateBatch(new double[2], new double[5][2], new double[5][2], new double[5][2], 1.0));
+    }
+
+    @Test
+    public void evaluate_coincident() {
+        final double massReference = 2.0;
+        final double timeReference = 3.0;
+        final SpringForceError term = new SpringForceError(massReference, timeReference, 3.0, 2.0, POSITION_1,
+                POSITION_2, FORCE);
+        final double[] x = { 1.0, 2.0, 1.0, 2.0, 0.5, -1.0 };
+        final double[] dedx = new double[6];
+        final double[] residuals = new double[2];
+        final double[] jacobian = new double[2 * 6];
+
+        final double e = evaluate(term, dedx, x);
+        final double eResiduals = term.evaluateResiduals(residuals, jacobian, new double[6], x, 1.0);
+
+        /* There is no direction between coincident bodies, so no spring force. */
+        final double scale = timeReference * timeReference / massReference;
+        assertEquals(0.5 * scale * 1.25, e, 1E-12, "e");
+        assertEquals(0.5 * scale, dedx[4], 1E-12, "dedx[force x]");
+        assertEquals(-scale, dedx[5], 1E-12, "dedx[force y]");
+        assertEquals(e, eResiduals, 1E-12, "Residuals value");
+        for (int i = 0; i < dedx.length; ++i) {
+            assertTrue(Double.isFinite(dedx[i]), "dedx[" + i + "] finite");
+        }
+        for (int i = 0; i < jacobian.length; ++i) {
+            assertTrue(Double.isFinite(jacobian[i]), "jacobian[" + i + "] finite");
+        }
+    }
+
+    @Test
+    public void evaluate_gradientA() {
+        evaluate_gradient(1.0, 1.0, 1.0, 1.0, new double[] { 0.1, -0.3, 1.7, 0.9, 0.4, -0.2 });
+    }
+
+    @Test
+    public void evaluate_gradientB() {
+        evaluate_gradient(2.0, 3.0, 5.0, 0.5, new double[] { -1.0, 2.0, 0.5, 1.5, 3.0, -7.0 });
+    }
+
+    @Test
+    public void evaluate_gradientZeroNaturalLength() {
+        evaluate_gradient(2.0, 3.0, 5.0, 0.0, new double[] { -1.0, 2.0, 0.5, 1.5, 3.0, -7.0 });
+    }
+
+    @Test
+    public void evaluate_naturalLength() {
+        final SpringForceError term = new SpringForceError(1.0, 1.0, 3.0, 2.0, POSITION_1, POSITION_2, FORCE);
+        final double[] dedx = new double[6];
+
+        final double e = evaluate(term, dedx, new double[] { 1.0, 1.0, 1.0, 3.0, 0.0, 0.0 });
+
+        assertEquals(0.0, e, 1E-12, "e");
+    }
+
+    @Test
+    public void evaluate_stretched() {
+        final double massReference = 2.0;
+        final double timeReference = 3.0;
+        final SpringForceError term = new SpringForceError(massReference, timeReference, 2.0, 1.0, POSITION_1,
+                POSITION_2, FORCE);
+        final double[] dedx = new double[6];
+
+        final double e = evaluate(term, dedx, new double[] { 0.0, 0.0, 3.0, 0.0, 0.0, 0.0 });
+
+        /* The spring pulls the first body towards the second with force 4. */
+        final double scale = timeReference * timeReference / massReference;
+        assertEquals(0.5 * scale * 16.0, e, 1E-12, "e");
+        assertEquals(-4.0 * scale, dedx[4], 1E-12, "dedx[force x]");
+        assertEquals(0.0, dedx[5], 1E-12, "dedx[force y]");
+    }
+
+    @Test
+    public void evaluate_stretchedConsistent() {
+        final SpringForceError term = new SpringForceError(1.0, 1.0, 2.0, 1.0, POSITION_1, POSITION_2, FORCE);
+        final double[] dedx = new double[6];
+
+        final double e = evaluate(term, dedx, new double[] { 0.0, 0.0, 0.0, 3.0, 0.0, 4.0 });
+
+        assertEquals(0.0, e, 1E-12, "e");
+    }
+
+    @Test
+    public void isValidForDimension() {
+        final SpringForceError term = new SpringForceError(1.0, 1.0, 1.0, 0.0, POSITION_1, POSITION_2, FORCE);
+
+        assertTrue(term.isValidForDimension(6), "Valid for dimension just large enough");
+        assertFalse(term.isValidForDimension(5), "Not valid for dimension too small");
+    }
+
+    @Test
+    public void remap() {
+        final SpringForceError term = new SpringForceError(2.0, 3.0, 5.0, 0.5, new int[] { 1, 3 },
+                new int[] { 5, 7 }, new int[] { 9, 11 });
+
+        final SpringForceError remapped = (SpringForceError) TimeStepEnergyErrorFunctionTermTest.remap(term, 13,
+                1.0);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getPositionTerm1(0), "positionTerm1[0]");
+        assertEquals(2, remapped.getPositionTerm2(0), "positionTerm2[0]");
+        assertEquals(5, remapped.getForceTerm(1), "forceTerm[1]");
+    }
+
+}
@@ -18,7 +18,11 @@ package uk.badamson.mc.physics.kinematics;
  * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
 
@@ -27,6 +31,7 @@ import org.junit.jupiter.api.Test;
 
 import uk.badamson.mc.ObjectTest;
 import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicTimeBasis;
 import uk.badamson.mc.physics.HarmonicVector3;
 import uk.badamson.mc.physics.HarmonicVector3Test;
 
@@ -143,6 +148,39 @@ public class HarmonicParticleTrajectoryTest {
         }
     }// class
 
+    @Nested
+    public class CreateTimeBasis {
+
+        @Test
+        public void a() {
+            test(new HarmonicVector3(T_1, V_1, V_2, V_3, V_4, V_1, 0.5, 2.0), Duration.ofMillis(1700));
+        }
+
+        @Test
+        public void b() {
+            test(new HarmonicVector3(T_2, V_4, V_3, V_2, V_1, V_2, -0.25, 3.0), Duration.ofSeconds(-3));
+        }
+
+        private void test(final HarmonicVector3 position, final Duration t) {
+            final HarmonicParticleTrajectory trajectory = new HarmonicParticleTrajectory(position);
+
+            final HarmonicTimeBasis basis = trajectory.createTimeBasis();
+
+            assertNotNull(basis, "Always creates a basis");// guard
+            assertInvariants(trajectory);
+            assertTrue(basis.isBasisOf(trajectory.getPosition()), "Basis of the position");
+            assertTrue(basis.isBasisOf(trajectory.getVelocity()), "Basis of the velocity");
+            assertTrue(basis.isBasisOf(trajectory.getAcceleration()), "Basis of the acceleration");
+            assertNull(basis.getTime(), "time");
+
+            basis.setTime(t);
+            assertEquals(trajectory.getPosition().at(t), trajectory.getPosition().at(basis), "position");
+            assertEquals(trajectory.getVelocity().at(t), trajectory.getVelocity().at(basis), "velocity");
+            assertEquals(trajectory.getAcceleration().at(t), trajectory.getAcceleration().at(basis),
+                    "acceleration");
+        }
+    }// class
+
     private static final Duration T_1 = Duration.ofSeconds(1);
     private static final Duration T_2 = Duration.ofSeconds(1);
     private static final ImmutableVector3 V_1 = ImmutableVector3.I;
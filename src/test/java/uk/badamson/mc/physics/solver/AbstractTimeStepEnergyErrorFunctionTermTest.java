@@ -21,6 +21,10 @@ package uk.badamson.mc.physics.solver;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.AllOf.allOf;
 import static org.hamcrest.number.OrderingComparison.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
 
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
@@ -56,6 +60,39 @@ public class AbstractTimeStepEnergyErrorFunctionTermTest {
 
     private static final IsFinite IS_FINITE = new IsFinite();
 
+    /**
+     * <p>
+     * Assert that a gradient is consistent with central finite differences of the
+     * value of a function.
+     * </p>
+     */
+    public static void assertGradientIsDerivative(final ToDoubleFunction<double[]> f, final double[] dedx,
+            final double[] x, final double h, final double tolerance) {
+        final double[] xPerturbed = Arrays.copyOf(x, x.length);
+        for (int i = 0; i < x.length; ++i) {
+            xPerturbed[i] = x[i] + h;
+            final double ePlus = f.applyAsDouble(xPerturbed);
+            xPerturbed[i] = x[i] - h;
+            final double eMinus = f.applyAsDouble(xPerturbed);
+            xPerturbed[i] = x[i];
+            final double expected = (ePlus - eMinus) / (2.0 * h);
+            assertEquals(expected, dedx[i], tolerance * (1.0 + Math.abs(expected)), "dedx[" + i + "]");
+        }
+    }
+
+    /**
+     * <p>
+     * Assert that the gradient computed by a term is consistent with central
+     * finite differences of the value of the term, with respect to the state at
+     * the end of the time-step.
+     * </p>
+     */
+    public static void assertGradientIsDerivative(final TimeStepEnergyErrorFunctionTerm term, final double[] dedx,
+            final double[] state0, final double[] state, final double dt, final double h, final double tolerance) {
+        final int n = state.length;
+        assertGradientIsDerivative((x) -> term.evaluate(new double[n], state0, x, dt), dedx, state, h, tolerance);
+    }
+
     public static void assertInvariants(final AbstractTimeStepEnergyErrorFunctionTerm term) {
         ObjectTest.assertInvariants(term);// inherited
         TimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
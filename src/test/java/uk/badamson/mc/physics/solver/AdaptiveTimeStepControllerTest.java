@@ -0,0 +1,165 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.function.DoubleFunction;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * Unit tests for the class {@link AdaptiveTimeStepController}.
+ * </p>
+ */
+public class AdaptiveTimeStepControllerTest {
+
+    /**
+     * <p>
+     * A term that has a minimum value proportional to the square of the
+     * time-step.
+     * </p>
+     */
+    private static final class ResidualTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        private final double residualScale;
+
+        ResidualTerm(final double residualScale) {
+            this.residualScale = residualScale;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double dx = state.get(0) - state0.get(0) - dt;
+            dedx[0] += dx;
+            return 0.5 * dx * dx + residualScale * dt * dt;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return n == 1;
+        }
+    }// class
+
+    public static void assertInvariants(final AdaptiveTimeStepController controller) {
+        ObjectTest.assertInvariants(controller);// inherited
+
+        final double minDt = controller.getMinDt();
+        final double maxDt = controller.getMaxDt();
+        final double dt = controller.getDt();
+        assertTrue(0.0 < controller.getTargetError(), "targetError is positive");
+        assertTrue(0.0 < minDt && minDt <= maxDt, "minDt is positive and not greater than maxDt");
+        assertTrue(minDt <= dt && dt <= maxDt, "dt <" + dt + "> in range");
+        assertTrue(0 <= controller.getNumberOfRejections(), "numberOfRejections not negative");
+    }
+
+    private static DoubleFunction<TimeStepEnergyErrorFunction> functions(final double x0,
+            final double residualScale) {
+        return (dt) -> new TimeStepEnergyErrorFunction(ImmutableVectorN.create(x0), dt,
+                Collections.singletonList(new ResidualTerm(residualScale)));
+    }
+
+    private static double step(final AdaptiveTimeStepController controller,
+            final DoubleFunction<TimeStepEnergyErrorFunction> functions, final double[] x) {
+        final double minDt = controller.getMinDt();
+        final double maxDt = controller.getMaxDt();
+
+        final double dt = controller.step(functions, x);
+
+        assertInvariants(controller);
+        assertTrue(minDt <= dt && dt <= maxDt, "Accepted dt in range");
+        assertTrue(controller.getLastError() <= controller.getTargetError() || dt == minDt,
+                "Accepted error within the target, unless at the minimum time-step");
+
+        return dt;
+    }
+
+    @Test
+    public void constructor() {
+        final AdaptiveTimeStepController controller = new AdaptiveTimeStepController(1, 1E-3, 1E-6, 10.0, 0.5, 3,
+                1E-9);
+
+        assertInvariants(controller);
+        assertEquals(1E-3, controller.getTargetError(), "targetError");
+        assertEquals(1E-6, controller.getMinDt(), "minDt");
+        assertEquals(10.0, controller.getMaxDt(), "maxDt");
+        assertEquals(0.5, controller.getDt(), "dt");
+        assertEquals(0, controller.getNumberOfRejections(), "numberOfRejections");
+        assertTrue(Double.isNaN(controller.getLastError()), "lastError");
+    }
+
+    @Test
+    public void constructor_invalidDt() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveTimeStepController(1, 1E-3, 1E-6, 10.0, 20.0, 3, 1E-9));
+    }
+
+    @Test
+    public void step_grow() {
+        final AdaptiveTimeStepController controller = new AdaptiveTimeStepController(1, 1.0, 1E-3, 4.0, 0.25, 3,
+                1E-9);
+        final double[] x = new double[1];
+        double x0 = 0.0;
+        double t = 0.0;
+        for (int s = 0; s < 8; ++s) {
+            t += step(controller, functions(x0, 1E-6), x);
+            x0 = x[0];
+        }
+
+        assertEquals(0, controller.getNumberOfRejections(), "numberOfRejections");
+        assertEquals(4.0, controller.getDt(), "Grows to the maximum time-step");
+        assertEquals(t, x[0], 1E-4, "x");
+    }
+
+    @Test
+    public void step_minimum() {
+        final AdaptiveTimeStepController controller = new AdaptiveTimeStepController(1, 1E-9, 0.01, 1.0, 1.0, 3,
+                1E-9);
+        final double[] x = new double[1];
+
+        final double dt = step(controller, functions(0.0, 1.0), x);
+
+        assertEquals(0.01, dt, "Accepts the minimum time-step");
+        assertTrue(0 < controller.getNumberOfRejections(), "Rejected larger time-steps");
+    }
+
+    @Test
+    public void step_reject() {
+        final double targetError = 1E-2;
+        final AdaptiveTimeStepController controller = new AdaptiveTimeStepController(1, targetError, 1E-6, 1.0, 1.0,
+                3, 1E-9);
+        final double[] x = new double[1];
+
+        final double dt = step(controller, functions(0.0, 1.0), x);
+
+        assertTrue(dt < 1.0, "Reduced the time-step");
+        assertTrue(dt * dt <= targetError * (1.0 + 1E-6), "Accepted time-step satisfies the target");
+        assertTrue(0 < controller.getNumberOfRejections(), "Rejected the initial time-step");
+        assertEquals(dt, x[0], 1E-4, "x");
+    }
+
+}
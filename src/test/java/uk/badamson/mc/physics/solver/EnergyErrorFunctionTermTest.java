@@ -18,6 +18,12 @@ package uk.badamson.mc.physics.solver;
  * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
  */
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
 import uk.badamson.mc.ObjectTest;
 import uk.badamson.mc.math.ImmutableVectorN;
 
@@ -29,6 +35,34 @@ import uk.badamson.mc.math.ImmutableVectorN;
  */
 public class EnergyErrorFunctionTermTest {
 
+    /**
+     * <p>
+     * A term that tends to make the difference between two state vector
+     * components equal to a given value.
+     * </p>
+     */
+    private static final class SpringTerm implements EnergyErrorFunctionTerm {
+
+        private final double length;
+
+        SpringTerm(final double length) {
+            this.length = length;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state) {
+            final double d = state.get(1) - state.get(0) - length;
+            dedx[0] -= d;
+            dedx[1] += d;
+            return 0.5 * d * d;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return 2 <= n;
+        }
+    }// class
+
     public static void assertInvariants(final EnergyErrorFunctionTerm t) {
         ObjectTest.assertInvariants(t);// inherited
     }
@@ -44,4 +78,57 @@ public class EnergyErrorFunctionTermTest {
 
         return e;
     }
-}
\ No newline at end of file
+
+    public static void evaluateBatch(final EnergyErrorFunctionTerm term, final double[] e, final double[][] dedx,
+            final double[][] x) {
+        final int nBodies = e.length;
+        final int n = x.length;
+        final double[][] dedx0 = new double[n][];
+        final double[][] xCopy = new double[n][];
+        for (int i = 0; i < n; ++i) {
+            dedx0[i] = dedx[i].clone();
+            xCopy[i] = x[i].clone();
+        }
+
+        term.evaluateBatch(e, dedx, x);
+
+        assertInvariants(term);
+        for (int i = 0; i < n; ++i) {
+            assertArrayEquals(xCopy[i], x[i], "Does not change x[" + i + "]");
+        }
+        final double[] xB = new double[n];
+        for (int b = 0; b < nBodies; ++b) {
+            final double[] dedxB = new double[n];
+            for (int i = 0; i < n; ++i) {
+                xB[i] = x[i][b];
+            }
+            final double eB = evaluate(term, dedxB, ImmutableVectorN.create(xB));
+            assertEquals(eB, e[b], 1E-12 * (1.0 + Math.abs(eB)), "Value of body " + b);
+            for (int i = 0; i < n; ++i) {
+                assertEquals(dedx0[i][b] + dedxB[i], dedx[i][b], 1E-12 * (1.0 + Math.abs(dedxB[i])),
+                        "Gradient [" + i + "] of body " + b);
+            }
+        }
+    }
+
+    @Test
+    public void evaluateBatch_spring() {
+        final double[] e = new double[3];
+        final double[][] dedx = { { 0.0, 1.0, 2.0 }, { 0.0, 0.0, -1.0 } };
+        final double[][] x = { { 0.0, 1.0, -2.0 }, { 1.0, 4.0, 3.0 } };
+
+        evaluateBatch(new SpringTerm(1.0), e, dedx, x);
+
+        assertEquals(0.0, e[0], "e[0]");
+        assertEquals(2.0, e[1], "e[1]");
+        assertEquals(8.0, e[2], "e[2]");
+    }
+
+    @Test
+    public void evaluateBatch_invalidDimension() {
+        final SpringTerm term = new SpringTerm(1.0);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> term.evaluateBatch(new double[3], new double[1][3], new double[1][3]));
+    }
+}
@@ -0,0 +1,268 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.dynamics.Newton2Error;
+
+/**
+ * <p>
+ * Unit tests for the class {@link FusedBodyError}.
+ * </p>
+ */
+public class FusedBodyErrorTest {
+
+    private static final int MASS_TERM = 0;
+    private static final int[] VELOCITY_TERM = { 1, 2 };
+    private static final int[] ACCELERATION_TERM = { 3, 4 };
+    private static final int[] ADVECTION_MASS_RATE_TERM = { 5 };
+    private static final int[] ADVECTION_VELOCITY_TERM = { 6, 7 };
+    private static final int[] FORCE_TERM = { 8, 9 };
+    private static final int N = 10;
+
+    private static final double[] STATE_0 = { 2.0, 1.0, -1.0, 0.5, 0.25, 0.125, 3.0, 2.0, -2.0, 1.0 };
+    private static final double[] STATE = { 2.5, 1.5, -0.5, 0.75, -0.25, 0.375, 2.0, 4.0, -1.0, 3.0 };
+    private static final double DT = 0.25;
+
+    public static void assertInvariants(final FusedBodyError term) {
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertInvariants(term);// inherited
+        TimeStepEnergyErrorFunctionResidualTermTest.assertInvariants(term);// inherited
+
+        final Newton2Error newton2 = term.getNewton2Error();
+        final MomentumConservationError momentum = term.getMomentumConservationError();
+        final MassConservationError mass = term.getMassConservationError();
+        final int nMembers = (newton2 == null ? 0 : 1) + (momentum == null ? 0 : 1) + (mass == null ? 0 : 1);
+        assertTrue(2 <= nMembers, "Combines at least two terms.");
+    }
+
+    private static void assertSameValues(final List<TimeStepEnergyErrorFunctionTerm> expected,
+            final List<TimeStepEnergyErrorFunctionTerm> actual) {
+        final double[] dedxExpected = new double[N];
+        final double[] dedxActual = new double[N];
+        double eExpected = 0.0;
+        double eActual = 0.0;
+        for (final TimeStepEnergyErrorFunctionTerm term : expected) {
+            eExpected += term.evaluate(dedxExpected, STATE_0, STATE, DT);
+        }
+        for (final TimeStepEnergyErrorFunctionTerm term : actual) {
+            if (term instanceof FusedBodyError) {
+                assertInvariants((FusedBodyError) term);
+            }
+            eActual += TimeStepEnergyErrorFunctionTermTest.evaluate(term, dedxActual,
+                    ImmutableVectorN.create(STATE_0), ImmutableVectorN.create(STATE), DT);
+        }
+
+        final double tolerance = 1E-12 * (1.0 + Math.abs(eExpected));
+        assertEquals(eExpected, eActual, tolerance, "Same error as the separate terms");
+        assertArrayEquals(dedxExpected, dedxActual, tolerance, "Same gradient as the separate terms");
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative((x) -> {
+            double e = 0.0;
+            for (final TimeStepEnergyErrorFunctionTerm term : actual) {
+                e += term.evaluate(new double[N], STATE_0, x, DT);
+            }
+            return e;
+        }, dedxActual, STATE, 1E-6, 1E-6);
+    }
+
+    private static List<TimeStepEnergyErrorFunctionTerm> fuse(final TimeStepEnergyErrorFunctionTerm... terms) {
+        final List<TimeStepEnergyErrorFunctionTerm> termList = Arrays.asList(terms);
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = FusedBodyError.fuse(termList);
+
+        assertSameValues(termList, fused);
+        return fused;
+    }
+
+    private static void fuse_all(final boolean massTransferInto, final boolean forceOn) {
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(newton2(massTransferInto, forceOn),
+                momentum(massTransferInto, forceOn), mass(massTransferInto));
+
+        assertEquals(1, fused.size(), "Number of terms");
+        assertTrue(fused.get(0) instanceof FusedBodyError, "Combined term");
+        evaluateResiduals((FusedBodyError) fused.get(0));
+    }
+
+    private static void evaluateResiduals(final FusedBodyError term) {
+        final int nNewton2 = term.getNewton2Error() == null ? 0 : term.getNewton2Error().getNumberOfResiduals();
+        final int nMomentum = term.getMomentumConservationError() == null ? 0
+                : term.getMomentumConservationError().getNumberOfResiduals();
+        final int nMass = term.getMassConservationError() == null ? 0
+                : term.getMassConservationError().getNumberOfResiduals();
+
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, STATE_0, STATE, DT, 1E-6);
+
+        assertEquals(nNewton2 + nMomentum + nMass, term.getNumberOfResiduals(),
+                "The residuals are the residuals of the combined terms");
+    }
+
+    private static MassConservationError mass(final boolean massTransferInto) {
+        return new MassConservationError(2.0, 3.0, MASS_TERM, new boolean[] { massTransferInto },
+                ADVECTION_MASS_RATE_TERM);
+    }
+
+    private static MomentumConservationError momentum(final boolean massTransferInto, final boolean forceOn) {
+        return new MomentumConservationError(MASS_TERM, VELOCITY_TERM, new boolean[] { massTransferInto },
+                ADVECTION_MASS_RATE_TERM, ADVECTION_VELOCITY_TERM, new boolean[] { forceOn }, FORCE_TERM);
+    }
+
+    private static Newton2Error newton2(final boolean massTransferInto, final boolean forceOn) {
+        return new Newton2Error(2.0, 0.5, MASS_TERM, VELOCITY_TERM, ACCELERATION_TERM,
+                new boolean[] { massTransferInto }, ADVECTION_MASS_RATE_TERM, ADVECTION_VELOCITY_TERM,
+                new boolean[] { forceOn }, FORCE_TERM);
+    }
+
+    private static int[] shift(final int[] terms, final int offset) {
+        final int[] shifted = new int[terms.length];
+        for (int i = 0; i < terms.length; ++i) {
+            shifted[i] = terms[i] + offset;
+        }
+        return shifted;
+    }
+
+    @Test
+    public void evaluatePrepared_all() {
+        final FusedBodyError term = (FusedBodyError) fuse(newton2(true, false), momentum(true, false), mass(true))
+                .get(0);
+
+        TimeStepEnergyErrorFunctionTermTest.evaluatePrepared(term, new double[N], STATE_0, STATE, DT);
+    }
+
+    @Test
+    public void evaluatePrepared_newton2AndMass() {
+        final FusedBodyError term = (FusedBodyError) fuse(newton2(false, true), mass(false)).get(0);
+
+        TimeStepEnergyErrorFunctionTermTest.evaluatePrepared(term, new double[N], STATE_0, STATE, DT);
+    }
+
+    @Test
+    public void fuse_allA() {
+        fuse_all(true, true);
+    }
+
+    @Test
+    public void fuse_allB() {
+        fuse_all(false, false);
+    }
+
+    @Test
+    public void fuse_differentLayouts() {
+        final Newton2Error newton2 = newton2(true, true);
+        final MomentumConservationError momentum = momentum(true, false);
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(newton2, momentum);
+
+        assertEquals(2, fused.size(), "Number of terms");
+        assertSame(newton2, fused.get(0), "Does not combine terms for different bodies [0]");
+        assertSame(momentum, fused.get(1), "Does not combine terms for different bodies [1]");
+    }
+
+    @Test
+    public void fuse_duplicate() {
+        final Newton2Error newton2 = newton2(true, true);
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(newton2, newton2, mass(true));
+
+        assertEquals(2, fused.size(), "Number of terms");
+        assertTrue(fused.get(0) instanceof FusedBodyError, "Combined term");
+        assertSame(newton2, fused.get(1), "Duplicate term");
+    }
+
+    @Test
+    public void fuse_manyBodies() {
+        final int nBodies = 100;
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>(3 * nBodies);
+        for (int b = 0; b < nBodies; ++b) {
+            terms.add(new MomentumConservationError(N * b + MASS_TERM, shift(VELOCITY_TERM, N * b),
+                    new boolean[] { true }, shift(ADVECTION_MASS_RATE_TERM, N * b),
+                    shift(ADVECTION_VELOCITY_TERM, N * b), new boolean[] { true }, shift(FORCE_TERM, N * b)));
+        }
+        for (int b = nBodies - 1; 0 <= b; --b) {
+            terms.add(new MassConservationError(2.0, 3.0, N * b + MASS_TERM, new boolean[] { true },
+                    shift(ADVECTION_MASS_RATE_TERM, N * b)));
+        }
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = FusedBodyError.fuse(terms);
+
+        assertEquals(nBodies, fused.size(), "Number of terms");
+        for (int b = 0; b < nBodies; ++b) {
+            final FusedBodyError term = (FusedBodyError) fused.get(b);
+            assertInvariants(term);
+            assertSame(terms.get(b), term.getMomentumConservationError(), "Combined term in order [" + b + "]");
+            assertEquals(N * b + MASS_TERM, term.getMassConservationError().getMassTerm(), "Same body [" + b + "]");
+        }
+    }
+
+    @Test
+    public void fuse_momentumAndMass() {
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(momentum(false, true), mass(false));
+
+        assertEquals(1, fused.size(), "Number of terms");
+        assertTrue(fused.get(0) instanceof FusedBodyError, "Combined term");
+        evaluateResiduals((FusedBodyError) fused.get(0));
+    }
+
+    @Test
+    public void fuse_newton2AndMass() {
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(mass(true), newton2(true, false));
+
+        assertEquals(1, fused.size(), "Number of terms");
+        assertTrue(fused.get(0) instanceof FusedBodyError, "Combined term");
+        evaluateResiduals((FusedBodyError) fused.get(0));
+    }
+
+    @Test
+    public void fuse_single() {
+        final Newton2Error newton2 = newton2(true, true);
+
+        final List<TimeStepEnergyErrorFunctionTerm> fused = fuse(newton2);
+
+        assertEquals(Arrays.asList(newton2), fused, "Does not change a term that can not be combined");
+    }
+
+    @Test
+    public void remap() {
+        final int offset = 5;
+        final Newton2Error newton2 = new Newton2Error(2.0, 0.5, MASS_TERM + offset, shift(VELOCITY_TERM, offset),
+                shift(ACCELERATION_TERM, offset), new boolean[] { true }, shift(ADVECTION_MASS_RATE_TERM, offset),
+                shift(ADVECTION_VELOCITY_TERM, offset), new boolean[] { false }, shift(FORCE_TERM, offset));
+        final MomentumConservationError momentum = new MomentumConservationError(MASS_TERM + offset,
+                shift(VELOCITY_TERM, offset), new boolean[] { true }, shift(ADVECTION_MASS_RATE_TERM, offset),
+                shift(ADVECTION_VELOCITY_TERM, offset), new boolean[] { false }, shift(FORCE_TERM, offset));
+        final FusedBodyError term = (FusedBodyError) FusedBodyError.fuse(Arrays.asList(newton2, momentum)).get(0);
+
+        final TimeStepEnergyErrorFunctionTerm remapped = TimeStepEnergyErrorFunctionTermTest.remap(term,
+                N + offset, DT);
+
+        assertTrue(remapped instanceof FusedBodyError, "Remapped term is combined");
+        assertInvariants((FusedBodyError) remapped);
+        assertEquals(MASS_TERM, ((FusedBodyError) remapped).getNewton2Error().getMassTerm(), "massTerm");
+    }
+
+}
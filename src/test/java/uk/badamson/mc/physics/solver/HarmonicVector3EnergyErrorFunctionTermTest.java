@@ -0,0 +1,135 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicVector3;
+import uk.badamson.mc.physics.HarmonicVector3Test;
+
+/**
+ * <p>
+ * Unit tests and auxiliary test code for classes that implement the interface
+ * {@link HarmonicVector3EnergyErrorFunctionTerm}.
+ * </p>
+ */
+public class HarmonicVector3EnergyErrorFunctionTermTest {
+
+    @Nested
+    public class Adapt {
+
+        @Test
+        public void function() {
+            final var value = new HarmonicVector3EnergyErrorValueAndGradients(2, ImmutableVector3.create(3, 5, 7),
+                    ImmutableVector3.create(11, 13, 17), ImmutableVector3.create(19, 23, 29),
+                    ImmutableVector3.create(4, 6, 8), ImmutableVector3.create(10, 12, 14), 16, 18);
+            final Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients> f = (v) -> value;
+
+            final var term = adapt(f);
+
+            assertEquals(value, apply(term, V), "Computes the value of the adapted functor");
+            final double[] dedx = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+            Arrays.fill(dedx, 1.0);
+            final double e = evaluate(term, dedx, V);
+            assertEquals(2.0, e, "e");
+            assertEquals(4.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF0], "dedf0[0]");
+            assertEquals(14.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF1 + 1], "dedf1[1]");
+            assertEquals(30.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF2 + 2], "dedf2[2]");
+            assertEquals(7.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFC + 1], "dedfc[1]");
+            assertEquals(11.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFS], "dedfs[0]");
+            assertEquals(17.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWE], "dedwe");
+            assertEquals(19.0, dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWH], "dedwh");
+        }
+
+        @Test
+        public void term() {
+            final HarmonicVector3EnergyErrorFunctionTerm term = HarmonicVector3EnergyErrorFunctionTerms
+                    .createValueTerm(1.0, Duration.ofSeconds(2), ImmutableVector3.I);
+
+            assertSame(term, adapt(term), "Returns a given term");
+        }
+
+        private HarmonicVector3EnergyErrorFunctionTerm adapt(
+                final Function<HarmonicVector3, HarmonicVector3EnergyErrorValueAndGradients> f) {
+            final var term = HarmonicVector3EnergyErrorFunctionTerm.adapt(f);
+
+            assertNotNull(term, "Not null, result");
+            assertInvariants(term);
+
+            return term;
+        }
+    }// class
+
+    private static final HarmonicVector3 V = new HarmonicVector3(Duration.ofSeconds(1), ImmutableVector3.I,
+            ImmutableVector3.J, ImmutableVector3.K, ImmutableVector3.I, ImmutableVector3.J, 0.5, 2.0);
+
+    public static HarmonicVector3EnergyErrorValueAndGradients apply(final HarmonicVector3EnergyErrorFunctionTerm term,
+            final HarmonicVector3 v) {
+        final var result = term.apply(v);
+
+        assertInvariants(term);
+        assertNotNull(result, "Not null, result");
+        HarmonicVector3Test.assertInvariants(v);// check for side effects
+        HarmonicVector3EnergyErrorValueAndGradientsTest.assertInvariants(result);
+        final double[] dedx = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+        final double e = term.evaluate(dedx, v);
+        assertEquals(e, result.getE(), "Same value as evaluate");
+        assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWE], result.getDedwe(), "Same dedwe as evaluate");
+        assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDWH], result.getDedwh(), "Same dedwh as evaluate");
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF0 + i], result.getDedf0().get(i),
+                    "Same dedf0 as evaluate [" + i + "]");
+            assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF1 + i], result.getDedf1().get(i),
+                    "Same dedf1 as evaluate [" + i + "]");
+            assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDF2 + i], result.getDedf2().get(i),
+                    "Same dedf2 as evaluate [" + i + "]");
+            assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFC + i], result.getDedfc().get(i),
+                    "Same dedfc as evaluate [" + i + "]");
+            assertEquals(dedx[HarmonicVector3EnergyErrorFunctionTerm.DEDFS + i], result.getDedfs().get(i),
+                    "Same dedfs as evaluate [" + i + "]");
+        }
+
+        return result;
+    }
+
+    public static void assertInvariants(final HarmonicVector3EnergyErrorFunctionTerm term) {
+        ObjectTest.assertInvariants(term);// inherited
+    }
+
+    public static double evaluate(final HarmonicVector3EnergyErrorFunctionTerm term, final double[] dedx,
+            final HarmonicVector3 v) {
+        final double e = term.evaluate(dedx, v);
+
+        assertInvariants(term);
+        HarmonicVector3Test.assertInvariants(v);// check for side effects
+
+        return e;
+    }
+}
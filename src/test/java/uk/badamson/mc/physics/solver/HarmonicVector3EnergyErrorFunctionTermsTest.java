@@ -20,6 +20,7 @@ package uk.badamson.mc.physics.solver;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
@@ -85,6 +86,50 @@ public class HarmonicVector3EnergyErrorFunctionTermsTest {
             }
         }// class
 
+        @Nested
+        public class Gradient {
+
+            @Test
+            public void accumulates() {
+                final var term = HarmonicVector3EnergyErrorFunctionTerms.createValueTerm(2.0, T_3, F_4);
+                final double[] dedx1 = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+                final double[] dedx2 = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+                HarmonicVector3EnergyErrorFunctionTermTest.evaluate(term, dedx1, v1);
+                HarmonicVector3EnergyErrorFunctionTermTest.evaluate(term, dedx2, v1);
+
+                HarmonicVector3EnergyErrorFunctionTermTest.evaluate(term, dedx2, v1);
+
+                for (int k = 0; k < dedx1.length; ++k) {
+                    assertEquals(2.0 * dedx1[k], dedx2[k], "Adds to the gradient [" + k + "]");
+                }
+            }
+
+            @Test
+            public void decaying() {
+                test(1.0, Duration.ofMillis(2500), F_5,
+                        new HarmonicVector3(T_2, F_1, F_2, F_3, F_4, F_5, -0.5, 3.0));
+            }
+
+            @Test
+            public void growing() {
+                test(2.0, Duration.ofMillis(1200), F_1, new HarmonicVector3(T_1, F_4, F_3, F_2, F_1, F_5, 0.25, 1.5));
+            }
+
+            private void test(final double scale, @NonNull final Duration t, final ImmutableVector3 wanted,
+                    final HarmonicVector3 actual) {
+                final var term = HarmonicVector3EnergyErrorFunctionTerms.createValueTerm(scale, t, wanted);
+                final double[] dedx = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+                final double e = HarmonicVector3EnergyErrorFunctionTermTest.evaluate(term, dedx, actual);
+                HarmonicVector3EnergyErrorFunctionTermTest.apply(term, actual);
+                final double h = 1E-6;
+
+                assertEquals(scale * actual.at(t).minus(wanted).magnitude2(), e, 1E-9 * (1.0 + e), "e");
+                AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(
+                        (p) -> term.apply(harmonicVector3(actual.getT0(), p)).getE(), dedx, parameters(actual), h,
+                        1E-5);
+            }
+        }// class
+
         @Nested
         public class HasWanted {
 
@@ -347,6 +392,12 @@ public class HarmonicVector3EnergyErrorFunctionTermsTest {
             final var errorAndGradients = HarmonicVector3EnergyErrorFunctionTermsTest.apply(term, actual);
             HarmonicVector3EnergyErrorValueAndGradientsTest.assertEquals(expectedErrorAndGradients, errorAndGradients,
                     delta, wScale, fScale, "error");
+
+            final var nanosTerm = HarmonicVector3EnergyErrorFunctionTerms.createValueTerm(scale, t.toNanos(), wanted);
+            assertNotNull(nanosTerm, "Always returns a term [nanoseconds].");// guard
+            final var nanosErrorAndGradients = HarmonicVector3EnergyErrorFunctionTermsTest.apply(nanosTerm, actual);
+            assertEquals(errorAndGradients, nanosErrorAndGradients,
+                    "Same error and gradients for the time expressed in nanoseconds");
         }
 
     }// class
@@ -409,6 +460,30 @@ public class HarmonicVector3EnergyErrorFunctionTermsTest {
         return result;
     }
 
+    private static HarmonicVector3 harmonicVector3(final Duration t0, final double[] p) {
+        return new HarmonicVector3(t0, ImmutableVector3.create(p[0], p[1], p[2]),
+                ImmutableVector3.create(p[3], p[4], p[5]), ImmutableVector3.create(p[6], p[7], p[8]),
+                ImmutableVector3.create(p[9], p[10], p[11]), ImmutableVector3.create(p[12], p[13], p[14]), p[15],
+                p[16]);
+    }
+
+    /*
+     * In the layout used by HarmonicVector3EnergyErrorFunctionTerm.
+     */
+    private static double[] parameters(final HarmonicVector3 v) {
+        final double[] p = new double[HarmonicVector3EnergyErrorFunctionTerm.GRADIENT_LENGTH];
+        for (int i = 0; i < 3; ++i) {
+            p[HarmonicVector3EnergyErrorFunctionTerm.DEDF0 + i] = v.getF0().get(i);
+            p[HarmonicVector3EnergyErrorFunctionTerm.DEDF1 + i] = v.getF1().get(i);
+            p[HarmonicVector3EnergyErrorFunctionTerm.DEDF2 + i] = v.getF2().get(i);
+            p[HarmonicVector3EnergyErrorFunctionTerm.DEDFC + i] = v.getFc().get(i);
+            p[HarmonicVector3EnergyErrorFunctionTerm.DEDFS + i] = v.getFs().get(i);
+        }
+        p[HarmonicVector3EnergyErrorFunctionTerm.DEDWE] = v.getWe();
+        p[HarmonicVector3EnergyErrorFunctionTerm.DEDWH] = v.getWh();
+        return p;
+    }
+
     @BeforeAll
     public static void setUp() {
         v1 = new HarmonicVector3(T_1, F_1, F_2, F_3, F_1, F_2, 3, 4);
@@ -214,6 +214,38 @@ public class HarmonicVector3EnergyErrorFunctionTest {
             test(index0, scale, e, dedf0, dedf1, dedf2, dedfc, dedfs, dedwe, dedwh);
         }
 
+        @Test
+        public void accumulatingTerms() {
+            final var mapper = mapper2;
+            final var term3 = HarmonicVector3EnergyErrorFunctionTerms.createValueTerm(2.0, Duration.ofMillis(2500),
+                    ImmutableVector3.create(1, 2, 3));
+            final var term4 = HarmonicVector3EnergyErrorFunctionTerms.createValueTerm(0.5, Duration.ofMillis(1900),
+                    ImmutableVector3.I);
+            final var f = new HarmonicVector3EnergyErrorFunction(mapper, List.of(term2, term3, term4));
+            final double[] stateElements = new double[mapper.getMinimumStateSpaceDimension()];
+            mapper.fromObject(stateElements, v1);
+            final ImmutableVectorN state = ImmutableVectorN.create(stateElements);
+            final var expected = f.apply(mapper.toObject(state));
+
+            final FunctionNWithGradientValue value = value(f, state);
+
+            final double precision = 1E-12;
+            assertEquals(expected.getE(), value.getF(), precision * (1.0 + Math.abs(expected.getE())), "e");
+            final ImmutableVectorN dfDx = value.getDfDx();
+            assertEquals(expected.getDedwe(), dfDx.get(mapper.getWeIndex()),
+                    precision * (1.0 + Math.abs(expected.getDedwe())), "dedwe");
+            assertEquals(expected.getDedwh(), dfDx.get(mapper.getWhIndex()),
+                    precision * (1.0 + Math.abs(expected.getDedwh())), "dedwh");
+            for (int i = 0; i < 3; ++i) {
+                final double dedfc = expected.getDedfc().get(i);
+                final double dedfs = expected.getDedfs().get(i);
+                assertEquals(dedfc, dfDx.get(mapper.getFcMapper().getComponentIndex(i)),
+                        precision * (1.0 + Math.abs(dedfc)), "dedfc [" + i + "]");
+                assertEquals(dedfs, dfDx.get(mapper.getFsMapper().getComponentIndex(i)),
+                        precision * (1.0 + Math.abs(dedfs)), "dedfs [" + i + "]");
+            }
+        }
+
         private void test(final int index0, final Duration scale, final double e, final ImmutableVector3 dedf0,
                 final ImmutableVector3 dedf1, final ImmutableVector3 dedf2, final ImmutableVector3 dedfc,
                 final ImmutableVector3 dedfs, final double dedwe, final double dedwh) {
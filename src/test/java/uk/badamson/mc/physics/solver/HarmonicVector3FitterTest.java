@@ -0,0 +1,274 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVector3;
+import uk.badamson.mc.physics.HarmonicVector3;
+import uk.badamson.mc.physics.HarmonicVector3Test;
+
+/**
+ * <p>
+ * Unit tests for the class {@link HarmonicVector3Fitter}.
+ * </p>
+ */
+public class HarmonicVector3FitterTest {
+
+    @Nested
+    public class Constructor {
+
+        @Test
+        public void empty() {
+            constructor(T_0, new long[0], new double[0]);
+        }
+
+        @Test
+        public void inconsistentLength() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new HarmonicVector3Fitter(T_0, new long[] { 1L, 2L }, new double[5]));
+        }
+
+        @Test
+        public void notFinite() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new HarmonicVector3Fitter(T_0, new long[] { 1L }, new double[] { 0, Double.NaN, 0 }));
+        }
+
+        @Test
+        public void several() {
+            final long[] t = times(7);
+
+            constructor(T_0, t, sample(V_1, t));
+        }
+    }// class
+
+    @Nested
+    public class FitFrequencies {
+
+        @Test
+        public void converged() {
+            test(V_1, V_1.getWe(), V_1.getWh());
+        }
+
+        @Test
+        public void empty() {
+            final var fitter = constructor(T_0, new long[0], new double[0]);
+
+            final HarmonicVector3 v = fit(fitter, 0.5, 1.0, 1E-9);
+
+            assertEquals(0.0, fitter.sumOfSquares(v), "sumOfSquares");
+        }
+
+        @Test
+        public void invalidTolerance() {
+            final long[] t = times(7);
+            final var fitter = new HarmonicVector3Fitter(T_0, t, sample(V_1, t));
+
+            assertThrows(IllegalArgumentException.class, () -> fitter.fit(0.5, 1.0, 0.0));
+            assertThrows(IllegalArgumentException.class, () -> fitter.fit(0.5, 1.0, 1.0));
+        }
+
+        @Test
+        public void nearA() {
+            test(V_1, -0.27, 2.1);
+        }
+
+        @Test
+        public void nearB() {
+            test(V_2, 0.22, 0.8);
+        }
+
+        private void test(final HarmonicVector3 expected, final double we0, final double wh0) {
+            final long[] t = times(80);
+            final var fitter = constructor(T_0, t, sample(expected, t));
+            final double e0 = fitter.sumOfSquares(fitter.fit(we0, wh0));
+
+            final HarmonicVector3 v = fit(fitter, we0, wh0, 1E-12);
+
+            final double e = fitter.sumOfSquares(v);
+            assertTrue(e <= e0, "Did not increase the sum of squares");
+            assertEquals(0.0, e, 1E-12, "sumOfSquares");
+            assertEquals(expected.getWe(), v.getWe(), 1E-6, "we");
+            assertEquals(expected.getWh(), v.getWh(), 1E-6, "wh");
+        }
+    }// class
+
+    @Nested
+    public class FitLinear {
+
+        @Test
+        public void exactA() {
+            test(V_1);
+        }
+
+        @Test
+        public void exactB() {
+            test(V_2);
+        }
+
+        @Test
+        public void invalidFrequency() {
+            final long[] t = times(7);
+            final var fitter = new HarmonicVector3Fitter(T_0, t, sample(V_1, t));
+
+            assertThrows(IllegalArgumentException.class, () -> fitter.fit(Double.NaN, 1.0));
+            assertThrows(IllegalArgumentException.class, () -> fitter.fit(1.0, Double.POSITIVE_INFINITY));
+        }
+
+        @Test
+        public void leastSquares() {
+            final long[] t = times(40);
+            final double[] f = sample(V_1, t);
+            for (int k = 0; k < f.length; ++k) {
+                f[k] += 0.01 * Math.sin(7.0 * k);
+            }
+            final var fitter = constructor(T_0, t, f);
+
+            final HarmonicVector3 v = fit(fitter, V_1.getWe(), V_1.getWh());
+
+            final double e = fitter.sumOfSquares(v);
+            final double h = 1E-3;
+            final ImmutableVector3[] perturbations = { ImmutableVector3.I.scale(h), ImmutableVector3.J.scale(-h),
+                    ImmutableVector3.K.scale(h) };
+            for (final ImmutableVector3 d : perturbations) {
+                assertTrue(e <= fitter.sumOfSquares(new HarmonicVector3(T_0, v.getF0().plus(d), v.getF1(), v.getF2(),
+                        v.getFc(), v.getFs(), v.getWe(), v.getWh())), "f0 is optimal");
+                assertTrue(e <= fitter.sumOfSquares(new HarmonicVector3(T_0, v.getF0(), v.getF1(), v.getF2(),
+                        v.getFc().plus(d), v.getFs(), v.getWe(), v.getWh())), "fc is optimal");
+                assertTrue(e <= fitter.sumOfSquares(new HarmonicVector3(T_0, v.getF0(), v.getF1(), v.getF2(),
+                        v.getFc(), v.getFs().plus(d), v.getWe(), v.getWh())), "fs is optimal");
+            }
+        }
+
+        @Test
+        public void noExponential() {
+            /*
+             * With a zero exponential frequency, the linear and quadratic terms are
+             * zero and can not be fitted.
+             */
+            final HarmonicVector3 expected = new HarmonicVector3(T_0, F_1, ImmutableVector3.ZERO,
+                    ImmutableVector3.ZERO, F_2, F_3, 0.0, 1.5);
+            final long[] t = times(30);
+            final var fitter = constructor(T_0, t, sample(expected, t));
+
+            final HarmonicVector3 v = fit(fitter, 0.0, 1.5);
+
+            assertEquals(0.0, fitter.sumOfSquares(v), 1E-20, "sumOfSquares");
+            assertEquals(ImmutableVector3.ZERO, v.getF1(), "f1");
+            assertEquals(ImmutableVector3.ZERO, v.getF2(), "f2");
+        }
+
+        private void test(final HarmonicVector3 expected) {
+            final long[] t = times(50);
+            final var fitter = constructor(T_0, t, sample(expected, t));
+
+            final HarmonicVector3 v = fit(fitter, expected.getWe(), expected.getWh());
+
+            assertEquals(expected.getWe(), v.getWe(), "we");
+            assertEquals(expected.getWh(), v.getWh(), "wh");
+            assertEquals(0.0, fitter.sumOfSquares(v), 1E-18, "sumOfSquares");
+            final double precision = 1E-7;
+            assertTrue(expected.getF0().minus(v.getF0()).magnitude() <= precision, "f0");
+            assertTrue(expected.getF1().minus(v.getF1()).magnitude() <= precision, "f1");
+            assertTrue(expected.getF2().minus(v.getF2()).magnitude() <= precision, "f2");
+            assertTrue(expected.getFc().minus(v.getFc()).magnitude() <= precision, "fc");
+            assertTrue(expected.getFs().minus(v.getFs()).magnitude() <= precision, "fs");
+        }
+    }// class
+
+    private static final Duration T_0 = Duration.ofSeconds(1);
+    private static final ImmutableVector3 F_1 = ImmutableVector3.create(1, 2, 3);
+    private static final ImmutableVector3 F_2 = ImmutableVector3.create(-1, 0.5, 0);
+    private static final ImmutableVector3 F_3 = ImmutableVector3.create(0, 0.25, 2);
+    private static final HarmonicVector3 V_1 = new HarmonicVector3(T_0, F_1, F_2, F_3, F_3, F_2, -0.3, 2.0);
+    private static final HarmonicVector3 V_2 = new HarmonicVector3(T_0, F_3, F_1, ImmutableVector3.ZERO, F_2, F_1,
+            0.2, 0.75);
+
+    public static void assertInvariants(final HarmonicVector3Fitter fitter) {
+        ObjectTest.assertInvariants(fitter);// inherited
+
+        assertNotNull(fitter.getT0(), "Not null, t0");
+        assertTrue(0 <= fitter.getNumberOfSamples(), "numberOfSamples not negative");
+    }
+
+    private static HarmonicVector3Fitter constructor(final Duration t0, final long[] t, final double[] f) {
+        final var fitter = new HarmonicVector3Fitter(t0, t, f);
+
+        assertInvariants(fitter);
+        assertSame(t0, fitter.getT0(), "t0");
+        assertEquals(t.length, fitter.getNumberOfSamples(), "numberOfSamples");
+
+        return fitter;
+    }
+
+    private static HarmonicVector3 fit(final HarmonicVector3Fitter fitter, final double we, final double wh) {
+        final HarmonicVector3 v = fitter.fit(we, wh);
+
+        assertInvariants(fitter);
+        assertNotNull(v, "Not null, result");
+        HarmonicVector3Test.assertInvariants(v);
+        assertEquals(fitter.getT0(), v.getT0(), "t0");
+        assertEquals(we, v.getWe(), "we");
+        assertEquals(wh, v.getWh(), "wh");
+
+        return v;
+    }
+
+    private static HarmonicVector3 fit(final HarmonicVector3Fitter fitter, final double we0, final double wh0,
+            final double tolerance) {
+        final HarmonicVector3 v = fitter.fit(we0, wh0, tolerance);
+
+        assertInvariants(fitter);
+        assertNotNull(v, "Not null, result");
+        HarmonicVector3Test.assertInvariants(v);
+        assertEquals(fitter.getT0(), v.getT0(), "t0");
+
+        return v;
+    }
+
+    private static double[] sample(final HarmonicVector3 v, final long[] t) {
+        final double[] f = new double[3 * t.length];
+        for (int k = 0; k < t.length; ++k) {
+            final ImmutableVector3 value = v.atNanos(t[k]);
+            for (int i = 0; i < 3; ++i) {
+                f[3 * k + i] = value.get(i);
+            }
+        }
+        return f;
+    }
+
+    private static long[] times(final int n) {
+        final long[] t = new long[n];
+        for (int k = 0; k < n; ++k) {
+            t[k] = T_0.toNanos() + 50_000_000L * (k - n / 2);
+        }
+        return t;
+    }
+}
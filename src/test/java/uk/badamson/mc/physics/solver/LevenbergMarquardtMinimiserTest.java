@@ -0,0 +1,403 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVectorN;
+import uk.badamson.mc.physics.dynamics.Newton2Error;
+
+/**
+ * <p>
+ * Unit tests for the class {@link LevenbergMarquardtMinimiser}.
+ * </p>
+ */
+public class LevenbergMarquardtMinimiserTest {
+
+    /**
+     * <p>
+     * A term with one residual, the difference between two state vector
+     * components minus a given value.
+     * </p>
+     */
+    private static final class DifferenceTerm extends AbstractTimeStepEnergyErrorFunctionTerm
+            implements TimeStepEnergyErrorFunctionResidualTerm {
+
+        private final int index1;
+        private final int index2;
+        private final double value;
+
+        DifferenceTerm(final int index1, final int index2, final double value) {
+            this.index1 = index1;
+            this.index2 = index2;
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double r = state.get(index2) - state.get(index1) - value;
+            dedx[index1] -= r;
+            dedx[index2] += r;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt) {
+            final double r = state[index2] - state[index1] - value;
+            dedx[index1] -= r;
+            dedx[index2] += r;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+                final double[] state, final double dt) {
+            final double r = state[index2] - state[index1] - value;
+            residuals[0] = r;
+            jacobian[0] = -1.0;
+            jacobian[1] = 1.0;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public int[] getIndexFootprint(final int n) {
+            return new int[] { index1, index2 };
+        }
+
+        @Override
+        public int getNumberOfResiduals() {
+            return 1;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return index1 < n && index2 < n;
+        }
+    }// class
+
+    /**
+     * <p>
+     * A term with one residual, the difference between one state vector component
+     * and a given value.
+     * </p>
+     */
+    private static final class FixTerm extends AbstractTimeStepEnergyErrorFunctionTerm
+            implements TimeStepEnergyErrorFunctionResidualTerm {
+
+        private final int index;
+        private final double value;
+
+        FixTerm(final int index, final double value) {
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double r = state.get(index) - value;
+            dedx[index] += r;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final double[] state0, final double[] state, final double dt) {
+            final double r = state[index] - value;
+            dedx[index] += r;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+                final double[] state, final double dt) {
+            final double r = state[index] - value;
+            residuals[0] = r;
+            jacobian[0] = 1.0;
+            return 0.5 * r * r;
+        }
+
+        @Override
+        public int[] getIndexFootprint(final int n) {
+            return new int[] { index };
+        }
+
+        @Override
+        public int getNumberOfResiduals() {
+            return 1;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return index < n;
+        }
+    }// class
+
+    private static final class PlainTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            return 0.0;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return true;
+        }
+    }// class
+
+    /**
+     * <p>
+     * The Rosenbrock function, as a sum of squares of residuals.
+     * </p>
+     */
+    private static final class RosenbrockTerm extends AbstractTimeStepEnergyErrorFunctionTerm
+            implements TimeStepEnergyErrorFunctionResidualTerm {
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double x0 = state.get(0);
+            final double x1 = state.get(1);
+            final double a = 1.0 - x0;
+            final double b = x1 - x0 * x0;
+            dedx[0] += -a - 200.0 * x0 * b;
+            dedx[1] += 100.0 * b;
+            return 0.5 * (a * a + 100.0 * b * b);
+        }
+
+        @Override
+        public double evaluateResiduals(final double[] residuals, final double[] jacobian, final double[] state0,
+                final double[] state, final double dt) {
+            final double x0 = state[0];
+            final double x1 = state[1];
+            residuals[0] = 1.0 - x0;
+            residuals[1] = 10.0 * (x1 - x0 * x0);
+            jacobian[0] = -1.0;
+            jacobian[1] = 0.0;
+            jacobian[2] = -20.0 * x0;
+            jacobian[3] = 10.0;
+            return 0.5 * (residuals[0] * residuals[0] + residuals[1] * residuals[1]);
+        }
+
+        @Override
+        public int[] getIndexFootprint(final int n) {
+            return new int[] { 0, 1 };
+        }
+
+        @Override
+        public int getNumberOfResiduals() {
+            return 2;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return 2 <= n;
+        }
+    }// class
+
+    public static void assertInvariants(final LevenbergMarquardtMinimiser minimiser) {
+        ObjectTest.assertInvariants(minimiser);// inherited
+
+        assertTrue(0 < minimiser.getDimension(), "dimension is positive");
+    }
+
+    private static void constructor(final int dimension) {
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(dimension);
+
+        assertInvariants(minimiser);
+        assertEquals(dimension, minimiser.getDimension(), "dimension");
+    }
+
+    private static double minimise(final LevenbergMarquardtMinimiser minimiser, final TimeStepEnergyErrorFunction f,
+            final double[] x, final double tolerance) {
+        final double e0 = f.evaluateInto(Arrays.copyOf(x, x.length), new double[x.length]);
+
+        final double e = minimiser.minimise(f, x, tolerance);
+
+        assertInvariants(minimiser);
+        assertTrue(e <= e0, "Does not increase the value");
+        final double eX = f.evaluateInto(x, new double[x.length]);
+        assertEquals(eX, e, 1E-12 * (1.0 + Math.abs(e)), "Returns the value at the minimum found");
+
+        return e;
+    }
+
+    private static TimeStepEnergyErrorFunction function(final double[] x0, final double dt,
+            final TimeStepEnergyErrorFunctionTerm... terms) {
+        return new TimeStepEnergyErrorFunction(ImmutableVectorN.create(x0), dt, Arrays.asList(terms));
+    }
+
+    @Test
+    public void constructor_1() {
+        constructor(1);
+    }
+
+    @Test
+    public void constructor_3() {
+        constructor(3);
+    }
+
+    @Test
+    public void constructor_invalidDimension() {
+        assertThrows(IllegalArgumentException.class, () -> new LevenbergMarquardtMinimiser(0));
+    }
+
+    @Test
+    public void minimise_body() {
+        /* State vector: mass, velocity, acceleration, force. */
+        final double massReference = 2.0;
+        final double dt = 0.5;
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(
+                new MassConservationError(massReference, 1.0, 0, new boolean[] {}, new int[] {}),
+                new MomentumConservationError(0, new int[] { 1 }, new boolean[] {}, new int[] {}, new int[] {},
+                        new boolean[] { true }, new int[] { 3 }),
+                new Newton2Error(massReference, 1.0, 0, new int[] { 1 }, new int[] { 2 }, new boolean[] {},
+                        new int[] {}, new int[] {}, new boolean[] { true }, new int[] { 3 }),
+                new FixTerm(3, 2.0));
+        final double[] state0 = { 2.0, 1.0, 1.0, 2.0 };
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(state0), dt,
+                terms);
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(4);
+        final double[] x = Arrays.copyOf(state0, 4);
+
+        final double e = minimise(minimiser, f, x, 1E-12);
+
+        assertEquals(0.0, e, 1E-12, "e");
+        assertEquals(2.0, x[0], 1E-6, "mass");
+        assertEquals(1.5, x[1], 1E-6, "velocity");
+        assertEquals(1.0, x[2], 1E-6, "acceleration");
+        assertEquals(2.0, x[3], 1E-6, "force");
+    }
+
+    @Test
+    public void minimise_compiled() {
+        /* State vector: mass, velocity, acceleration, force. */
+        final double massReference = 2.0;
+        final double dt = 0.5;
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(
+                new MassConservationError(massReference, 1.0, 0, new boolean[] {}, new int[] {}),
+                new MomentumConservationError(0, new int[] { 1 }, new boolean[] {}, new int[] {}, new int[] {},
+                        new boolean[] { true }, new int[] { 3 }),
+                new Newton2Error(massReference, 1.0, 0, new int[] { 1 }, new int[] { 2 }, new boolean[] {},
+                        new int[] {}, new int[] {}, new boolean[] { true }, new int[] { 3 }),
+                new FixTerm(3, 2.0));
+        final double[] state0 = { 2.0, 1.0, 1.0, 2.0 };
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(state0), dt,
+                terms).compile();
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(4);
+        final double[] x = Arrays.copyOf(state0, 4);
+        assertTrue(f.getTerms().get(0) instanceof FusedBodyError, "Compiled function has a combined term");
+
+        final double e = minimise(minimiser, f, x, 1E-12);
+
+        assertEquals(0.0, e, 1E-12, "e");
+        assertEquals(2.0, x[0], 1E-6, "mass");
+        assertEquals(1.5, x[1], 1E-6, "velocity");
+        assertEquals(1.0, x[2], 1E-6, "acceleration");
+        assertEquals(2.0, x[3], 1E-6, "force");
+    }
+
+    @Test
+    public void minimise_large() {
+        /*
+         * Too large for dense matrix methods to be practical.
+         */
+        final int n = 10_000;
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>(2 * n);
+        for (int i = 0; i < n; ++i) {
+            terms.add(new FixTerm(i, Math.sin(i)));
+        }
+        for (int i = 1; i < n; ++i) {
+            terms.add(new DifferenceTerm(i - 1, i, 0.5));
+        }
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(n), 1.0,
+                terms);
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(n);
+        final double[] x = new double[n];
+
+        minimise(minimiser, f, x, 1E-12);
+
+        final double[] dedx = new double[n];
+        f.evaluateInto(x, dedx);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(0.0, dedx[i], 1E-6, "At a minimum [" + i + "]");
+        }
+    }
+
+    @Test
+    public void minimise_linear() {
+        final TimeStepEnergyErrorFunction f = function(new double[3], 1.0, new FixTerm(0, 1.0), new FixTerm(2, -2.0),
+                new FixTerm(2, -4.0));
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(3);
+        final double[] x = { 5.0, 7.0, 9.0 };
+
+        final double e = minimise(minimiser, f, x, 1E-12);
+
+        assertEquals(1.0, e, 1E-9, "e");
+        assertEquals(1.0, x[0], 1E-6, "x[0]");
+        assertEquals(7.0, x[1], Double.MIN_NORMAL, "Does not change components not in any footprint");
+        assertEquals(-3.0, x[2], 1E-6, "x[2]");
+    }
+
+    @Test
+    public void minimise_noTerms() {
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(2), 1.0,
+                Collections.emptyList());
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(2);
+        final double[] x = { 1.0, 2.0 };
+
+        final double e = minimise(minimiser, f, x, 1E-6);
+
+        assertEquals(0.0, e, "e");
+    }
+
+    @Test
+    public void minimise_notResidualTerm() {
+        final TimeStepEnergyErrorFunction f = function(new double[1], 1.0, new PlainTerm());
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(1);
+
+        assertThrows(IllegalArgumentException.class, () -> minimiser.minimise(f, new double[1], 1E-6));
+    }
+
+    @Test
+    public void minimise_rosenbrock() {
+        final TimeStepEnergyErrorFunction f = function(new double[2], 1.0, new RosenbrockTerm());
+        final LevenbergMarquardtMinimiser minimiser = new LevenbergMarquardtMinimiser(2);
+        final double[] x = { -1.2, 1.0 };
+
+        final double e = minimise(minimiser, f, x, 1E-14);
+
+        assertEquals(0.0, e, 1E-12, "e");
+        assertEquals(1.0, x[0], 1E-5, "x[0]");
+        assertEquals(1.0, x[1], 1E-5, "x[1]");
+    }
+
+}
@@ -0,0 +1,282 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.FunctionNWithGradient;
+import uk.badamson.mc.math.FunctionNWithGradientValue;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * Unit tests for the class {@link LimitedMemoryBfgsMinimiser}.
+ * </p>
+ */
+public class LimitedMemoryBfgsMinimiserTest {
+
+    /**
+     * <p>
+     * A quadratic function with its minimum at the origin and with very different
+     * curvatures along the different axes.
+     * </p>
+     */
+    private static final class BadlyScaledQuadratic implements FunctionNWithGradient {
+
+        private final double[] curvature;
+
+        BadlyScaledQuadratic(final double... curvature) {
+            this.curvature = curvature;
+        }
+
+        @Override
+        public int getDimension() {
+            return curvature.length;
+        }
+
+        @Override
+        public FunctionNWithGradientValue value(final ImmutableVectorN x) {
+            final int n = curvature.length;
+            double f = 0.0;
+            final double[] dfdx = new double[n];
+            for (int i = 0; i < n; ++i) {
+                final double xi = x.get(i);
+                f += 0.5 * curvature[i] * xi * xi;
+                dfdx[i] = curvature[i] * xi;
+            }
+            return new FunctionNWithGradientValue(x, f, ImmutableVectorN.create(dfdx));
+        }
+    }// class
+
+    private static final class Rosenbrock implements FunctionNWithGradient {
+
+        @Override
+        public int getDimension() {
+            return 2;
+        }
+
+        @Override
+        public FunctionNWithGradientValue value(final ImmutableVectorN x) {
+            final double x0 = x.get(0);
+            final double x1 = x.get(1);
+            final double a = 1.0 - x0;
+            final double b = x1 - x0 * x0;
+            final double f = a * a + 100.0 * b * b;
+            final ImmutableVectorN dfdx = ImmutableVectorN.create(-2.0 * a - 400.0 * x0 * b, 200.0 * b);
+            return new FunctionNWithGradientValue(x, f, dfdx);
+        }
+    }// class
+
+    private static final class SpringTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        private final int index;
+        private final double stiffness;
+
+        SpringTerm(final int index, final double stiffness) {
+            this.index = index;
+            this.stiffness = stiffness;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            Objects.requireNonNull(dedx, "dedx");
+            final double dx = state.get(index) - state0.get(index) - 1.0;
+            dedx[index] += stiffness * dx;
+            return 0.5 * stiffness * dx * dx;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return index < n;
+        }
+    }// class
+
+    public static void assertInvariants(final LimitedMemoryBfgsMinimiser minimiser) {
+        ObjectTest.assertInvariants(minimiser);// inherited
+
+        assertTrue(0 < minimiser.getDimension(), "dimension is positive");
+        assertTrue(0 < minimiser.getHistoryLength(), "historyLength is positive");
+    }
+
+    private static void constructor(final int dimension, final int historyLength) {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(dimension, historyLength);
+
+        assertInvariants(minimiser);
+        assertEquals(dimension, minimiser.getDimension(), "dimension");
+        assertEquals(historyLength, minimiser.getHistoryLength(), "historyLength");
+    }
+
+    private static FunctionNWithGradientValue minimise(final LimitedMemoryBfgsMinimiser minimiser,
+            final FunctionNWithGradient f, final ImmutableVectorN x0, final double tolerance) {
+        final FunctionNWithGradientValue min = minimiser.minimise(f, x0, tolerance);
+
+        assertInvariants(minimiser);
+        assertNotNull(min, "Not null, result");// guard
+        assertTrue(min.getF() <= f.value(x0).getF(), "Value at the minimum is not greater than the initial value");
+
+        return min;
+    }
+
+    private static double minimise(final LimitedMemoryBfgsMinimiser minimiser, final TimeStepEnergyErrorFunction f,
+            final double[] x, final double tolerance) {
+        final double[] xInitial = Arrays.copyOf(x, x.length);
+        final double[] dedx = new double[x.length];
+        final double eInitial = f.evaluateInto(xInitial, dedx);
+
+        final double e = minimiser.minimise(f, x, tolerance);
+
+        assertInvariants(minimiser);
+        assertTrue(e <= eInitial, "Value at the minimum is not greater than the initial value");
+        assertEquals(f.evaluateInto(x, dedx), e, "Returns the value at the minimum");
+
+        return e;
+    }
+
+    private static void minimise_badlyScaledQuadratic(final int historyLength, final double... curvature) {
+        final int n = curvature.length;
+        final double[] x0 = new double[n];
+        Arrays.fill(x0, 1.0);
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(n, historyLength);
+
+        final FunctionNWithGradientValue min = minimise(minimiser, new BadlyScaledQuadratic(curvature),
+                ImmutableVectorN.create(x0), 1E-12);
+
+        for (int i = 0; i < n; ++i) {
+            assertEquals(0.0, min.getX().get(i), 1E-4, "x[" + i + "]");
+        }
+    }
+
+    @Test
+    public void constructor_A() {
+        constructor(1, 1);
+    }
+
+    @Test
+    public void constructor_B() {
+        constructor(7, 5);
+    }
+
+    @Test
+    public void constructor_invalidDimension() {
+        assertThrows(IllegalArgumentException.class, () -> new LimitedMemoryBfgsMinimiser(0, 1));
+    }
+
+    @Test
+    public void constructor_invalidHistoryLength() {
+        assertThrows(IllegalArgumentException.class, () -> new LimitedMemoryBfgsMinimiser(1, 0));
+    }
+
+    @Test
+    public void minimise_atMinimum() {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(2, 3);
+
+        final FunctionNWithGradientValue min = minimise(minimiser, new BadlyScaledQuadratic(1.0, 2.0),
+                ImmutableVectorN.create(0.0, 0.0), 1E-6);
+
+        assertEquals(0.0, min.getF(), Double.MIN_NORMAL, "f");
+    }
+
+    @Test
+    public void minimise_badlyScaledQuadraticA() {
+        minimise_badlyScaledQuadratic(5, 1.0, 1E4);
+    }
+
+    @Test
+    public void minimise_badlyScaledQuadraticB() {
+        minimise_badlyScaledQuadratic(3, 1E-3, 1.0, 1E3, 1E6);
+    }
+
+    @Test
+    public void minimise_invalidDimension() {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(3, 3);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> minimiser.minimise(new Rosenbrock(), ImmutableVectorN.create(0.0, 0.0), 1E-6));
+    }
+
+    @Test
+    public void minimise_invalidTolerance() {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(2, 3);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> minimiser.minimise(new Rosenbrock(), ImmutableVectorN.create(0.0, 0.0), 1.0));
+    }
+
+    @Test
+    public void minimise_reuse() {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(2, 4);
+        final Rosenbrock f = new Rosenbrock();
+        final ImmutableVectorN x0 = ImmutableVectorN.create(-1.2, 1.0);
+
+        final FunctionNWithGradientValue min1 = minimise(minimiser, f, x0, 1E-12);
+        final FunctionNWithGradientValue min2 = minimise(minimiser, f, x0, 1E-12);
+
+        assertEquals(min1.getF(), min2.getF(), "Reusing the minimiser gives the same result");
+    }
+
+    @Test
+    public void minimise_rosenbrock() {
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(2, 5);
+
+        final FunctionNWithGradientValue min = minimise(minimiser, new Rosenbrock(), ImmutableVectorN.create(-1.2, 1.0),
+                1E-14);
+
+        assertEquals(1.0, min.getX().get(0), 1E-3, "x[0]");
+        assertEquals(1.0, min.getX().get(1), 1E-3, "x[1]");
+    }
+
+    @Test
+    public void minimise_timeStepEnergyErrorFunction() {
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(1.0, 2.0, 3.0),
+                1.0, Arrays.asList(new SpringTerm(0, 1E-2), new SpringTerm(1, 1.0), new SpringTerm(2, 1E3)));
+        final double[] x = { 0.0, 0.0, 0.0 };
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(3, 3);
+
+        minimise(minimiser, f, x, 1E-12);
+
+        assertEquals(2.0, x[0], 1E-4, "x[0]");
+        assertEquals(3.0, x[1], 1E-4, "x[1]");
+        assertEquals(4.0, x[2], 1E-4, "x[2]");
+    }
+
+    @Test
+    public void minimise_timeStepEnergyErrorFunction_noTerms() {
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(1.0), 1.0,
+                Collections.emptyList());
+        final double[] x = { 3.0 };
+        final LimitedMemoryBfgsMinimiser minimiser = new LimitedMemoryBfgsMinimiser(1, 3);
+
+        final double e = minimise(minimiser, f, x, 1E-6);
+
+        assertEquals(0.0, e, Double.MIN_NORMAL, "e");
+        assertEquals(3.0, x[0], Double.MIN_NORMAL, "x unchanged");
+    }
+
+}
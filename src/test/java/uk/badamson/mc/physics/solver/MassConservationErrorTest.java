@@ -166,6 +166,57 @@ public class MassConservationErrorTest {
         constructor(MASS_REFERENCE_1, SPECIFIC_ENERGY_REFERNCE_1, massTerm, massTransferInto, advectionMassRateTerm);
     }
 
+    @Test
+    public void evaluateBatch_open() {
+        final MassConservationError term = new MassConservationError(MASS_REFERENCE_2, SPECIFIC_ENERGY_REFERNCE_2, 1,
+                new boolean[] { true, false }, new int[] { 0, 2 });
+        final double[][] x0 = { { 0.5, 1.0, -2.0, 0.0 }, { 2.0, 1.0, 3.0, 4.0 }, { 0.25, 0.0, 1.0, -1.0 } };
+        final double[][] x = { { 1.5, 1.0, -1.0, 2.0 }, { 2.5, 1.0, 2.0, 4.5 }, { -0.75, 0.0, 2.0, 1.0 } };
+        final double[][] dedx = { { 0.0, 1.0, 0.0, 0.0 }, { 0.0, 0.0, 2.0, 0.0 }, { 0.0, 0.0, 0.0, 3.0 } };
+
+        TimeStepEnergyErrorFunctionTermTest.evaluateBatch(term, new double[4], dedx, x0, x, 0.75);
+    }
+
+    @Test
+    public void evaluatePrepared_open() {
+        final MassConservationError term = new MassConservationError(2.0, 3.0, 0, new boolean[] { true, false, true },
+                new int[] { 1, 2, 3 });
+        final int n = 4;
+        for (int s = 0; s < 8; ++s) {
+            final double[] x0 = new double[n];
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0[i] = Math.sin(1.7 * i + s);
+                x[i] = Math.cos(0.3 * i * s + 1.1) * (1.0 + s);
+            }
+            x0[0] = 2.0 + s;
+            x[0] = 1.5 + 0.5 * s;
+
+            TimeStepEnergyErrorFunctionTermTest.evaluatePrepared(term, new double[n], x0, x, 0.25);
+        }
+    }
+
+    @Test
+    public void evaluateResiduals_closed() {
+        final MassConservationError term = new MassConservationError(MASS_REFERENCE_2, SPECIFIC_ENERGY_REFERNCE_2, 0,
+                new boolean[] {}, new int[] {});
+
+        final double e = TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, new double[] { 1.0 },
+                new double[] { 3.0 }, 0.5, 1E-3);
+
+        assertEquals(1, term.getNumberOfResiduals(), "numberOfResiduals");
+        assertEquals(SPECIFIC_ENERGY_REFERNCE_2 * 4.0 / MASS_REFERENCE_2, e, 1E-9, "e");
+    }
+
+    @Test
+    public void evaluateResiduals_open() {
+        final MassConservationError term = new MassConservationError(MASS_REFERENCE_1, SPECIFIC_ENERGY_REFERNCE_1, 2,
+                new boolean[] { true, false }, new int[] { 0, 3 });
+
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, new double[] { 0.5, 9.0, 2.0, 0.25 },
+                new double[] { 1.5, -9.0, 2.5, -0.75 }, 0.75, 1E-3);
+    }
+
     @Test
     public void evaluate_closedBase() {
         final double massReference = 1.0;
@@ -504,4 +555,17 @@ public class MassConservationErrorTest {
                 eExpected, dedmExpected, dedmrateExpected);
     }
 
+    @Test
+    public void remap() {
+        final MassConservationError term = new MassConservationError(2.0, 3.0, 1, new boolean[] { true, false },
+                new int[] { 4, 7 });
+
+        final MassConservationError remapped = (MassConservationError) TimeStepEnergyErrorFunctionTermTest
+                .remap(term, 9, 0.5);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getMassTerm(), "massTerm");
+        assertEquals(2, remapped.getAdvectionMassRateTerm(1), "advectionMassRateTerm[1]");
+    }
+
 }
@@ -18,9 +18,13 @@ package uk.badamson.mc.physics.solver;
                                * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                */
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Test;
 
 import uk.badamson.mc.math.ImmutableVectorN;
@@ -229,6 +233,62 @@ public class MomentumConservationErrorTest {
                 forceTerm);
     }
 
+    @Test
+    public void evaluateBatch_2() {
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2 },
+                new boolean[] { true, false }, new int[] { 3, 4 }, new int[] { 5, 6, 7, 8 }, new boolean[] { true, false },
+                new int[] { 9, 10, 11, 12 });
+        final int nBodies = 5;
+        final double[][] x0 = new double[13][nBodies];
+        final double[][] x = new double[13][nBodies];
+        for (int i = 0; i < 13; ++i) {
+            for (int b = 0; b < nBodies; ++b) {
+                x0[i][b] = Math.sin(i + 3.0 * b);
+                x[i][b] = Math.cos(2.0 * i + b);
+            }
+        }
+        for (int b = 0; b < nBodies; ++b) {
+            x0[0][b] = 1.0 + b;
+            x[0][b] = 2.0 + 0.5 * b;
+        }
+
+        TimeStepEnergyErrorFunctionTermTest.evaluateBatch(term, new double[nBodies], new double[13][nBodies], x0, x,
+                0.5);
+    }
+
+    @Test
+    public void evaluatePrepared_2() {
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2, 3 },
+                new boolean[] { true, false }, new int[] { 4, 5 }, new int[] { 6, 7, 8, 9, 10, 11 },
+                new boolean[] { true, false }, new int[] { 12, 13, 14, 15, 16, 17 });
+        final int n = 18;
+        for (int s = 0; s < 8; ++s) {
+            final double[] x0 = new double[n];
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0[i] = Math.sin(1.7 * i + s);
+                x[i] = Math.cos(0.3 * i * s + 1.1) * (1.0 + s);
+            }
+            x0[0] = 2.0 + s;
+            x[0] = 1.5 + 0.5 * s;
+
+            TimeStepEnergyErrorFunctionTermTest.evaluatePrepared(term, new double[n], x0, x, 0.25);
+        }
+    }
+
+    @Test
+    public void evaluateResiduals_2() {
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2 },
+                new boolean[] { true, false }, new int[] { 3, 4 }, new int[] { 5, 6, 7, 8 }, new boolean[] { true, false },
+                new int[] { 9, 10, 11, 12 });
+        final double[] x0 = { 2.0, 1.0, -1.0, 0.5, 0.25, 3.0, -2.0, 1.0, 0.5, 1.0, 2.0, -1.0, 0.5 };
+        final double[] x = { 2.5, 1.5, -0.5, 0.75, -0.5, 2.0, -1.0, 1.5, 0.25, 0.5, 1.0, -2.0, 1.5 };
+
+        TimeStepEnergyErrorFunctionResidualTermTest.evaluateResiduals(term, x0, x, 0.5, 1E-4);
+
+        assertEquals(2, term.getNumberOfResiduals(), "numberOfResiduals");
+    }
+
     @Test
     public void evaluate_1AdvectionBase() {
         final boolean massTransferInto = true;
@@ -249,9 +309,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 0.5;
         final double expectedDedm = -0.5;
-        final double expectedDedv = -0.50;
+        final double expectedDedv = -1.5;
         final double expectedDedmrate = 0.50;
-        final double expectedDedu = 0.25;
+        final double expectedDedu = 0.5;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -277,9 +337,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 0.5;
         final double expectedDedm = -0.5;
-        final double expectedDedv = -0.50;
+        final double expectedDedv = -1.5;
         final double expectedDedmrate = 1.50;
-        final double expectedDedu = 0.25;
+        final double expectedDedu = 0.5;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -305,9 +365,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 0.5;
         final double expectedDedm = -0.5;
-        final double expectedDedv = -0.50;
+        final double expectedDedv = -1.5;
         final double expectedDedmrate = 0.50;
-        final double expectedDedu = 1.25;
+        final double expectedDedu = 1.5;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -333,9 +393,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 2.0;
         final double expectedDedm = -2.0;
-        final double expectedDedv = 0.0;
+        final double expectedDedv = -4.0;
         final double expectedDedmrate = 2.0;
-        final double expectedDedu = 0.5;
+        final double expectedDedu = 2.0;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -361,9 +421,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 0.25;
         final double expectedDedm = -0.125;
-        final double expectedDedv = -0.75;
+        final double expectedDedv = -1.25;
         final double expectedDedmrate = 0.25;
-        final double expectedDedu = 0.125;
+        final double expectedDedu = 0.25;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -389,9 +449,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 1.125;
         final double expectedDedm = -1.125;
-        final double expectedDedv = 0.0;
+        final double expectedDedv = -3.0;
         final double expectedDedmrate = 0.75;
-        final double expectedDedu = 0.75;
+        final double expectedDedu = 1.5;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -417,9 +477,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 1.125;
         final double expectedDedm = -1.125;
-        final double expectedDedv = -0.75;
+        final double expectedDedv = -2.25;
         final double expectedDedmrate = 0.75;
-        final double expectedDedu = 0.375;
+        final double expectedDedu = 0.75;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -445,9 +505,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 1.125;
         final double expectedDedm = -1.125;
-        final double expectedDedv = -0.75;
+        final double expectedDedv = -2.25;
         final double expectedDedmrate = 1.5;
-        final double expectedDedu = 0.375;
+        final double expectedDedu = 0.75;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -473,9 +533,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 1.125;
         final double expectedDedm = -1.125;
-        final double expectedDedv = -0.75;
+        final double expectedDedv = -2.25;
         final double expectedDedmrate = 0.75;
-        final double expectedDedu = 0.375;
+        final double expectedDedu = 0.75;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -501,9 +561,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 0.125;
         final double expectedDedm = 0.375;
-        final double expectedDedv = 0.25;
+        final double expectedDedv = 0.75;
         final double expectedDedmrate = 0;
-        final double expectedDedu = -0.125;
+        final double expectedDedu = -0.25;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -529,9 +589,9 @@ public class MomentumConservationErrorTest {
 
         final double expectedE = 1.125;
         final double expectedDedm = -1.125;
-        final double expectedDedv = -0.75;
+        final double expectedDedv = -2.25;
         final double expectedDedmrate = 0.75;
-        final double expectedDedu = 0.375;
+        final double expectedDedu = 0.75;
 
         evaluate_1Advection(massTransferInto, m0, v0, mrate0, u0, m, v, mrate, u, dt, dedmrate0, dedu0, expectedE,
                 expectedDedm, expectedDedv, expectedDedmrate, expectedDedu);
@@ -895,4 +955,114 @@ public class MomentumConservationErrorTest {
         evaluate_1Force(forceOn, m0, v0, f0, m, v, f, dt, dedf0, expectedE, expectedDedm, expectedDedv, expectedDedf);
     }
 
+    @Test
+    public void evaluate_gradient() {
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2, 3 },
+                new boolean[] { true, false }, new int[] { 4, 5 }, new int[] { 6, 7, 8, 9, 10, 11 },
+                new boolean[] { true, false }, new int[] { 12, 13, 14, 15, 16, 17 });
+        final int n = 18;
+        for (int s = 0; s < 8; ++s) {
+            final double[] x0 = new double[n];
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0[i] = Math.sin(1.7 * i + s);
+                x[i] = Math.cos(0.3 * i * s + 1.1) * (1.0 + s);
+            }
+            x0[0] = 2.0 + s;
+            x[0] = 1.5 + 0.5 * s;
+            final double[] dedx = new double[n];
+
+            evaluate(term, dedx, ImmutableVectorN.create(x0), ImmutableVectorN.create(x), 0.25);
+
+            AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, dedx, x0, x, 0.25, 1E-6,
+                    1E-6);
+        }
+    }
+
+    @Test
+    public void evaluate_shifted() {
+        final int offset = 5;
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2, 3 },
+                new boolean[] { true, false }, new int[] { 4, 5 }, new int[] { 6, 7, 8, 9, 10, 11 },
+                new boolean[] { true, false }, new int[] { 12, 13, 14, 15, 16, 17 });
+        final MomentumConservationError shifted = new MomentumConservationError(offset, new int[] { 6, 7, 8 },
+                new boolean[] { true, false }, new int[] { 9, 10 }, new int[] { 11, 12, 13, 14, 15, 16 },
+                new boolean[] { true, false }, new int[] { 17, 18, 19, 20, 21, 22 });
+        final int n = 18;
+        final double[] x0 = new double[n];
+        final double[] x = new double[n];
+        final double[] x0Shifted = new double[n + offset];
+        final double[] xShifted = new double[n + offset];
+        for (int i = 0; i < n; ++i) {
+            x0[i] = Math.sin(1.7 * i) + 2.0;
+            x[i] = Math.cos(0.3 * i + 1.1) + 2.0;
+            x0Shifted[i + offset] = x0[i];
+            xShifted[i + offset] = x[i];
+        }
+        final double[] dedx = new double[n];
+        final double[] dedxShifted = new double[n + offset];
+
+        final double e = term.evaluate(dedx, x0, x, 0.25);
+        final double eShifted = shifted.evaluate(dedxShifted, x0Shifted, xShifted, 0.25);
+
+        assertInvariants(shifted);
+        assertEquals(term.getMassTerm() + offset, shifted.getMassTerm(), "massTerm");
+        assertEquals(term.getForceTerm(1, 2) + offset, shifted.getForceTerm(1, 2), "forceTerm");
+        assertTrue(shifted.isValidForDimension(n + offset), "Valid for the shifted dimension");
+        assertFalse(shifted.isValidForDimension(n + offset - 1), "Not valid for a smaller dimension");
+        final int[] footprint = term.getIndexFootprint(n);
+        final int[] footprintShifted = shifted.getIndexFootprint(n + offset);
+        for (int c = 0; c < footprint.length; ++c) {
+            footprint[c] += offset;
+        }
+        assertArrayEquals(footprint, footprintShifted, "Shifted index footprint");
+        assertEquals(e, eShifted, "Same value");
+        assertArrayEquals(dedx, Arrays.copyOfRange(dedxShifted, offset, n + offset), "Shifted gradient");
+    }
+
+    @Test
+    public void evaluate_workspace() {
+        final MomentumConservationError term = new MomentumConservationError(0, new int[] { 1, 2, 3 },
+                new boolean[] { true, false }, new int[] { 4, 5 }, new int[] { 6, 7, 8, 9, 10, 11 },
+                new boolean[] { true, false }, new int[] { 12, 13, 14, 15, 16, 17 });
+        final int n = 18;
+        final double[] workspace = new double[term.getWorkspaceLength()];
+        assertEquals(3, workspace.length, "workspaceLength");
+        Arrays.fill(workspace, Double.NaN);
+        for (int s = 0; s < 8; ++s) {
+            final double[] x0 = new double[n];
+            final double[] x = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0[i] = Math.sin(1.7 * i + s);
+                x[i] = Math.cos(0.3 * i * s + 1.1) * (1.0 + s);
+            }
+            x0[0] = 2.0 + s;
+            x[0] = 1.5 + 0.5 * s;
+            final double[] dedxExpected = new double[n];
+            final double[] dedx = new double[n];
+
+            final double eExpected = term.evaluate(dedxExpected, ImmutableVectorN.create(x0), ImmutableVectorN.create(x),
+                    0.25);
+            final double e = term.evaluate(dedx, x0, x, 0.25, workspace);
+
+            assertEquals(eExpected, e, "Bitwise identical value [" + s + "]");
+            assertArrayEquals(dedxExpected, dedx, "Bitwise identical gradient [" + s + "]");
+        }
+    }
+
+    @Test
+    public void remap() {
+        final MomentumConservationError term = new MomentumConservationError(1, new int[] { 3, 5 },
+                new boolean[] { true }, new int[] { 7 }, new int[] { 9, 11 }, new boolean[] { false },
+                new int[] { 13, 15 });
+
+        final MomentumConservationError remapped = (MomentumConservationError) TimeStepEnergyErrorFunctionTermTest
+                .remap(term, 17, 0.5);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getMassTerm(), "massTerm");
+        assertEquals(2, remapped.getVelocityTerm(1), "velocityTerm[1]");
+        assertEquals(7, remapped.getForceTerm(0, 1), "forceTerm[0][1]");
+    }
+
 }
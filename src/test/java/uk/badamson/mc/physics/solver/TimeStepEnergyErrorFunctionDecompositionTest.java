@@ -0,0 +1,261 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * Unit tests for the class {@link TimeStepEnergyErrorFunctionDecomposition}.
+ * </p>
+ */
+public class TimeStepEnergyErrorFunctionDecompositionTest {
+
+    private static final class ConstantTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            return 1.0;
+        }
+
+        @Override
+        public int[] getIndexFootprint(final int n) {
+            return new int[0];
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return true;
+        }
+    }// class
+
+    /**
+     * <p>
+     * A term that tends to make the difference between two state vector
+     * components equal to a given value; or, if the two indices are the same,
+     * tends to make one component equal to the given value.
+     * </p>
+     */
+    private static final class SpringTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        private final int i;
+        private final int j;
+        private final double length;
+        private final boolean remappable;
+
+        SpringTerm(final int i, final int j, final double length) {
+            this(i, j, length, true);
+        }
+
+        SpringTerm(final int i, final int j, final double length, final boolean remappable) {
+            this.i = i;
+            this.j = j;
+            this.length = length;
+            this.remappable = remappable;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double d = (i == j ? state.get(i) : state.get(i) - state.get(j)) - length;
+            dedx[i] += d;
+            if (i != j) {
+                dedx[j] -= d;
+            }
+            return 0.5 * d * d;
+        }
+
+        @Override
+        public int[] getIndexFootprint(final int n) {
+            return i == j ? new int[] { i } : new int[] { Math.min(i, j), Math.max(i, j) };
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return i < n && j < n;
+        }
+
+        @Override
+        public TimeStepEnergyErrorFunctionTerm remap(final int[] map) {
+            return remappable ? new SpringTerm(map[i], map[j], length) : null;
+        }
+    }// class
+
+    public static void assertInvariants(final TimeStepEnergyErrorFunctionDecomposition decomposition) {
+        ObjectTest.assertInvariants(decomposition);// inherited
+
+        final TimeStepEnergyErrorFunction function = decomposition.getFunction();
+        final int nBlocks = decomposition.getNumberOfBlocks();
+        final List<TimeStepEnergyErrorFunctionTerm> constantTerms = decomposition.getConstantTerms();
+        assertNotNull(function, "Not null, function");// guard
+        assertNotNull(constantTerms, "Not null, constantTerms");// guard
+        assertTrue(0 <= nBlocks, "numberOfBlocks not negative");
+
+        final int n = function.getDimension();
+        final boolean[] inBlock = new boolean[n];
+        int nTerms = constantTerms.size();
+        for (int b = 0; b < nBlocks; ++b) {
+            final int[] indices = decomposition.getBlockIndices(b);
+            final List<TimeStepEnergyErrorFunctionTerm> terms = decomposition.getBlockTerms(b);
+            assertNotNull(indices, "Not null, blockIndices");// guard
+            assertNotNull(terms, "Not null, blockTerms");// guard
+            assertFalse(terms.isEmpty(), "blockTerms not empty");
+            for (int i = 0; i < indices.length; ++i) {
+                assertTrue(i == 0 || indices[i - 1] < indices[i], "blockIndices ascending without duplicates");
+                assertFalse(inBlock[indices[i]], "blockIndices of different blocks are disjoint");
+                inBlock[indices[i]] = true;
+            }
+            nTerms += terms.size();
+        }
+        assertEquals(function.getTerms().size(), nTerms, "Every term is in exactly one block or is constant");
+        final int[] footprint = function.getGradientFootprint();
+        for (int i = 0; i < n; ++i) {
+            assertEquals(0 <= Arrays.binarySearch(footprint, i), inBlock[i],
+                    "The block indices are the gradient footprint [" + i + "]");
+        }
+    }
+
+    private static TimeStepEnergyErrorFunctionDecomposition constructor(final TimeStepEnergyErrorFunction function) {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = new TimeStepEnergyErrorFunctionDecomposition(
+                function);
+
+        assertInvariants(decomposition);
+        assertSame(function, decomposition.getFunction(), "function");
+
+        return decomposition;
+    }
+
+    private static double minimise(final TimeStepEnergyErrorFunctionDecomposition decomposition, final double[] x,
+            final double tolerance) {
+        final double e = decomposition.minimise(x, 5, tolerance, ForkJoinPool.commonPool());
+
+        assertInvariants(decomposition);
+        final double eFunction = decomposition.getFunction().evaluateInto(x, new double[x.length]);
+        assertEquals(eFunction, e, 1E-12 * (1.0 + Math.abs(e)), "Returns the value at the minimum");
+
+        return e;
+    }
+
+    private static void minimise_many(final int nBodies, final int nRemappable) {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>();
+        for (int b = 0; b < nBodies; ++b) {
+            final boolean remappable = b < nRemappable;
+            terms.add(new SpringTerm(2 * b, 2 * b, b, remappable));
+            terms.add(new SpringTerm(2 * b + 1, 2 * b, 1.0, remappable));
+        }
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(
+                new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(2 * nBodies), 1.0, terms));
+        final double[] x = new double[2 * nBodies];
+
+        minimise(decomposition, x, 1E-12);
+
+        assertEquals(nBodies, decomposition.getNumberOfBlocks(), "numberOfBlocks");
+        for (int b = 0; b < nBodies; ++b) {
+            assertEquals(b, x[2 * b], 1E-4, "x[" + 2 * b + "]");
+            assertEquals(b + 1.0, x[2 * b + 1], 1E-4, "x[" + (2 * b + 1) + "]");
+        }
+    }
+
+    private static TimeStepEnergyErrorFunction function(final int n, final TimeStepEnergyErrorFunctionTerm... terms) {
+        return new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(n), 1.0, Arrays.asList(terms));
+    }
+
+    @Test
+    public void constructor_0() {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(
+                new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(2), 1.0, Collections.emptyList()));
+
+        assertEquals(0, decomposition.getNumberOfBlocks(), "numberOfBlocks");
+    }
+
+    @Test
+    public void constructor_chain() {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(function(5,
+                new SpringTerm(0, 0, 1.0), new SpringTerm(3, 4, 1.0), new SpringTerm(4, 0, 1.0)));
+
+        assertEquals(1, decomposition.getNumberOfBlocks(), "numberOfBlocks");
+        assertArrayEquals(new int[] { 0, 3, 4 }, decomposition.getBlockIndices(0), "blockIndices");
+    }
+
+    @Test
+    public void constructor_constant() {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(
+                function(2, new ConstantTerm(), new SpringTerm(1, 1, 1.0)));
+
+        assertEquals(1, decomposition.getNumberOfBlocks(), "numberOfBlocks");
+        assertEquals(1, decomposition.getConstantTerms().size(), "Number of constant terms");
+    }
+
+    @Test
+    public void constructor_independent() {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(function(4,
+                new SpringTerm(0, 0, 1.0), new SpringTerm(2, 2, 1.0), new SpringTerm(2, 3, 1.0)));
+
+        assertEquals(2, decomposition.getNumberOfBlocks(), "numberOfBlocks");
+        assertArrayEquals(new int[] { 0 }, decomposition.getBlockIndices(0), "blockIndices[0]");
+        assertArrayEquals(new int[] { 2, 3 }, decomposition.getBlockIndices(1), "blockIndices[1]");
+        assertEquals(2, decomposition.getBlockTerms(1).size(), "Number of terms of block 1");
+    }
+
+    @Test
+    public void minimise_constant() {
+        final TimeStepEnergyErrorFunctionDecomposition decomposition = constructor(
+                function(2, new ConstantTerm(), new SpringTerm(1, 1, 2.0)));
+        final double[] x = { 7.0, 0.0 };
+
+        final double e = minimise(decomposition, x, 1E-12);
+
+        assertEquals(1.0, e, 1E-6, "e");
+        assertEquals(7.0, x[0], Double.MIN_NORMAL, "Does not change components not in any block");
+        assertEquals(2.0, x[1], 1E-4, "x[1]");
+    }
+
+    @Test
+    public void minimise_many() {
+        minimise_many(64, 64);
+    }
+
+    @Test
+    public void minimise_mixed() {
+        minimise_many(16, 8);
+    }
+
+    @Test
+    public void minimise_notRemappable() {
+        minimise_many(8, 0);
+    }
+
+}
@@ -0,0 +1,107 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Unit tests classes that implement the interface
+ * {@link TimeStepEnergyErrorFunctionResidualTerm}.
+ * </p>
+ */
+public class TimeStepEnergyErrorFunctionResidualTermTest {
+
+    public static void assertInvariants(final TimeStepEnergyErrorFunctionResidualTerm t) {
+        TimeStepEnergyErrorFunctionTermTest.assertInvariants(t);// inherited
+
+        assertTrue(0 <= t.getNumberOfResiduals(), "numberOfResiduals not negative");
+    }
+
+    public static void assertInvariants(final TimeStepEnergyErrorFunctionResidualTerm t1,
+            final TimeStepEnergyErrorFunctionResidualTerm t2) {
+        TimeStepEnergyErrorFunctionTermTest.assertInvariants(t1, t2);// inherited
+    }
+
+    /**
+     * <p>
+     * Calculate the residuals of a term, checking that the value is consistent
+     * with the value and gradient of the term and that the Jacobian is consistent
+     * with central finite differences of the residuals.
+     * </p>
+     */
+    public static double evaluateResiduals(final TimeStepEnergyErrorFunctionResidualTerm term, final double[] x0,
+            final double[] x, final double dt, final double h) {
+        final int n = x0.length;
+        final int nr = term.getNumberOfResiduals();
+        final int[] footprint = TimeStepEnergyErrorFunctionTermTest.assertIndexFootprintInvariants(term, n);
+        final int p = footprint.length;
+        final double[] x0Copy = Arrays.copyOf(x0, n);
+        final double[] xCopy = Arrays.copyOf(x, n);
+        final double[] residuals = new double[nr];
+        final double[] jacobian = new double[nr * p];
+
+        final double e = term.evaluateResiduals(residuals, jacobian, x0, x, dt);
+
+        assertInvariants(term);
+        assertArrayEquals(x0Copy, x0, "Does not change x0");
+        assertArrayEquals(xCopy, x, "Does not change x");
+        double sum = 0.0;
+        for (int k = 0; k < nr; ++k) {
+            sum += 0.5 * residuals[k] * residuals[k];
+        }
+        assertEquals(sum, e, 1E-12 * (1.0 + sum), "Value is half the sum of the squares of the residuals");
+        final double[] dedx = new double[n];
+        final double eTerm = term.evaluate(dedx, x0, x, dt);
+        assertEquals(eTerm, e, 1E-9 * (1.0 + Math.abs(eTerm)), "Value is the value of the term");
+        for (int c = 0; c < p; ++c) {
+            double dedxc = 0.0;
+            for (int k = 0; k < nr; ++k) {
+                dedxc += jacobian[k * p + c] * residuals[k];
+            }
+            final int i = footprint[c];
+            assertEquals(dedx[i], dedxc, 1E-9 * (1.0 + Math.abs(dedx[i])),
+                    "Gradient [" + i + "] of the term is the product of the transposed Jacobian and the residuals");
+        }
+
+        final double[] residualsPlus = new double[nr];
+        final double[] residualsMinus = new double[nr];
+        final double[] jacobianIgnored = new double[nr * p];
+        final double[] xPerturbed = Arrays.copyOf(x, n);
+        for (int c = 0; c < p; ++c) {
+            final int i = footprint[c];
+            xPerturbed[i] = x[i] + h;
+            term.evaluateResiduals(residualsPlus, jacobianIgnored, x0, xPerturbed, dt);
+            xPerturbed[i] = x[i] - h;
+            term.evaluateResiduals(residualsMinus, jacobianIgnored, x0, xPerturbed, dt);
+            xPerturbed[i] = x[i];
+            for (int k = 0; k < nr; ++k) {
+                final double expected = (residualsPlus[k] - residualsMinus[k]) / (2.0 * h);
+                assertEquals(expected, jacobian[k * p + c], 1E-6 * (1.0 + Math.abs(expected)),
+                        "Jacobian [" + k + "," + i + "] is the derivative of the residual");
+            }
+        }
+
+        return e;
+    }
+}
@@ -18,6 +18,13 @@ package uk.badamson.mc.physics.solver;
                                * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                */
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
 import uk.badamson.mc.ObjectTest;
 import uk.badamson.mc.math.ImmutableVectorN;
 
@@ -29,8 +36,23 @@ import uk.badamson.mc.math.ImmutableVectorN;
  */
 public class TimeStepEnergyErrorFunctionTermTest {
 
+    public static int[] assertIndexFootprintInvariants(final TimeStepEnergyErrorFunctionTerm t, final int n) {
+        final int[] footprint = t.getIndexFootprint(n);
+
+        assertNotNull(footprint, "Always returns an index footprint.");// guard
+        for (int i = 0; i < footprint.length; ++i) {
+            assertTrue(0 <= footprint[i], "The indices of the footprint are not negative.");
+            assertTrue(i == 0 || footprint[i - 1] < footprint[i],
+                    "The indices of the footprint are in ascending order without duplicates.");
+        }
+
+        return footprint;
+    }
+
     public static void assertInvariants(final TimeStepEnergyErrorFunctionTerm t) {
         ObjectTest.assertInvariants(t);// inherited
+
+        assertTrue(0 <= t.getPreparedLength(), "preparedLength not negative");
     }
 
     public static void assertInvariants(final TimeStepEnergyErrorFunctionTerm t1,
@@ -40,10 +62,165 @@ public class TimeStepEnergyErrorFunctionTermTest {
 
     public static double evaluate(final TimeStepEnergyErrorFunctionTerm term, final double[] dedx,
             final ImmutableVectorN x0, final ImmutableVectorN x, final double dt) {
+        final double[] dedxArrays = Arrays.copyOf(dedx, dedx.length);
+        final double[] dedx0 = Arrays.copyOf(dedx, dedx.length);
+
         final double e = term.evaluate(dedx, x0, x, dt);
 
         assertInvariants(term);
+        assertIndexFootprintInvariants(term, dedx.length);
+        final int[] footprint = term.getIndexFootprint(dedx.length);
+        for (int i = 0; i < dedx.length; ++i) {
+            if (Arrays.binarySearch(footprint, i) < 0) {
+                assertEquals(dedx0[i], dedx[i], "Does not change gradient component " + i + " outside the footprint");
+            }
+        }
+        final double eArrays = evaluate(term, dedxArrays, toArray(x0), toArray(x), dt);
+        assertEquals(e, eArrays, "Array based evaluation computes the same value");
+        assertArrayEquals(dedx, dedxArrays, "Array based evaluation computes the same gradient");
+
+        return e;
+    }
+
+    public static double evaluate(final TimeStepEnergyErrorFunctionTerm term, final double[] dedx,
+            final double[] x0, final double[] x, final double dt) {
+        final double[] x0Copy = Arrays.copyOf(x0, x0.length);
+        final double[] xCopy = Arrays.copyOf(x, x.length);
+
+        final double e = term.evaluate(dedx, x0, x, dt);
+
+        assertInvariants(term);
+        assertArrayEquals(x0Copy, x0, "Does not change x0");
+        assertArrayEquals(xCopy, x, "Does not change x");
+
+        return e;
+    }
+
+    public static void evaluateBatch(final TimeStepEnergyErrorFunctionTerm term, final double[] e,
+            final double[][] dedx, final double[][] x0, final double[][] x, final double dt) {
+        final int nBodies = e.length;
+        final int n = x0.length;
+        final double[][] dedx0 = new double[n][];
+        for (int i = 0; i < n; ++i) {
+            dedx0[i] = Arrays.copyOf(dedx[i], dedx[i].length);
+        }
+
+        final double[] eWorkspace = Arrays.copyOf(e, nBodies);
+        final double[][] dedxWorkspace = new double[n][];
+        for (int i = 0; i < n; ++i) {
+            dedxWorkspace[i] = Arrays.copyOf(dedx[i], dedx[i].length);
+        }
+        final double[] workspace = new double[term.getBatchWorkspaceLength(nBodies)];
+        Arrays.fill(workspace, Double.NaN);
+
+        term.evaluateBatch(e, dedx, x0, x, dt);
+        term.evaluateBatch(eWorkspace, dedxWorkspace, x0, x, dt, workspace);
+
+        assertInvariants(term);
+        assertArrayEquals(e, eWorkspace, "Workspace evaluation computes the same values");
+        for (int i = 0; i < n; ++i) {
+            assertArrayEquals(dedx[i], dedxWorkspace[i], "Workspace evaluation computes the same gradient [" + i + "]");
+        }
+        final double[] x0B = new double[n];
+        final double[] xB = new double[n];
+        for (int b = 0; b < nBodies; ++b) {
+            final double[] dedxB = new double[n];
+            for (int i = 0; i < n; ++i) {
+                x0B[i] = x0[i][b];
+                xB[i] = x[i][b];
+            }
+            final double eB = evaluate(term, dedxB, x0B, xB, dt);
+            final double tolerance = 1E-12 * (1.0 + Math.abs(eB));
+            assertEquals(eB, e[b], tolerance, "Value of body " + b);
+            for (int i = 0; i < n; ++i) {
+                assertEquals(dedx0[i][b] + dedxB[i], dedx[i][b], 1E-12 * (1.0 + Math.abs(dedxB[i])),
+                        "Gradient [" + i + "] of body " + b);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Prepare and evaluate a term, checking that the value and gradient are
+     * bitwise identical to those computed without preparation.
+     * </p>
+     */
+    public static double evaluatePrepared(final TimeStepEnergyErrorFunctionTerm term, final double[] dedx,
+            final double[] x0, final double[] x, final double dt) {
+        final double[] x0Copy = Arrays.copyOf(x0, x0.length);
+        final double[] xCopy = Arrays.copyOf(x, x.length);
+        final double[] dedxExpected = Arrays.copyOf(dedx, dedx.length);
+        final double[] prepared = new double[term.getPreparedLength()];
+        final double[] workspace = new double[term.getWorkspaceLength()];
+        Arrays.fill(prepared, Double.NaN);
+        Arrays.fill(workspace, Double.NaN);
+
+        term.prepare(prepared, x0, dt);
+        final double e = term.evaluatePrepared(dedx, prepared, x0, x, dt, workspace);
+
+        assertInvariants(term);
+        assertArrayEquals(x0Copy, x0, "Does not change x0");
+        assertArrayEquals(xCopy, x, "Does not change x");
+        final double eExpected = evaluate(term, dedxExpected, x0, x, dt);
+        assertEquals(eExpected, e, "Bitwise identical value");
+        assertArrayEquals(dedxExpected, dedx, "Bitwise identical gradient");
 
         return e;
     }
+
+    /**
+     * <p>
+     * Remap a term to a state vector that has only the components of its index
+     * footprint, in the same order, checking that the remapped term computes
+     * the same value and gradient as the term.
+     * </p>
+     */
+    public static TimeStepEnergyErrorFunctionTerm remap(final TimeStepEnergyErrorFunctionTerm term, final int n,
+            final double dt) {
+        final double[] state0 = new double[n];
+        final double[] state = new double[n];
+        for (int i = 0; i < n; ++i) {
+            state0[i] = 1.0 + 0.5 * Math.sin(i);
+            state[i] = 1.0 + 0.5 * Math.cos(i);
+        }
+        final int[] footprint = term.getIndexFootprint(n);
+        final int p = footprint.length;
+        final int[] map = new int[n];
+        Arrays.fill(map, -1);
+        final double[] state0Remapped = new double[p];
+        final double[] stateRemapped = new double[p];
+        for (int c = 0; c < p; ++c) {
+            map[footprint[c]] = c;
+            state0Remapped[c] = state0[footprint[c]];
+            stateRemapped[c] = state[footprint[c]];
+        }
+
+        final TimeStepEnergyErrorFunctionTerm remapped = term.remap(map);
+
+        assertInvariants(term);
+        assertNotNull(remapped, "Not null, remapped term");// guard
+        assertInvariants(remapped);
+        assertTrue(remapped.isValidForDimension(p), "The remapped term is valid for the remapped state vector");
+        final double[] dedx = new double[n];
+        final double[] dedxRemapped = new double[p];
+        final double e = term.evaluate(dedx, state0, state, dt);
+        final double eRemapped = remapped.evaluate(dedxRemapped, state0Remapped, stateRemapped, dt);
+        assertEquals(e, eRemapped, 1E-12 * (1.0 + Math.abs(e)), "Same value");
+        for (int c = 0; c < p; ++c) {
+            final double expected = dedx[footprint[c]];
+            assertEquals(expected, dedxRemapped[c], 1E-12 * (1.0 + Math.abs(expected)),
+                    "Same gradient [" + footprint[c] + "]");
+        }
+
+        return remapped;
+    }
+
+    private static double[] toArray(final ImmutableVectorN x) {
+        final int n = x.getDimension();
+        final double[] a = new double[n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = x.get(i);
+        }
+        return a;
+    }
 }
\ No newline at end of file
@@ -18,16 +18,21 @@ package uk.badamson.mc.physics.solver;
                                * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
                                */
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Test;
 
@@ -74,6 +79,54 @@ public class TimeStepEnergyErrorFunctionTest {
 
     }// class
 
+    private static final class QuadraticTermI implements TimeStepEnergyErrorFunctionTerm {
+
+        private final int index;
+        private final double xMin;
+        private final boolean remappable;
+
+        QuadraticTermI(final int index, final double xMin) {
+            this(index, xMin, true);
+        }
+
+        QuadraticTermI(final int index, final double xMin, final boolean remappable) {
+            this.index = index;
+            this.xMin = xMin;
+            this.remappable = remappable;
+        }
+
+        @Override
+        public final double evaluate(final double[] dedx, final ImmutableVectorN x0, final ImmutableVectorN x,
+                final double dt) {
+            Objects.requireNonNull(dedx, "dsdx");
+            Objects.requireNonNull(x0, "x0");
+            if (dedx.length != x0.getDimension()) {
+                throw new IllegalArgumentException(
+                        "Inconsistent length " + dedx.length + " for dimension " + x0.getDimension());
+            }
+
+            final double xr = x.get(index) - xMin;
+            dedx[index] += 2.0 * xr;
+            return xr * xr;
+        }
+
+        @Override
+        public final int[] getIndexFootprint(final int n) {
+            return new int[] { index };
+        }
+
+        @Override
+        public final boolean isValidForDimension(final int n) {
+            return index < n;
+        }
+
+        @Override
+        public final TimeStepEnergyErrorFunctionTerm remap(final int[] map) {
+            return remappable ? new QuadraticTermI(map[index], xMin) : null;
+        }
+
+    }// class
+
     private static final class ZeroTerm implements TimeStepEnergyErrorFunctionTerm {
 
         @Override
@@ -107,6 +160,31 @@ public class TimeStepEnergyErrorFunctionTest {
     private static final ZeroTerm TERM_0A = new ZeroTerm();
     private static final ZeroTerm TERM_0B = new ZeroTerm();
 
+    private static void assertGradientFootprintInvariants(final TimeStepEnergyErrorFunction f) {
+        final int n = f.getDimension();
+        final int[] footprint = f.getGradientFootprint();
+
+        assertNotNull(footprint, "Always have a gradient footprint.");// guard
+        for (int i = 0; i < footprint.length; ++i) {
+            assertTrue(0 <= footprint[i] && footprint[i] < n,
+                    "The indices of the gradient footprint are non-negative and less than the dimension.");
+            assertTrue(i == 0 || footprint[i - 1] < footprint[i],
+                    "The indices of the gradient footprint are in ascending order without duplicates.");
+        }
+        final boolean[] expected = new boolean[n];
+        for (final TimeStepEnergyErrorFunctionTerm term : f.getTerms()) {
+            for (final int index : term.getIndexFootprint(n)) {
+                if (index < n) {
+                    expected[index] = true;
+                }
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            assertEquals(expected[i], 0 <= Arrays.binarySearch(footprint, i),
+                    "The gradient footprint is the union of the index footprints of the terms [" + i + "].");
+        }
+    }
+
     public static void assertInvariants(final TimeStepEnergyErrorFunction f) {
         ObjectTest.assertInvariants(f);// inherited
 
@@ -118,18 +196,35 @@ public class TimeStepEnergyErrorFunctionTest {
         assertNotNull(terms, "Always have a collection of terms.");// guard
 
         assertTrue(0.0 < dt && Double.isFinite(dt), "The time-step <" + dt + "> is positive and finite.");
+        final int workspaceLength = f.getWorkspaceLength();
         for (final TimeStepEnergyErrorFunctionTerm term : terms) {
             assertNotNull(term, "The collection of terms does not contain any null elements.");// guard
             TimeStepEnergyErrorFunctionTermTest.assertInvariants(term);
+            assertTrue(term.getWorkspaceLength() <= workspaceLength,
+                    "The workspace length is at least the workspace length of each term.");
         }
+        assertTrue(0 <= workspaceLength, "The workspace length is not negative.");
         assertEquals(x0.getDimension(), f.getDimension(),
                 "The dimension equals the dimension of the state vector of the physical system at the current point in time.");
+        assertGradientFootprintInvariants(f);
     }
 
     public static void assertInvariants(final TimeStepEnergyErrorFunction f1, final TimeStepEnergyErrorFunction f2) {
         ObjectTest.assertInvariants(f1, f2);// inherited
     }
 
+    private static TimeStepEnergyErrorFunction compile(final TimeStepEnergyErrorFunction f) {
+        final TimeStepEnergyErrorFunction compiled = f.compile();
+
+        assertInvariants(f);
+        assertInvariants(compiled);
+        assertSame(f.getX0(), compiled.getX0(), "x0");
+        assertEquals(f.getDt(), compiled.getDt(), "dt");
+        assertArrayEquals(f.getGradientFootprint(), compiled.getGradientFootprint(), "gradientFootprint");
+
+        return compiled;
+    }
+
     private static TimeStepEnergyErrorFunction constructor(final ImmutableVectorN x0, final double dt,
             final List<TimeStepEnergyErrorFunctionTerm> terms) {
         final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(x0, dt, terms);
@@ -142,6 +237,110 @@ public class TimeStepEnergyErrorFunctionTest {
         return f;
     }
 
+    private static double evaluateInto(final TimeStepEnergyErrorFunction f, final double[] state,
+            final double[] dedx) {
+        final double[] stateCopy = Arrays.copyOf(state, state.length);
+
+        final double e = f.evaluateInto(state, dedx);
+
+        assertInvariants(f);
+        assertArrayEquals(stateCopy, state, "Does not change the state");
+        final FunctionNWithGradientValue fx = f.value(ImmutableVectorN.create(stateCopy));
+        assertEquals(fx.getF(), e, "Same error as computed by value");
+        for (int i = 0; i < dedx.length; ++i) {
+            assertEquals(fx.getDfDx().get(i), dedx[i], "Same gradient as computed by value [" + i + "]");
+        }
+        final double[] dedxWorkspace = new double[dedx.length];
+        final double[] workspace = new double[f.getWorkspaceLength()];
+        Arrays.fill(workspace, Double.NaN);
+        final double eWorkspace = f.evaluateInto(stateCopy, dedxWorkspace, workspace);
+        assertEquals(e, eWorkspace, "Same error as computed using a work array");
+        assertArrayEquals(dedx, dedxWorkspace, "Same gradient as computed using a work array");
+
+        return e;
+    }
+
+    private static double evaluateInto(final TimeStepEnergyErrorFunction f, final double[] state, final double[] dedx,
+            final ForkJoinPool pool, final TimeStepEnergyErrorFunction.ParallelWorkspace workspace) {
+        final double[] stateCopy = Arrays.copyOf(state, state.length);
+
+        final double e = f.evaluateInto(state, dedx, pool, workspace);
+
+        assertInvariants(f);
+        assertArrayEquals(stateCopy, state, "Does not change the state");
+        final double[] dedxSerial = new double[dedx.length];
+        final double eSerial = f.evaluateInto(stateCopy, dedxSerial);
+        final double tolerance = 1E-12 * (1.0 + Math.abs(eSerial));
+        assertEquals(eSerial, e, tolerance, "Same error as computed serially");
+        assertArrayEquals(dedxSerial, dedx, tolerance, "Same gradient as computed serially");
+        final double[] dedxRepeat = new double[dedx.length];
+        final double eRepeat = f.evaluateInto(stateCopy, dedxRepeat, pool, workspace);
+        assertEquals(e, eRepeat, "Repeated evaluation computes a bitwise identical error");
+        assertArrayEquals(dedx, dedxRepeat, "Repeated evaluation computes a bitwise identical gradient");
+
+        return e;
+    }
+
+    private static double evaluateInto(final TimeStepEnergyErrorFunction f, final double[] state, final double[] dedx,
+            final ForkJoinPool pool, final int threshold) {
+        return evaluateInto(f, state, dedx, pool, parallelWorkspace(f, threshold));
+    }
+
+    private static double evaluateSparse(final TimeStepEnergyErrorFunction f, final double[] state,
+            final double[] dedx) {
+        final double[] stateCopy = Arrays.copyOf(state, state.length);
+        final double[] workspace = new double[f.getWorkspaceLength()];
+        Arrays.fill(workspace, Double.NaN);
+
+        assertTrue(f.isSparseEvaluationSupported(), "Sparse evaluation supported");// precondition
+
+        final double e = f.evaluateSparse(state, dedx, workspace);
+
+        assertInvariants(f);
+        assertArrayEquals(stateCopy, state, "Does not change the state");
+        final int[] footprint = f.getGradientFootprint();
+        final double[] stateDense = new double[f.getDimension()];
+        for (int i = 0; i < stateDense.length; ++i) {
+            stateDense[i] = f.getX0().get(i);
+        }
+        for (int c = 0; c < footprint.length; ++c) {
+            stateDense[footprint[c]] = state[c];
+        }
+        final double[] dedxDense = new double[stateDense.length];
+        final double eDense = f.evaluateInto(stateDense, dedxDense);
+        final double tolerance = 1E-12 * (1.0 + Math.abs(eDense));
+        assertEquals(eDense, e, tolerance, "Same error as dense evaluation");
+        for (int c = 0; c < footprint.length; ++c) {
+            assertEquals(dedxDense[footprint[c]], dedx[c], tolerance,
+                    "Same gradient component " + footprint[c] + " as dense evaluation");
+        }
+
+        return e;
+    }
+
+    private static void evaluateInto_parallel(final int nTerms, final int threshold) {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>(nTerms);
+        for (int t = 0; t < nTerms; ++t) {
+            terms.add(new QuadraticTerm1(t, t));
+        }
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(0.0), 1.0,
+                terms);
+        final double[] dedx = { 13.0 };
+
+        evaluateInto(f, new double[] { 3.0 }, dedx, ForkJoinPool.commonPool(), threshold);
+    }
+
+    private static TimeStepEnergyErrorFunction.ParallelWorkspace parallelWorkspace(
+            final TimeStepEnergyErrorFunction f, final int threshold) {
+        final TimeStepEnergyErrorFunction.ParallelWorkspace workspace = new TimeStepEnergyErrorFunction.ParallelWorkspace(
+                f, threshold);
+
+        assertSame(f, workspace.getFunction(), "function");
+        assertEquals(threshold, workspace.getThreshold(), "threshold");
+
+        return workspace;
+    }
+
     private static FunctionNWithGradientValue value(final TimeStepEnergyErrorFunction f, final ImmutableVectorN x) {
         final FunctionNWithGradientValue fx = f.value(x);
 
@@ -170,6 +369,38 @@ public class TimeStepEnergyErrorFunctionTest {
         assertEquals(expectedDeDx, fx.getDfDx().get(0), Double.MIN_NORMAL, "value.dfDx");
     }
 
+    @Test
+    public void compile() {
+        final MassConservationError mass = new MassConservationError(2.0, 3.0, 0, new boolean[] { true },
+                new int[] { 2 });
+        final MomentumConservationError momentum = new MomentumConservationError(0, new int[] { 1 },
+                new boolean[] { true }, new int[] { 2 }, new int[] { 3 }, new boolean[] { true }, new int[] { 4 });
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(mass, new QuadraticTermI(5, 1.0),
+                momentum);
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(
+                ImmutableVectorN.create(2.0, 1.0, 0.5, 3.0, 1.0, 0.0, 0.0), DT_B, terms);
+        final double[] state = { 2.5, 1.5, 0.25, 2.0, -1.0, 3.0, 0.0 };
+
+        final TimeStepEnergyErrorFunction compiled = compile(f);
+
+        assertEquals(2, compiled.getTerms().size(), "Number of compiled terms");
+        final double[] dedx = new double[state.length];
+        final double[] dedxCompiled = new double[state.length];
+        final double e = evaluateInto(f, state, dedx);
+        final double eCompiled = evaluateInto(compiled, state, dedxCompiled);
+        final double tolerance = 1E-12 * (1.0 + Math.abs(e));
+        assertEquals(e, eCompiled, tolerance, "Same error");
+        assertArrayEquals(dedx, dedxCompiled, tolerance, "Same gradient");
+    }
+
+    @Test
+    public void compile_0() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Collections.emptyList();
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(X_2A, DT_A, terms);
+
+        compile(f);
+    }
+
     @Test
     public void constructor_A() {
         final List<TimeStepEnergyErrorFunctionTerm> terms = Collections.emptyList();
@@ -194,6 +425,121 @@ public class TimeStepEnergyErrorFunctionTest {
         constructor(X_2A, DT_B, terms);
     }
 
+    @Test
+    public void evaluateInto_0() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Collections.emptyList();
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(X_2A, DT_B, terms);
+        final double[] dedx = { 7.0, 11.0 };
+
+        final double e = evaluateInto(f, new double[] { 3.0, 5.0 }, dedx);
+
+        assertEquals(0.0, e, Double.MIN_NORMAL, "e");
+        assertArrayEquals(new double[] { 0.0, 0.0 }, dedx, "Overwrites the gradient");
+    }
+
+    @Test
+    public void evaluateInto_parallelMany() {
+        evaluateInto_parallel(1000, 16);
+    }
+
+    @Test
+    public void evaluateInto_parallelNotRemappable() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>(100);
+        for (int t = 0; t < 100; ++t) {
+            terms.add(new QuadraticTermI(t % 3, t, t % 2 == 0));
+        }
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(5), 1.0,
+                terms);
+        final double[] dedx = { 7.0, 11.0, 13.0, 17.0, 19.0 };
+
+        evaluateInto(f, new double[] { 1.0, 2.0, 3.0, 4.0, 5.0 }, dedx, ForkJoinPool.commonPool(), 7);
+    }
+
+    @Test
+    public void evaluateInto_parallelPool() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = new ArrayList<>(1000);
+        for (int t = 0; t < 1000; ++t) {
+            terms.add(new QuadraticTermI(2 * (t % 4), t));
+        }
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(8), 1.0,
+                terms);
+        final double[] state = { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0 };
+        final double[] dedx = { 7.0, 11.0, 13.0, 17.0, 19.0, 23.0, 29.0, 31.0 };
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            evaluateInto(f, state, dedx, pool, 16);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void evaluateInto_parallelSerial() {
+        evaluateInto_parallel(16, 16);
+    }
+
+    @Test
+    public void evaluateInto_parallelSplit() {
+        evaluateInto_parallel(3, 1);
+    }
+
+    @Test
+    public void evaluateInto_quadraticTerms() {
+        final QuadraticTerm1 term = new QuadraticTerm1(0.0, 0.0);
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(term, term);
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(0.0), 1.0,
+                terms);
+        final double[] state = { 1.0 };
+        final double[] dedx = { 13.0 };
+
+        final double e1 = evaluateInto(f, state, dedx);
+        final double e2 = evaluateInto(f, state, dedx);
+
+        assertEquals(2.0, e1, Double.MIN_NORMAL, "e");
+        assertEquals(e1, e2, "Reusing the arrays computes the same value");
+        assertEquals(4.0, dedx[0], Double.MIN_NORMAL, "dedx");
+    }
+
+    @Test
+    public void evaluateSparse_0() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Collections.emptyList();
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(X_2A, DT_B, terms);
+
+        final double e = evaluateSparse(f, new double[0], new double[0]);
+
+        assertEquals(0.0, e, Double.MIN_NORMAL, "e");
+    }
+
+    @Test
+    public void evaluateSparse_notRemappable() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(new QuadraticTermI(3, 1.0),
+                new QuadraticTermI(1, 2.0, false));
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(5), DT_A,
+                terms);
+
+        assertFalse(f.isSparseEvaluationSupported(), "Sparse evaluation not supported");
+        assertThrows(IllegalStateException.class,
+                () -> f.evaluateSparse(new double[2], new double[2], new double[f.getWorkspaceLength()]));
+    }
+
+    @Test
+    public void evaluateSparse_quadraticTerms() {
+        final List<TimeStepEnergyErrorFunctionTerm> terms = Arrays.asList(new QuadraticTermI(3, 1.0),
+                new QuadraticTermI(1, 2.0), new QuadraticTermI(3, 0.0));
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(5), DT_A,
+                terms);
+        final double[] state = { 1.0, 2.0 };
+        final double[] dedx = { 7.0, 11.0 };
+
+        final double e1 = evaluateSparse(f, state, dedx);
+        final double e2 = evaluateSparse(f, state, dedx);
+
+        assertArrayEquals(new int[] { 1, 3 }, f.getGradientFootprint(), "gradientFootprint");
+        assertEquals(6.0, e1, Double.MIN_NORMAL, "e");
+        assertEquals(e1, e2, "Reusing the arrays computes the same value");
+        assertArrayEquals(new double[] { -2.0, 6.0 }, dedx, "dedx");
+    }
+
     @Test
     public void value_0A() {
         value_0(X_1A, DT_A, X_1B);
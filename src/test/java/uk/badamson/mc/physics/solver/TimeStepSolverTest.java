@@ -0,0 +1,205 @@
+package uk.badamson.mc.physics.solver;
+/*
+ * © Copyright Benedict Adamson 2018-19.
+ *
+ * This file is part of MC-physics.
+ *
+ * MC-physics is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MC-physics is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MC-physics.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import uk.badamson.mc.ObjectTest;
+import uk.badamson.mc.math.ImmutableVectorN;
+
+/**
+ * <p>
+ * Unit tests for the class {@link TimeStepSolver}.
+ * </p>
+ */
+public class TimeStepSolverTest {
+
+    /**
+     * <p>
+     * A term that has its minimum when the state has drifted at a constant rate
+     * from the current state.
+     * </p>
+     */
+    private static final class DriftTerm implements TimeStepEnergyErrorFunctionTerm {
+
+        private final double rate;
+
+        DriftTerm(final double rate) {
+            this.rate = rate;
+        }
+
+        @Override
+        public double evaluate(final double[] dedx, final ImmutableVectorN state0, final ImmutableVectorN state,
+                final double dt) {
+            final double dx = state.get(0) - state0.get(0) - rate * dt;
+            dedx[0] += dx;
+            return 0.5 * dx * dx;
+        }
+
+        @Override
+        public boolean isValidForDimension(final int n) {
+            return n == 1;
+        }
+    }// class
+
+    private static final double TOLERANCE = 1E-9;
+
+    public static void assertInvariants(final TimeStepSolver solver) {
+        ObjectTest.assertInvariants(solver);// inherited
+
+        final int extrapolationOrder = solver.getExtrapolationOrder();
+        final int nStates = solver.getNumberOfSolvedStates();
+        final double tolerance = solver.getTolerance();
+        assertTrue(0 < solver.getDimension(), "dimension is positive");
+        assertTrue(0 <= extrapolationOrder && extrapolationOrder <= TimeStepSolver.MAX_EXTRAPOLATION_ORDER,
+                "extrapolationOrder in range");
+        assertTrue(0 <= nStates && nStates <= extrapolationOrder + 1, "numberOfSolvedStates in range");
+        assertTrue(0.0 < tolerance && tolerance < 1.0, "tolerance in range");
+    }
+
+    private static void constructor(final int dimension, final int extrapolationOrder, final int historyLength,
+            final double tolerance) {
+        final TimeStepSolver solver = new TimeStepSolver(dimension, extrapolationOrder, historyLength, tolerance);
+
+        assertInvariants(solver);
+        assertEquals(dimension, solver.getDimension(), "dimension");
+        assertEquals(extrapolationOrder, solver.getExtrapolationOrder(), "extrapolationOrder");
+        assertEquals(tolerance, solver.getTolerance(), "tolerance");
+        assertEquals(0, solver.getNumberOfSolvedStates(), "numberOfSolvedStates");
+    }
+
+    private static double[] predict(final TimeStepSolver solver, final double dt) {
+        final double[] x = new double[solver.getDimension()];
+
+        solver.predict(dt, x);
+
+        assertInvariants(solver);
+        return x;
+    }
+
+    private static double solve(final TimeStepSolver solver, final TimeStepEnergyErrorFunction f,
+            final double[] x) {
+        final double e = solver.solve(f, x);
+
+        assertInvariants(solver);
+        assertTrue(0 < solver.getNumberOfSolvedStates(), "Has a solved state");
+        assertEquals(e, f.evaluateInto(x, new double[x.length]), "Returns the error of the solved state");
+
+        return e;
+    }
+
+    /**
+     * Solve three steps of a constant drift, and return the prediction for the
+     * fourth step.
+     */
+    private static double[] solve_drift(final int extrapolationOrder) {
+        final double rate = 2.0;
+        final double dt = 0.5;
+        final TimeStepSolver solver = new TimeStepSolver(1, extrapolationOrder, 3, TOLERANCE);
+        final double[] x = { 1.0 };
+        for (int step = 0; step < 3; ++step) {
+            final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(x), dt,
+                    Collections.singletonList(new DriftTerm(rate)));
+
+            solve(solver, f, x);
+
+            assertEquals(1.0 + rate * dt * (step + 1), x[0], 1E-4, "x[" + step + "]");
+        }
+        assertEquals(Math.min(4, extrapolationOrder + 1), solver.getNumberOfSolvedStates(), "numberOfSolvedStates");
+        return predict(solver, dt);
+    }
+
+    @Test
+    public void constructor_A() {
+        constructor(1, 0, 1, 1E-3);
+    }
+
+    @Test
+    public void constructor_B() {
+        constructor(7, TimeStepSolver.MAX_EXTRAPOLATION_ORDER, 5, 1E-9);
+    }
+
+    @Test
+    public void constructor_invalidExtrapolationOrder() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new TimeStepSolver(1, TimeStepSolver.MAX_EXTRAPOLATION_ORDER + 1, 1, 1E-3));
+    }
+
+    @Test
+    public void predict_noStates() {
+        final TimeStepSolver solver = new TimeStepSolver(1, 1, 1, 1E-3);
+
+        assertThrows(IllegalStateException.class, () -> solver.predict(1.0, new double[1]));
+    }
+
+    @Test
+    public void reset() {
+        final TimeStepSolver solver = new TimeStepSolver(1, 1, 3, TOLERANCE);
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create(1.0), 1.0,
+                Collections.singletonList(new DriftTerm(1.0)));
+        solver.solve(f, new double[1]);
+
+        solver.reset();
+
+        assertInvariants(solver);
+        assertEquals(0, solver.getNumberOfSolvedStates(), "numberOfSolvedStates");
+    }
+
+    @Test
+    public void solve_driftConstant() {
+        final double[] x = solve_drift(0);
+
+        assertEquals(4.0, x[0], 1E-4, "Prediction is the current state");
+    }
+
+    @Test
+    public void solve_driftLinear() {
+        final double[] x = solve_drift(1);
+
+        assertEquals(5.0, x[0], 1E-4, "Prediction");
+    }
+
+    @Test
+    public void solve_driftQuadratic() {
+        final double[] x = solve_drift(2);
+
+        assertEquals(5.0, x[0], 1E-4, "Prediction");
+    }
+
+    @Test
+    public void solve_newSequence() {
+        final TimeStepSolver solver = new TimeStepSolver(1, 2, 3, TOLERANCE);
+        final double[] x = new double[1];
+        solve(solver, new TimeStepEnergyErrorFunction(ImmutableVectorN.create(1.0), 1.0,
+                Collections.singletonList(new DriftTerm(1.0))), x);
+
+        solve(solver, new TimeStepEnergyErrorFunction(ImmutableVectorN.create(7.0), 1.0,
+                Collections.singletonList(new DriftTerm(1.0))), x);
+
+        assertEquals(2, solver.getNumberOfSolvedStates(), "Discarded the states of the previous sequence");
+        assertEquals(8.0, x[0], 1E-4, "x");
+    }
+
+}
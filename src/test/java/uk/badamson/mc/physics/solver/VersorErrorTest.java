@@ -21,8 +21,15 @@ package uk.badamson.mc.physics.solver;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.IsCloseTo.closeTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.jupiter.api.Test;
 
@@ -87,6 +94,25 @@ public class VersorErrorTest {
         return e;
     }
 
+    private static void evaluate_gradient(final double length, final double mass, final int index0,
+            final double[] x, final double dt) {
+        final int n = x.length;
+        final VersorError term = new VersorError(length, mass, new QuaternionStateSpaceMapper(index0));
+        final double[] dedx0 = new double[n];
+        Arrays.fill(dedx0, 1.0);
+        final double[] dedx = Arrays.copyOf(dedx0, n);
+        final double h = 1E-6;
+
+        evaluate(term, dedx, ImmutableVectorN.create0(n), ImmutableVectorN.create(x), dt);
+
+        final double[] gradient = new double[n];
+        for (int i = 0; i < n; ++i) {
+            gradient[i] = dedx[i] - dedx0[i];// the amount added
+        }
+        AbstractTimeStepEnergyErrorFunctionTermTest.assertGradientIsDerivative(term, gradient, new double[n], x, dt, h,
+                1E-6);
+    }
+
     private static void evaluate_smallError(final double length, final double mass, final Quaternion versor,
             final Quaternion dq, final double dt) {
         final Quaternion q = versor.plus(dq);
@@ -94,9 +120,9 @@ public class VersorErrorTest {
         final double le = qe * length;
         final double ve = le / dt;
         final double eExpected = 0.5 * mass * ve * ve;
-        final double deda2 = -mass * ve * length / dt;
+        final double dedqn = mass * ve * length / (dt * q.norm());
         final double eTolerance = tolerance(eExpected) * 5.0;
-        final double dedxTolerance = 1E-6;
+        final double dedxTolerance = 1E-6 * (1.0 + Math.abs(dedqn));
 
         final QuaternionStateSpaceMapper quaternionMapper = new QuaternionStateSpaceMapper(0);
         final VersorError term = new VersorError(length, mass, quaternionMapper);
@@ -109,10 +135,10 @@ public class VersorErrorTest {
         assertInvariants(term);
 
         assertThat("energy error", Double.valueOf(e), closeTo(eExpected, eTolerance));
-        assertThat("dedex[0]", Double.valueOf(dedx[0]), closeTo(deda2 * versor.getA(), dedxTolerance));
-        assertThat("dedex[1]", Double.valueOf(dedx[1]), closeTo(deda2 * versor.getB(), dedxTolerance));
-        assertThat("dedex[2]", Double.valueOf(dedx[2]), closeTo(deda2 * versor.getC(), dedxTolerance));
-        assertThat("dedex[3]", Double.valueOf(dedx[3]), closeTo(deda2 * versor.getD(), dedxTolerance));
+        assertThat("dedex[0]", Double.valueOf(dedx[0]), closeTo(dedqn * q.getA(), dedxTolerance));
+        assertThat("dedex[1]", Double.valueOf(dedx[1]), closeTo(dedqn * q.getB(), dedxTolerance));
+        assertThat("dedex[2]", Double.valueOf(dedx[2]), closeTo(dedqn * q.getC(), dedxTolerance));
+        assertThat("dedex[3]", Double.valueOf(dedx[3]), closeTo(dedqn * q.getD(), dedxTolerance));
     }
 
     private static void evaluate_versor(final double length, final double mass, final Quaternion versor,
@@ -149,6 +175,31 @@ public class VersorErrorTest {
         constructor(LENGTH_2, MASS_2, new QuaternionStateSpaceMapper(1));
     }
 
+    @Test
+    public void evaluate_function() {
+        final VersorError term = new VersorError(LENGTH_1, MASS_1, new QuaternionStateSpaceMapper(1));
+        final TimeStepEnergyErrorFunction f = new TimeStepEnergyErrorFunction(ImmutableVectorN.create0(5), DT_1,
+                Collections.singletonList(term));
+        final double[] state = { 7.0, 0.0, 2.0, 0.0, 0.0 };
+        final double[] dedx = new double[5];
+
+        final double e = f.evaluateInto(state, dedx);
+
+        assertEquals(0.5, e, 1E-12, "e");
+        assertEquals(0.0, dedx[0], Double.MIN_NORMAL, "dedx[0]");
+        assertEquals(1.0, dedx[2], 1E-12, "dedx[2]");
+    }
+
+    @Test
+    public void evaluate_gradient_A() {
+        evaluate_gradient(LENGTH_1, MASS_1, 0, new double[] { 0.9, 0.2, -0.3, 0.4 }, DT_1);
+    }
+
+    @Test
+    public void evaluate_gradient_B() {
+        evaluate_gradient(2.0, 3.0, 2, new double[] { 5.0, 7.0, -0.5, 1.2, 0.7, -0.3, 11.0 }, 0.5);
+    }
+
     @Test
     public void evaluate_smallError_11A() {
         evaluate_smallError(LENGTH_1, MASS_1, Quaternion.ONE, Quaternion.ONE.scale(SMALL), DT_1);
@@ -233,4 +284,45 @@ public class VersorErrorTest {
     public void evaluate_versor_k() {
         evaluate_versor(LENGTH_1, MASS_1, Quaternion.K, DT_1);
     }
+
+    @Test
+    public void evaluate_zero() {
+        final VersorError term = new VersorError(LENGTH_1, MASS_1, new QuaternionStateSpaceMapper(0));
+        final double[] dedx = new double[4];
+
+        final double e = evaluate(term, dedx, ImmutableVectorN.create0(4), ImmutableVectorN.create0(4), DT_1);
+
+        assertEquals(0.5, e, 1E-12, "e");
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(0.0, dedx[i], Double.MIN_NORMAL, "dedx[" + i + "]");
+        }
+    }
+
+    @Test
+    public void isValidForDimension() {
+        final VersorError term = new VersorError(LENGTH_1, MASS_1, new QuaternionStateSpaceMapper(2));
+
+        assertTrue(term.isValidForDimension(6), "Valid for dimension just large enough");
+        assertTrue(term.isValidForDimension(7), "Valid for larger dimension");
+        assertFalse(term.isValidForDimension(5), "Not valid for dimension too small");
+        assertThrows(IllegalArgumentException.class, () -> term.isValidForDimension(0));
+    }
+
+    @Test
+    public void remap() {
+        final VersorError term = new VersorError(2.0, 3.0, new QuaternionStateSpaceMapper(3));
+
+        final VersorError remapped = (VersorError) TimeStepEnergyErrorFunctionTermTest.remap(term, 9, 1.0);
+
+        assertInvariants(remapped);
+        assertEquals(0, remapped.getQuaternionMapper().getIndex0(), "quaternionMapper.index0");
+    }
+
+    @Test
+    public void remap_notContiguous() {
+        final VersorError term = new VersorError(2.0, 3.0, new QuaternionStateSpaceMapper(0));
+
+        assertNull(term.remap(new int[] { 3, 2, 1, 0 }), "Can not remap");
+    }
+
 }